@@ -0,0 +1,691 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: HeadlessRunner
+ * 
+ * Description: 
+ * Entry point for unattended runs without a display. Connects the devices,
+ * plays one or more saved .trf recordings on all of them, one recording after
+ * the other, and writes a JSON report with the outcome and timings of every
+ * device. With --lanes the recordings are instead sharded across lanes of
+ * devices by the TestSuiteScheduler. Runs with java.awt.headless=true, which
+ * it sets itself.
+ *
+ * Usage:
+ * java com.ebay.testdemultiplexer.HeadlessRunner [options] file.trf ...
+ *
+ * Options:
+ * --report <path>     Report file to write. Default mtd-report.json.
+ * --devices <count>   Devices to wait for before starting. Default 1.
+ * --wait <seconds>    Max time to wait for the devices. Default 60.
+ * --speed <factor>    0 plays as fast as the devices allow, 1 at the recorded
+ *                     cadence, N at N times the recorded cadence. Default 0.
+ * --window <steps>    Max steps a device may run ahead of the slowest one.
+ *                     Default 3.
+ * --timeout <seconds> Max time per recording, 0 for none. Default 0.
+ * --lanes <mode>      Shard the recordings across lanes: grouping, device or
+ *                     model. Default off, every device plays everything.
+ * --coverage <mode>   With --lanes, run each recording once on any lane
+ *                     (any) or once per device model (model). Default any.
+ * --optimize          Compact every recording with the TraceOptimizer before
+ *                     playing it. Default off.
+ *
+ * Exit status is 0 if every device completed every recording without a 
+ * failure, 1 if any step failed or a device dropped out, and 2 if the run 
+ * could not be set up.
+ */
+
+package com.ebay.testdemultiplexer;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ebay.testdemultiplexer.connection.DeviceCommandResult;
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
+import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import com.ebay.testdemultiplexer.connection.TestDevicePlayback;
+import com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener;
+import com.ebay.testdemultiplexer.device.calibration.CalibrationIO;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorder;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizationReport;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizer;
+import com.ebay.testdemultiplexer.suite.TestSuiteRecording;
+import com.ebay.testdemultiplexer.suite.TestSuiteResult;
+import com.ebay.testdemultiplexer.suite.TestSuiteScheduler;
+
+public class HeadlessRunner implements TestDevicePlaybackListener {
+	
+	/** Exit status when every device completed every recording. */
+	public static final int EXIT_SUCCESS = 0;
+	
+	/** Exit status when a step failed or a device dropped out. */
+	public static final int EXIT_FAILURES = 1;
+	
+	/** Exit status when the run could not be set up. */
+	public static final int EXIT_SETUP_ERROR = 2;
+	
+	/** Milliseconds between checks for connected devices. */
+	private static final long DEVICE_POLL_INTERVAL = 500;
+	
+	/** Format of the timestamps in the report. */
+	private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss.SSSZ";
+	
+	/** Report file to write. */
+	private String reportPath = "mtd-report.json";
+	
+	/** Number of devices to wait for before starting. */
+	private int expectedDevices = 1;
+	
+	/** Max number of seconds to wait for the devices. */
+	private long deviceWait = 60;
+	
+	/** Playback speed, see TestDevicePlayback. */
+	private float speed = TestDevicePlayback.AS_FAST_AS_POSSIBLE;
+	
+	/** Max number of steps a device may run ahead of the slowest one. */
+	private int window = TestDevicePlayback.DEFAULT_WINDOW;
+	
+	/** Max number of seconds per recording, 0 for no limit. */
+	private long recordingTimeout = 0;
+	
+	/** Lane mode for a sharded suite run, null to play everything. */
+	private TestSuiteScheduler.LaneMode laneMode = null;
+	
+	/** Coverage of a sharded suite run. */
+	private TestSuiteScheduler.Coverage coverage = 
+			TestSuiteScheduler.Coverage.ANY_DEVICE;
+	
+	/** True to optimize every recording before playing it. */
+	private boolean optimize = false;
+	
+	/** Recordings to play, in order. */
+	private ArrayList<String> recordings = new ArrayList<String>();
+	
+	/** Released when the current recording finished playing. */
+	private volatile CountDownLatch playbackDone;
+	
+	/**
+	 * Entry point for headless execution.
+	 * @param args Options followed by the .trf files to play.
+	 */
+	public static void main(String[] args) {
+		
+		// Must be set before anything touches AWT.
+		System.setProperty("java.awt.headless", "true");
+		
+		HeadlessRunner runner = new HeadlessRunner();
+		
+		if (!runner.parseArguments(args)) {
+			printUsage();
+			System.exit(EXIT_SETUP_ERROR);
+		}
+		
+		System.exit(runner.run());
+	}
+	
+	/**
+	 * Connect the devices, play every recording and write the report.
+	 * @return Exit status.
+	 */
+	public int run() {
+		
+		CalibrationIO.getInstance();
+		DeviceExecutionBackend.getInstance();
+		
+		String adbPath = ManualTestDemultiplexer.findAdb();
+		TestDeviceManager manager = new TestDeviceManager(adbPath);
+		manager.initializeADBConnection();
+		
+		try {
+			
+			if (!waitForDevices(manager)) {
+				System.out.println("Only " + manager.getTotalDeviceCount() + 
+						" of " + expectedDevices + " devices connected.");
+				return EXIT_SETUP_ERROR;
+			}
+			
+			StringBuilder report = new StringBuilder();
+			boolean success = true;
+			
+			report.append("{\n");
+			report.append("  \"started\": ").append(quote(timestamp()));
+			report.append(",\n  \"devices\": [");
+			
+			List<TestDevice> devices = 
+					manager.getDeviceSnapshot().getDevices();
+			
+			for (int i = 0; i < devices.size(); i++) {
+				report.append(i == 0 ? "\n" : ",\n");
+				appendDevice(report, devices.get(i));
+			}
+			
+			report.append("\n  ],\n  \"recordings\": [");
+			
+			if (laneMode != null) {
+				success = runSuite(manager, report);
+			} else {
+				for (int i = 0; i < recordings.size(); i++) {
+					report.append(i == 0 ? "\n" : ",\n");
+					success &= playRecording(
+							manager, recordings.get(i), report);
+				}
+			}
+			
+			report.append("\n  ],\n  \"finished\": ");
+			report.append(quote(timestamp()));
+			report.append(",\n  \"success\": ").append(success);
+			report.append("\n}\n");
+			
+			if (!writeReport(report.toString())) {
+				return EXIT_SETUP_ERROR;
+			}
+			
+			return success ? EXIT_SUCCESS : EXIT_FAILURES;
+			
+		} finally {
+			manager.disconnect();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Required by TestDevicePlaybackListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackProgress(com.ebay.testdemultiplexer.connection.TestDevicePlayback, int)
+	 */
+	public void onPlaybackProgress(TestDevicePlayback playback, int slowestStep) {
+		System.out.println("Completed step " + slowestStep + "/" + 
+				playback.getLength() + " on all devices.");
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackFinished(com.ebay.testdemultiplexer.connection.TestDevicePlayback)
+	 */
+	public void onPlaybackFinished(TestDevicePlayback playback) {
+		playbackDone.countDown();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Print the command line usage.
+	 */
+	private static void printUsage() {
+		System.out.println("Usage: java " + HeadlessRunner.class.getName() + 
+				" [--report <path>] [--devices <count>] [--wait <seconds>]" +
+				" [--speed <factor>] [--window <steps>]" +
+				" [--timeout <seconds>] [--lanes grouping|device|model]" +
+				" [--coverage any|model] [--optimize] file.trf ...");
+	}
+	
+	/**
+	 * Parse the command line.
+	 * @param args Command line arguments.
+	 * @return True if valid, false otherwise.
+	 */
+	private boolean parseArguments(String[] args) {
+		
+		try {
+			for (int i = 0; i < args.length; i++) {
+				
+				if (args[i].equals("--report") && i + 1 < args.length) {
+					reportPath = args[++i];
+				} else if (args[i].equals("--devices") && i + 1 < args.length) {
+					expectedDevices = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--wait") && i + 1 < args.length) {
+					deviceWait = Long.parseLong(args[++i]);
+				} else if (args[i].equals("--speed") && i + 1 < args.length) {
+					speed = Float.parseFloat(args[++i]);
+				} else if (args[i].equals("--window") && i + 1 < args.length) {
+					window = Integer.parseInt(args[++i]);
+				} else if (args[i].equals("--timeout") && i + 1 < args.length) {
+					recordingTimeout = Long.parseLong(args[++i]);
+				} else if (args[i].equals("--lanes") && i + 1 < args.length) {
+					laneMode = TestSuiteScheduler.LaneMode.valueOf(
+							args[++i].toUpperCase());
+				} else if (args[i].equals("--coverage") && i + 1 < args.length) {
+					coverage = args[++i].equalsIgnoreCase("model") ?
+							TestSuiteScheduler.Coverage.EACH_MODEL :
+							TestSuiteScheduler.Coverage.ANY_DEVICE;
+				} else if (args[i].equals("--optimize")) {
+					optimize = true;
+				} else if (args[i].startsWith("--")) {
+					System.out.println("Unknown option: " + args[i]);
+					return false;
+				} else {
+					recordings.add(args[i]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			System.out.println("Invalid number: " + e.getMessage());
+			return false;
+		} catch (IllegalArgumentException e) {
+			System.out.println("Invalid lane mode: " + e.getMessage());
+			return false;
+		}
+		
+		return recordings.size() > 0 && expectedDevices > 0;
+	}
+	
+	/**
+	 * Wait for the expected number of devices to be onboarded.
+	 * @param manager Manager connecting the devices.
+	 * @return True if enough devices connected in time.
+	 */
+	private boolean waitForDevices(TestDeviceManager manager) {
+		
+		long deadline = System.currentTimeMillis() + 
+				TimeUnit.SECONDS.toMillis(deviceWait);
+		
+		while (manager.getTotalDeviceCount() < expectedDevices) {
+			
+			if (System.currentTimeMillis() >= deadline) {
+				return false;
+			}
+			
+			try {
+				Thread.sleep(DEVICE_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Play one recording on every device and append its report entry.
+	 * @param manager Manager of the devices.
+	 * @param path Path of the recording.
+	 * @param report Report to append to.
+	 * @return True if every device completed every step without a failure.
+	 */
+	private boolean playRecording(
+			TestDeviceManager manager, String path, StringBuilder report) {
+		
+		System.out.println("Playing " + path);
+		
+		CommandRecorder recorder = manager.getCommandRecorder();
+		recorder.stopRecorder();
+		recorder.clearRecorder();
+		
+		report.append("    {\n      \"file\": ").append(quote(path));
+		
+		if (!recorder.loadCommandsFromFile(path)) {
+			report.append(",\n      \"loaded\": false,");
+			report.append("\n      \"success\": false\n    }");
+			return false;
+		}
+		
+		TraceOptimizationReport optimization = null;
+		
+		if (optimize) {
+			optimization = TraceOptimizer.optimize(recorder);
+			System.out.println(optimization);
+		}
+		
+		playbackDone = new CountDownLatch(1);
+		long started = System.currentTimeMillis();
+		
+		TestDevicePlayback playback = 
+				manager.startContinuousPlayback(window, speed, this);
+		boolean timedOut = false;
+		
+		try {
+			if (recordingTimeout > 0) {
+				timedOut = !playbackDone.await(
+						recordingTimeout, TimeUnit.SECONDS);
+			} else {
+				playbackDone.await();
+			}
+		} catch (InterruptedException e) {
+			timedOut = true;
+		}
+		
+		if (timedOut) {
+			manager.stopContinuousPlayback();
+		}
+		
+		long elapsed = System.currentTimeMillis() - started;
+		boolean success = !timedOut;
+		
+		report.append(",\n      \"loaded\": true");
+		appendOptimization(report, optimization);
+		report.append(",\n      \"steps\": ").append(playback.getLength());
+		report.append(",\n      \"speed\": ").append(speed);
+		report.append(",\n      \"window\": ").append(window);
+		report.append(",\n      \"elapsedMs\": ").append(elapsed);
+		report.append(",\n      \"timedOut\": ").append(timedOut);
+		report.append(",\n      \"devices\": [");
+		
+		List<String> serialNumbers = playback.getSerialNumbers();
+		List<DeviceCommand> commands = recorderCommands(recorder);
+		
+		// A recording no device played proves nothing.
+		if (serialNumbers.size() == 0) {
+			success = false;
+		}
+		
+		for (int i = 0; i < serialNumbers.size(); i++) {
+			report.append(i == 0 ? "\n" : ",\n");
+			success &= appendDeviceResults(
+					report, commands, playback, serialNumbers.get(i));
+		}
+		
+		report.append("\n      ],\n      \"success\": ").append(success);
+		report.append("\n    }");
+		
+		return success;
+	}
+	
+	/**
+	 * Run the recordings as a suite sharded across lanes and append one 
+	 * report entry per run.
+	 * @param manager Manager of the devices.
+	 * @param report Report to append to.
+	 * @return True if every run completed without a failure.
+	 */
+	private boolean runSuite(TestDeviceManager manager, StringBuilder report) {
+		
+		TestSuiteScheduler scheduler = 
+				new TestSuiteScheduler(manager, laneMode, coverage);
+		scheduler.setSpeed(speed);
+		scheduler.setWindow(window);
+		scheduler.setRecordingTimeout(recordingTimeout);
+		
+		boolean success = true;
+		int entries = 0;
+		
+		for (int i = 0; i < recordings.size(); i++) {
+			
+			TestSuiteRecording recording = 
+					TestSuiteRecording.load(recordings.get(i), optimize);
+			
+			if (recording == null) {
+				report.append(entries++ == 0 ? "\n" : ",\n");
+				report.append("    {\n      \"file\": ").append(
+						quote(recordings.get(i)));
+				report.append(",\n      \"loaded\": false,");
+				report.append("\n      \"success\": false\n    }");
+				success = false;
+			} else {
+				scheduler.addRecording(recording);
+			}
+		}
+		
+		List<TestSuiteResult> results = scheduler.run();
+		
+		for (int i = 0; i < results.size(); i++) {
+			
+			TestSuiteResult result = results.get(i);
+			TestDevicePlayback playback = result.getPlayback();
+			
+			report.append(entries++ == 0 ? "\n" : ",\n");
+			report.append("    {\n      \"file\": ").append(
+					quote(result.getRecording().getPath()));
+			report.append(",\n      \"loaded\": true");
+			appendOptimization(
+					report, result.getRecording().getOptimization());
+			report.append(",\n      \"model\": ").append(
+					quote(result.getRequiredModel()));
+			report.append(",\n      \"lane\": ").append(
+					quote(result.getLaneName()));
+			report.append(",\n      \"run\": ").append(result.wasRun());
+			report.append(",\n      \"steps\": ").append(
+					result.getRecording().getCommands().size());
+			report.append(",\n      \"elapsedMs\": ").append(
+					result.getElapsed());
+			report.append(",\n      \"timedOut\": ").append(
+					result.isTimedOut());
+			report.append(",\n      \"devices\": [");
+			
+			if (playback != null) {
+				
+				List<String> serialNumbers = playback.getSerialNumbers();
+				
+				for (int j = 0; j < serialNumbers.size(); j++) {
+					report.append(j == 0 ? "\n" : ",\n");
+					appendDeviceResults(
+							report, 
+							result.getRecording().getCommands(), 
+							playback, 
+							serialNumbers.get(j));
+				}
+			}
+			
+			report.append("\n      ],\n      \"success\": ").append(
+					result.isSuccessful());
+			report.append("\n    }");
+			
+			success &= result.isSuccessful();
+		}
+		
+		return success;
+	}
+	
+	/**
+	 * Copy the commands out of a recorder.
+	 * @param recorder Recorder to copy.
+	 * @return Commands, in playback order.
+	 */
+	private static List<DeviceCommand> recorderCommands(
+			CommandRecorder recorder) {
+		
+		ArrayList<DeviceCommand> commands = new ArrayList<DeviceCommand>();
+		
+		for (int i = 0; i < recorder.getRecorderLength(); i++) {
+			commands.add(recorder.getCommand(i));
+		}
+		
+		return commands;
+	}
+	
+	/**
+	 * Append the description of a connected device.
+	 * @param report Report to append to.
+	 * @param device Device to describe.
+	 */
+	private void appendDevice(StringBuilder report, TestDevice device) {
+		
+		report.append("    {\"serial\": ").append(
+				quote(device.getSerialNumber()));
+		report.append(", \"model\": ").append(quote(device.getModelName()));
+		report.append(", \"os\": ").append(
+				quote(device.getAndroidOSVersion()));
+		report.append(", \"width\": ").append(device.getScreenWidth());
+		report.append(", \"height\": ").append(device.getScreenHeight());
+		report.append("}");
+	}
+	
+	/**
+	 * Append the outcome of the optimization pass over a recording.
+	 * @param report Report to append to.
+	 * @param optimization Optimization report, or null if the recording was
+	 * not optimized.
+	 */
+	private void appendOptimization(
+			StringBuilder report, TraceOptimizationReport optimization) {
+		
+		if (optimization == null) {
+			return;
+		}
+		
+		report.append(",\n      \"recordedSteps\": ").append(
+				optimization.getOriginalSteps());
+		report.append(",\n      \"savedRoundTrips\": ").append(
+				optimization.getSavedRoundTrips());
+	}
+	
+	/**
+	 * Append the outcome of a recording on one device.
+	 * @param report Report to append to.
+	 * @param commands Commands of the recording, to name failed steps.
+	 * @param playback Finished playback.
+	 * @param serialNumber Serial number of the device.
+	 * @return True if the device completed every step without a failure.
+	 */
+	private boolean appendDeviceResults(
+			StringBuilder report, 
+			List<DeviceCommand> commands,
+			TestDevicePlayback playback, 
+			String serialNumber) {
+		
+		List<DeviceCommandResult> results = 
+				playback.getDeviceResults(serialNumber);
+		
+		int failed = 0;
+		long commandTime = 0;
+		StringBuilder failures = new StringBuilder();
+		
+		for (int i = 0; i < results.size(); i++) {
+			
+			DeviceCommandResult result = results.get(i);
+			commandTime += result.getElapsed();
+			
+			if (result.getStatus() != DeviceCommandResult.Status.FAILED) {
+				continue;
+			}
+			
+			DeviceCommand command = i < commands.size() ? commands.get(i) : null;
+			Throwable exception = result.getException();
+			
+			failures.append(failed == 0 ? "\n" : ",\n");
+			failures.append("            {\"step\": ").append(i);
+			failures.append(", \"command\": ").append(
+					quote(command != null ? command.toString() : null));
+			failures.append(", \"error\": ").append(
+					quote(exception != null ? exception.toString() : null));
+			failures.append("}");
+			
+			failed++;
+		}
+		
+		int completed = playback.getDeviceStep(serialNumber);
+		boolean dropped = playback.isDeviceDropped(serialNumber);
+		
+		report.append("        {\n          \"serial\": ").append(
+				quote(serialNumber));
+		report.append(",\n          \"completedSteps\": ").append(completed);
+		report.append(",\n          \"failedSteps\": ").append(failed);
+		report.append(",\n          \"dropped\": ").append(dropped);
+		report.append(",\n          \"elapsedMs\": ").append(
+				playback.getDeviceElapsed(serialNumber));
+		report.append(",\n          \"commandMs\": ").append(commandTime);
+		report.append(",\n          \"failures\": [").append(failures);
+		report.append(failed == 0 ? "]" : "\n          ]");
+		report.append("\n        }");
+		
+		return failed == 0 && !dropped && completed == playback.getLength();
+	}
+	
+	/**
+	 * Write the report file.
+	 * @param report Report contents.
+	 * @return True if written.
+	 */
+	private boolean writeReport(String report) {
+		
+		BufferedWriter writer = null;
+		
+		try {
+			writer = new BufferedWriter(new FileWriter(reportPath));
+			writer.write(report);
+		} catch (IOException e) {
+			System.out.println("Could not write report " + reportPath);
+			e.printStackTrace();
+			return false;
+		} finally {
+			if (writer != null) {
+				try {
+					writer.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		System.out.println("Report written to " + reportPath);
+		return true;
+	}
+	
+	/**
+	 * Get the current time formatted for the report.
+	 * @return Formatted timestamp.
+	 */
+	private static String timestamp() {
+		return new SimpleDateFormat(TIMESTAMP_FORMAT).format(new Date());
+	}
+	
+	/**
+	 * Quote a value as a JSON string.
+	 * @param value Value to quote, can be null.
+	 * @return Quoted and escaped value, or null.
+	 */
+	private static String quote(String value) {
+		
+		if (value == null) {
+			return "null";
+		}
+		
+		StringBuilder quoted = new StringBuilder(value.length() + 2);
+		quoted.append('"');
+		
+		for (int i = 0; i < value.length(); i++) {
+			
+			char c = value.charAt(i);
+			
+			switch (c) {
+			case '"':
+				quoted.append("\\\"");
+				break;
+			case '\\':
+				quoted.append("\\\\");
+				break;
+			case '\n':
+				quoted.append("\\n");
+				break;
+			case '\r':
+				quoted.append("\\r");
+				break;
+			case '\t':
+				quoted.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					quoted.append(String.format("\\u%04x", (int)c));
+				} else {
+					quoted.append(c);
+				}
+			}
+		}
+		
+		quoted.append('"');
+		return quoted.toString();
+	}
+}
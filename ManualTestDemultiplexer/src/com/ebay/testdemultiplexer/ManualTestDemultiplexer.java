@@ -43,13 +43,17 @@
 package com.ebay.testdemultiplexer;
 
 import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
 import com.ebay.testdemultiplexer.device.calibration.CalibrationIO;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandJournal;
 import com.ebay.testdemultiplexer.gui.MainWindow;
+import com.ebay.testdemultiplexer.util.MessageDisplay;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class ManualTestDemultiplexer {
@@ -78,6 +82,15 @@ public class ManualTestDemultiplexer {
 			"make sure the path referenced by ADB_HOME correctly references " +
 			"adb executable.";
 	
+	// Unsaved session found in the journal - message.
+	private static final String RECOVER_SESSION_MSG =
+			"The previous recording session ended without being saved. " +
+			"Do you want to recover its commands?";
+	
+	// Unsaved session found in the journal - title.
+	private static final String RECOVER_SESSION_TITLE =
+			"Recover Recording";
+	
 	// Environment variable does not reference a legitimate path - title.
 	private static final String BAD_ENVIRONMENT_VARIABLE_PATH_TITLE =
 			"INVALID ADB_HOME PATH";
@@ -100,8 +113,12 @@ public class ManualTestDemultiplexer {
 	    // calibration data exists.
 	    CalibrationIO.getInstance();
 	    
+	    // Select the execution backend for per device work. Set with
+	    // -Dmtd.executionBackend=virtual to use virtual threads.
+	    DeviceExecutionBackend.getInstance();
+	    
 		String adbPath = findAdb();
-		TestDeviceManager manager = new TestDeviceManager(adbPath);	
+		final TestDeviceManager manager = new TestDeviceManager(adbPath);	
 		manager.initializeADBConnection();
 /*		
 		System.out.println("Sleeping");
@@ -116,6 +133,7 @@ public class ManualTestDemultiplexer {
 		SwingUtilities.invokeLater(new Runnable() {
             public void run() {
             	mainWindow.setVisible(true);
+            	startJournal(manager);
             }
         });
 
@@ -132,10 +150,47 @@ public class ManualTestDemultiplexer {
 	// -------------------------------------------------------------------------
 
 	/**
-	 * Get the adb path from the environment variable ADB_HOME.
+	 * Offer to recover a session the journal holds unsaved commands of, then
+	 * start journaling the recorder.
+	 * @param manager Manager whose recorder is journaled.
+	 */
+	private static void startJournal(TestDeviceManager manager) {
+		
+		CommandJournal journal = 
+				CommandJournal.create(manager.getCommandRecorder());
+		boolean recovered = false;
+		
+		if (journal.hasUnsavedCommands()) {
+			
+			int choice = JOptionPane.showConfirmDialog(
+					null, 
+					RECOVER_SESSION_MSG, 
+					RECOVER_SESSION_TITLE, 
+					JOptionPane.YES_NO_OPTION);
+			
+			if (choice == JOptionPane.YES_OPTION) {
+				journal.recover();
+				recovered = true;
+			}
+		}
+		
+		try {
+			journal.open(recovered);
+			manager.getCommandRecorder().setJournal(journal);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.out.println(
+					"Recording journal disabled, could not open "+
+					journal.getPath());
+		}
+	}
+	
+	/**
+	 * Get the adb path from the environment variable ADB_HOME. Also used by
+	 * HeadlessRunner.
 	 * @return adb path.
 	 */
-    private static String findAdb() {
+    static String findAdb() {
     	
     	String adbPath = null;
     	
@@ -144,8 +199,7 @@ public class ManualTestDemultiplexer {
     		adbPath = System.getenv("ADB_HOME");
     	} catch(Exception e) {
 
-    		JOptionPane.showMessageDialog(
-    				null, 
+    		MessageDisplay.showMessage(
     				MISSING_ENVIRONMENT_VARIABLE_MSG, 
     				MISSING_ENVIRONMENT_VARIABLE_MSG_TITLE, 
     				JOptionPane.WARNING_MESSAGE);
@@ -162,8 +216,7 @@ public class ManualTestDemultiplexer {
 	    	// Make sure it exists, it contains adb and is executable.
 	    	if (!f.exists()) {
 	    		
-	    		JOptionPane.showMessageDialog(
-	    				null, 
+	    		MessageDisplay.showMessage(
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_MSG, 
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_TITLE, 
 	    				JOptionPane.WARNING_MESSAGE);
@@ -172,8 +225,7 @@ public class ManualTestDemultiplexer {
 	    		
 	    	} else if (!f.canExecute()) {
 
-	    		JOptionPane.showMessageDialog(
-	    				null, 
+	    		MessageDisplay.showMessage(
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_MSG, 
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_TITLE, 
 	    				JOptionPane.WARNING_MESSAGE);
@@ -182,8 +234,7 @@ public class ManualTestDemultiplexer {
 	    		
 	    	} else if (!f.getName().contains("adb")) {
 
-	    		JOptionPane.showMessageDialog(
-	    				null, 
+	    		MessageDisplay.showMessage(
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_MSG, 
 	    				BAD_ENVIRONMENT_VARIABLE_PATH_TITLE, 
 	    				JOptionPane.WARNING_MESSAGE);
@@ -194,8 +245,7 @@ public class ManualTestDemultiplexer {
 	    	
     	} catch(NullPointerException npe) {
     		
-    		JOptionPane.showMessageDialog(
-    				null, 
+    		MessageDisplay.showMessage(
     				ENVIRONMENT_VARIABLE_NOT_SET_MSG, 
     				ENVIRONMENT_VARIABLE_NOT_SET_MSG_TITLE, 
     				JOptionPane.WARNING_MESSAGE);
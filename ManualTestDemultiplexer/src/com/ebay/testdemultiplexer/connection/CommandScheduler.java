@@ -0,0 +1,176 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: CommandScheduler
+ * 
+ * Description: 
+ * Singleton enforcing the per class concurrency limits of CommandPriority 
+ * across all devices. Work acquires a permit for its class before talking to
+ * a device and releases it when done. The limits can be changed at startup 
+ * with the system properties mtd.concurrency.interactive, 
+ * mtd.concurrency.ui_dump, mtd.concurrency.screen_capture and 
+ * mtd.concurrency.bulk, where 0 means unlimited.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.EnumMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
+
+public class CommandScheduler {
+	
+	/** Prefix of the system properties overriding the limits. */
+	public static final String LIMIT_PROPERTY_PREFIX = "mtd.concurrency.";
+	
+	/** Static class instance. */
+	private static CommandScheduler instance = null;
+	
+	/** Permits per class. Classes without a limit have no entry. */
+	private EnumMap<CommandPriority, Semaphore> permits;
+	
+	/** Concurrency limit per class. Classes without a limit have no entry. */
+	private EnumMap<CommandPriority, Integer> limits;
+	
+	/**
+	 * Private constructor.
+	 */
+	private CommandScheduler() {
+		
+		permits = new EnumMap<CommandPriority, Semaphore>(CommandPriority.class);
+		limits = new EnumMap<CommandPriority, Integer>(CommandPriority.class);
+		
+		CommandPriority[] priorities = CommandPriority.values();
+		
+		for (int i = 0; i < priorities.length; i++) {
+			
+			int limit = Integer.getInteger(
+					LIMIT_PROPERTY_PREFIX + 
+					priorities[i].name().toLowerCase(), 
+					priorities[i].getDefaultLimit());
+			
+			if (limit > 0) {
+				permits.put(priorities[i], new Semaphore(limit, true));
+				limits.put(priorities[i], limit);
+			}
+		}
+	}
+	
+	/**
+	 * Get the instance of this singleton class.
+	 * @return Singleton instance.
+	 */
+	public static synchronized CommandScheduler getInstance() {
+		
+		if (instance == null) {
+			instance = new CommandScheduler();
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Block until work of the class may run.
+	 * @param priority Class of the work.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public void acquire(CommandPriority priority) throws InterruptedException {
+		
+		Semaphore semaphore = permits.get(priority);
+		
+		if (semaphore != null) {
+			semaphore.acquire();
+		}
+	}
+	
+	/**
+	 * Wait up to the timeout for work of the class to be allowed to run.
+	 * @param priority Class of the work.
+	 * @param timeout Max time to wait.
+	 * @param unit Unit of the timeout.
+	 * @return True if the work may run and must later call release().
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	public boolean tryAcquire(
+			CommandPriority priority, long timeout, TimeUnit unit) 
+					throws InterruptedException {
+		
+		Semaphore semaphore = permits.get(priority);
+		
+		if (semaphore == null) {
+			return true;
+		}
+		
+		return semaphore.tryAcquire(timeout, unit);
+	}
+	
+	/**
+	 * Release the permit taken with acquire() or tryAcquire().
+	 * @param priority Class of the work that finished.
+	 */
+	public void release(CommandPriority priority) {
+		
+		Semaphore semaphore = permits.get(priority);
+		
+		if (semaphore != null) {
+			semaphore.release();
+		}
+	}
+	
+	/**
+	 * Check if the class runs without a concurrency limit.
+	 * @param priority Class to check.
+	 * @return True if acquire() never blocks for the class.
+	 */
+	public boolean isUnlimited(CommandPriority priority) {
+		return !permits.containsKey(priority);
+	}
+	
+	/**
+	 * Get the number of operations of the class that may run at once.
+	 * @param priority Class to check.
+	 * @return Concurrency limit, 0 for unlimited classes.
+	 */
+	public int getLimit(CommandPriority priority) {
+		
+		Integer limit = limits.get(priority);
+		
+		if (limit == null) {
+			return 0;
+		}
+		
+		return limit;
+	}
+	
+	/**
+	 * Get the number of operations of the class waiting for a permit.
+	 * @param priority Class to check.
+	 * @return Number of waiting operations, 0 for unlimited classes.
+	 */
+	public int getWaitingCount(CommandPriority priority) {
+		
+		Semaphore semaphore = permits.get(priority);
+		
+		if (semaphore == null) {
+			return 0;
+		}
+		
+		return semaphore.getQueueLength();
+	}
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: DeviceCommandFuture
+ * 
+ * Description: 
+ * Composite future for a command sent to several devices. Completes once every
+ * targeted device has reported a DeviceCommandResult. Results can be waited on
+ * with get(), or listeners can be added to be called back on completion.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class DeviceCommandFuture implements Future<List<DeviceCommandResult>> {
+	
+	/** Command the results belong to. */
+	private DeviceCommand command;
+	
+	/** Results reported so far, in order of completion. */
+	private ArrayList<DeviceCommandResult> results;
+	
+	/** Listeners to call back once complete. */
+	private ArrayList<DeviceCommandFutureListener> listeners;
+	
+	/** Counts down once per device result. */
+	private CountDownLatch remaining;
+	
+	/**
+	 * Create a new future expecting one result per device.
+	 * @param command Command the results belong to.
+	 * @param deviceCount Number of devices that will report a result.
+	 */
+	public DeviceCommandFuture(DeviceCommand command, int deviceCount) {
+		
+		this.command = command;
+		this.results = new ArrayList<DeviceCommandResult>(deviceCount);
+		this.listeners = new ArrayList<DeviceCommandFutureListener>();
+		this.remaining = new CountDownLatch(deviceCount);
+	}
+	
+	/**
+	 * Get the command the results belong to.
+	 * @return DeviceCommand executed.
+	 */
+	public DeviceCommand getCommand() {
+		return command;
+	}
+	
+	/**
+	 * Add a listener to be called once every device has reported. If the 
+	 * future is already complete the listener is called right away.
+	 * @param listener Listener to add.
+	 */
+	public void addListener(DeviceCommandFutureListener listener) {
+		
+		synchronized (this) {
+			if (!isDone()) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		
+		listener.commandCompleted(this);
+	}
+	
+	/**
+	 * Get the results reported so far without blocking.
+	 * @return Snapshot of the device results in order of completion.
+	 */
+	public synchronized List<DeviceCommandResult> getResults() {
+		return Collections.unmodifiableList(
+				new ArrayList<DeviceCommandResult>(results));
+	}
+	
+	/**
+	 * Get the result reported by a device without blocking.
+	 * @param serialNumber Serial number of the device.
+	 * @return Result for the device, or null if it has not reported yet.
+	 */
+	public synchronized DeviceCommandResult getResult(String serialNumber) {
+		
+		Iterator<DeviceCommandResult> iterator = results.iterator();
+		
+		while (iterator.hasNext()) {
+			DeviceCommandResult result = iterator.next();
+			if (result.getSerialNumber().equals(serialNumber)) {
+				return result;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Check if no device reported a failure. Devices that were skipped do not
+	 * count as failures.
+	 * @return True if no result so far has FAILED status.
+	 */
+	public synchronized boolean isSuccessful() {
+		
+		Iterator<DeviceCommandResult> iterator = results.iterator();
+		
+		while (iterator.hasNext()) {
+			if (iterator.next().getStatus() == 
+					DeviceCommandResult.Status.FAILED) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Record the result of a device. Once every device has reported the 
+	 * listeners are called on the current thread.
+	 * @param result Result reported by a device.
+	 */
+	void deviceCompleted(DeviceCommandResult result) {
+		
+		ArrayList<DeviceCommandFutureListener> toNotify = null;
+		
+		synchronized (this) {
+			
+			if (isDone()) {
+				return;
+			}
+			
+			results.add(result);
+			remaining.countDown();
+			
+			if (isDone()) {
+				toNotify = new ArrayList<DeviceCommandFutureListener>(listeners);
+				listeners.clear();
+			}
+		}
+		
+		if (toNotify == null) {
+			return;
+		}
+		
+		Iterator<DeviceCommandFutureListener> iterator = toNotify.iterator();
+		
+		while (iterator.hasNext()) {
+			try {
+				iterator.next().commandCompleted(this);
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by Future
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Input already sent to a device cannot be taken back, so the future
+	 * cannot be cancelled.
+	 * @see java.util.concurrent.Future#cancel(boolean)
+	 */
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#isDone()
+	 */
+	public boolean isDone() {
+		return remaining.getCount() == 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get()
+	 */
+	public List<DeviceCommandResult> get() throws InterruptedException {
+		
+		remaining.await();
+		return getResults();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.util.concurrent.Future#get(long, java.util.concurrent.TimeUnit)
+	 */
+	public List<DeviceCommandResult> get(long timeout, TimeUnit unit)
+			throws InterruptedException, TimeoutException {
+		
+		if (!remaining.await(timeout, unit)) {
+			throw new TimeoutException(
+					command + " did not complete on every device in time.");
+		}
+		
+		return getResults();
+	}
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Interface: DeviceCommandFutureListener
+ * 
+ * Description: 
+ * Interface for being notified when a DeviceCommandFuture completes. Lets 
+ * callers chain the next step without polling or blocking.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+public interface DeviceCommandFutureListener {
+
+	/**
+	 * Notifies listener that every device has reported a result. Called on
+	 * the thread that delivered the last result, or on the calling thread if
+	 * the future was already complete when the listener was added.
+	 * @param future Future that completed.
+	 */
+	public void commandCompleted(DeviceCommandFuture future);
+}
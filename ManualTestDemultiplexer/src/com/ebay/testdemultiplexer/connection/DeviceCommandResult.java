@@ -0,0 +1,132 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: DeviceCommandResult
+ * 
+ * Description: 
+ * Outcome of executing a single DeviceCommand on a single device. Records 
+ * whether the command succeeded, how long it took, any output it produced and
+ * the exception it failed with.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+public class DeviceCommandResult {
+	
+	/** Outcome of a command on a device. */
+	public enum Status {
+		/** Command executed without error. */
+		SUCCESS, 
+		/** Command threw an exception or the device was disconnected. */
+		FAILED, 
+		/** Device was not receiving input, the command was not executed. */
+		SKIPPED
+	};
+	
+	/** Serial number of the device the command ran on. */
+	private String serialNumber;
+	
+	/** Outcome of the command. */
+	private Status status;
+	
+	/** Milliseconds the command took to execute on the device. */
+	private long elapsed;
+	
+	/** Output produced by the command. Null if it produces none. */
+	private String output;
+	
+	/** Exception the command failed with. Null unless status is FAILED. */
+	private Exception exception;
+	
+	/**
+	 * Create a new result.
+	 * @param serialNumber Serial number of the device the command ran on.
+	 * @param status Outcome of the command.
+	 * @param elapsed Milliseconds the command took to execute.
+	 * @param output Output produced by the command, can be null.
+	 * @param exception Exception the command failed with, can be null.
+	 */
+	public DeviceCommandResult(
+			String serialNumber, 
+			Status status, 
+			long elapsed, 
+			String output, 
+			Exception exception) {
+		
+		this.serialNumber = serialNumber;
+		this.status = status;
+		this.elapsed = elapsed;
+		this.output = output;
+		this.exception = exception;
+	}
+	
+	/**
+	 * Get the serial number of the device the command ran on.
+	 * @return Device serial number.
+	 */
+	public String getSerialNumber() {
+		return serialNumber;
+	}
+	
+	/**
+	 * Get the outcome of the command.
+	 * @return Command status.
+	 */
+	public Status getStatus() {
+		return status;
+	}
+	
+	/**
+	 * Check if the command executed without error.
+	 * @return True if the status is SUCCESS.
+	 */
+	public boolean isSuccessful() {
+		return status == Status.SUCCESS;
+	}
+	
+	/**
+	 * Get how long the command took to execute on the device.
+	 * @return Elapsed time in milliseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+	
+	/**
+	 * Get the output produced by the command, such as shell output.
+	 * @return Command output, or null if the command produces none.
+	 */
+	public String getOutput() {
+		return output;
+	}
+	
+	/**
+	 * Get the exception the command failed with.
+	 * @return Exception, or null if the command did not fail with one.
+	 */
+	public Exception getException() {
+		return exception;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return serialNumber + " " + status + " (" + elapsed + " ms)";
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: DeviceExecutionBackend
+ * 
+ * Description: 
+ * Creates the threads per device work runs on: command queue workers and UI
+ * hierarchy dumps. Two backends exist. The platform backend uses one OS thread
+ * per worker, as before. The virtual backend uses virtual threads, which park
+ * instead of holding an OS thread while blocked on adb I/O or sleeps, so a
+ * single host can drive a large device farm. The backend is chosen once at
+ * startup with the system property mtd.executionBackend (platform or virtual).
+ * Virtual threads need Java 21 or newer; on older runtimes the platform 
+ * backend is used instead.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+public abstract class DeviceExecutionBackend {
+	
+	/** System property used to select the backend at startup. */
+	public static final String BACKEND_PROPERTY = "mtd.executionBackend";
+	
+	/** Name of the platform thread backend. */
+	public static final String PLATFORM = "platform";
+	
+	/** Name of the virtual thread backend. */
+	public static final String VIRTUAL = "virtual";
+	
+	/** Backend selected at startup. */
+	private static DeviceExecutionBackend instance = null;
+	
+	/**
+	 * Get the backend selected with the mtd.executionBackend system property.
+	 * Defaults to the platform backend.
+	 * @return Backend instance.
+	 */
+	public static synchronized DeviceExecutionBackend getInstance() {
+		
+		if (instance == null) {
+			instance = create(System.getProperty(BACKEND_PROPERTY, PLATFORM));
+			System.out.println(
+					"Using " + instance.getName() + " execution backend.");
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Create a backend by name. Falls back to the platform backend if the
+	 * name is unknown or virtual threads are not available.
+	 * @param name PLATFORM or VIRTUAL.
+	 * @return New backend.
+	 */
+	public static DeviceExecutionBackend create(String name) {
+		
+		if (VIRTUAL.equalsIgnoreCase(name)) {
+			
+			ThreadFactory factory = VirtualBackend.createFactory();
+			
+			if (factory != null) {
+				return new VirtualBackend(factory);
+			}
+			
+			System.out.println("Virtual threads are not supported by this " +
+					"Java runtime, falling back to platform threads.");
+		}
+		
+		return new PlatformBackend();
+	}
+	
+	/**
+	 * Get the name of the backend.
+	 * @return PLATFORM or VIRTUAL.
+	 */
+	public abstract String getName();
+	
+	/**
+	 * Create an unstarted thread for per device work. Threads never keep the
+	 * application alive.
+	 * @param task Work to run.
+	 * @param name Thread name.
+	 * @return New thread, call start() to run it.
+	 */
+	public abstract Thread newThread(Runnable task, String name);
+	
+	/**
+	 * Get a ThreadFactory creating threads from this backend, for use with 
+	 * executors.
+	 * @param name Name given to every thread created.
+	 * @return ThreadFactory backed by newThread().
+	 */
+	public ThreadFactory newThreadFactory(final String name) {
+		
+		return new ThreadFactory() {
+			public Thread newThread(Runnable task) {
+				return DeviceExecutionBackend.this.newThread(task, name);
+			}
+		};
+	}
+	
+	// -------------------------------------------------------------------------
+	// Backends
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * One daemon OS thread per worker.
+	 */
+	private static class PlatformBackend extends DeviceExecutionBackend {
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.connection.DeviceExecutionBackend#getName()
+		 */
+		public String getName() {
+			return PLATFORM;
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.connection.DeviceExecutionBackend#newThread(java.lang.Runnable, java.lang.String)
+		 */
+		public Thread newThread(Runnable task, String name) {
+			
+			Thread thread = new Thread(task, name);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * One virtual thread per worker. The virtual thread API is looked up 
+	 * reflectively as the tool is still built for Java 7.
+	 */
+	private static class VirtualBackend extends DeviceExecutionBackend {
+		
+		/** Factory producing unstarted virtual threads. */
+		private ThreadFactory factory;
+		
+		/**
+		 * Create the backend.
+		 * @param factory Virtual thread factory.
+		 */
+		private VirtualBackend(ThreadFactory factory) {
+			this.factory = factory;
+		}
+		
+		/**
+		 * Look up Thread.ofVirtual().factory().
+		 * @return Virtual thread factory, or null if not supported.
+		 */
+		private static ThreadFactory createFactory() {
+			
+			try {
+				Method ofVirtual = Thread.class.getMethod("ofVirtual");
+				Object builder = ofVirtual.invoke(null);
+				Method factory = 
+						ofVirtual.getReturnType().getMethod("factory");
+				return (ThreadFactory) factory.invoke(builder);
+			} catch (Exception e) {
+				return null;
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.connection.DeviceExecutionBackend#getName()
+		 */
+		public String getName() {
+			return VIRTUAL;
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.connection.DeviceExecutionBackend#newThread(java.lang.Runnable, java.lang.String)
+		 */
+		public Thread newThread(Runnable task, String name) {
+			
+			// Virtual threads are always daemon threads.
+			Thread thread = factory.newThread(task);
+			thread.setName(name);
+			return thread;
+		}
+	}
+}
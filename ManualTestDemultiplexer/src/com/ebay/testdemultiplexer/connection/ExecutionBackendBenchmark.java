@@ -0,0 +1,331 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: ExecutionBackendBenchmark
+ * 
+ * Description: 
+ * Command line benchmark of the selected execution backend against a 
+ * simulated device farm. Every simulated device is a TestDevice that is not
+ * backed by adb, with its own real TestDeviceCommandQueue, so the queue 
+ * workers, command executors and scheduler permits are the ones used with 
+ * real devices. A command blocks for the adb round trip, and every few 
+ * commands it waits on a separate UI dump thread the same way 
+ * UIViewTreeManager does. The dump thread holds a UI_DUMP permit while it 
+ * runs, as ThreadedUIViewTreeParser does, so the dump limit is part of the 
+ * measurement. No real devices are needed.
+ *
+ * The backend is chosen with the mtd.executionBackend system property, so run
+ * the benchmark once per backend to compare them.
+ *
+ * Usage: ExecutionBackendBenchmark [devices] [commands per device] 
+ * [adb latency ms] [dump latency ms] [commands per dump]
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class ExecutionBackendBenchmark {
+	
+	/** Default number of simulated devices. */
+	private static final int DEFAULT_DEVICES = 100;
+	
+	/** Default number of commands each device executes. */
+	private static final int DEFAULT_COMMANDS = 50;
+	
+	/** Default simulated adb round trip in milliseconds. */
+	private static final int DEFAULT_ADB_LATENCY = 20;
+	
+	/** Default simulated uiautomator dump time in milliseconds. */
+	private static final int DEFAULT_DUMP_LATENCY = 200;
+	
+	/** Default number of commands between UI dumps. */
+	private static final int DEFAULT_COMMANDS_PER_DUMP = 10;
+	
+	/** Max milliseconds to wait for the threads of a run to exit. */
+	private static final long THREAD_EXIT_TIMEOUT = 5000;
+	
+	/** Number of simulated devices. */
+	private int devices;
+	
+	/** Number of commands each device executes. */
+	private int commands;
+	
+	/** Simulated adb round trip in milliseconds. */
+	private int adbLatency;
+	
+	/** Simulated uiautomator dump time in milliseconds. */
+	private int dumpLatency;
+	
+	/** Number of commands between UI dumps. */
+	private int commandsPerDump;
+	
+	/**
+	 * Entry point.
+	 * @param args Optional overrides, see class description.
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		
+		ExecutionBackendBenchmark benchmark = new ExecutionBackendBenchmark(
+				intArg(args, 0, DEFAULT_DEVICES),
+				intArg(args, 1, DEFAULT_COMMANDS),
+				intArg(args, 2, DEFAULT_ADB_LATENCY),
+				intArg(args, 3, DEFAULT_DUMP_LATENCY),
+				intArg(args, 4, DEFAULT_COMMANDS_PER_DUMP));
+		
+		DeviceExecutionBackend backend = DeviceExecutionBackend.getInstance();
+		
+		// Warm up once so class loading is not measured.
+		benchmark.run(backend);
+		benchmark.report(backend, benchmark.run(backend));
+	}
+	
+	/**
+	 * Create a benchmark.
+	 * @param devices Number of simulated devices.
+	 * @param commands Number of commands each device executes.
+	 * @param adbLatency Simulated adb round trip in milliseconds.
+	 * @param dumpLatency Simulated uiautomator dump time in milliseconds.
+	 * @param commandsPerDump Number of commands between UI dumps.
+	 */
+	public ExecutionBackendBenchmark(
+			int devices, 
+			int commands, 
+			int adbLatency, 
+			int dumpLatency, 
+			int commandsPerDump) {
+		
+		this.devices = devices;
+		this.commands = commands;
+		this.adbLatency = adbLatency;
+		this.dumpLatency = dumpLatency;
+		this.commandsPerDump = Math.max(1, commandsPerDump);
+	}
+	
+	/**
+	 * Run the simulated farm once. Commands are queued on every device the 
+	 * way the TestDeviceManager fans them out, and the run ends once every
+	 * device has executed all of them.
+	 * @param backend Backend the command queues and dump threads run on.
+	 * @return Measurements, {wall time ms, peak OS threads, ideal time ms, 
+	 * failed commands}.
+	 */
+	public long[] run(final DeviceExecutionBackend backend) 
+			throws InterruptedException {
+		
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		int baseline = threads.getThreadCount();
+		threads.resetPeakThreadCount();
+		
+		TestDevice[] farm = new TestDevice[devices];
+		
+		for (int i = 0; i < devices; i++) {
+			farm[i] = new TestDevice("sim-" + i);
+		}
+		
+		final CountDownLatch done = new CountDownLatch(devices * commands);
+		final AtomicInteger failed = new AtomicInteger(0);
+		
+		TestDeviceCommandQueueListener listener = 
+				new TestDeviceCommandQueueListener() {
+			
+			public void onCommandQueued(
+					TestDevice device, DeviceCommand command) {
+				// Nothing to do.
+			}
+			
+			public void onCommandExecuted(
+					TestDevice device, 
+					DeviceCommand command, 
+					DeviceCommandResult result) {
+				
+				if (result.getStatus() != DeviceCommandResult.Status.SUCCESS) {
+					failed.incrementAndGet();
+				}
+				
+				done.countDown();
+			}
+		};
+		
+		long startTime = System.nanoTime();
+		
+		for (int i = 1; i <= commands; i++) {
+			
+			SimulatedCommand command = new SimulatedCommand(
+					backend, i % commandsPerDump == 0);
+			
+			for (int j = 0; j < devices; j++) {
+				farm[j].getCommandQueue().enqueue(command, listener);
+			}
+		}
+		
+		done.await();
+		
+		long wallTime = (System.nanoTime() - startTime) / 1000000L;
+		// A run takes at least as long as one device's commands, and at 
+		// least as long as the farm's dumps take on the UI_DUMP permits.
+		long dumps = commands / commandsPerDump;
+		long ideal = (long)commands * adbLatency + dumps * dumpLatency;
+		int dumpLimit = CommandScheduler.getInstance().getLimit(
+				CommandPriority.UI_DUMP);
+		
+		if (dumpLimit > 0) {
+			ideal = Math.max(ideal, 
+					devices * dumps * dumpLatency / dumpLimit);
+		}
+		
+		for (int i = 0; i < devices; i++) {
+			farm[i].getCommandQueue().shutdown();
+		}
+		
+		long peak = threads.getPeakThreadCount();
+		
+		// Let the workers exit so the next run starts from the same count.
+		long deadline = System.currentTimeMillis() + THREAD_EXIT_TIMEOUT;
+		
+		while (threads.getThreadCount() > baseline && 
+				System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		
+		return new long[] {
+				wallTime, peak, ideal, failed.get()};
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Print the measurements of a run.
+	 * @param backend Backend that was measured.
+	 * @param result Measurements returned by run().
+	 */
+	private void report(DeviceExecutionBackend backend, long[] result) {
+		
+		System.out.println(String.format(
+				"%-8s devices=%d commands=%d wall=%d ms ideal=%d ms " + 
+				"overhead=%.1f%% peakOsThreads=%d failed=%d", 
+				backend.getName(),
+				devices,
+				commands,
+				result[0],
+				result[2],
+				(result[0] - result[2]) * 100.0 / result[2],
+				result[1], 
+				result[3]));
+	}
+	
+	/**
+	 * Parse an optional integer argument.
+	 * @param args Command line arguments.
+	 * @param index Index of the argument.
+	 * @param defaultValue Value used if the argument is missing.
+	 * @return Parsed value.
+	 */
+	private static int intArg(String[] args, int index, int defaultValue) {
+		
+		if (index >= args.length) {
+			return defaultValue;
+		}
+		
+		return Integer.parseInt(args[index]);
+	}
+	
+	/**
+	 * Command executed on the simulated devices. Blocks for the adb round 
+	 * trip and optionally waits for a UI dump on its own thread, as a 
+	 * TouchCommand reading a stale tree would. Runs as interactive input so
+	 * the class limits of the CommandScheduler do not hide the difference 
+	 * between the backends.
+	 */
+	private class SimulatedCommand extends DeviceCommand {
+		
+		/** Backend to create the dump thread with. */
+		private DeviceExecutionBackend backend;
+		
+		/** True if the command waits for a UI dump. */
+		private boolean dump;
+		
+		/**
+		 * Create a simulated command.
+		 * @param backend Backend to create the dump thread with.
+		 * @param dump True if the command waits for a UI dump.
+		 */
+		private SimulatedCommand(DeviceExecutionBackend backend, boolean dump) {
+			this.backend = backend;
+			this.dump = dump;
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+		 */
+		public CommandPriority getPriority() {
+			return CommandPriority.INTERACTIVE;
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
+		 */
+		protected void execute(TestDevice device) {
+			
+			try {
+				// adb round trip of the command itself.
+				Thread.sleep(adbLatency);
+				
+				if (!dump) {
+					return;
+				}
+				
+				final CountDownLatch dumped = new CountDownLatch(1);
+				
+				backend.newThread(new Runnable() {
+					public void run() {
+						// Held like ThreadedUIViewTreeParser holds it.
+						CommandScheduler scheduler = 
+								CommandScheduler.getInstance();
+						
+						try {
+							scheduler.acquire(CommandPriority.UI_DUMP);
+							
+							try {
+								Thread.sleep(dumpLatency);
+							} finally {
+								scheduler.release(CommandPriority.UI_DUMP);
+							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+						} finally {
+							dumped.countDown();
+						}
+					}
+				}, "UIDump-" + device.getSerialNumber()).start();
+				
+				dumped.await();
+				
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -27,6 +27,8 @@
 package com.ebay.testdemultiplexer.connection;
 
 import java.awt.Point;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.swing.JOptionPane;
 
@@ -35,7 +37,9 @@ import com.android.chimpchat.core.IChimpDevice;
 import com.android.chimpchat.core.IChimpImage;
 import com.android.ddmlib.IDevice;
 import com.ebay.testdemultiplexer.device.calibration.CalibrationData;
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
 import com.ebay.testdemultiplexer.uiautomator.UIViewTreeManager;
+import com.ebay.testdemultiplexer.util.MessageDisplay;
 
 public class TestDevice {
 	
@@ -50,6 +54,13 @@ public class TestDevice {
 	private static final String MISSING_SCREEN_DIMENSION_TITLE = 
 			"NO SCREEN DIMENSIONS REPORTED";
 	
+	/** 
+	 * Matches the size reported by "wm size". An override size, if set, is
+	 * reported after the physical size.
+	 */
+	private static final Pattern WM_SIZE_PATTERN = 
+			Pattern.compile("(\\d+)x(\\d+)");
+	
 	/** Possible device grouping labels . */
 	private static final String[] GROUPING = {"", "A", "B", "C", "D"};
 	
@@ -68,6 +79,9 @@ public class TestDevice {
 	/** Device specific instance of its UIAutomation View Tree Manager. */
 	private UIViewTreeManager uiViewTreeManager;
 	
+	/** Ordered queue all commands for this device are executed through. */
+	private TestDeviceCommandQueue commandQueue;
+	
 	/** 
 	 * Width of the device screen in device coordinates. Once initialized, this
 	 * value never changes.
@@ -107,6 +121,19 @@ public class TestDevice {
 	 */
 	private boolean receivingInput;
 	
+	/** 
+	 * Milliseconds the device lagged behind the fastest device during the 
+	 * last lockstep release. Negative if it has not taken part in one, or
+	 * missed the release barrier.
+	 */
+	private volatile float lastSkew = -1.0f;
+	
+	/** 
+	 * True once the device missed too many command deadlines in a row. A
+	 * quarantined device stops receiving input until re-enabled.
+	 */
+	private volatile boolean quarantined = false;
+	
 	/**
 	 * Default constructor.
 	 * @param device Device instance to manage.
@@ -118,13 +145,32 @@ public class TestDevice {
 		this.chimpDevice = new AdbChimpDevice(device);
 		this.receivingInput = true;
 		this.uiViewTreeManager = new UIViewTreeManager(this);
-		this.uiViewTreeManager.dumpUIHierarchy();
 
 		// Perform the initialization procedures to extract data from the 
 		// device.
 		extractDeviceInfo();
 		extractScreenDimensions();
 		clearCalibrationData();
+		
+		this.commandQueue = new TestDeviceCommandQueue(this);
+		this.commandQueue.start();
+	}
+	
+	/**
+	 * Create a simulated device that is not backed by adb. Only the command
+	 * queue and the UIViewTreeManager are usable. Used by 
+	 * ExecutionBackendBenchmark to drive the real command queues without a 
+	 * device farm.
+	 * @param serialNumber Serial number the device reports.
+	 */
+	TestDevice(String serialNumber) {
+		
+		this.groupIndex = 0;
+		this.serialNumber = serialNumber;
+		this.receivingInput = true;
+		this.uiViewTreeManager = new UIViewTreeManager(this);
+		this.commandQueue = new TestDeviceCommandQueue(this);
+		this.commandQueue.start();
 	}
 	
 	/**
@@ -132,6 +178,7 @@ public class TestDevice {
 	 * Do this only when done with the device.
 	 */
 	public void dispose() {
+		commandQueue.shutdown();
 		chimpDevice.dispose();
 		chimpDevice = null;
 		device = null;
@@ -153,6 +200,14 @@ public class TestDevice {
 		return chimpDevice;
 	}
 	
+	/**
+	 * Get the command queue all commands for this device are executed on.
+	 * @return TestDeviceCommandQueue instance.
+	 */
+	public TestDeviceCommandQueue getCommandQueue() {
+		return commandQueue;
+	}
+	
 	/**
 	 * Get the UIViewTreeManager instance tied to this device.
 	 * @return UIViewTreeManager instance.
@@ -193,9 +248,33 @@ public class TestDevice {
 	 * @param receivingInput True to receive messages, false to block.
 	 */
 	public void setReceivingInput(boolean receivingInput) {
+		
+		// Re-enabling a quarantined device gives it a fresh start.
+		if (receivingInput && quarantined) {
+			quarantined = false;
+			commandQueue.resetMissedDeadlines();
+		}
+		
 		this.receivingInput = receivingInput;
 	}
 	
+	/**
+	 * Stop sending input to the device because it keeps missing command
+	 * deadlines. Call setReceivingInput(true) to lift the quarantine.
+	 */
+	public void quarantine() {
+		quarantined = true;
+		receivingInput = false;
+	}
+	
+	/**
+	 * Check if the device has been quarantined for missing deadlines.
+	 * @return True if quarantined.
+	 */
+	public boolean isQuarantined() {
+		return quarantined;
+	}
+	
 	/**
 	 * Check if the device is receiving messages or blocking them.
 	 * @return True if receiving messages. False otherwise.
@@ -204,6 +283,22 @@ public class TestDevice {
 		return receivingInput;
 	}
 	
+	/**
+	 * Set the skew measured for the device during the last lockstep release.
+	 * @param lastSkew Skew in milliseconds, negative if unknown.
+	 */
+	public void setLastSkew(float lastSkew) {
+		this.lastSkew = lastSkew;
+	}
+	
+	/**
+	 * Get the skew measured for the device during the last lockstep release.
+	 * @return Skew in milliseconds, negative if unknown.
+	 */
+	public float getLastSkew() {
+		return lastSkew;
+	}
+	
 	/**
 	 * Get the grouping string for the device.
 	 * @return Assigned grouping value.
@@ -227,12 +322,27 @@ public class TestDevice {
 	}
 	
 	/**
-	 * Take a screen capture and return the IChimpImage.
-	 * @return IChimpImage of screen captured.
+	 * Take a screen capture and return the IChimpImage. Waits for a screen
+	 * capture permit from the CommandScheduler first.
+	 * @return IChimpImage of screen captured, or null if interrupted while
+	 * waiting for a permit.
 	 */
 	public IChimpImage getScreenCapture() {
 		
-		return chimpDevice.takeSnapshot();
+		CommandScheduler scheduler = CommandScheduler.getInstance();
+		
+		try {
+			scheduler.acquire(CommandPriority.SCREEN_CAPTURE);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+		
+		try {
+			return chimpDevice.takeSnapshot();
+		} finally {
+			scheduler.release(CommandPriority.SCREEN_CAPTURE);
+		}
 	}
 	
 	/**
@@ -374,10 +484,16 @@ public class TestDevice {
 	}
 	
 	/**
-	 * Extract the dimensions of the device screen.
+	 * Extract the dimensions of the device screen. Asks the window manager
+	 * first, which is far cheaper than grabbing the frame buffer. Falls back
+	 * to a screen capture on devices without "wm size" (before Android 4.3).
 	 */
 	private void extractScreenDimensions() {
 		
+		if (extractScreenDimensionsFromWindowManager()) {
+			return;
+		}
+		
 		IChimpImage screen = chimpDevice.takeSnapshot();
 		
 		// We have found that on certain devices they will report as online,
@@ -399,8 +515,7 @@ public class TestDevice {
 		
 		if (screen == null) {
 			
-    		JOptionPane.showMessageDialog(
-    				null, 
+    		MessageDisplay.showMessage(
     				String.format(MISSING_SCREEN_DIMENSION_MSG, 
     						device.getName(), 
     						device.getSerialNumber()), 
@@ -414,4 +529,36 @@ public class TestDevice {
 			screenWidth = screen.getBufferedImage().getWidth();
 		}
 	}
+	
+	/**
+	 * Read the physical screen size with "wm size".
+	 * @return True if the screen dimensions were set, false if the device 
+	 * did not report them.
+	 */
+	private boolean extractScreenDimensionsFromWindowManager() {
+		
+		String result = null;
+		
+		try {
+			result = chimpDevice.shell("wm size");
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		if (result == null) {
+			return false;
+		}
+		
+		// Screen captures, and therefore calibration, use the physical size.
+		Matcher matcher = WM_SIZE_PATTERN.matcher(result);
+		
+		if (!matcher.find()) {
+			return false;
+		}
+		
+		screenWidth = Integer.parseInt(matcher.group(1));
+		screenHeight = Integer.parseInt(matcher.group(2));
+		
+		return screenWidth > 0 && screenHeight > 0;
+	}
 }
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * @author Benjamin Yarger <byarger@ebay.com>
+ * 
+ * Class: TestDeviceCommandFanOut
+ * 
+ * Description: 
+ * Fans a command out to the command queue of every attached device that is
+ * targeted for receiving input. Each device executes the command on its own
+ * queue worker, so devices run independently of each other while commands
+ * for a single device keep their order. Long running command executions will
+ * display a progress dialog for the user which is updated as each device
+ * completes.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.awt.GraphicsEnvironment;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.DragCommand;
+import com.ebay.testdemultiplexer.device.commands.InstallPackageCommand;
+import com.ebay.testdemultiplexer.device.commands.RemovePackageCommand;
+import com.ebay.testdemultiplexer.device.commands.StartActivityCommand;
+import com.ebay.testdemultiplexer.device.commands.ToggleAirplaneModeCommand;
+import com.ebay.testdemultiplexer.device.commands.TouchCommand;
+import com.ebay.testdemultiplexer.device.commands.UnlockDeviceCommand;
+import com.ebay.testdemultiplexer.gui.ProgressDialogWindow;
+
+public class TestDeviceCommandFanOut implements TestDeviceCommandQueueListener {
+	
+	/** 
+	 * Number of fan outs currently showing the progress dialog. The dialog is
+	 * only hidden once the last of them completes.
+	 */
+	private static final AtomicInteger activeProgressFanOuts = 
+			new AtomicInteger(0);
+
+	/** DeviceCommand to execute. */
+	private DeviceCommand command;
+	
+	/** List of the devices to execute command on. */
+	private List<TestDevice> devices;
+	
+	/** Future receiving the result of every device. */
+	private DeviceCommandFuture future;
+	
+	/** True if this fan out is reporting to the progress dialog. */
+	private boolean showProgress = false;
+	
+	/** Tracks the execution state of the fan out. */
+	private volatile boolean running = false;
+	
+	/** 
+	 * Track the progress of the command's execution on each device.
+	 */
+	private AtomicInteger progressCounter = new AtomicInteger(0);
+	
+	/**
+	 * Default constructor.
+	 * @param command Command to execute.
+	 * @param devices Device list to execute against. Copied, so later 
+	 * changes to the list do not affect the fan out.
+	 */
+	public TestDeviceCommandFanOut(
+			DeviceCommand command,
+			List<TestDevice> devices) {
+		
+		this.command = command;
+		this.devices = new ArrayList<TestDevice>(devices);
+		this.future = new DeviceCommandFuture(command, this.devices.size());
+	}
+	
+	/**
+	 * Get the future that completes once every device has executed the 
+	 * command or been skipped.
+	 * @return Composite future of the per device results.
+	 */
+	public DeviceCommandFuture getFuture() {
+		return future;
+	}
+	
+	/**
+	 * Check if any device is still executing the command.
+	 * @return True if running, false otherwise.
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Get the progress of the fan out.
+	 * @return Float percentage of progress complete.
+	 */
+	public float getProgress() {
+		
+		if (devices.size() == 0) {
+			return 100.0f;
+		}
+		
+		return ((float)progressCounter.get()/(float)devices.size()*100.0f);
+	}
+	
+	/**
+	 * Queue the command on every device receiving input. Returns immediately,
+	 * the devices execute the command on their own queue workers.
+	 */
+	public void dispatch() {
+		
+		running = true;
+		
+		// There is no progress dialog to show when running headless.
+		if (!GraphicsEnvironment.isHeadless() && (
+				command instanceof InstallPackageCommand || 
+				command instanceof RemovePackageCommand || 
+				command instanceof StartActivityCommand || 
+				command instanceof ToggleAirplaneModeCommand ||
+				command instanceof UnlockDeviceCommand ||
+				command instanceof DragCommand ||
+				command instanceof TouchCommand)) {
+			
+			showProgress = true;
+			activeProgressFanOuts.incrementAndGet();
+			ProgressDialogWindow.getInstance().setProgress(0);
+			ProgressDialogWindow.getInstance().setVisible(true);
+			ProgressDialogWindow.getInstance().setMessage(
+					"Please wait, executing\n"+command.toString()+ "...");
+		}
+		
+		// Only devices receiving input take part in the fan out. The others
+		// count as complete right away so the progress still reflects the
+		// full device list.
+		for (int i = devices.size()-1; i >= 0; i--) {
+			
+			TestDevice tDevice = devices.get(i);
+			
+			if (!tDevice.getReceivingInput()) {
+				deviceCompleted(tDevice, new DeviceCommandResult(
+						tDevice.getSerialNumber(), 
+						DeviceCommandResult.Status.SKIPPED, 
+						0, 
+						null, 
+						null));
+			} else if (!tDevice.getCommandQueue().enqueue(command, this)) {
+				deviceCompleted(tDevice, new DeviceCommandResult(
+						tDevice.getSerialNumber(), 
+						DeviceCommandResult.Status.FAILED, 
+						0, 
+						null, 
+						new IllegalStateException(
+								"Device " + tDevice.getSerialNumber() + 
+								" is no longer accepting commands.")));
+			}
+		}
+		
+		// Nothing was queued at all.
+		if (devices.size() == 0) {
+			finish();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by TestDeviceCommandQueueListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandQueued(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand)
+	 */
+	public void onCommandQueued(TestDevice device, DeviceCommand command) {
+		// Nothing to do, progress only moves on completion.
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandExecuted(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand, com.ebay.testdemultiplexer.connection.DeviceCommandResult)
+	 */
+	public void onCommandExecuted(
+			TestDevice device, 
+			DeviceCommand command, 
+			DeviceCommandResult result) {
+		deviceCompleted(device, result);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Record the completion of the command on a single device and report it
+	 * to the progress dialog.
+	 * @param device Device that finished executing the command.
+	 * @param result Outcome of the command on the device.
+	 */
+	private void deviceCompleted(
+			TestDevice device, DeviceCommandResult result) {
+		
+		int completed = progressCounter.incrementAndGet();
+		
+		if (showProgress) {
+			ProgressDialogWindow.getInstance().deviceCompleted(
+					device.getSerialNumber(), 
+					completed, 
+					devices.size());
+		}
+		
+		if (completed == devices.size()) {
+			finish();
+		}
+		
+		// Completed last so listeners chaining the next step see the 
+		// progress dialog already closed.
+		future.deviceCompleted(result);
+	}
+	
+	/**
+	 * Mark the fan out as done and hide the progress dialog if no other fan
+	 * out is still using it.
+	 */
+	private void finish() {
+		
+		running = false;
+		
+		if (showProgress && activeProgressFanOuts.decrementAndGet() == 0) {
+			ProgressDialogWindow.getInstance().setVisible(false);
+		}
+	}
+}
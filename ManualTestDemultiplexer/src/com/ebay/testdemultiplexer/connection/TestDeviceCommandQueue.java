@@ -0,0 +1,761 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDeviceCommandQueue
+ * 
+ * Description: 
+ * Long lived, single consumer command queue owned by a TestDevice. Commands
+ * are executed one at a time by the queue's own worker thread, while every 
+ * device's queue runs independently of the others. Every command waits for a
+ * CommandScheduler permit of its class before it runs. Commands run in 
+ * enqueue order, with one exception: while a BULK or SCREEN_CAPTURE command
+ * waits for its permit, INTERACTIVE commands queued behind it may run first,
+ * so a tap is not held up by other devices' installs. INTERACTIVE commands 
+ * keep their order among themselves, the other classes keep theirs, and 
+ * nothing ever overtakes a UI_DUMP or a command that has started. Queue depth
+ * and lag are exposed so the GUI can show how far behind a device is.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class TestDeviceCommandQueue implements Runnable {
+	
+	/** 
+	 * Number of deadlines a device may miss in a row before it is 
+	 * quarantined.
+	 */
+	public static final int MAX_MISSED_DEADLINES = 3;
+	
+	/** 
+	 * Milliseconds a preemptible command waits for its permit before looking
+	 * for INTERACTIVE commands that may overtake it.
+	 */
+	public static final long PREEMPT_POLL_INTERVAL = 20;
+	
+	/** Device the queued commands are executed against. */
+	private TestDevice device;
+	
+	/** Worker thread executing the queued commands. */
+	private Thread worker;
+	
+	/** 
+	 * Executes each command for the worker so it can be abandoned once it
+	 * misses its deadline. Replaced after every timeout, as the stuck thread
+	 * may never return.
+	 */
+	private ExecutorService executor;
+	
+	/** 
+	 * Last command abandoned after missing its deadline, until it actually
+	 * returns. It holds its scheduler permit until then, or until the device
+	 * is quarantined, and the device counts as busy with it. Only touched by
+	 * the worker.
+	 */
+	private CommandExecution abandoned = null;
+	
+	/** Number of deadlines missed in a row. */
+	private volatile int missedDeadlines = 0;
+	
+	/** Pending commands in the order they were queued. */
+	private LinkedBlockingDeque<QueuedCommand> queue;
+	
+	/** Listeners notified of every command queued and executed. */
+	private CopyOnWriteArrayList<TestDeviceCommandQueueListener> listeners;
+	
+	/** Command currently being executed. Null when idle. */
+	private volatile QueuedCommand activeCommand = null;
+	
+	/** 
+	 * Command taken from the queue that waits for its permit while an 
+	 * INTERACTIVE command overtakes it. Null otherwise.
+	 */
+	private volatile QueuedCommand parkedCommand = null;
+	
+	/** Milliseconds the last executed command waited in the queue. */
+	private volatile long lastLag = 0;
+	
+	/** Execution state flag for the worker loop. */
+	private volatile boolean running;
+	
+	/**
+	 * Create a new command queue for the device. Call start() to begin
+	 * processing commands.
+	 * @param device Device to execute queued commands against.
+	 */
+	public TestDeviceCommandQueue(TestDevice device) {
+		
+		this.device = device;
+		this.queue = new LinkedBlockingDeque<QueuedCommand>();
+		this.listeners = 
+				new CopyOnWriteArrayList<TestDeviceCommandQueueListener>();
+		this.running = true;
+	}
+	
+	/**
+	 * Start the worker on a thread from the selected execution backend.
+	 */
+	public void start() {
+		
+		executor = newExecutor();
+		worker = DeviceExecutionBackend.getInstance().newThread(
+				this, "CommandQueue-" + device.getSerialNumber());
+		worker.start();
+	}
+	
+	/**
+	 * Add a listener that is notified of every command queued and executed.
+	 * @param listener Listener to add.
+	 */
+	public void addQueueListener(TestDeviceCommandQueueListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Remove a previously added queue listener.
+	 * @param listener Listener to remove.
+	 */
+	public void removeQueueListener(TestDeviceCommandQueueListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Add a command to the end of the queue.
+	 * @param command Command to execute.
+	 * @param listener Optional listener notified once this command has been
+	 * executed. Can be null.
+	 * @return True if the command was queued, false if the queue has been
+	 * shut down.
+	 */
+	public boolean enqueue(
+			DeviceCommand command, 
+			TestDeviceCommandQueueListener listener) {
+		
+		if (!running || command == null) {
+			return false;
+		}
+		
+		queue.add(new QueuedCommand(command, listener));
+		
+		for (TestDeviceCommandQueueListener queueListener : listeners) {
+			queueListener.onCommandQueued(device, command);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Get the number of commands waiting to execute, including the one that
+	 * is currently executing.
+	 * @return Queue depth.
+	 */
+	public int getQueueDepth() {
+		return queue.size() + (activeCommand != null ? 1 : 0) + 
+				(parkedCommand != null ? 1 : 0);
+	}
+	
+	/**
+	 * Get the age of the oldest outstanding command. This is how far behind
+	 * live input the device currently is.
+	 * @return Lag in milliseconds, 0 when the queue is idle.
+	 */
+	public long getLag() {
+		
+		QueuedCommand oldest = parkedCommand;
+		
+		if (oldest == null) {
+			oldest = activeCommand;
+		}
+		
+		if (oldest == null) {
+			oldest = queue.peek();
+		}
+		
+		if (oldest == null) {
+			return 0;
+		}
+		
+		return (System.nanoTime() - oldest.enqueueTime) / 1000000L;
+	}
+	
+	/**
+	 * Get the number of command deadlines the device missed in a row.
+	 * @return Consecutive missed deadlines, 0 after any command finishes in
+	 * time.
+	 */
+	public int getMissedDeadlines() {
+		return missedDeadlines;
+	}
+	
+	/**
+	 * Forget about earlier missed deadlines, for example once the user 
+	 * re-enables a quarantined device.
+	 */
+	public void resetMissedDeadlines() {
+		missedDeadlines = 0;
+	}
+	
+	/**
+	 * Get how long the most recently started command waited in the queue
+	 * before it began executing.
+	 * @return Wait time in milliseconds.
+	 */
+	public long getLastLag() {
+		return lastLag;
+	}
+	
+	/**
+	 * Stop the worker. Commands still waiting in the queue are dropped and
+	 * their listeners are notified with an error so nobody waits on them.
+	 */
+	public void shutdown() {
+		
+		running = false;
+		
+		dropPending("Command queue for " + device.getSerialNumber() + 
+				" was shut down.");
+		
+		if (worker != null) {
+			worker.interrupt();
+		}
+		
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by Runnable
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		
+		while (running) {
+			
+			QueuedCommand queued;
+			
+			try {
+				queued = queue.take();
+			} catch (InterruptedException e) {
+				continue;
+			}
+			
+			process(queued);
+		}
+		
+		// A command put back while shutting down missed the drop in 
+		// shutdown().
+		dropPending("Command queue for " + device.getSerialNumber() + 
+				" was shut down.");
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Execute a command taken from the queue and notify its listeners.
+	 * @param queued Command to execute.
+	 * @return False if interrupted before the command started, in which 
+	 * case it is back at the head of the queue.
+	 */
+	private boolean process(QueuedCommand queued) {
+		
+		activeCommand = queued;
+		lastLag = (System.nanoTime() - queued.enqueueTime) / 1000000L;
+		
+		DeviceCommandResult result;
+		
+		try {
+			result = execute(queued);
+		} catch (InterruptedException e) {
+			// Shutting down before the command started, put it back so
+			// it is failed along with the rest of the queue.
+			activeCommand = null;
+			queue.offerFirst(queued);
+			return false;
+		}
+		
+		// A device that keeps missing deadlines is taken out of rotation
+		// so it no longer holds up the others. Done before notifying so
+		// listeners already see the quarantine.
+		boolean quarantine = missedDeadlines >= MAX_MISSED_DEADLINES && 
+				!device.isQuarantined();
+		
+		if (quarantine) {
+			System.out.println("Quarantining " + device.getSerialNumber() +
+					" after " + missedDeadlines + " missed deadlines.");
+			device.quarantine();
+			
+			// A hung command must not keep farm wide capacity or a lockstep
+			// barrier from the healthy devices. The device still counts as
+			// busy with it. Queued steps are cancelled by dropPending().
+			if (abandoned != null) {
+				abandoned.writeOff();
+			}
+		}
+		
+		activeCommand = null;
+		notifyExecuted(queued, result);
+		
+		if (quarantine) {
+			dropPending("Device " + device.getSerialNumber() + 
+					" was quarantined.");
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Execute the command once the device is free and a scheduler permit of
+	 * its class is available. The device is free once any command abandoned
+	 * earlier has returned. Waiting for the device, waiting for the permit
+	 * and running the command are each bounded by the command's own timeout;
+	 * missing any of them fails the command and counts as a missed 
+	 * deadline.
+	 * <p>
+	 * While a preemptible command waits for its permit, INTERACTIVE commands
+	 * queued behind it are run first, as long as only preemptible commands
+	 * are queued ahead of them. The waiting command has not started and 
+	 * holds no permit, so only its place relative to those INTERACTIVE 
+	 * commands changes.
+	 * @param queued Command to execute.
+	 * @return Outcome of the command.
+	 * @throws InterruptedException If interrupted before the command 
+	 * started. No permit is held.
+	 */
+	private DeviceCommandResult execute(QueuedCommand queued) 
+			throws InterruptedException {
+		
+		DeviceCommand command = queued.command;
+		CommandPriority priority = command.getPriority();
+		long startTime = System.nanoTime();
+		long permitWait = 0;
+		
+		while (true) {
+			
+			if (!running) {
+				throw new InterruptedException();
+			}
+			
+			DeviceCommandResult busy = awaitDevice(command, startTime);
+			
+			if (busy != null) {
+				command.cancel(device);
+				return busy;
+			}
+			
+			// A preemptible command waits in short slices so INTERACTIVE
+			// commands queued meanwhile are not held up for long.
+			long wait = command.getTimeout() - permitWait;
+			
+			if (priority.isPreemptible()) {
+				wait = Math.min(wait, PREEMPT_POLL_INTERVAL);
+			}
+			
+			long waitStart = System.nanoTime();
+			
+			// Waiting for a permit counts against the command's deadline, so
+			// a farm saturated by stuck work fails the command instead of 
+			// stalling the device's queue for good.
+			if (CommandScheduler.getInstance().tryAcquire(
+					priority, wait, TimeUnit.MILLISECONDS)) {
+				break;
+			}
+			
+			permitWait += (System.nanoTime() - waitStart) / 1000000L;
+			
+			if (permitWait >= command.getTimeout()) {
+				
+				missedDeadlines++;
+				
+				TimeoutException error = new TimeoutException(
+						"No " + priority + " permit for " + command + " on " + 
+						device.getSerialNumber() + " within " + 
+						command.getTimeout() + " ms, it was not run.");
+				System.out.println(error.getMessage());
+				command.cancel(device);
+				
+				return new DeviceCommandResult(
+						device.getSerialNumber(), 
+						DeviceCommandResult.Status.FAILED, 
+						(System.nanoTime() - startTime) / 1000000L, 
+						null, 
+						error);
+			}
+			
+			QueuedCommand overtaking = takeOvertaking();
+			
+			if (overtaking == null) {
+				continue;
+			}
+			
+			parkedCommand = queued;
+			boolean started = process(overtaking);
+			parkedCommand = null;
+			activeCommand = queued;
+			
+			if (!started) {
+				throw new InterruptedException();
+			}
+			
+			if (device.isQuarantined()) {
+				
+				command.cancel(device);
+				
+				return new DeviceCommandResult(
+						device.getSerialNumber(), 
+						DeviceCommandResult.Status.FAILED, 
+						(System.nanoTime() - startTime) / 1000000L, 
+						null, 
+						new IllegalStateException("Device " + 
+								device.getSerialNumber() + 
+								" was quarantined."));
+			}
+		}
+		
+		return runCommand(command, startTime);
+	}
+	
+	/**
+	 * Wait until the device is no longer busy with an abandoned command.
+	 * @param command Command that wants to run next.
+	 * @param startTime System.nanoTime() at which the command started 
+	 * waiting.
+	 * @return Null once the device is free, or the failed result of the 
+	 * command if the device stayed busy longer than its timeout.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private DeviceCommandResult awaitDevice(
+			DeviceCommand command, long startTime) 
+					throws InterruptedException {
+		
+		if (abandoned == null) {
+			return null;
+		}
+		
+		if (!abandoned.awaitFinished(command.getTimeout())) {
+			
+			missedDeadlines++;
+			
+			TimeoutException error = new TimeoutException(
+					device.getSerialNumber() + " is still busy with " + 
+					abandoned.command + ", " + command + " was not run.");
+			System.out.println(error.getMessage());
+			
+			return new DeviceCommandResult(
+					device.getSerialNumber(), 
+					DeviceCommandResult.Status.FAILED, 
+					(System.nanoTime() - startTime) / 1000000L, 
+					null, 
+					error);
+		}
+		
+		abandoned = null;
+		
+		return null;
+	}
+	
+	/**
+	 * Remove the oldest INTERACTIVE command from the queue if only 
+	 * preemptible commands are queued ahead of it.
+	 * @return Command that may overtake the waiting one, null if none.
+	 */
+	private QueuedCommand takeOvertaking() {
+		
+		for (QueuedCommand waiting : queue) {
+			
+			CommandPriority priority = waiting.command.getPriority();
+			
+			if (priority == CommandPriority.INTERACTIVE) {
+				// Lost if the queue was dropped meanwhile.
+				return queue.remove(waiting) ? waiting : null;
+			}
+			
+			if (!priority.isPreemptible()) {
+				return null;
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Run a command whose scheduler permit has been taken, bounded by its
+	 * timeout.
+	 * @param command Command to run.
+	 * @param startTime System.nanoTime() at which the command started 
+	 * waiting.
+	 * @return Outcome of the command.
+	 */
+	private DeviceCommandResult runCommand(
+			DeviceCommand command, long startTime) {
+		
+		DeviceCommandResult.Status status = 
+				DeviceCommandResult.Status.SUCCESS;
+		String output = null;
+		Exception error = null;
+		
+		// From here the permit belongs to the execution, which releases it
+		// once the command returns or is abandoned before it started.
+		CommandExecution execution = new CommandExecution(command);
+		Future<String> future = null;
+		
+		try {
+			future = executor.submit(execution);
+			output = future.get(command.getTimeout(), TimeUnit.MILLISECONDS);
+			missedDeadlines = 0;
+		} catch (TimeoutException e) {
+			
+			// Cancel the command and move on without it. The thread it
+			// is stuck on is abandoned to a fresh executor, and keeps the
+			// permit until it returns or the device is quarantined.
+			future.cancel(true);
+			executor.shutdownNow();
+			executor = newExecutor();
+			execution.abandon();
+			abandoned = execution;
+			missedDeadlines++;
+			
+			status = DeviceCommandResult.Status.FAILED;
+			error = new TimeoutException(command + " on " + 
+					device.getSerialNumber() + " did not finish within " + 
+					command.getTimeout() + " ms.");
+			System.out.println(error.getMessage());
+			
+		} catch (ExecutionException e) {
+			e.getCause().printStackTrace();
+			status = DeviceCommandResult.Status.FAILED;
+			error = e.getCause() instanceof Exception ? 
+					(Exception) e.getCause() : e;
+		} catch (RejectedExecutionException e) {
+			// Shut down while the permit was being taken.
+			execution.abandon();
+			status = DeviceCommandResult.Status.FAILED;
+			error = e;
+		} catch (InterruptedException e) {
+			// Shutting down.
+			future.cancel(true);
+			execution.abandon();
+			status = DeviceCommandResult.Status.FAILED;
+			error = e;
+		}
+		
+		return new DeviceCommandResult(
+				device.getSerialNumber(), 
+				status, 
+				(System.nanoTime() - startTime) / 1000000L, 
+				output, 
+				error);
+	}
+	
+	/**
+	 * Create the executor commands run on.
+	 * @return Single threaded executor from the selected backend.
+	 */
+	private ExecutorService newExecutor() {
+		return Executors.newSingleThreadExecutor(
+				DeviceExecutionBackend.getInstance().newThreadFactory(
+						"CommandExecutor-" + device.getSerialNumber()));
+	}
+	
+	/**
+	 * Fail every command still waiting in the queue so nobody waits on them.
+	 * Each command is cancelled before its listeners are notified.
+	 * @param reason Message of the exception reported for each command.
+	 */
+	private void dropPending(String reason) {
+		
+		ArrayList<QueuedCommand> dropped = new ArrayList<QueuedCommand>();
+		queue.drainTo(dropped);
+		
+		for (QueuedCommand queued : dropped) {
+			queued.command.cancel(device);
+			notifyExecuted(queued, new DeviceCommandResult(
+					device.getSerialNumber(), 
+					DeviceCommandResult.Status.FAILED, 
+					0, 
+					null, 
+					new IllegalStateException(reason)));
+		}
+	}
+	
+	/**
+	 * Notify the command's own listener and all queue listeners that the
+	 * command is done.
+	 * @param queued Command that finished.
+	 * @param result Outcome of the command.
+	 */
+	private void notifyExecuted(
+			QueuedCommand queued, DeviceCommandResult result) {
+		
+		if (queued.listener != null) {
+			queued.listener.onCommandExecuted(device, queued.command, result);
+		}
+		
+		for (TestDeviceCommandQueueListener queueListener : listeners) {
+			queueListener.onCommandExecuted(device, queued.command, result);
+		}
+	}
+	
+	/**
+	 * One run of a command on the executor. Owns the scheduler permit taken
+	 * for the command and releases it exactly once: when the command 
+	 * returns, when it is abandoned before it started, or when it is written
+	 * off because its device was quarantined while it hung.
+	 */
+	private class CommandExecution implements Callable<String> {
+		
+		/** Command to execute. */
+		private final DeviceCommand command;
+		
+		/** Set once the command started or was abandoned before starting. */
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		
+		/** Set once the permit has been given back. */
+		private final AtomicBoolean released = new AtomicBoolean(false);
+		
+		/** Counted down once the command returned or never started. */
+		private final CountDownLatch finished = new CountDownLatch(1);
+		
+		/**
+		 * Wrap a command whose permit has already been taken.
+		 * @param command Command to execute.
+		 */
+		private CommandExecution(DeviceCommand command) {
+			this.command = command;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.Callable#call()
+		 */
+		public String call() throws Exception {
+			
+			if (!claimed.compareAndSet(false, true)) {
+				return null;
+			}
+			
+			try {
+				return command.executeCommand(device);
+			} finally {
+				finish();
+			}
+		}
+		
+		/**
+		 * Give up on the command. If it has not started it never will, so it
+		 * is cancelled and the permit is released now. Otherwise the permit 
+		 * is released when the command returns.
+		 */
+		private void abandon() {
+			
+			if (claimed.compareAndSet(false, true)) {
+				command.cancel(device);
+				finish();
+			}
+		}
+		
+		/**
+		 * Give the permit back while the abandoned command may still be 
+		 * running. It is not released again when the command returns. The 
+		 * command is cancelled too, so it stops holding up anything else 
+		 * waiting on it, such as a lockstep barrier.
+		 */
+		private void writeOff() {
+			command.cancel(device);
+			releasePermit();
+		}
+		
+		/**
+		 * Wait for the command to return or be abandoned before starting.
+		 * @param timeout Max time to wait in milliseconds.
+		 * @return True if the command is done.
+		 * @throws InterruptedException If interrupted while waiting.
+		 */
+		private boolean awaitFinished(long timeout) 
+				throws InterruptedException {
+			return finished.await(timeout, TimeUnit.MILLISECONDS);
+		}
+		
+		/**
+		 * Release the permit and wake anyone waiting for the command.
+		 */
+		private void finish() {
+			releasePermit();
+			finished.countDown();
+		}
+		
+		/**
+		 * Release the permit unless that was already done.
+		 */
+		private void releasePermit() {
+			
+			if (released.compareAndSet(false, true)) {
+				CommandScheduler.getInstance().release(command.getPriority());
+			}
+		}
+	}
+	
+	/**
+	 * Command waiting in the queue along with its bookkeeping.
+	 */
+	private static class QueuedCommand {
+		
+		/** Command to execute. */
+		private final DeviceCommand command;
+		
+		/** Listener to notify when done. Can be null. */
+		private final TestDeviceCommandQueueListener listener;
+		
+		/** System.nanoTime() at which the command was queued. */
+		private final long enqueueTime;
+		
+		/**
+		 * Wrap a command for queuing.
+		 * @param command Command to execute.
+		 * @param listener Listener to notify when done. Can be null.
+		 */
+		private QueuedCommand(
+				DeviceCommand command, 
+				TestDeviceCommandQueueListener listener) {
+			
+			this.command = command;
+			this.listener = listener;
+			this.enqueueTime = System.nanoTime();
+		}
+		
+	}
+}
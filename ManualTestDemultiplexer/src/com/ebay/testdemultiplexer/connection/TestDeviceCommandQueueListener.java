@@ -0,0 +1,48 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Interface: TestDeviceCommandQueueListener
+ * 
+ * Description: 
+ * Interface for listening to the per device command queue. Notifies when a
+ * command is queued for a device and when the device finishes executing it.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public interface TestDeviceCommandQueueListener {
+
+	/**
+	 * Notifies listener that a command was added to a device's queue.
+	 * @param device TestDevice the command was queued for.
+	 * @param command Command that was queued.
+	 */
+	public void onCommandQueued(TestDevice device, DeviceCommand command);
+	
+	/**
+	 * Notifies listener that a device finished executing a command.
+	 * @param device TestDevice that executed the command.
+	 * @param command Command that was executed.
+	 * @param result Outcome of the command on the device.
+	 */
+	public void onCommandExecuted(
+			TestDevice device, 
+			DeviceCommand command, 
+			DeviceCommandResult result);
+}
@@ -0,0 +1,349 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDeviceLockstepDispatch
+ * 
+ * Description: 
+ * Dispatches a command to every device receiving input so that the input is 
+ * released on all of them at the same instant. Each device first prepares the
+ * command on its own queue worker (coordinate transforms, view lookups and 
+ * scrolling), then waits at a shared barrier. Once every device is prepared 
+ * the barrier trips and all devices release the input together. The time each
+ * device acknowledged the release is recorded and the skew of every device 
+ * relative to the fastest one is reported back to the TestDeviceManager.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.PreparedDeviceCommand;
+
+public class TestDeviceLockstepDispatch implements 
+	TestDeviceCommandQueueListener {
+	
+	/** 
+	 * Max number of milliseconds a prepared device waits for the others 
+	 * before giving up on lockstep and releasing on its own.
+	 */
+	private static final long BARRIER_TIMEOUT = 10000;
+	
+	/** Skew value reported for devices that missed the barrier. */
+	public static final float UNSYNCHRONIZED_SKEW = -1.0f;
+	
+	/** DeviceCommand to execute. */
+	private DeviceCommand command;
+	
+	/** Manager notified of the measured skew. */
+	private TestDeviceManager manager;
+	
+	/** Devices taking part in the lockstep release. */
+	private ArrayList<TestDevice> devices;
+	
+	/** 
+	 * Barrier every device waits at between prepare and release. Devices 
+	 * that cannot be queued, fail to prepare or have their command dropped 
+	 * deregister so the others are not held up.
+	 */
+	private Phaser barrier;
+	
+	/** 
+	 * Nano time each device acknowledged the release, by serial number. 
+	 * Devices that missed the barrier are not in the map.
+	 */
+	private ConcurrentHashMap<String, Long> ackTimes;
+	
+	/** Number of devices that have finished executing the command. */
+	private AtomicInteger completedCounter = new AtomicInteger(0);
+	
+	/** 
+	 * Results of the devices taking part. Held back until the skew is known
+	 * so listeners of the future see it.
+	 */
+	private List<DeviceCommandResult> results;
+	
+	/** Future receiving the result of every device. */
+	private DeviceCommandFuture future;
+	
+	/**
+	 * Default constructor.
+	 * @param command Command to execute.
+	 * @param devices Device list to execute against. Only devices receiving
+	 * input take part.
+	 * @param manager Manager to report the measured skew to.
+	 */
+	public TestDeviceLockstepDispatch(
+			DeviceCommand command,
+			List<TestDevice> devices,
+			TestDeviceManager manager) {
+		
+		this.command = command;
+		this.manager = manager;
+		this.devices = new ArrayList<TestDevice>();
+		this.ackTimes = new ConcurrentHashMap<String, Long>();
+		this.results = new CopyOnWriteArrayList<DeviceCommandResult>();
+		this.future = new DeviceCommandFuture(command, devices.size());
+		
+		for (int i = 0; i < devices.size(); i++) {
+			if (devices.get(i).getReceivingInput()) {
+				this.devices.add(devices.get(i));
+			} else {
+				future.deviceCompleted(new DeviceCommandResult(
+						devices.get(i).getSerialNumber(), 
+						DeviceCommandResult.Status.SKIPPED, 
+						0, 
+						null, 
+						null));
+			}
+		}
+	}
+	
+	/**
+	 * Get the future that completes once every device has released the 
+	 * command or been skipped, and the skew has been measured.
+	 * @return Composite future of the per device results.
+	 */
+	public DeviceCommandFuture getFuture() {
+		return future;
+	}
+	
+	/**
+	 * Queue the lockstep command on every device receiving input. Returns 
+	 * immediately, the release happens once every device has prepared.
+	 */
+	public void dispatch() {
+		
+		if (devices.size() == 0) {
+			return;
+		}
+		
+		// The dispatcher holds its own party until every device is queued so
+		// the barrier cannot trip early.
+		barrier = new Phaser(devices.size() + 1);
+		
+		for (int i = 0; i < devices.size(); i++) {
+			
+			TestDevice tDevice = devices.get(i);
+			
+			if (!tDevice.getCommandQueue().enqueue(
+					new LockstepCommand(), this)) {
+				
+				// A device that cannot take part would hold the others at the
+				// barrier until the timeout.
+				barrier.arriveAndDeregister();
+				deviceCompleted(new DeviceCommandResult(
+						tDevice.getSerialNumber(), 
+						DeviceCommandResult.Status.FAILED, 
+						0, 
+						null, 
+						new IllegalStateException(
+								"Device " + tDevice.getSerialNumber() + 
+								" is no longer accepting commands.")));
+			}
+		}
+		
+		barrier.arriveAndDeregister();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by TestDeviceCommandQueueListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandQueued(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand)
+	 */
+	public void onCommandQueued(TestDevice device, DeviceCommand command) {
+		// Nothing to do, skew is only known once every device released.
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandExecuted(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand, com.ebay.testdemultiplexer.connection.DeviceCommandResult)
+	 */
+	public void onCommandExecuted(
+			TestDevice device, 
+			DeviceCommand command, 
+			DeviceCommandResult result) {
+		deviceCompleted(result);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Count a device as done. Once all devices are done the skew is 
+	 * calculated and reported.
+	 * @param result Outcome of the command on the device.
+	 */
+	private void deviceCompleted(DeviceCommandResult result) {
+		
+		results.add(result);
+		
+		if (completedCounter.incrementAndGet() != devices.size()) {
+			return;
+		}
+		
+		// Skew is measured against the first device to acknowledge.
+		long firstAck = Long.MAX_VALUE;
+		
+		for (Long ackTime : ackTimes.values()) {
+			firstAck = Math.min(firstAck, ackTime);
+		}
+		
+		LinkedHashMap<String, Float> skews = new LinkedHashMap<String, Float>();
+		
+		for (int i = 0; i < devices.size(); i++) {
+			
+			TestDevice tDevice = devices.get(i);
+			Long ackTime = ackTimes.get(tDevice.getSerialNumber());
+			float skew = UNSYNCHRONIZED_SKEW;
+			
+			if (ackTime != null) {
+				skew = (float)(ackTime - firstAck) / 1000000.0f;
+			}
+			
+			tDevice.setLastSkew(skew);
+			skews.put(tDevice.getSerialNumber(), skew);
+		}
+		
+		manager.lockstepCompleted(command, skews);
+		
+		for (int i = 0; i < results.size(); i++) {
+			future.deviceCompleted(results.get(i));
+		}
+	}
+	
+	/**
+	 * Command queued on each device in place of the dispatched command. 
+	 * Prepares the dispatched command, waits for the other devices and then
+	 * releases it.
+	 */
+	private class LockstepCommand extends DeviceCommand {
+		
+		/** 
+		 * Set once the device's party arrived at or left the barrier, so it
+		 * does so exactly once.
+		 */
+		private final AtomicBoolean arrived = new AtomicBoolean(false);
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
+		 */
+		protected void execute(TestDevice device) {
+			
+			PreparedDeviceCommand prepared = null;
+			boolean synchronizedRelease = true;
+			
+			try {
+				prepared = command.prepareCommand(device);
+			} catch (RuntimeException e) {
+				// A device that failed to prepare would hold the others at the
+				// barrier until the timeout.
+				cancel(device);
+				throw e;
+			}
+			
+			if (!arrived.compareAndSet(false, true)) {
+				throw new IllegalStateException(command + " on " + 
+						device.getSerialNumber() + " was cancelled while " +
+						"preparing, the input was not sent.");
+			}
+			
+			try {
+				int phase = barrier.arrive();
+				
+				if (phase < 0 || barrier.awaitAdvanceInterruptibly(
+						phase, BARRIER_TIMEOUT, TimeUnit.MILLISECONDS) < 0) {
+					synchronizedRelease = false;
+				}
+			} catch (InterruptedException e) {
+				// Released unsynchronized like on a timeout, so the device 
+				// does not silently miss the input.
+				System.out.println(device.getSerialNumber() + 
+						" was interrupted waiting for the other devices, " + 
+						"releasing " + command + " unsynchronized.");
+				prepared.release();
+				Thread.currentThread().interrupt();
+				return;
+			} catch (TimeoutException e) {
+				// Stop the other devices waiting on the one that is stuck.
+				barrier.forceTermination();
+				synchronizedRelease = false;
+			}
+			
+			// The input is still sent when lockstep fails, the device just
+			// is not counted in the skew.
+			prepared.release();
+			
+			if (synchronizedRelease) {
+				ackTimes.put(device.getSerialNumber(), System.nanoTime());
+			}
+		}
+		
+		/**
+		 * Leave the barrier, as the device will not take part in the release.
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#cancel(com.ebay.testdemultiplexer.connection.TestDevice)
+		 */
+		public void cancel(TestDevice device) {
+			
+			if (arrived.compareAndSet(false, true)) {
+				barrier.arriveAndDeregister();
+			}
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+		 */
+		public CommandPriority getPriority() {
+			return command.getPriority();
+		}
+		
+		/**
+		 * Allow for the wait at the barrier on top of the command itself.
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getTimeout()
+		 */
+		public long getTimeout() {
+			return command.getTimeout() + BARRIER_TIMEOUT;
+		}
+		
+		/* (non-Javadoc)
+		 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#afterExecute(com.ebay.testdemultiplexer.connection.TestDevice)
+		 */
+		public void afterExecute(TestDevice device) {
+			command.afterExecute(device);
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString() {
+			return command.toString();
+		}
+	}
+}
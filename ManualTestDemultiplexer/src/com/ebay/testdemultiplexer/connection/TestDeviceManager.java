@@ -30,16 +30,21 @@ package com.ebay.testdemultiplexer.connection;
 
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import com.android.ddmlib.AndroidDebugBridge;
 import com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener;
 import com.android.ddmlib.IDevice;
 import com.ebay.testdemultiplexer.device.calibration.CalibrationData;
 import com.ebay.testdemultiplexer.device.calibration.CalibrationIO;
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
 import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorder;
 
-public class TestDeviceManager extends Thread implements IDeviceChangeListener {
+public class TestDeviceManager extends Thread implements 
+	IDeviceChangeListener, TestDeviceCommandQueueListener, 
+	TestDevicePlaybackListener {
 	
 	/** Path to adb executable. */
 	private String adbPath;
@@ -47,8 +52,14 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	/** Index of the device that is providing the signaling input. */
 	private int signalingDeviceIndex = -1;
 	
-	/** List of devices being managed. */
-	private ArrayList<TestDevice> devices;
+	/** 
+	 * Registry of the devices being managed. Reads are lock free, changes 
+	 * come from the ddmlib device change callbacks.
+	 */
+	private TestDeviceRegistry devices;
+	
+	/** Brings newly connected devices up in the background. */
+	private TestDeviceOnboarding onboarding;
 	
 	/** List of listeners we need to notify of connection change events. */
 	private ArrayList<TestDeviceConnectionListener> connectionListeners;
@@ -61,6 +72,15 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	
 	/** Current command step index being played (executed). */
 	private int playbackIndex = 0;
+	
+	/** Continuous playback in progress, null if none. */
+	private TestDevicePlayback continuousPlayback = null;
+	
+	/** 
+	 * True to release commands on all devices at the same instant rather than
+	 * letting each device run as fast as it can.
+	 */
+	private volatile boolean lockstepDispatch = false;
 
 	/**
 	 * Default constructor.
@@ -70,7 +90,8 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 		
 		connectionListeners = new ArrayList<TestDeviceConnectionListener>();
 		
-		devices = new ArrayList<TestDevice>();
+		devices = new TestDeviceRegistry();
+		onboarding = new TestDeviceOnboarding(this);
 		recorder = new CommandRecorder();
 		
 		this.adbPath = adbPath;
@@ -102,14 +123,12 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 		}
 		
 		// Add the existing devices to the list of devices we are tracking.
+		// They are onboarded in parallel and show up as each one is ready.
 		if (bridge.isConnected() && bridge.hasInitialDeviceList()) {
 			IDevice[] connectedDevices = bridge.getDevices();
 			
 			for (int i = 0; i < connectedDevices.length; i++) {
-				TestDevice tDevice = new TestDevice(connectedDevices[i]);
-				
-				devices.add(tDevice);
-				notifyListenersAddedDevice(tDevice);
+				addDevice(connectedDevices[i]);
 			}
 		}
         
@@ -121,7 +140,10 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 */
 	public void disconnect() {
 		
-		Iterator<TestDevice> iterator = devices.iterator();
+		AndroidDebugBridge.removeDeviceChangeListener(this);
+		onboarding.shutdown();
+		
+		Iterator<TestDevice> iterator = devices.clear().iterator();
 		
 		while (iterator.hasNext()) {
 			
@@ -129,7 +151,6 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 			device.dispose();
 		}
 
-		AndroidDebugBridge.removeDeviceChangeListener(this);
 		AndroidDebugBridge.terminate();
 	}
 	
@@ -149,7 +170,7 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 * Get the total number of devices being managed.
 	 * @return Total number of managed devices.
 	 */
-	public synchronized int getTotalDeviceCount() {
+	public int getTotalDeviceCount() {
 		
 		return devices.size();
 	}
@@ -159,34 +180,40 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 * @param index Index to retrieve.
 	 * @return TestDevice located at that index, or null if not found.
 	 */
-	public synchronized TestDevice getDeviceAt(int index) {
-		
-		if (index < 0 || index >= devices.size()) {
-			return null;
-		}
+	public TestDevice getDeviceAt(int index) {
 		
 		return devices.get(index);
 	}
 	
+	/**
+	 * Get the TestDevice with the given serial number.
+	 * @param serialNumber Serial number of the device.
+	 * @return Matching TestDevice, or null if not found.
+	 */
+	public TestDevice getDevice(String serialNumber) {
+		
+		return devices.get(serialNumber);
+	}
+	
 	/**
 	 * Get the index of the specified TestDevice.
 	 * @param device TestDevice index to retrieve.
 	 * @return Index of TestDevice.
 	 */
-	public synchronized int getDeviceIndex(TestDevice device) {
-		
-		TestDevice tmpDevice;
+	public int getDeviceIndex(TestDevice device) {
 		
-		for (int i = 0; i < devices.size(); i++) {
-			
-			tmpDevice = devices.get(i);
-			
-			if (device.matchesSerialNumber(tmpDevice)) {
-				return i;
-			}
-		}
+		return devices.indexOf(device.getSerialNumber());
+	}
+	
+	/**
+	 * Get a consistent view of all the managed devices. Use this rather than
+	 * getDeviceAt(int) in loops so devices connecting or disconnecting part
+	 * way through do not shift the indices.
+	 * @return Immutable snapshot of the managed devices.
+	 */
+	public TestDeviceRegistry.Snapshot getDeviceSnapshot() {
 		
-		return -1;
+		return devices.getSnapshot();
 	}
 	
 	/**
@@ -197,16 +224,15 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 */
 	public synchronized void toggleReceivingInput(int index) {
 		
-		if (index < 0) {
-			return;
-		} else if (index >= devices.size()) {
+		TestDevice device = devices.get(index);
+		
+		if (device == null) {
 			return;
 		}
 		
-		devices.get(index).setReceivingInput(
-				!devices.get(index).getReceivingInput());
+		device.setReceivingInput(!device.getReceivingInput());
 		
-		notifyListenersChangeDevice(devices.get(index));
+		notifyListenersChangeDevice(device);
 	}
 	
 	/**
@@ -215,9 +241,11 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 */
 	public void incrementDeviceGrouping(int index) {
 		
-		if (index >= 0 && index < devices.size()) {
-			devices.get(index).incrementGrouping();
-			notifyListenersChangeDevice(devices.get(index));
+		TestDevice device = devices.get(index);
+		
+		if (device != null) {
+			device.incrementGrouping();
+			notifyListenersChangeDevice(device);
 		}
 	}
 	
@@ -228,8 +256,10 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	public void setSignalingDeviceIndex(int index) {
 		this.signalingDeviceIndex = index;
 		
-		if (index >= 0 && index < devices.size()) {
-			notifyListenersChangeDevice(devices.get(index));
+		TestDevice device = devices.get(index);
+		
+		if (device != null) {
+			notifyListenersChangeDevice(device);
 		}
 	}
 	
@@ -243,40 +273,44 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	
 	/**
 	 * Execute a DeviceCommand on the test devices receiving input and add it
-	 * to the CommandRecorder.
+	 * to the CommandRecorder. Does not block, the devices execute the 
+	 * command on their own queues.
 	 * @param command Command to execute on devices receiving input.
+	 * @return Future completing with one result per device. Devices not 
+	 * receiving input report as skipped. Null if command is null.
 	 */
-	public synchronized void executeCommand(DeviceCommand command) {
+	public synchronized DeviceCommandFuture executeCommand(
+			DeviceCommand command) {
 		
 		if (command == null) {
-			return;
+			return null;
 		}
 		
-		recorder.addCommand(command, false);
+		recorder.addCommand(command, false, getInputSerialNumbers());
 		
-		TestDeviceCommandExecutionThread cmdThread = 
-				new TestDeviceCommandExecutionThread(command, devices);
-		cmdThread.start();		
+		DeviceCommandFuture future = dispatchCommand(command);
 		
 		recorder.notifyListenerOfCommandExecuted(
-				recorder.getRecorderLength()-1);		
+				recorder.getRecorderLength()-1);
+		
+		return future;
 	}
 	
 	/**
 	 * Playback the next command in the command list. Reset to zero after
-	 * last command is played.
+	 * last command is played. Does not block.
+	 * @return Future completing with one result per device, or null if there
+	 * is no command to play.
 	 */
-	public synchronized void playCommands() {
+	public synchronized DeviceCommandFuture playCommands() {
 		
 		DeviceCommand command = recorder.getCommand(playbackIndex);
 		
 		if (command == null) {
-			return;
+			return null;
 		}
 
-		TestDeviceCommandExecutionThread cmdThread = 
-				new TestDeviceCommandExecutionThread(command, devices);
-		cmdThread.start();		
+		DeviceCommandFuture future = dispatchCommand(command);
 		
 		recorder.notifyListenerOfCommandExecuted(playbackIndex);
 
@@ -285,6 +319,115 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 		if (playbackIndex >= recorder.getRecorderLength()) {
 			playbackIndex = 0;
 		}
+		
+		return future;
+	}
+	
+	/**
+	 * Play the whole recording continuously. Each device works through the
+	 * recording at its own pace, but never more than window steps ahead of
+	 * the slowest device. Lockstep dispatch does not apply. Any continuous 
+	 * playback already running is stopped first. Does not block.
+	 * @param window Max number of steps a device may run ahead of the 
+	 * slowest device.
+	 * @param listener Optional listener for progress and completion. Can be
+	 * null.
+	 * @return Running playback.
+	 */
+	public TestDevicePlayback startContinuousPlayback(
+			int window, TestDevicePlaybackListener listener) {
+		
+		return startContinuousPlayback(
+				window, TestDevicePlayback.AS_FAST_AS_POSSIBLE, listener);
+	}
+	
+	/**
+	 * Play the whole recording continuously, timed from the think time 
+	 * recorded before each command. Devices still never run more than 
+	 * window steps ahead of the slowest device. Does not block.
+	 * @param window Max number of steps a device may run ahead of the 
+	 * slowest device.
+	 * @param speed TestDevicePlayback.ORIGINAL_CADENCE to play as recorded,
+	 * N to play N times faster, TestDevicePlayback.AS_FAST_AS_POSSIBLE to
+	 * ignore the think time.
+	 * @param listener Optional listener for progress and completion. Can be
+	 * null.
+	 * @return Running playback.
+	 */
+	public synchronized TestDevicePlayback startContinuousPlayback(
+			int window, float speed, TestDevicePlaybackListener listener) {
+		
+		stopContinuousPlayback();
+		
+		ArrayList<DeviceCommand> commands = new ArrayList<DeviceCommand>();
+		ArrayList<Long> delays = new ArrayList<Long>();
+		
+		for (int i = 0; i < recorder.getRecorderLength(); i++) {
+			commands.add(recorder.getCommand(i));
+			delays.add(recorder.getCommandDelay(recorder.getCommand(i)));
+		}
+		
+		TestDevicePlayback playback = new TestDevicePlayback(
+				commands, 
+				delays, 
+				devices.getSnapshot().getDevices(), 
+				window, 
+				speed);
+		playback.addPlaybackListener(this);
+		
+		if (listener != null) {
+			playback.addPlaybackListener(listener);
+		}
+		
+		playbackIndex = 0;
+		recorder.notifyListenerOfCommandExecuted(playbackIndex);
+		
+		// An empty recording finishes, and clears the field, inside start().
+		continuousPlayback = playback;
+		playback.start();
+		
+		return playback;
+	}
+	
+	/**
+	 * Stop the continuous playback, if one is running. Steps already queued
+	 * on the devices still execute.
+	 */
+	public synchronized void stopContinuousPlayback() {
+		
+		if (continuousPlayback != null) {
+			continuousPlayback.stop();
+			continuousPlayback = null;
+		}
+	}
+	
+	/**
+	 * Check if a continuous playback is running.
+	 * @return True if running.
+	 */
+	public synchronized boolean isContinuousPlaybackRunning() {
+		return continuousPlayback != null && continuousPlayback.isRunning();
+	}
+	
+	/**
+	 * Turn lockstep dispatch on or off. In lockstep, every device prepares 
+	 * the command and then all devices release it together. The measured 
+	 * skew is shown per device and written to the command recording. Only
+	 * classes without a concurrency limit, interactive input by default, are
+	 * dispatched in lockstep.
+	 * @param lockstepDispatch True for lockstep, false to let every device
+	 * run independently.
+	 */
+	public void setLockstepDispatch(boolean lockstepDispatch) {
+		this.lockstepDispatch = lockstepDispatch;
+	}
+	
+	/**
+	 * Check if commands are dispatched in lockstep.
+	 * @return True if lockstep dispatch is on.
+	 */
+	public boolean isLockstepDispatch() {
+		return lockstepDispatch;
 	}
 	
 	/**
@@ -303,108 +446,135 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 		return recorder;
 	}
 
-	// -------------------------------------------------------------------------
-	// Required by IDeviceChangeListener
-	// -------------------------------------------------------------------------
-
-	/* (non-Javadoc)
-	 * @see com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener#deviceConnected(com.android.ddmlib.IDevice)
+	/**
+	 * Called once a lockstep dispatch has released on every device. Stores
+	 * the skew with the recorded command and refreshes the devices.
+	 * @param command Command that was released.
+	 * @param skews Skew in milliseconds by device serial number.
 	 */
-	public void deviceConnected(IDevice arg0) {
+	void lockstepCompleted(DeviceCommand command, Map<String, Float> skews) {
 		
-		int counter = 0;
-		int COUNTER_LIMIT = 5;
-		
-		// If the device is offline, wait for a period of time for it to come
-		// online. If it never does come online, then do not try to add
-		// the device.
-		while (arg0.isOffline() && counter < COUNTER_LIMIT) {
-			try {
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-			counter++;
-		}
+		recorder.setCommandSkew(command, skews);
 		
-		if (counter >= COUNTER_LIMIT) {
-			return;
+		List<TestDevice> snapshot = devices.getSnapshot().getDevices();
+		
+		for (int i = 0; i < snapshot.size(); i++) {
+			notifyListenersChangeDevice(snapshot.get(i));
 		}
+	}
+
+	/**
+	 * Called by TestDeviceOnboarding once a device is usable. Applies any 
+	 * saved calibration, registers the device and notifies the listeners.
+	 * @param tDevice Onboarded device.
+	 */
+	void deviceOnboarded(TestDevice tDevice) {
 		
-		// Add the device.
-		TestDevice tDevice = new TestDevice(arg0);
+		tDevice.getCommandQueue().addQueueListener(this);
 
 		// Attempt to get existing calibration data and add it to the TestDevice
 		CalibrationData calibrationData = 
-				CalibrationIO.getCalibrationData(arg0.getSerialNumber());
+				CalibrationIO.getCalibrationData(tDevice.getSerialNumber());
 		
 		if (calibrationData != null) {
 			tDevice.setCalibrationData(calibrationData);
 		}
 		
-		devices.add(tDevice);
+		// Already registered through another callback for the same device.
+		if (!devices.add(tDevice)) {
+			tDevice.dispose();
+			return;
+		}
+		
 		notifyListenersAddedDevice(tDevice);
 	}
+
+	// -------------------------------------------------------------------------
+	// Required by TestDeviceCommandQueueListener
+	// -------------------------------------------------------------------------
 	
 	/* (non-Javadoc)
-	 * @see com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener#deviceChanged(com.android.ddmlib.IDevice, int)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandQueued(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand)
 	 */
-	public void deviceChanged(IDevice arg0, int changeMask) {
+	public void onCommandQueued(TestDevice device, DeviceCommand command) {
 		
-		Iterator<TestDevice> iterator = devices.iterator();
-		boolean inDeviceList = false;
+		// Queue depth changed, let the GUI know.
+		notifyListenersChangeDevice(device);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandExecuted(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand, com.ebay.testdemultiplexer.connection.DeviceCommandResult)
+	 */
+	public void onCommandExecuted(
+			TestDevice device, 
+			DeviceCommand command, 
+			DeviceCommandResult result) {
 		
-		while(iterator.hasNext()) {
+		// Queue depth changed, let the GUI know.
+		notifyListenersChangeDevice(device);
+	}
+
+	// -------------------------------------------------------------------------
+	// Required by TestDevicePlaybackListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackProgress(com.ebay.testdemultiplexer.connection.TestDevicePlayback, int)
+	 */
+	public void onPlaybackProgress(TestDevicePlayback playback, int slowestStep) {
 		
-			TestDevice device = iterator.next();
-			
-			if (device.getSerialNumber().equals(arg0.getSerialNumber())) {
-				notifyListenersChangeDevice(device);
-				inDeviceList = true;
-				break;
+		// Highlight the step the slowest device is on.
+		if (slowestStep < recorder.getRecorderLength()) {
+			recorder.notifyListenerOfCommandExecuted(slowestStep);
+		}
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackFinished(com.ebay.testdemultiplexer.connection.TestDevicePlayback)
+	 */
+	public void onPlaybackFinished(TestDevicePlayback playback) {
+		
+		synchronized (this) {
+			if (continuousPlayback == playback) {
+				continuousPlayback = null;
 			}
 		}
 		
+		rewindCommandPlayback();
+	}
+
+	// -------------------------------------------------------------------------
+	// Required by IDeviceChangeListener
+	// -------------------------------------------------------------------------
+
+	/* (non-Javadoc)
+	 * @see com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener#deviceConnected(com.android.ddmlib.IDevice)
+	 */
+	public void deviceConnected(IDevice arg0) {
+		
+		// Onboarding talks to the device, keep it off the ddmlib thread.
+		addDevice(arg0);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.android.ddmlib.AndroidDebugBridge.IDeviceChangeListener#deviceChanged(com.android.ddmlib.IDevice, int)
+	 */
+	public void deviceChanged(IDevice arg0, int changeMask) {
+		
+		TestDevice device = devices.get(arg0.getSerialNumber());
+		
+		if (device != null) {
+			notifyListenersChangeDevice(device);
+		}
+		
 		// If the device changed state, check to see if it is offline or online
 		// and handle accordingly.
 		if (changeMask == IDevice.CHANGE_STATE) {
 			
-			if (arg0.isOffline() && inDeviceList) {
-				
-				// Remove it from the device list.
-				for (int i = 0; i < devices.size(); i++) {
-					
-					TestDevice device = devices.get(i);
-					
-					if (device.getSerialNumber().equals(arg0.getSerialNumber())) {
-						notifyListenersRemovedDevice(device);
-						
-						if (getDeviceIndex(device) == signalingDeviceIndex) {
-							setSignalingDeviceIndex(-1);
-						}
-						
-						device.dispose();
-						devices.remove(device);
-					}
-				}
-				
-			} else if (arg0.isOnline() && !inDeviceList) {
-			
-				// Add the device.
-				TestDevice tDevice = new TestDevice(arg0);
-				
-				// Attempt to get existing calibration data and add it to the 
-				// TestDevice
-				CalibrationData calibrationData = 
-						CalibrationIO.getCalibrationData(arg0.getSerialNumber());
-				
-				if (calibrationData != null) {
-					tDevice.setCalibrationData(calibrationData);
-				}
-				
-				devices.add(tDevice);
-				notifyListenersAddedDevice(tDevice);
-				
+			if (arg0.isOffline() && device != null) {
+				removeDevice(arg0);
+			} else if (arg0.isOnline() && device == null) {
+				addDevice(arg0);
 			}
 		}
 	}
@@ -414,27 +584,115 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	 */
 	public void deviceDisconnected(IDevice arg0) {
 
-		for (int i = 0; i < devices.size(); i++) {
-			
-			TestDevice device = devices.get(i);
-			
-			if (device.getSerialNumber().equals(arg0.getSerialNumber())) {
-				notifyListenersRemovedDevice(device);
-				
-				if (getDeviceIndex(device) == signalingDeviceIndex) {
-					setSignalingDeviceIndex(-1);
-				}
-				
-				device.dispose();
-				devices.remove(device);
-			}
-		}
+		removeDevice(arg0);
 	}
 	
 	// -------------------------------------------------------------------------
 	// Private methods
 	// -------------------------------------------------------------------------
 	
+	/**
+	 * Send the command to the devices, either in lockstep or through an
+	 * independent fan out.
+	 * @param command Command to send to the devices receiving input.
+	 * @return Future completing with one result per device.
+	 */
+	private DeviceCommandFuture dispatchCommand(DeviceCommand command) {
+		
+		// Both dispatchers work off one snapshot, so a device connecting 
+		// while the command goes out is not half included.
+		List<TestDevice> devices = this.devices.getSnapshot().getDevices();
+		
+		if (lockstepDispatch && canLockstep(command.getPriority())) {
+			TestDeviceLockstepDispatch lockstep = 
+					new TestDeviceLockstepDispatch(command, devices, this);
+			lockstep.dispatch();
+			return lockstep.getFuture();
+		} else {
+			TestDeviceCommandFanOut fanOut = 
+					new TestDeviceCommandFanOut(command, devices);
+			fanOut.dispatch();
+			return fanOut.getFuture();
+		}
+	}
+	
+	/**
+	 * Check if commands of the class can be dispatched in lockstep. Every 
+	 * device holds its scheduler permit while it waits at the barrier, so a 
+	 * class limited to fewer permits than devices would stall the barrier 
+	 * until it times out. Such commands are fanned out instead.
+	 * @param priority Class of the command.
+	 * @return True if the class runs without a concurrency limit.
+	 */
+	private boolean canLockstep(CommandPriority priority) {
+		return CommandScheduler.getInstance().isUnlimited(priority);
+	}
+	
+	/**
+	 * Get the serial numbers of the devices receiving input.
+	 * @return Serial numbers in device order.
+	 */
+	private List<String> getInputSerialNumbers() {
+		
+		List<TestDevice> snapshot = devices.getSnapshot().getDevices();
+		ArrayList<String> serials = new ArrayList<String>();
+		
+		for (int i = 0; i < snapshot.size(); i++) {
+			if (snapshot.get(i).getReceivingInput()) {
+				serials.add(snapshot.get(i).getSerialNumber());
+			}
+		}
+		
+		return serials;
+	}
+	
+	/**
+	 * Start onboarding a newly connected device. Does nothing if the device 
+	 * is already registered or being onboarded, as both deviceConnected and
+	 * deviceChanged can report the same device.
+	 * @param iDevice Connected device.
+	 */
+	private void addDevice(IDevice iDevice) {
+		
+		if (devices.get(iDevice.getSerialNumber()) != null) {
+			return;
+		}
+		
+		onboarding.submit(iDevice);
+	}
+	
+	/**
+	 * Notify the listeners of a disconnected device, then unregister and 
+	 * dispose of it. The signaling index follows the signaling device if a 
+	 * device before it is removed.
+	 * @param iDevice Disconnected device.
+	 */
+	private void removeDevice(IDevice iDevice) {
+		
+		TestDevice device = devices.get(iDevice.getSerialNumber());
+		
+		if (device == null) {
+			return;
+		}
+		
+		// Listeners look up the row of the device, so notify before removal.
+		notifyListenersRemovedDevice(device);
+		
+		int index = getDeviceIndex(device);
+		
+		if (devices.remove(device.getSerialNumber()) == null) {
+			return;
+		}
+		
+		if (index == signalingDeviceIndex) {
+			setSignalingDeviceIndex(-1);
+		} else if (index >= 0 && index < signalingDeviceIndex) {
+			signalingDeviceIndex--;
+		}
+		
+		device.dispose();
+	}
+	
 	/**
 	 * Notify a newly added listener of all existing devices.
 	 * @param listener Listener that was just added.
@@ -442,7 +700,8 @@ public class TestDeviceManager extends Thread implements IDeviceChangeListener {
 	private synchronized void notifyNewListener(
 			TestDeviceConnectionListener listener) {
 		
-		Iterator<TestDevice> iterator = devices.iterator();
+		Iterator<TestDevice> iterator = 
+				devices.getSnapshot().getDevices().iterator();
 		
 		while(iterator.hasNext()) {
 			
@@ -0,0 +1,193 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDeviceOnboarding
+ * 
+ * Description: 
+ * Brings newly connected devices up off the ddmlib callback thread. Each 
+ * device waits to come online, is wrapped in a TestDevice (which talks to the
+ * device for its properties and screen size) and is handed to the 
+ * TestDeviceManager as soon as it is usable. Several devices are onboarded in
+ * parallel, bounded by the mtd.onboarding.concurrency system property, so a 
+ * hub of phones coming online at once is not brought up one after another.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.android.ddmlib.IDevice;
+
+public class TestDeviceOnboarding {
+	
+	/** System property overriding the number of devices onboarded at once. */
+	public static final String CONCURRENCY_PROPERTY = 
+			"mtd.onboarding.concurrency";
+	
+	/** Default number of devices onboarded at once. */
+	private static final int DEFAULT_CONCURRENCY = 4;
+	
+	/** Milliseconds between checks of a device that is still offline. */
+	private static final long ONLINE_POLL_INTERVAL = 500;
+	
+	/** Max number of checks before giving up on an offline device. */
+	private static final int ONLINE_POLL_LIMIT = 5;
+	
+	/** Manager the onboarded devices are handed to. */
+	private TestDeviceManager manager;
+	
+	/** Workers onboarding the devices. */
+	private ExecutorService executor;
+	
+	/** 
+	 * Serial numbers of the devices being onboarded. ddmlib can report the 
+	 * same device as connected and as changed, it is only onboarded once.
+	 */
+	private Set<String> pending;
+	
+	/**
+	 * Default constructor.
+	 * @param manager Manager to hand onboarded devices to.
+	 */
+	public TestDeviceOnboarding(TestDeviceManager manager) {
+		
+		this.manager = manager;
+		this.pending = 
+				Collections.newSetFromMap(
+						new ConcurrentHashMap<String, Boolean>());
+		
+		int concurrency = Integer.getInteger(
+				CONCURRENCY_PROPERTY, DEFAULT_CONCURRENCY);
+		
+		if (concurrency < 1) {
+			concurrency = 1;
+		}
+		
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(
+				concurrency, 
+				concurrency, 
+				30, 
+				TimeUnit.SECONDS, 
+				new LinkedBlockingQueue<Runnable>(),
+				DeviceExecutionBackend.getInstance().newThreadFactory(
+						"DeviceOnboarding"));
+		
+		// Nothing to onboard most of the time, do not keep idle threads.
+		pool.allowCoreThreadTimeOut(true);
+		
+		this.executor = pool;
+	}
+	
+	/**
+	 * Onboard a device in the background. Does nothing if the device is 
+	 * already being onboarded.
+	 * @param device Device to onboard.
+	 */
+	public void submit(final IDevice device) {
+		
+		final String serialNumber = device.getSerialNumber();
+		
+		if (!pending.add(serialNumber)) {
+			return;
+		}
+		
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						onboard(device);
+					} finally {
+						pending.remove(serialNumber);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// Shutting down.
+			pending.remove(serialNumber);
+		}
+	}
+	
+	/**
+	 * Check if a device is being onboarded.
+	 * @param serialNumber Serial number of the device.
+	 * @return True if onboarding is queued or running.
+	 */
+	public boolean isOnboarding(String serialNumber) {
+		return pending.contains(serialNumber);
+	}
+	
+	/**
+	 * Stop onboarding. Devices not yet started are dropped.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Wait for the device to come online, wrap it and hand it to the 
+	 * manager.
+	 * @param device Device to onboard.
+	 */
+	private void onboard(IDevice device) {
+		
+		int counter = 0;
+		
+		// If the device is offline, wait for a period of time for it to come
+		// online. If it never does, ddmlib reports it as changed once it
+		// does and it is onboarded then.
+		while (device.isOffline() && counter < ONLINE_POLL_LIMIT) {
+			try {
+				Thread.sleep(ONLINE_POLL_INTERVAL);
+			} catch (InterruptedException e) {
+				return;
+			}
+			counter++;
+		}
+		
+		if (counter >= ONLINE_POLL_LIMIT) {
+			return;
+		}
+		
+		TestDevice tDevice;
+		
+		try {
+			tDevice = new TestDevice(device);
+		} catch (Exception e) {
+			e.printStackTrace();
+			return;
+		}
+		
+		// Unplugged while being onboarded.
+		if (!device.isOnline() || Thread.currentThread().isInterrupted()) {
+			tDevice.dispose();
+			return;
+		}
+		
+		manager.deviceOnboarded(tDevice);
+	}
+}
@@ -0,0 +1,596 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDevicePlayback
+ * 
+ * Description: 
+ * Plays a whole recording continuously. Every device receiving input keeps its
+ * own cursor into the recording and moves on as soon as it finishes a step, 
+ * instead of every step waiting for the slowest device. To stop devices 
+ * drifting into different app states, a device may only run a bounded window
+ * of steps ahead of the slowest device, after which it waits for it to catch
+ * up. A recording therefore takes about as long as the slowest device needs 
+ * for it, rather than the sum of the slowest device of every step.
+ * 
+ * Playback can also be timed from the think time recorded before each 
+ * command, either at the original cadence or sped up. A device then does not
+ * start a step before its scheduled time, however far ahead it could run.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class TestDevicePlayback implements TestDeviceCommandQueueListener {
+	
+	/** Default number of steps a device may run ahead of the slowest one. */
+	public static final int DEFAULT_WINDOW = 3;
+	
+	/** Speed that plays as fast as the devices allow, ignoring think time. */
+	public static final float AS_FAST_AS_POSSIBLE = 0.0f;
+	
+	/** Speed that plays with the think time as recorded. */
+	public static final float ORIGINAL_CADENCE = 1.0f;
+	
+	/** Recorded commands, in playback order. */
+	private List<DeviceCommand> commands;
+	
+	/** 
+	 * Nanoseconds after the start of playback each step is due, already 
+	 * scaled by the speed. Null for untimed playback.
+	 */
+	private long[] dueOffsets;
+	
+	/** Nano time the playback started. */
+	private long startTime;
+	
+	/** 
+	 * Wakes the playback when the next step is due. Only created for timed
+	 * playback.
+	 */
+	private ScheduledExecutorService timer;
+	
+	/** 
+	 * Nano time of the wake up already scheduled, 0 if none. Guarded by 
+	 * this.
+	 */
+	private long scheduledWake = 0;
+	
+	/** Max number of steps a device may run ahead of the slowest one. */
+	private int window;
+	
+	/** 
+	 * Cursor of every device taking part, by serial number. Devices that 
+	 * dropped out keep their cursor for reporting. Guarded by this.
+	 */
+	private LinkedHashMap<String, Cursor> cursors;
+	
+	/** Steps completed by the slowest device. Guarded by this. */
+	private int slowestStep = 0;
+	
+	/** True until the playback finishes or is stopped. Guarded by this. */
+	private boolean running = false;
+	
+	/** Listeners notified of progress and completion. */
+	private CopyOnWriteArrayList<TestDevicePlaybackListener> listeners;
+	
+	/**
+	 * Default constructor.
+	 * @param commands Commands to play, in order. Copied.
+	 * @param devices Devices to play on. Only devices receiving input take 
+	 * part.
+	 * @param window Max number of steps a device may run ahead of the 
+	 * slowest device. Values below 1 are treated as 1, which plays step by
+	 * step.
+	 */
+	public TestDevicePlayback(
+			List<DeviceCommand> commands, 
+			List<TestDevice> devices, 
+			int window) {
+		
+		this(commands, null, devices, window, AS_FAST_AS_POSSIBLE);
+	}
+	
+	/**
+	 * Create a timed playback.
+	 * @param commands Commands to play, in order. Copied.
+	 * @param delays Think time in milliseconds before each command, same 
+	 * order as commands. Ignored when speed is AS_FAST_AS_POSSIBLE.
+	 * @param devices Devices to play on. Only devices receiving input take 
+	 * part.
+	 * @param window Max number of steps a device may run ahead of the 
+	 * slowest device. Values below 1 are treated as 1, which plays step by
+	 * step.
+	 * @param speed ORIGINAL_CADENCE for the recorded think time, larger 
+	 * values to divide it (2 plays twice as fast), AS_FAST_AS_POSSIBLE to
+	 * ignore it.
+	 */
+	public TestDevicePlayback(
+			List<DeviceCommand> commands, 
+			List<Long> delays,
+			List<TestDevice> devices, 
+			int window,
+			float speed) {
+		
+		this.commands = new ArrayList<DeviceCommand>(commands);
+		this.window = Math.max(1, window);
+		this.cursors = new LinkedHashMap<String, Cursor>();
+		this.listeners = 
+				new CopyOnWriteArrayList<TestDevicePlaybackListener>();
+		
+		for (int i = 0; i < devices.size(); i++) {
+			
+			TestDevice device = devices.get(i);
+			
+			if (device.getReceivingInput()) {
+				cursors.put(device.getSerialNumber(), new Cursor(device));
+			}
+		}
+		
+		if (speed > 0 && delays != null) {
+			
+			dueOffsets = new long[this.commands.size()];
+			long offset = 0;
+			
+			// The first step is due straight away.
+			for (int i = 1; i < dueOffsets.length && i < delays.size(); i++) {
+				offset += (long)(
+						TimeUnit.MILLISECONDS.toNanos(delays.get(i)) / speed);
+				dueOffsets[i] = offset;
+			}
+			
+			for (int i = delays.size(); i < dueOffsets.length; i++) {
+				dueOffsets[i] = offset;
+			}
+			
+			ScheduledThreadPoolExecutor scheduled = 
+					new ScheduledThreadPoolExecutor(
+							1, 
+							DeviceExecutionBackend.getInstance().
+								newThreadFactory("PlaybackTimer"));
+			scheduled.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			timer = scheduled;
+		}
+	}
+	
+	/**
+	 * Add a listener for progress and completion.
+	 * @param listener Listener to add.
+	 */
+	public void addPlaybackListener(TestDevicePlaybackListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Remove a listener.
+	 * @param listener Listener to remove.
+	 */
+	public void removePlaybackListener(TestDevicePlaybackListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Start playing. Returns immediately, devices play on their own queues.
+	 */
+	public void start() {
+		
+		synchronized (this) {
+			startTime = System.nanoTime();
+			running = true;
+		}
+		
+		pump();
+	}
+	
+	/**
+	 * Stop queuing further steps. Steps already queued still execute.
+	 */
+	public void stop() {
+		
+		synchronized (this) {
+			
+			if (!running) {
+				return;
+			}
+			
+			running = false;
+		}
+		
+		shutdownTimer();
+		notifyFinished();
+	}
+	
+	/**
+	 * Check if the playback is still running.
+	 * @return True until every device finished or the playback was stopped.
+	 */
+	public synchronized boolean isRunning() {
+		return running;
+	}
+	
+	/**
+	 * Get the number of steps completed by the slowest device.
+	 * @return Completed step count.
+	 */
+	public synchronized int getSlowestStep() {
+		return slowestStep;
+	}
+	
+	/**
+	 * Get the number of steps a device has completed.
+	 * @param serialNumber Serial number of the device.
+	 * @return Completed step count, or -1 if the device is not taking part.
+	 */
+	public synchronized int getDeviceStep(String serialNumber) {
+		
+		Cursor cursor = cursors.get(serialNumber);
+		
+		if (cursor == null) {
+			return -1;
+		}
+		
+		return cursor.completed;
+	}
+	
+	/**
+	 * Get the serial numbers of the devices taking part, including devices
+	 * that dropped out.
+	 * @return Serial numbers in device order.
+	 */
+	public synchronized List<String> getSerialNumbers() {
+		return new ArrayList<String>(cursors.keySet());
+	}
+	
+	/**
+	 * Get the result of every step a device executed, in order.
+	 * @param serialNumber Serial number of the device.
+	 * @return Step results, empty if the device is not taking part.
+	 */
+	public synchronized List<DeviceCommandResult> getDeviceResults(
+			String serialNumber) {
+		
+		Cursor cursor = cursors.get(serialNumber);
+		
+		if (cursor == null) {
+			return new ArrayList<DeviceCommandResult>();
+		}
+		
+		return new ArrayList<DeviceCommandResult>(cursor.results);
+	}
+	
+	/**
+	 * Check if a device dropped out before finishing the recording, because 
+	 * it was quarantined or its queue shut down.
+	 * @param serialNumber Serial number of the device.
+	 * @return True if the device dropped out.
+	 */
+	public synchronized boolean isDeviceDropped(String serialNumber) {
+		
+		Cursor cursor = cursors.get(serialNumber);
+		
+		return cursor != null && cursor.dropped;
+	}
+	
+	/**
+	 * Get how long a device took from the start of playback until it 
+	 * finished the recording or dropped out.
+	 * @param serialNumber Serial number of the device.
+	 * @return Milliseconds, or -1 if the device is still playing or not 
+	 * taking part.
+	 */
+	public synchronized long getDeviceElapsed(String serialNumber) {
+		
+		Cursor cursor = cursors.get(serialNumber);
+		
+		if (cursor == null || cursor.finishedAt == 0) {
+			return -1;
+		}
+		
+		return TimeUnit.NANOSECONDS.toMillis(cursor.finishedAt - startTime);
+	}
+	
+	/**
+	 * Check if the playback follows the recorded think time.
+	 * @return True if timed, false if playing as fast as the devices allow.
+	 */
+	public boolean isTimed() {
+		return dueOffsets != null;
+	}
+	
+	/**
+	 * Get the number of steps in the recording.
+	 * @return Recording length.
+	 */
+	public int getLength() {
+		return commands.size();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by TestDeviceCommandQueueListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandQueued(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand)
+	 */
+	public void onCommandQueued(TestDevice device, DeviceCommand command) {
+		// Nothing to do, cursors only move once a step is executed.
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDeviceCommandQueueListener#onCommandExecuted(com.ebay.testdemultiplexer.connection.TestDevice, com.ebay.testdemultiplexer.device.commands.DeviceCommand, com.ebay.testdemultiplexer.connection.DeviceCommandResult)
+	 */
+	public void onCommandExecuted(
+			TestDevice device, 
+			DeviceCommand command, 
+			DeviceCommandResult result) {
+		
+		synchronized (this) {
+			
+			Cursor cursor = cursors.get(device.getSerialNumber());
+			
+			if (!running || cursor == null || cursor.dropped) {
+				return;
+			}
+			
+			cursor.inFlight = false;
+			cursor.results.add(result);
+			
+			// A quarantined device would hold every other device back.
+			if (device.isQuarantined()) {
+				cursor.drop();
+			} else {
+				cursor.completed++;
+				
+				if (cursor.completed >= commands.size()) {
+					cursor.finishedAt = System.nanoTime();
+				}
+			}
+		}
+		
+		pump();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Queue the next step on every device that is idle, inside the window 
+	 * and, for timed playback, due. Then report progress and completion. 
+	 * Queuing happens outside the lock as a queue that is shutting down 
+	 * reports straight back.
+	 */
+	private void pump() {
+		
+		ArrayList<Cursor> ready = new ArrayList<Cursor>();
+		int progress = -1;
+		boolean finished = false;
+		long wakeDelay = -1;
+		
+		synchronized (this) {
+			
+			if (!running) {
+				return;
+			}
+			
+			int slowest = commands.size();
+			Iterator<Cursor> iterator = cursors.values().iterator();
+			
+			while (iterator.hasNext()) {
+				
+				Cursor cursor = iterator.next();
+				
+				if (!cursor.dropped) {
+					slowest = Math.min(slowest, cursor.completed);
+				}
+			}
+			
+			if (slowest != slowestStep) {
+				slowestStep = slowest;
+				progress = slowest;
+			}
+			
+			if (slowest >= commands.size()) {
+				running = false;
+				finished = true;
+			} else {
+				
+				long now = System.nanoTime();
+				long nextDue = Long.MAX_VALUE;
+				
+				iterator = cursors.values().iterator();
+				
+				while (iterator.hasNext()) {
+					
+					Cursor cursor = iterator.next();
+					
+					if (cursor.inFlight || 
+							cursor.dropped ||
+							cursor.completed >= commands.size() ||
+							cursor.completed - slowest >= window) {
+						continue;
+					}
+					
+					if (dueOffsets != null) {
+						
+						long due = startTime + dueOffsets[cursor.completed];
+						
+						if (due - now > 0) {
+							nextDue = Math.min(nextDue, due);
+							continue;
+						}
+					}
+					
+					cursor.inFlight = true;
+					ready.add(cursor);
+				}
+				
+				// Only one wake up is needed for the earliest due step.
+				if (nextDue != Long.MAX_VALUE && 
+						(scheduledWake == 0 || nextDue - scheduledWake < 0)) {
+					scheduledWake = nextDue;
+					wakeDelay = nextDue - now;
+				}
+			}
+		}
+		
+		if (progress >= 0) {
+			notifyProgress(progress);
+		}
+		
+		if (finished) {
+			shutdownTimer();
+			notifyFinished();
+			return;
+		}
+		
+		if (wakeDelay >= 0) {
+			scheduleWake(wakeDelay);
+		}
+		
+		boolean dropped = false;
+		
+		for (int i = 0; i < ready.size(); i++) {
+			
+			Cursor cursor = ready.get(i);
+			DeviceCommand command = commands.get(cursor.completed);
+			
+			if (!cursor.device.getCommandQueue().enqueue(command, this)) {
+				
+				// The device went away, stop waiting on it.
+				synchronized (this) {
+					cursor.inFlight = false;
+					cursor.drop();
+				}
+				dropped = true;
+			}
+		}
+		
+		// Losing a device may have let the slowest step move on.
+		if (dropped) {
+			pump();
+		}
+	}
+	
+	/**
+	 * Pump again once the next step is due.
+	 * @param delay Nanoseconds until the step is due.
+	 */
+	private void scheduleWake(long delay) {
+		
+		try {
+			timer.schedule(new Runnable() {
+				public void run() {
+					
+					synchronized (TestDevicePlayback.this) {
+						scheduledWake = 0;
+					}
+					
+					pump();
+				}
+			}, delay, TimeUnit.NANOSECONDS);
+		} catch (RejectedExecutionException e) {
+			// Stopped in the meantime.
+		}
+	}
+	
+	/**
+	 * Stop the timer of a timed playback.
+	 */
+	private void shutdownTimer() {
+		
+		if (timer != null) {
+			timer.shutdownNow();
+		}
+	}
+	
+	/**
+	 * Notify the listeners the slowest device moved on.
+	 * @param step Steps completed by the slowest device.
+	 */
+	private void notifyProgress(int step) {
+		
+		Iterator<TestDevicePlaybackListener> iterator = listeners.iterator();
+		
+		while (iterator.hasNext()) {
+			iterator.next().onPlaybackProgress(this, step);
+		}
+	}
+	
+	/**
+	 * Notify the listeners the playback is over.
+	 */
+	private void notifyFinished() {
+		
+		Iterator<TestDevicePlaybackListener> iterator = listeners.iterator();
+		
+		while (iterator.hasNext()) {
+			iterator.next().onPlaybackFinished(this);
+		}
+	}
+	
+	/**
+	 * Position of one device in the recording.
+	 */
+	private static class Cursor {
+		
+		/** Device the cursor belongs to. */
+		private final TestDevice device;
+		
+		/** Number of steps the device has executed. */
+		private int completed = 0;
+		
+		/** True while the device has a step queued or executing. */
+		private boolean inFlight = false;
+		
+		/** True once the device dropped out of the playback. */
+		private boolean dropped = false;
+		
+		/** Nano time the device finished or dropped out, 0 until then. */
+		private long finishedAt = 0;
+		
+		/** Result of every step executed, in order. */
+		private final ArrayList<DeviceCommandResult> results = 
+				new ArrayList<DeviceCommandResult>();
+		
+		/**
+		 * Default constructor.
+		 * @param device Device the cursor belongs to.
+		 */
+		private Cursor(TestDevice device) {
+			this.device = device;
+		}
+		
+		/**
+		 * Take the device out of the playback.
+		 */
+		private void drop() {
+			dropped = true;
+			finishedAt = System.nanoTime();
+		}
+	}
+}
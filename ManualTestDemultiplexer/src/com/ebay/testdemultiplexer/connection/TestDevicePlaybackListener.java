@@ -0,0 +1,43 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDevicePlaybackListener
+ * 
+ * Description: 
+ * Interface for listening to a continuous TestDevicePlayback. Notifies when 
+ * the slowest device moves on to the next recorded step and when the playback
+ * is over.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+public interface TestDevicePlaybackListener {
+
+	/**
+	 * Notifies listener that every device has completed the given number of
+	 * recorded steps.
+	 * @param playback Playback that progressed.
+	 * @param slowestStep Number of steps completed by the slowest device.
+	 */
+	public void onPlaybackProgress(TestDevicePlayback playback, int slowestStep);
+	
+	/**
+	 * Notifies listener that the playback finished or was stopped.
+	 * @param playback Playback that is over.
+	 */
+	public void onPlaybackFinished(TestDevicePlayback playback);
+}
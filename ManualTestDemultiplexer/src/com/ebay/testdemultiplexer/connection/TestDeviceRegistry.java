@@ -0,0 +1,245 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestDeviceRegistry
+ * 
+ * Description: 
+ * Copy on write registry of the connected TestDevices. Every change publishes a
+ * new immutable Snapshot holding the device list and a serial number index, so
+ * readers (command fan out, screen rendering, the device table) never lock and
+ * always see a device list and index that agree with each other. Changes are
+ * rare (devices connecting and disconnecting) and are serialized on the 
+ * registry.
+ */
+
+package com.ebay.testdemultiplexer.connection;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+public class TestDeviceRegistry {
+	
+	/** Current snapshot. Replaced, never modified, on every change. */
+	private volatile Snapshot snapshot = new Snapshot(
+			new ArrayList<TestDevice>(), 0);
+	
+	/**
+	 * Get the current snapshot. Indices are stable for the lifetime of the
+	 * snapshot, so code walking the devices should hold on to one snapshot
+	 * rather than going back to the registry for every device.
+	 * @return Current immutable snapshot.
+	 */
+	public Snapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * Get the number of registered devices.
+	 * @return Total device count.
+	 */
+	public int size() {
+		return snapshot.size();
+	}
+	
+	/**
+	 * Get the device at the given index of the current snapshot.
+	 * @param index Index to retrieve.
+	 * @return TestDevice at the index, or null if out of range.
+	 */
+	public TestDevice get(int index) {
+		return snapshot.get(index);
+	}
+	
+	/**
+	 * Get the device with the given serial number.
+	 * @param serialNumber Serial number to look up.
+	 * @return Matching TestDevice, or null if not registered.
+	 */
+	public TestDevice get(String serialNumber) {
+		return snapshot.get(serialNumber);
+	}
+	
+	/**
+	 * Get the index of the device with the given serial number.
+	 * @param serialNumber Serial number to look up.
+	 * @return Index in the current snapshot, or -1 if not registered.
+	 */
+	public int indexOf(String serialNumber) {
+		return snapshot.indexOf(serialNumber);
+	}
+	
+	/**
+	 * Add a device to the end of the registry.
+	 * @param device Device to add.
+	 * @return True if added, false if a device with the same serial number 
+	 * is already registered.
+	 */
+	public synchronized boolean add(TestDevice device) {
+		
+		Snapshot current = snapshot;
+		
+		if (current.indexOf(device.getSerialNumber()) >= 0) {
+			return false;
+		}
+		
+		ArrayList<TestDevice> devices = 
+				new ArrayList<TestDevice>(current.size() + 1);
+		devices.addAll(current.getDevices());
+		devices.add(device);
+		
+		snapshot = new Snapshot(devices, current.getVersion() + 1);
+		return true;
+	}
+	
+	/**
+	 * Remove the device with the given serial number. Devices after it move 
+	 * up one index.
+	 * @param serialNumber Serial number of the device to remove.
+	 * @return Removed device, or null if not registered.
+	 */
+	public synchronized TestDevice remove(String serialNumber) {
+		
+		Snapshot current = snapshot;
+		int index = current.indexOf(serialNumber);
+		
+		if (index < 0) {
+			return null;
+		}
+		
+		ArrayList<TestDevice> devices = 
+				new ArrayList<TestDevice>(current.getDevices());
+		TestDevice removed = devices.remove(index);
+		
+		snapshot = new Snapshot(devices, current.getVersion() + 1);
+		return removed;
+	}
+	
+	/**
+	 * Remove every device from the registry.
+	 * @return Devices that were registered.
+	 */
+	public synchronized List<TestDevice> clear() {
+		
+		Snapshot current = snapshot;
+		snapshot = new Snapshot(
+				new ArrayList<TestDevice>(), current.getVersion() + 1);
+		
+		return current.getDevices();
+	}
+	
+	/**
+	 * Immutable view of the registered devices at one point in time.
+	 */
+	public static class Snapshot {
+		
+		/** Devices in registration order. Unmodifiable. */
+		private final List<TestDevice> devices;
+		
+		/** Index of each device in devices, by serial number. */
+		private final HashMap<String, Integer> indexBySerial;
+		
+		/** Incremented on every change to the registry. */
+		private final long version;
+		
+		/**
+		 * Default constructor.
+		 * @param devices Devices in the snapshot. Must not be modified 
+		 * afterwards.
+		 * @param version Version of the snapshot.
+		 */
+		private Snapshot(ArrayList<TestDevice> devices, long version) {
+			
+			this.devices = Collections.unmodifiableList(devices);
+			this.indexBySerial = new HashMap<String, Integer>();
+			this.version = version;
+			
+			for (int i = 0; i < devices.size(); i++) {
+				indexBySerial.put(devices.get(i).getSerialNumber(), i);
+			}
+		}
+		
+		/**
+		 * Get the devices in registration order.
+		 * @return Unmodifiable device list.
+		 */
+		public List<TestDevice> getDevices() {
+			return devices;
+		}
+		
+		/**
+		 * Get the version of the snapshot. Two snapshots with the same 
+		 * version hold the same devices at the same indices.
+		 * @return Snapshot version.
+		 */
+		public long getVersion() {
+			return version;
+		}
+		
+		/**
+		 * Get the number of devices in the snapshot.
+		 * @return Device count.
+		 */
+		public int size() {
+			return devices.size();
+		}
+		
+		/**
+		 * Get the device at the given index.
+		 * @param index Index to retrieve.
+		 * @return TestDevice at the index, or null if out of range.
+		 */
+		public TestDevice get(int index) {
+			
+			if (index < 0 || index >= devices.size()) {
+				return null;
+			}
+			
+			return devices.get(index);
+		}
+		
+		/**
+		 * Get the device with the given serial number.
+		 * @param serialNumber Serial number to look up.
+		 * @return Matching TestDevice, or null if not in the snapshot.
+		 */
+		public TestDevice get(String serialNumber) {
+			return get(indexOf(serialNumber));
+		}
+		
+		/**
+		 * Get the index of the device with the given serial number.
+		 * @param serialNumber Serial number to look up.
+		 * @return Index of the device, or -1 if not in the snapshot.
+		 */
+		public int indexOf(String serialNumber) {
+			
+			if (serialNumber == null) {
+				return -1;
+			}
+			
+			Integer index = indexBySerial.get(serialNumber);
+			
+			if (index == null) {
+				return -1;
+			}
+			
+			return index;
+		}
+	}
+}
@@ -38,6 +38,7 @@ import java.util.HashMap;
 
 import javax.swing.JOptionPane;
 
+import com.ebay.testdemultiplexer.util.MessageDisplay;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class CalibrationIO {
@@ -158,8 +159,7 @@ public class CalibrationIO {
 				dataToken = bufferedReader.readLine();
 			} catch (IOException e) {
 				
-				JOptionPane.showMessageDialog(
-	    				null, 
+				MessageDisplay.showMessage(
 	    				READ_ERROR_MSG, 
 	    				READ_ERROR_TITLE, 
 	    				JOptionPane.ERROR_MESSAGE);
@@ -198,8 +198,7 @@ public class CalibrationIO {
 			bufferedReader.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				READ_ERROR_MSG, 
     				READ_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -213,8 +212,7 @@ public class CalibrationIO {
 			fileReader.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				READ_ERROR_MSG, 
     				READ_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -236,8 +234,7 @@ public class CalibrationIO {
 			fileWriter = new FileWriter(STORED_FILE, false);
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				WRITE_ERROR_MSG, 
     				WRITE_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -272,8 +269,7 @@ public class CalibrationIO {
 				writer.write(serialized);
 			} catch (IOException e) {
 				
-				JOptionPane.showMessageDialog(
-	    				null, 
+				MessageDisplay.showMessage(
 	    				WRITE_ERROR_MSG, 
 	    				WRITE_ERROR_TITLE, 
 	    				JOptionPane.ERROR_MESSAGE);
@@ -288,8 +284,7 @@ public class CalibrationIO {
 			writer.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				WRITE_ERROR_MSG, 
     				WRITE_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -303,8 +298,7 @@ public class CalibrationIO {
 			fileWriter.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				WRITE_ERROR_MSG, 
     				WRITE_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -0,0 +1,82 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Enum: CommandPriority
+ * 
+ * Description: 
+ * Scheduling classes for work sent to devices, most urgent first. Each class
+ * has its own limit on how much of it may run at once across all devices. 
+ * Commands for one device run in the order they were queued, except that 
+ * INTERACTIVE commands may overtake preemptible ones that are still waiting
+ * for a permit.
+ */
+
+package com.ebay.testdemultiplexer.device.commands;
+
+public enum CommandPriority {
+	
+	/** Touches, drags, key presses and typing from the tester. */
+	INTERACTIVE(0, false),
+	
+	/** 
+	 * UI hierarchy dumps through uiautomator. Not preemptible, a dump must
+	 * see the screen left by the commands queued before it.
+	 */
+	UI_DUMP(8, false),
+	
+	/** Screen captures for the preview and screenshots. */
+	SCREEN_CAPTURE(4, true),
+	
+	/** Installs, removals, shell commands, reboots and bug reports. */
+	BULK(4, true);
+	
+	/** Default concurrency limit, 0 for unlimited. */
+	private final int defaultLimit;
+	
+	/** True if INTERACTIVE commands may overtake waiting work. */
+	private final boolean preemptible;
+	
+	/**
+	 * Create a priority class.
+	 * @param defaultLimit Default number of operations of the class that may
+	 * run at once across all devices, 0 for unlimited.
+	 * @param preemptible True if INTERACTIVE commands queued later for the 
+	 * same device may run first while work of the class waits for a permit.
+	 */
+	private CommandPriority(int defaultLimit, boolean preemptible) {
+		this.defaultLimit = defaultLimit;
+		this.preemptible = preemptible;
+	}
+	
+	/**
+	 * Get the default concurrency limit of the class.
+	 * @return Max operations running at once across all devices, 0 for 
+	 * unlimited.
+	 */
+	public int getDefaultLimit() {
+		return defaultLimit;
+	}
+	
+	/**
+	 * Check if INTERACTIVE commands may overtake work of the class that has
+	 * not started and is still waiting for its permit.
+	 * @return True if the class is preemptible.
+	 */
+	public boolean isPreemptible() {
+		return preemptible;
+	}
+}
@@ -21,6 +21,8 @@
  * 
  * Description: 
  * Interface that defines the command execution method for all MTD commands.
+ * Commands can optionally be split into a prepare and release phase so input
+ * can be released on several devices at the same time.
  */
 
 package com.ebay.testdemultiplexer.device.commands;
@@ -28,21 +30,103 @@ package com.ebay.testdemultiplexer.device.commands;
 import com.ebay.testdemultiplexer.connection.TestDevice;
 
 public abstract class DeviceCommand {
+	
+	/** Default number of milliseconds a command may run on a device. */
+	public static final long DEFAULT_TIMEOUT = 30000;
+	
+	/** 
+	 * Output reported by the command executing on the current thread. A 
+	 * command instance runs on several device threads at once, so the output
+	 * cannot be kept in the instance itself.
+	 */
+	private static final ThreadLocal<String> commandOutput = 
+			new ThreadLocal<String>();
 
 	/**
 	 * Execute the command on the TestDevice's IChimpDevice.
 	 * @param device TestDevice to execute on.
+	 * @return Output the command produced on the device, or null if the 
+	 * command produces none.
 	 */
-	public void executeCommand(TestDevice device) {
+	public String executeCommand(TestDevice device) {
+		
+		commandOutput.remove();
 		
-		// Execute the command.
-		execute(device);
+		try {
+			// Execute the command.
+			execute(device);
+			afterExecute(device);
+			return commandOutput.get();
+		} finally {
+			commandOutput.remove();
+		}
+	}
+	
+	/**
+	 * Get the number of milliseconds the command may run on a single device
+	 * before it is cancelled and counted as a missed deadline. Commands that
+	 * are slow by nature override this.
+	 * @return Timeout in milliseconds.
+	 */
+	public long getTimeout() {
+		return DEFAULT_TIMEOUT;
+	}
+	
+	/**
+	 * Get the scheduling class of the command. Decides which concurrency 
+	 * limit applies and whether later INTERACTIVE commands may overtake it.
+	 * @return Priority class of the command.
+	 */
+	public abstract CommandPriority getPriority();
+	
+	/**
+	 * Resolve everything device specific about the command without sending
+	 * any input to the device. Calling release() on the result sends the 
+	 * input. Follow the release with afterExecute(). The default 
+	 * implementation does all of its work on release.
+	 * @param device TestDevice to prepare the command for.
+	 * @return Prepared command ready for release.
+	 */
+	public PreparedDeviceCommand prepareCommand(final TestDevice device) {
 		
-		// Get the updated view hierarchy. Wait for new root node before
-		// requesting another one. Avoids multiple threads running
-		// concurrently when user is jamming on buttons etc.
-		device.getUIViewTreeManager().waitForNewRootNode();
-		device.getUIViewTreeManager().dumpUIHierarchy();
+		return new PreparedDeviceCommand() {
+			public void release() {
+				execute(device);
+			}
+		};
+	}
+	
+	/**
+	 * Bookkeeping performed on the device after the command's input has been
+	 * sent.
+	 * @param device TestDevice the command was executed on.
+	 */
+	public void afterExecute(TestDevice device) {
+		
+		// The view hierarchy is only dumped again once something reads it.
+		device.getUIViewTreeManager().invalidateUIHierarchy();
+	}
+	
+	/**
+	 * Called instead of executing the command when it was queued for the 
+	 * device but will never run there, for example because the queue was 
+	 * shut down or the device was quarantined. Also called for a command 
+	 * still hung on a device that gets quarantined; it must then not send 
+	 * input it has not sent yet. The command's result is reported as failed.
+	 * The default implementation does nothing.
+	 * @param device TestDevice the command was queued for.
+	 */
+	public void cancel(TestDevice device) {
+		
+	}
+	
+	/**
+	 * Report output produced while executing on the device, such as the text
+	 * returned by a shell command. Returned from executeCommand().
+	 * @param output Output to report.
+	 */
+	protected void setOutput(String output) {
+		commandOutput.set(output);
 	}
 	
 	/**
@@ -31,6 +31,7 @@ import java.awt.Point;
 import javax.vecmath.Point2f;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -81,13 +82,68 @@ public class DragCommand extends DeviceCommand implements
 		this.ms = ms;
 	}
 
+	/**
+	 * Drags come straight from the tester.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.INTERACTIVE;
+	}
+	
+	/**
+	 * Get the initial x position scale factor.
+	 * @return X scale factor (0.0 - 1.0 inclusive).
+	 */
+	public float getStartXScale() {
+		return startScaleFactor.x;
+	}
+	
+	/**
+	 * Get the initial y position scale factor.
+	 * @return Y scale factor (0.0 - 1.0 inclusive).
+	 */
+	public float getStartYScale() {
+		return startScaleFactor.y;
+	}
+	
+	/**
+	 * Get the final x position scale factor.
+	 * @return X scale factor (0.0 - 1.0 inclusive).
+	 */
+	public float getEndXScale() {
+		return endScaledFactor.x;
+	}
+	
+	/**
+	 * Get the final y position scale factor.
+	 * @return Y scale factor (0.0 - 1.0 inclusive).
+	 */
+	public float getEndYScale() {
+		return endScaledFactor.y;
+	}
+	
+	/**
+	 * Get the duration of the drag.
+	 * @return Duration in milliseconds.
+	 */
+	public long getDuration() {
+		return ms;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
+		prepareCommand(device).release();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#prepareCommand(com.ebay.testdemultiplexer.connection.TestDevice)
+	 */
+	public PreparedDeviceCommand prepareCommand(final TestDevice device) {
 		
 		// Number of steps the drag should interpolate over.
-		int steps;
+		final int steps;
 
 		// Get the top left offset position as a percentage change of the
 		// screen size. Add this to the calibrated width scale factor and
@@ -106,7 +162,7 @@ public class DragCommand extends DeviceCommand implements
 		int xACalibrationPos = (int) (device.getCalibratedWidth() * startScaleFactor.x);
 		int yACalibrationPos = (int) (device.getCalibratedHeight() * startScaleFactor.y);
 		
-		Point startTmp = 
+		final Point startTmp = 
 				new Point(
 						xLeftCorner + xACalibrationPos, 
 						yLeftCorner + yACalibrationPos);
@@ -115,21 +171,21 @@ public class DragCommand extends DeviceCommand implements
 		int xBCalibrationPos = (int) (device.getCalibratedWidth() * endScaledFactor.x);
 		int yBCalibrationPos = (int) (device.getCalibratedHeight() * endScaledFactor.y);
 
-		Point endTmp = 
+		final Point endTmp = 
 				new Point(
 						xLeftCorner + xBCalibrationPos, 
 						yLeftCorner + yBCalibrationPos);
 		
 		// Calculate the number of steps based on distance.
 		double distance = startTmp.distance(endTmp);
-		steps = (int) (distance * 0.25);
-		
-		if (steps <= 0) {
-			steps = 1;
-		}
-		
-		device.getIChimpDevice().drag(
-				startTmp.x, startTmp.y, endTmp.x, endTmp.y, steps, ms);
+		steps = Math.max(1, (int) (distance * 0.25));
+		
+		return new PreparedDeviceCommand() {
+			public void release() {
+				device.getIChimpDevice().drag(
+						startTmp.x, startTmp.y, endTmp.x, endTmp.y, steps, ms);
+			}
+		};
 	}
 
 	/* (non-Javadoc)
@@ -140,8 +196,7 @@ public class DragCommand extends DeviceCommand implements
 		startScaleFactor = new Point2f();
 		endScaledFactor = new Point2f();
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -26,6 +26,7 @@
 package com.ebay.testdemultiplexer.device.commands;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -36,6 +37,9 @@ public class InstallPackageCommand extends DeviceCommand implements
 	/** Serialization key identifier. */
 	public static final String SERIALIZED_KEY = "INSTALL_PACKAGE_COMMAND";
 	
+	/** Milliseconds the command may run on a device. */
+	private static final long INSTALL_TIMEOUT = 300000;
+	
 	/** Number of serialized tokens to expect. */
 	private static final int NUM_SERIAL_TOKENS = 2;
 	
@@ -57,11 +61,29 @@ public class InstallPackageCommand extends DeviceCommand implements
 		this.path = path;
 	}
 
+	/**
+	 * Pushing and installing a large apk can take minutes.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getTimeout()
+	 */
+	public long getTimeout() {
+		return INSTALL_TIMEOUT;
+	}
+	
+	/**
+	 * Installs are long running bulk work.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.BULK;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
-		device.getIChimpDevice().installPackage(path);
+		if (!device.getIChimpDevice().installPackage(path)) {
+			throw new IllegalStateException("Failed to install " + path);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -69,8 +91,7 @@ public class InstallPackageCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -90,7 +111,7 @@ public class InstallPackageCommand extends DeviceCommand implements
 		
 		String serialized = SERIALIZED_KEY;
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
-		serialized += path;
+		serialized += CommandCodecRegistry.escape(path);
 		
 		return serialized;
 	}
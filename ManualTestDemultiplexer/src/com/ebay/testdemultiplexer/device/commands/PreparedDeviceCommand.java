@@ -0,0 +1,34 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Interface: PreparedDeviceCommand
+ * 
+ * Description: 
+ * A command that has already resolved everything device specific (coordinate
+ * transforms, view lookups) and only has to send its input to the device. Used
+ * to release input on several devices at the same instant.
+ */
+
+package com.ebay.testdemultiplexer.device.commands;
+
+public interface PreparedDeviceCommand {
+
+	/**
+	 * Send the prepared input to the device.
+	 */
+	public void release();
+}
@@ -28,6 +28,7 @@ package com.ebay.testdemultiplexer.device.commands;
 import com.android.chimpchat.core.PhysicalButton;
 import com.android.chimpchat.core.TouchPressType;
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -40,6 +41,13 @@ public class PressCommand extends DeviceCommand implements
 	
 	/** Number of serialized tokens to expect. */
 	private static final int NUM_SERIAL_TOKENS = 4;
+	
+	/** 
+	 * Number of serialized tokens when the press repeats. The repeat count is
+	 * only written when above 1 so single presses stay readable by older 
+	 * builds.
+	 */
+	private static final int NUM_REPEAT_SERIAL_TOKENS = 5;
 
 	/** Physical button to press. May be null depending on constructor used. */
 	private PhysicalButton button;
@@ -50,6 +58,9 @@ public class PressCommand extends DeviceCommand implements
 	/** Type of press to use with button press. */
 	private TouchPressType touchType;
 	
+	/** Number of times the button is pressed in a row. */
+	private int repeatCount = 1;
+	
 	/**
 	 * Default constructor should only be used when deserializing data.
 	 */
@@ -81,15 +92,66 @@ public class PressCommand extends DeviceCommand implements
 		this.touchType = touchType;
 	}
 
+	/**
+	 * Key presses come straight from the tester.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.INTERACTIVE;
+	}
+	
+	/**
+	 * Get the physical button pressed.
+	 * @return Physical button, or null if pressed by name.
+	 */
+	public PhysicalButton getButton() {
+		return button;
+	}
+	
+	/**
+	 * Get the name of the button pressed.
+	 * @return Button name, or null if pressed as a physical button.
+	 */
+	public String getButtonName() {
+		return buttonName;
+	}
+	
+	/**
+	 * Get the type of press.
+	 * @return TouchPressType of the press.
+	 */
+	public TouchPressType getTouchType() {
+		return touchType;
+	}
+	
+	/**
+	 * Get the number of times the button is pressed in a row.
+	 * @return Repeat count, 1 for a single press.
+	 */
+	public int getRepeatCount() {
+		return repeatCount;
+	}
+	
+	/**
+	 * Set the number of times the button is pressed in a row. All presses 
+	 * are sent in one command, saving a round trip per repeat.
+	 * @param repeatCount Repeat count, at least 1.
+	 */
+	public void setRepeatCount(int repeatCount) {
+		this.repeatCount = Math.max(1, repeatCount);
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
 
-		if (button != null) {
-			device.getIChimpDevice().press(button, touchType);
-		} else {
-			device.getIChimpDevice().press(buttonName, touchType);
+		for (int i = 0; i < repeatCount; i++) {
+			if (button != null) {
+				device.getIChimpDevice().press(button, touchType);
+			} else {
+				device.getIChimpDevice().press(buttonName, touchType);
+			}
 		}
 	}
 
@@ -98,10 +160,10 @@ public class PressCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
-		if (tokens.length != NUM_SERIAL_TOKENS) {
+		if (tokens.length != NUM_SERIAL_TOKENS && 
+				tokens.length != NUM_REPEAT_SERIAL_TOKENS) {
 			return false;
 		} else if (!tokens[0].equals(SERIALIZED_KEY)) {
 			return false;
@@ -120,6 +182,11 @@ public class PressCommand extends DeviceCommand implements
 		
 		touchType = TouchPressType.fromIdentifier(tokens[3]);
 		
+		repeatCount = 1;
+		if (tokens.length == NUM_REPEAT_SERIAL_TOKENS) {
+			repeatCount = Math.max(1, Integer.parseInt(tokens[4]));
+		}
+		
 		return true;
 	}
 
@@ -140,7 +207,7 @@ public class PressCommand extends DeviceCommand implements
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
 		
 		if (buttonName != null) {
-			serialized += buttonName;
+			serialized += CommandCodecRegistry.escape(buttonName);
 		} else {
 			serialized += "null";
 		}
@@ -148,6 +215,11 @@ public class PressCommand extends DeviceCommand implements
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
 		serialized += touchType.getIdentifier();
 		
+		if (repeatCount > 1) {
+			serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
+			serialized += repeatCount;
+		}
+		
 		return serialized;
 	}
 
@@ -26,6 +26,7 @@
 package com.ebay.testdemultiplexer.device.commands;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -57,11 +58,21 @@ public class RemovePackageCommand extends DeviceCommand implements
 		this.packageName = packageName;
 	}
 
+	/**
+	 * Removals are bulk package management.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.BULK;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
-		device.getIChimpDevice().removePackage(packageName);
+		if (!device.getIChimpDevice().removePackage(packageName)) {
+			throw new IllegalStateException("Failed to remove " + packageName);
+		}
 	}
 
 	/* (non-Javadoc)
@@ -69,8 +80,7 @@ public class RemovePackageCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -90,7 +100,7 @@ public class RemovePackageCommand extends DeviceCommand implements
 		
 		String serialized = SERIALIZED_KEY;
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
-		serialized += packageName;
+		serialized += CommandCodecRegistry.escape(packageName);
 		
 		return serialized;
 	}
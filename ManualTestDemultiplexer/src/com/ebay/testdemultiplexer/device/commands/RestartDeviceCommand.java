@@ -30,9 +30,9 @@ import java.io.IOException;
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.TimeoutException;
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
-import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class RestartDeviceCommand extends DeviceCommand implements 
 	CommandSerializer, CommandDeserializer {
@@ -50,6 +50,14 @@ public class RestartDeviceCommand extends DeviceCommand implements
 		
 	}
 
+	/**
+	 * Reboots are bulk device management.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.BULK;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
@@ -74,8 +82,7 @@ public class RestartDeviceCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
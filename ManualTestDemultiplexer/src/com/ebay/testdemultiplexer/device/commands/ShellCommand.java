@@ -26,6 +26,7 @@
 package com.ebay.testdemultiplexer.device.commands;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -36,6 +37,9 @@ public class ShellCommand extends DeviceCommand implements
 	/** Serialization key identifier. */
 	public static final String SERIALIZED_KEY = "SHELL_COMMAND";
 	
+	/** Milliseconds the command may run on a device. */
+	private static final long SHELL_TIMEOUT = 120000;
+	
 	/** Number of serialized tokens to expect. */
 	private static final int NUM_SERIAL_TOKENS = 2;
 
@@ -57,11 +61,27 @@ public class ShellCommand extends DeviceCommand implements
 		this.cmd = cmd;
 	}
 
+	/**
+	 * Arbitrary shell commands may legitimately run for a while.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getTimeout()
+	 */
+	public long getTimeout() {
+		return SHELL_TIMEOUT;
+	}
+	
+	/**
+	 * Shell commands can run for a long time.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.BULK;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
-		device.getIChimpDevice().shell(cmd);
+		setOutput(device.getIChimpDevice().shell(cmd));
 	}
 
 	/* (non-Javadoc)
@@ -69,8 +89,7 @@ public class ShellCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -90,7 +109,7 @@ public class ShellCommand extends DeviceCommand implements
 		
 		String serialized = SERIALIZED_KEY;
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
-		serialized += cmd;
+		serialized += CommandCodecRegistry.escape(cmd);
 		
 		return serialized;
 	}
@@ -32,6 +32,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -107,6 +108,22 @@ public class StartActivityCommand extends DeviceCommand implements
 		this.flags = flags;
 	}
 
+	/**
+	 * Get the flags of the Intent.
+	 * @return Intent flags.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+	
+	/**
+	 * Launching an activity is a navigation step the tester waits on.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.INTERACTIVE;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
@@ -127,8 +144,7 @@ public class StartActivityCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -189,7 +205,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		if (uri == null) {
 			serialized += "null";
 		} else {
-			serialized += uri;
+			serialized += CommandCodecRegistry.escape(uri);
 		}
 		
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
@@ -197,7 +213,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		if (action == null) {
 			serialized += "null";
 		} else {
-			serialized += action;
+			serialized += CommandCodecRegistry.escape(action);
 		}
 		
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
@@ -205,7 +221,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		if (data == null) {
 			serialized += "null";
 		} else {
-			serialized += data;
+			serialized += CommandCodecRegistry.escape(data);
 		}
 		
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
@@ -213,7 +229,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		if (mimeType == null) {
 			serialized += "null";
 		} else {
-			serialized += mimeType;
+			serialized += CommandCodecRegistry.escape(mimeType);
 		}
 		
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
@@ -221,7 +237,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		Iterator<String> iterator = categories.iterator();
 		while (iterator.hasNext()) {
 			
-			serialized += iterator.next();
+			serialized += CommandCodecRegistry.escape(iterator.next());
 			
 			if (iterator.hasNext()) {
 				serialized += ",";
@@ -238,7 +254,7 @@ public class StartActivityCommand extends DeviceCommand implements
 		if (component == null) {
 			serialized += "null";
 		} else {
-			serialized += component;
+			serialized += CommandCodecRegistry.escape(component);
 		}
 		
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
@@ -32,9 +32,9 @@ import java.util.HashMap;
 
 import com.android.chimpchat.core.TouchPressType;
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
-import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class ToggleAirplaneModeCommand extends DeviceCommand implements
 		CommandSerializer, CommandDeserializer {
@@ -57,8 +57,7 @@ public class ToggleAirplaneModeCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -79,6 +78,14 @@ public class ToggleAirplaneModeCommand extends DeviceCommand implements
 		return serialized;
 	}
 
+	/**
+	 * Toggling airplane mode launches a helper app and waits for it.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.BULK;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
@@ -29,6 +29,7 @@ import java.awt.Point;
 
 import com.android.chimpchat.core.TouchPressType;
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.uiautomator.UIViewTreeManager;
@@ -84,48 +85,38 @@ public class TouchCommand extends DeviceCommand implements
 		this.uniqueUiAutomationId = uniqueUiAutomationId;
 	}
 
+	/**
+	 * Taps come straight from the tester.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
+	 */
+	public CommandPriority getPriority() {
+		return CommandPriority.INTERACTIVE;
+	}
+	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
 		
-		int finalXPos = -1;
-		int finalYPos = -1;
-		UIViewTreeManager uiViewTreeManager = device.getUIViewTreeManager();	
-		
-		if (uniqueUiAutomationId != null) {
-
-			UIViewTreeNode node = 
-					uiViewTreeManager.makeNodeVisible(uniqueUiAutomationId);
-			
-			if (node != null) {
-				Point clickableCenter = node.getClickableCenter();
-				finalXPos = clickableCenter.x;
-				finalYPos = clickableCenter.y;
-			}				
-		}
+		Point touchPoint = resolveTouchPoint(device);
+		device.getIChimpDevice().touch(touchPoint.x, touchPoint.y, pressType);
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#prepareCommand(com.ebay.testdemultiplexer.connection.TestDevice)
+	 */
+	public PreparedDeviceCommand prepareCommand(final TestDevice device) {
 		
-		if (finalXPos == -1 || finalYPos == -1) {
-			// Get the top left offset position as a percentage change of the
-			// screen size. Add this to the calibrated width scale factor and
-			// that should be our click location.
-			
-			Point topLeftCorner = device.getCalibratedTopLeftPoint();
-			int xLeftCorner = 
-					(int) ((float)topLeftCorner.x/(float)device.getScreenWidth());
-			
-			int yLeftCorner = 
-					(int) ((float)topLeftCorner.y/(float)device.getScreenHeight());
-			
-			int xCalibrationPos = (int) (device.getCalibratedWidth() * xScale);
-			int yCalibrationPos = (int) (device.getCalibratedHeight() * yScale);
-			
-			finalXPos = xLeftCorner + xCalibrationPos;
-			finalYPos = yLeftCorner + yCalibrationPos;
-			
-		}
+		// Resolving the view may scroll it into view, so it has to happen
+		// before the release rather than during it.
+		final Point touchPoint = resolveTouchPoint(device);
 		
-		device.getIChimpDevice().touch(finalXPos, finalYPos, pressType);
+		return new PreparedDeviceCommand() {
+			public void release() {
+				device.getIChimpDevice().touch(
+						touchPoint.x, touchPoint.y, pressType);
+			}
+		};
 	}
 
 	/* (non-Javadoc)
@@ -133,8 +124,7 @@ public class TouchCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -168,7 +158,7 @@ public class TouchCommand extends DeviceCommand implements
 		serialized += pressType.getIdentifier();
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
 		if (uniqueUiAutomationId != null) {
-			serialized += uniqueUiAutomationId;
+			serialized += CommandCodecRegistry.escape(uniqueUiAutomationId);
 		} else {
 			serialized += NULL_STRING;
 		}
@@ -183,4 +173,56 @@ public class TouchCommand extends DeviceCommand implements
 	public String toString() {
 		return SERIALIZED_KEY;
 	}
+
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Get the device screen location the touch should land on. Uses the view
+	 * with the unique automation ID if it can be found on the device, 
+	 * otherwise the calibrated scale position.
+	 * @param device TestDevice to resolve the location for.
+	 * @return Touch location in device screen coordinates.
+	 */
+	private Point resolveTouchPoint(TestDevice device) {
+		
+		int finalXPos = -1;
+		int finalYPos = -1;
+		UIViewTreeManager uiViewTreeManager = device.getUIViewTreeManager();	
+		
+		if (uniqueUiAutomationId != null) {
+
+			UIViewTreeNode node = 
+					uiViewTreeManager.makeNodeVisible(uniqueUiAutomationId);
+			
+			if (node != null) {
+				Point clickableCenter = node.getClickableCenter();
+				finalXPos = clickableCenter.x;
+				finalYPos = clickableCenter.y;
+			}				
+		}
+		
+		if (finalXPos == -1 || finalYPos == -1) {
+			// Get the top left offset position as a percentage change of the
+			// screen size. Add this to the calibrated width scale factor and
+			// that should be our click location.
+			
+			Point topLeftCorner = device.getCalibratedTopLeftPoint();
+			int xLeftCorner = 
+					(int) ((float)topLeftCorner.x/(float)device.getScreenWidth());
+			
+			int yLeftCorner = 
+					(int) ((float)topLeftCorner.y/(float)device.getScreenHeight());
+			
+			int xCalibrationPos = (int) (device.getCalibratedWidth() * xScale);
+			int yCalibrationPos = (int) (device.getCalibratedHeight() * yScale);
+			
+			finalXPos = xLeftCorner + xCalibrationPos;
+			finalYPos = yLeftCorner + yCalibrationPos;
+			
+		}
+		
+		return new Point(finalXPos, finalYPos);
+	}
 }
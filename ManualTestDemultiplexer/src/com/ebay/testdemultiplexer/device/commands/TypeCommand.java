@@ -26,6 +26,7 @@
 package com.ebay.testdemultiplexer.device.commands;
 
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandDeserializer;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandSerializer;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
@@ -57,21 +58,27 @@ public class TypeCommand extends DeviceCommand implements
 		this.text = text;
 	}
 	
+	/**
+	 * Get the text to type.
+	 * @return Text entered on the devices.
+	 */
+	public String getText() {
+		return text;
+	}
 	
 	/**
-	 * Overriding this method, we don't need to profile the view after every
-	 * type event.
-	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#executeCommand(com.ebay.testdemultiplexer.connection.TestDevice)
+	 * Typing comes straight from the tester.
+	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#getPriority()
 	 */
-	public void executeCommand(TestDevice device) {
-		device.getIChimpDevice().type(text);
+	public CommandPriority getPriority() {
+		return CommandPriority.INTERACTIVE;
 	}
 	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.DeviceCommand#execute(com.ebay.testdemultiplexer.connection.TestDevice)
 	 */
 	public void execute(TestDevice device) {
-		// Does nothing. All work is done in executeCommand.
+		device.getIChimpDevice().type(text);
 	}
 
 	/* (non-Javadoc)
@@ -79,8 +86,7 @@ public class TypeCommand extends DeviceCommand implements
 	 */
 	public boolean deserializeCommand(String data) {
 		
-		String[] tokens = 
-				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		String[] tokens = CommandCodecRegistry.split(data);
 		
 		if (tokens.length != NUM_SERIAL_TOKENS) {
 			return false;
@@ -100,7 +106,7 @@ public class TypeCommand extends DeviceCommand implements
 		
 		String serialized = SERIALIZED_KEY;
 		serialized += TestDemultiplexerConstants.SERIAL_SEPARATOR;
-		serialized += text;
+		serialized += CommandCodecRegistry.escape(text);
 		
 		return serialized;
 	}
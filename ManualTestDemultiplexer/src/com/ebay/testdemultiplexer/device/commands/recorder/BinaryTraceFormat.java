@@ -0,0 +1,207 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: BinaryTraceFormat
+ * 
+ * Description: 
+ * Layout of the binary trace (.trb) format. A binary trace holds the same
+ * commands, think times and skews as a .trf file, but is laid out so a reader
+ * can map it into memory and jump straight to any step.
+ *
+ * A trace starts with a fixed size header:
+ *   magic (int), version (int), flags (int), step count (int),
+ *   index offset (long), reserved (long)
+ * followed by one record per step:
+ *   delay + 1 (varint, 0 when the step was not timed)
+ *   command type id (byte), followed by the serialized key (varint length +
+ *   UTF-8) for commands without a fixed id
+ *   serialized command arguments (varint length + UTF-8)
+ *   skew count + 1 (varint, 0 when no skew was measured), then per device
+ *   serial (varint length + UTF-8) and skew (float)
+ * and ends with the step index: the absolute offset of every record as a long.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import com.ebay.testdemultiplexer.device.commands.DragCommand;
+import com.ebay.testdemultiplexer.device.commands.InstallPackageCommand;
+import com.ebay.testdemultiplexer.device.commands.PressCommand;
+import com.ebay.testdemultiplexer.device.commands.RemovePackageCommand;
+import com.ebay.testdemultiplexer.device.commands.RestartDeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.ShellCommand;
+import com.ebay.testdemultiplexer.device.commands.StartActivityCommand;
+import com.ebay.testdemultiplexer.device.commands.ToggleAirplaneModeCommand;
+import com.ebay.testdemultiplexer.device.commands.TouchCommand;
+import com.ebay.testdemultiplexer.device.commands.TypeCommand;
+import com.ebay.testdemultiplexer.device.commands.UnlockDeviceCommand;
+
+public final class BinaryTraceFormat {
+	
+	/** File extension of binary traces. */
+	public static final String FILE_EXTENSION = ".trb";
+	
+	/** First four bytes of every binary trace, "MTDB". */
+	public static final int MAGIC = 0x4D544442;
+	
+	/** 
+	 * Version written by this build. Version 2 escapes the command arguments
+	 * and can store commands without a type id.
+	 */
+	public static final int VERSION = 2;
+	
+	/** Size of the header in bytes. Records start right after it. */
+	public static final int HEADER_SIZE = 32;
+	
+	/** Size of one step index entry in bytes. */
+	public static final int INDEX_ENTRY_SIZE = 8;
+	
+	/** Offset of the step count in the header. */
+	static final int STEP_COUNT_OFFSET = 12;
+	
+	/** Offset of the step index offset in the header. */
+	static final int INDEX_OFFSET_OFFSET = 16;
+	
+	/** 
+	 * Type id of a command type without a fixed id. The serialized key is 
+	 * stored as a string right after it.
+	 */
+	static final int INLINE_KEY_TYPE_ID = 0xFF;
+	
+	/** Encoding of all strings in the trace. */
+	static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/** 
+	 * Serialized key of each built in command type, the position in the array
+	 * is the type id written to file. Entries must never be reordered or 
+	 * removed. Commands registered later are written with their key inline.
+	 */
+	static final String[] COMMAND_KEYS = {
+		DragCommand.SERIALIZED_KEY,
+		InstallPackageCommand.SERIALIZED_KEY,
+		PressCommand.SERIALIZED_KEY,
+		RemovePackageCommand.SERIALIZED_KEY,
+		RestartDeviceCommand.SERIALIZED_KEY,
+		ShellCommand.SERIALIZED_KEY,
+		StartActivityCommand.SERIALIZED_KEY,
+		ToggleAirplaneModeCommand.SERIALIZED_KEY,
+		TouchCommand.SERIALIZED_KEY,
+		TypeCommand.SERIALIZED_KEY,
+		UnlockDeviceCommand.SERIALIZED_KEY
+	};
+	
+	/**
+	 * Not instantiable.
+	 */
+	private BinaryTraceFormat() {
+	}
+	
+	/**
+	 * Find the type id of a command type.
+	 * @param key Serialized key of the command type.
+	 * @return Type id, or INLINE_KEY_TYPE_ID if the type has no fixed id.
+	 */
+	static int getCommandTypeId(String key) {
+		
+		for (int i = 0; i < COMMAND_KEYS.length; i++) {
+			if (COMMAND_KEYS[i].equals(key)) {
+				return i;
+			}
+		}
+		
+		return INLINE_KEY_TYPE_ID;
+	}
+	
+	/**
+	 * Write an unsigned variable length integer, 7 bits per byte.
+	 * @param out Output to write to.
+	 * @param value Value to write, must not be negative.
+	 * @throws IOException If the write fails.
+	 */
+	static void writeVarLong(DataOutput out, long value) throws IOException {
+		
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		
+		out.writeByte((int)value);
+	}
+	
+	/**
+	 * Read an unsigned variable length integer written by writeVarLong.
+	 * @param buffer Buffer positioned at the value.
+	 * @return Value read.
+	 * @throws IOException If the value is malformed.
+	 */
+	static long readVarLong(ByteBuffer buffer) throws IOException {
+		
+		long value = 0;
+		int shift = 0;
+		byte current;
+		
+		do {
+			if (shift > 63) {
+				throw new IOException("Malformed variable length value.");
+			}
+			
+			current = buffer.get();
+			value |= (long)(current & 0x7F) << shift;
+			shift += 7;
+		} while ((current & 0x80) != 0);
+		
+		return value;
+	}
+	
+	/**
+	 * Write a length prefixed UTF-8 string.
+	 * @param out Output to write to.
+	 * @param value String to write.
+	 * @throws IOException If the write fails.
+	 */
+	static void writeString(DataOutput out, String value) throws IOException {
+		
+		byte[] bytes = value.getBytes(CHARSET);
+		
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+	
+	/**
+	 * Read a string written by writeString.
+	 * @param buffer Buffer positioned at the string.
+	 * @return String read.
+	 * @throws IOException If the string runs past the end of the buffer.
+	 */
+	static String readString(ByteBuffer buffer) throws IOException {
+		
+		long length = readVarLong(buffer);
+		
+		if (length > buffer.remaining()) {
+			throw new IOException("String runs past the end of the trace.");
+		}
+		
+		byte[] bytes = new byte[(int)length];
+		buffer.get(bytes);
+		
+		return new String(bytes, CHARSET);
+	}
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: BinaryTraceReader
+ * 
+ * Description: 
+ * Reads a binary trace by mapping it into memory. The step index lets any
+ * step be decoded on its own without touching the steps before it, so a long
+ * recording can be paged through or resumed part way without parsing the
+ * whole file. See BinaryTraceFormat for the layout.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class BinaryTraceReader {
+	
+	/** File the trace is mapped from. */
+	private RandomAccessFile file;
+	
+	/** The whole trace mapped read only. */
+	private MappedByteBuffer buffer;
+	
+	/** Version the trace was written with. */
+	private int version;
+	
+	/** Number of steps in the trace. */
+	private int stepCount;
+	
+	/** Offset of the step index. */
+	private int indexOffset;
+	
+	/**
+	 * Open and map a binary trace. Only the header is validated, steps are
+	 * decoded when they are read.
+	 * @param filePath Path of the trace.
+	 * @throws IOException If the file cannot be mapped, is not a binary 
+	 * trace, was written with another version or was not completely written.
+	 */
+	public BinaryTraceReader(String filePath) throws IOException {
+		
+		file = new RandomAccessFile(filePath, "r");
+		
+		try {
+			long size = file.length();
+			
+			if (size < BinaryTraceFormat.HEADER_SIZE) {
+				throw new IOException("Not a binary trace: "+filePath);
+			} else if (size > Integer.MAX_VALUE) {
+				throw new IOException("Trace is too large to be mapped.");
+			}
+			
+			buffer = file.getChannel().map(MapMode.READ_ONLY, 0, size);
+			
+			if (buffer.getInt(0) != BinaryTraceFormat.MAGIC) {
+				throw new IOException("Not a binary trace: "+filePath);
+			}
+			
+			version = buffer.getInt(4);
+			
+			if (version != BinaryTraceFormat.VERSION) {
+				throw new IOException(
+						"Unsupported binary trace version "+version+".");
+			}
+			
+			stepCount = buffer.getInt(BinaryTraceFormat.STEP_COUNT_OFFSET);
+			long index = buffer.getLong(BinaryTraceFormat.INDEX_OFFSET_OFFSET);
+			
+			// A writer that died before patching the header leaves the index
+			// offset at 0.
+			if (stepCount < 0 || 
+					index < BinaryTraceFormat.HEADER_SIZE || 
+					index + (long)stepCount * 
+						BinaryTraceFormat.INDEX_ENTRY_SIZE > size) {
+				throw new IOException("Binary trace is incomplete: "+filePath);
+			}
+			
+			indexOffset = (int)index;
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Check whether a file starts with the binary trace magic number.
+	 * @param filePath Path of the file to check.
+	 * @return True if the file is a binary trace, false if it is not or 
+	 * cannot be read.
+	 */
+	public static boolean isBinaryTrace(String filePath) {
+		
+		DataInputStream in = null;
+		
+		try {
+			in = new DataInputStream(new FileInputStream(filePath));
+			return in.readInt() == BinaryTraceFormat.MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the version the trace was written with.
+	 * @return Format version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+	
+	/**
+	 * Get the number of steps in the trace.
+	 * @return Number of steps.
+	 */
+	public int getStepCount() {
+		return stepCount;
+	}
+	
+	/**
+	 * Decode a single step. Safe to call from several threads at once.
+	 * @param step Index of the step to read.
+	 * @return The decoded step.
+	 * @throws IOException If the record of the step is corrupt.
+	 */
+	public RecordedStep getStep(int step) throws IOException {
+		
+		if (step < 0 || step >= stepCount) {
+			throw new IndexOutOfBoundsException(
+					"Step "+step+" of "+stepCount);
+		}
+		
+		long offset = buffer.getLong(
+				indexOffset + step * BinaryTraceFormat.INDEX_ENTRY_SIZE);
+		
+		if (offset < BinaryTraceFormat.HEADER_SIZE || offset >= indexOffset) {
+			throw new IOException("Bad index entry for step "+step+".");
+		}
+		
+		// Each read gets its own position so readers do not interfere.
+		ByteBuffer record = buffer.duplicate();
+		record.position((int)offset);
+		record.limit(indexOffset);
+		
+		try {
+			return readRecord(record);
+		} catch (BufferUnderflowException e) {
+			throw new IOException(
+					"Step "+step+" runs past the end of the trace.");
+		}
+	}
+	
+	/**
+	 * Close the trace file. The mapping is released once it is no longer 
+	 * referenced.
+	 */
+	public void close() {
+		
+		try {
+			file.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Decode the record the buffer is positioned at.
+	 * @param record Buffer positioned at the start of a record.
+	 * @return The decoded step.
+	 * @throws IOException If the record is corrupt.
+	 */
+	private RecordedStep readRecord(ByteBuffer record) throws IOException {
+		
+		long delay = BinaryTraceFormat.readVarLong(record) - 1;
+		int typeId = record.get() & 0xFF;
+		String key;
+		
+		if (typeId == BinaryTraceFormat.INLINE_KEY_TYPE_ID) {
+			key = BinaryTraceFormat.readString(record);
+		} else if (typeId < BinaryTraceFormat.COMMAND_KEYS.length) {
+			key = BinaryTraceFormat.COMMAND_KEYS[typeId];
+		} else {
+			throw new IOException("Unknown command type id "+typeId+".");
+		}
+		
+		String data = key + BinaryTraceFormat.readString(record);
+		DeviceCommand command = CommandCodecRegistry.getInstance().decode(
+				data, CommandCodecRegistry.FORMAT_VERSION);
+		
+		if (command == null) {
+			throw new IOException("Could not load command: "+data);
+		}
+		
+		Map<String, Float> skews = null;
+		long skewCount = BinaryTraceFormat.readVarLong(record) - 1;
+		
+		if (skewCount >= 0) {
+			
+			skews = new LinkedHashMap<String, Float>();
+			
+			for (long i = 0; i < skewCount; i++) {
+				String serial = BinaryTraceFormat.readString(record);
+				skews.put(serial, record.getFloat());
+			}
+		}
+		
+		return new RecordedStep(command, delay, skews);
+	}
+}
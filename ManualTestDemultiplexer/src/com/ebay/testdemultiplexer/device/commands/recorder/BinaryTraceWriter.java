@@ -0,0 +1,188 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: BinaryTraceWriter
+ * 
+ * Description: 
+ * Writes the contents of a CommandRecorder as a binary trace. Records are
+ * streamed out in one pass, the step index is appended at the end and the
+ * header is patched with the step count and index offset once they are known.
+ * See BinaryTraceFormat for the layout.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class BinaryTraceWriter {
+	
+	/**
+	 * Not instantiable.
+	 */
+	private BinaryTraceWriter() {
+	}
+	
+	/**
+	 * Write every serializable command of the recorder to a binary trace.
+	 * Commands that cannot be serialized are skipped, as they are for .trf
+	 * files.
+	 * @param recorder Recorder to write.
+	 * @param filePath Path of the trace to write. Overwritten if it exists.
+	 * @return Number of steps written.
+	 * @throws IOException If the trace cannot be written.
+	 */
+	public static int write(CommandRecorder recorder, String filePath) 
+			throws IOException {
+		
+		int length = recorder.getRecorderLength();
+		long[] offsets = new long[length];
+		int stepCount = 0;
+		long indexOffset;
+		CommandCodecRegistry registry = CommandCodecRegistry.getInstance();
+		
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(filePath)));
+		
+		try {
+			// Placeholder, patched once the index has been written.
+			writeHeader(out, 0, 0);
+			
+			for (int i = 0; i < length; i++) {
+				
+				DeviceCommand command = recorder.getCommand(i);
+				CommandCodec codec = registry.getCodec(command);
+				
+				if (codec == null) {
+					continue;
+				}
+				
+				offsets[stepCount++] = out.size();
+				writeRecord(
+						out, 
+						recorder, 
+						command, 
+						codec.getKey(), 
+						codec.encode(command));
+			}
+			
+			indexOffset = out.size();
+			
+			// DataOutputStream stops counting at Integer.MAX_VALUE, which is
+			// also the most a single mapping can cover on read.
+			if (indexOffset == Integer.MAX_VALUE) {
+				throw new IOException("Trace is too large to be mapped.");
+			}
+			
+			for (int i = 0; i < stepCount; i++) {
+				out.writeLong(offsets[i]);
+			}
+		} finally {
+			out.close();
+		}
+		
+		RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+		
+		try {
+			file.seek(BinaryTraceFormat.STEP_COUNT_OFFSET);
+			file.writeInt(stepCount);
+			file.writeLong(indexOffset);
+		} finally {
+			file.close();
+		}
+		
+		return stepCount;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Write the trace header.
+	 * @param out Output positioned at the start of the file.
+	 * @param stepCount Number of steps in the trace.
+	 * @param indexOffset Offset of the step index.
+	 * @throws IOException If the write fails.
+	 */
+	private static void writeHeader(
+			DataOutputStream out, 
+			int stepCount, 
+			long indexOffset) throws IOException {
+		
+		out.writeInt(BinaryTraceFormat.MAGIC);
+		out.writeInt(BinaryTraceFormat.VERSION);
+		out.writeInt(0);
+		out.writeInt(stepCount);
+		out.writeLong(indexOffset);
+		out.writeLong(0);
+	}
+	
+	/**
+	 * Write the record of one step.
+	 * @param out Output to write to.
+	 * @param recorder Recorder holding the delay and skew of the command.
+	 * @param command Command of the step.
+	 * @param key Serialized key of the command.
+	 * @param serialized Serialized command line.
+	 * @throws IOException If the write fails.
+	 */
+	private static void writeRecord(
+			DataOutputStream out, 
+			CommandRecorder recorder,
+			DeviceCommand command,
+			String key,
+			String serialized) throws IOException {
+		
+		if (recorder.isCommandTimed(command)) {
+			BinaryTraceFormat.writeVarLong(
+					out, recorder.getCommandDelay(command) + 1);
+		} else {
+			BinaryTraceFormat.writeVarLong(out, 0);
+		}
+		
+		// The type id replaces the key, only the arguments are stored.
+		int typeId = BinaryTraceFormat.getCommandTypeId(key);
+		out.writeByte(typeId);
+		
+		if (typeId == BinaryTraceFormat.INLINE_KEY_TYPE_ID) {
+			BinaryTraceFormat.writeString(out, key);
+		}
+		
+		BinaryTraceFormat.writeString(out, serialized.substring(key.length()));
+		
+		Map<String, Float> skews = recorder.getCommandSkew(command);
+		
+		if (skews == null) {
+			BinaryTraceFormat.writeVarLong(out, 0);
+			return;
+		}
+		
+		BinaryTraceFormat.writeVarLong(out, skews.size() + 1);
+		
+		for (Map.Entry<String, Float> entry : skews.entrySet()) {
+			BinaryTraceFormat.writeString(out, entry.getKey());
+			out.writeFloat(entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Interface: CommandCodec
+ * 
+ * Description: 
+ * Converts one command type to and from its serialized line. Codecs are
+ * registered with the CommandCodecRegistry under the serialized key that
+ * starts their lines.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public interface CommandCodec {
+	
+	/**
+	 * Get the key that starts the serialized lines of the command type.
+	 * @return Serialized key.
+	 */
+	public String getKey();
+	
+	/**
+	 * Get the command class this codec handles.
+	 * @return Command class.
+	 */
+	public Class<? extends DeviceCommand> getCommandType();
+	
+	/**
+	 * Serialize a command. Fields must be escaped with 
+	 * CommandCodecRegistry.escape() or written with CommandCodecRegistry.join().
+	 * @param command Command of the codec's type.
+	 * @return Serialized line, starting with the key.
+	 */
+	public String encode(DeviceCommand command);
+	
+	/**
+	 * Build a command from its serialized line.
+	 * @param data Serialized line in the current format version.
+	 * @return The command, or null if the line is malformed.
+	 */
+	public DeviceCommand decode(String data);
+}
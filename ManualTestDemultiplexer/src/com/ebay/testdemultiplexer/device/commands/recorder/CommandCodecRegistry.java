@@ -0,0 +1,439 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: CommandCodecRegistry
+ * 
+ * Description: 
+ * Singleton registry of the codecs used to save and load recorded commands,
+ * keyed by the serialized key that starts each line. The built in commands are
+ * registered up front. Other commands are added with register() and are then
+ * saved and loaded like the built in ones.
+ *
+ * Also defines the field encoding shared by all codecs. Fields are joined
+ * with the serial separator. Since format version 2, backslashes, colons and
+ * line breaks inside a field are escaped so a field can hold any text. Files
+ * without a format line are version 1 and are read with the old unescaped
+ * splitting.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.DragCommand;
+import com.ebay.testdemultiplexer.device.commands.InstallPackageCommand;
+import com.ebay.testdemultiplexer.device.commands.PressCommand;
+import com.ebay.testdemultiplexer.device.commands.RemovePackageCommand;
+import com.ebay.testdemultiplexer.device.commands.RestartDeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.ShellCommand;
+import com.ebay.testdemultiplexer.device.commands.StartActivityCommand;
+import com.ebay.testdemultiplexer.device.commands.ToggleAirplaneModeCommand;
+import com.ebay.testdemultiplexer.device.commands.TouchCommand;
+import com.ebay.testdemultiplexer.device.commands.TypeCommand;
+import com.ebay.testdemultiplexer.device.commands.UnlockDeviceCommand;
+import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
+
+public class CommandCodecRegistry {
+	
+	/** Format version of the serialized lines written by this build. */
+	public static final int FORMAT_VERSION = 2;
+	
+	/** Format version of files without a format line. */
+	public static final int LEGACY_FORMAT_VERSION = 1;
+	
+	/** Comment key of the format line at the top of a command file. */
+	public static final String FORMAT_KEY = 
+			CommandRecorder.COMMENT_PREFIX + " FORMAT";
+	
+	/** Escape character of field values. */
+	private static final char ESCAPE = '\\';
+	
+	/** Separator between the fields of a line. */
+	private static final String SEPARATOR = 
+			TestDemultiplexerConstants.SERIAL_SEPARATOR;
+	
+	/** Static class instance. */
+	private static CommandCodecRegistry instance = null;
+	
+	/** Codecs by serialized key. */
+	private ConcurrentHashMap<String, CommandCodec> codecsByKey;
+	
+	/** Codecs by command class. */
+	private ConcurrentHashMap<Class<?>, CommandCodec> codecsByType;
+	
+	/**
+	 * Private constructor, registers the built in commands.
+	 */
+	private CommandCodecRegistry() {
+		
+		codecsByKey = new ConcurrentHashMap<String, CommandCodec>();
+		codecsByType = new ConcurrentHashMap<Class<?>, CommandCodec>();
+		
+		register(new SerializedCommandCodec(
+				DragCommand.SERIALIZED_KEY, DragCommand.class));
+		register(new SerializedCommandCodec(
+				InstallPackageCommand.SERIALIZED_KEY, 
+				InstallPackageCommand.class));
+		register(new SerializedCommandCodec(
+				PressCommand.SERIALIZED_KEY, PressCommand.class));
+		register(new SerializedCommandCodec(
+				RemovePackageCommand.SERIALIZED_KEY, 
+				RemovePackageCommand.class));
+		register(new SerializedCommandCodec(
+				RestartDeviceCommand.SERIALIZED_KEY, 
+				RestartDeviceCommand.class));
+		register(new SerializedCommandCodec(
+				ShellCommand.SERIALIZED_KEY, ShellCommand.class));
+		register(new SerializedCommandCodec(
+				StartActivityCommand.SERIALIZED_KEY, 
+				StartActivityCommand.class));
+		register(new SerializedCommandCodec(
+				ToggleAirplaneModeCommand.SERIALIZED_KEY, 
+				ToggleAirplaneModeCommand.class));
+		register(new SerializedCommandCodec(
+				TouchCommand.SERIALIZED_KEY, TouchCommand.class));
+		register(new SerializedCommandCodec(
+				TypeCommand.SERIALIZED_KEY, TypeCommand.class));
+		register(new SerializedCommandCodec(
+				UnlockDeviceCommand.SERIALIZED_KEY, 
+				UnlockDeviceCommand.class));
+	}
+	
+	/**
+	 * Get the instance of this singleton class.
+	 * @return Singleton instance.
+	 */
+	public static synchronized CommandCodecRegistry getInstance() {
+		
+		if (instance == null) {
+			instance = new CommandCodecRegistry();
+		}
+		
+		return instance;
+	}
+	
+	/**
+	 * Register a codec. Replaces a codec registered earlier for the same key
+	 * or command class.
+	 * @param codec Codec to register.
+	 */
+	public void register(CommandCodec codec) {
+		
+		if (codec.getKey().contains(SEPARATOR) || 
+				codec.getKey().startsWith(CommandRecorder.COMMENT_PREFIX)) {
+			throw new IllegalArgumentException(
+					"Invalid serialized key: "+codec.getKey());
+		}
+		
+		codecsByKey.put(codec.getKey(), codec);
+		codecsByType.put(codec.getCommandType(), codec);
+	}
+	
+	/**
+	 * Get the codec registered for a serialized key.
+	 * @param key Serialized key.
+	 * @return The codec, or null if none is registered.
+	 */
+	public CommandCodec getCodec(String key) {
+		return codecsByKey.get(key);
+	}
+	
+	/**
+	 * Get the codec of a command.
+	 * @param command Command to look up.
+	 * @return The codec, or null if the command cannot be serialized.
+	 */
+	public CommandCodec getCodec(DeviceCommand command) {
+		return codecsByType.get(command.getClass());
+	}
+	
+	/**
+	 * Get the serialized keys of every registered codec.
+	 * @return Keys in alphabetical order.
+	 */
+	public List<String> getKeys() {
+		
+		ArrayList<String> keys = new ArrayList<String>(codecsByKey.keySet());
+		Collections.sort(keys);
+		
+		return keys;
+	}
+	
+	/**
+	 * Get the serialized key of a command.
+	 * @param command Command to look up.
+	 * @return Key of its codec, or null if the command cannot be serialized.
+	 */
+	public String getCommandKey(DeviceCommand command) {
+		
+		CommandCodec codec = getCodec(command);
+		
+		return codec != null ? codec.getKey() : null;
+	}
+	
+	/**
+	 * Serialize a command with its registered codec.
+	 * @param command Command to serialize.
+	 * @return Serialized line, or null if no codec is registered.
+	 */
+	public String encode(DeviceCommand command) {
+		
+		CommandCodec codec = getCodec(command);
+		
+		if (codec == null) {
+			return null;
+		}
+		
+		return codec.encode(command);
+	}
+	
+	/**
+	 * Build a command from a serialized line.
+	 * @param data Serialized line.
+	 * @param version Format version the line was written with.
+	 * @return The command, or null if the key is unknown or the line is 
+	 * malformed.
+	 */
+	public DeviceCommand decode(String data, int version) {
+		
+		CommandCodec codec = getCodec(getKey(data));
+		
+		if (codec == null) {
+			return null;
+		}
+		
+		if (version < FORMAT_VERSION) {
+			data = upgradeLegacyLine(data);
+		}
+		
+		return codec.decode(data);
+	}
+	
+	/**
+	 * Get the serialized key of a line.
+	 * @param data Serialized line.
+	 * @return Everything before the first separator.
+	 */
+	public static String getKey(String data) {
+		
+		int end = data.indexOf(SEPARATOR);
+		
+		if (end < 0) {
+			return data;
+		}
+		
+		return data.substring(0, end);
+	}
+	
+	/**
+	 * Build the format line written at the top of command files.
+	 * @return Format line of the current version.
+	 */
+	public static String getFormatLine() {
+		return FORMAT_KEY + SEPARATOR + FORMAT_VERSION;
+	}
+	
+	/**
+	 * Read the format version from a format line.
+	 * @param line Line starting with FORMAT_KEY.
+	 * @return Format version, or -1 if the line is malformed.
+	 */
+	public static int parseFormatLine(String line) {
+		
+		try {
+			return Integer.parseInt(
+					line.substring(FORMAT_KEY.length() + 
+							SEPARATOR.length()).trim());
+		} catch (RuntimeException e) {
+			return -1;
+		}
+	}
+	
+	/**
+	 * Join a key and fields into a serialized line, escaping the fields.
+	 * @param key Serialized key.
+	 * @param fields Field values, in order.
+	 * @return Serialized line.
+	 */
+	public static String join(String key, String... fields) {
+		
+		StringBuilder line = new StringBuilder(key);
+		
+		for (int i = 0; i < fields.length; i++) {
+			line.append(SEPARATOR);
+			line.append(escape(fields[i]));
+		}
+		
+		return line.toString();
+	}
+	
+	/**
+	 * Split a serialized line into its key and unescaped fields. Empty fields
+	 * are kept.
+	 * @param data Serialized line.
+	 * @return Key followed by the field values.
+	 */
+	public static String[] split(String data) {
+		
+		// Escaped fields cannot contain the separator, so every separator 
+		// found is a real one.
+		int count = 1;
+		int index = data.indexOf(SEPARATOR);
+		
+		while (index >= 0) {
+			count++;
+			index = data.indexOf(SEPARATOR, index + SEPARATOR.length());
+		}
+		
+		String[] tokens = new String[count];
+		int start = 0;
+		
+		for (int i = 0; i < count - 1; i++) {
+			int end = data.indexOf(SEPARATOR, start);
+			tokens[i] = unescape(data.substring(start, end));
+			start = end + SEPARATOR.length();
+		}
+		
+		tokens[count - 1] = unescape(data.substring(start));
+		
+		return tokens;
+	}
+	
+	/**
+	 * Escape a field value so it can hold the separator and line breaks.
+	 * @param value Field value.
+	 * @return Escaped value.
+	 */
+	public static String escape(String value) {
+		
+		if (value == null) {
+			return null;
+		}
+		
+		StringBuilder escaped = null;
+		
+		for (int i = 0; i < value.length(); i++) {
+			
+			char c = value.charAt(i);
+			String replacement = null;
+			
+			switch (c) {
+			case ESCAPE:
+				replacement = "\\\\";
+				break;
+			case ':':
+				replacement = "\\:";
+				break;
+			case '\n':
+				replacement = "\\n";
+				break;
+			case '\r':
+				replacement = "\\r";
+				break;
+			}
+			
+			if (replacement != null && escaped == null) {
+				escaped = new StringBuilder(value.length() + 8);
+				escaped.append(value, 0, i);
+			}
+			
+			if (escaped != null) {
+				if (replacement != null) {
+					escaped.append(replacement);
+				} else {
+					escaped.append(c);
+				}
+			}
+		}
+		
+		// Most fields need no escaping and are returned as is.
+		if (escaped == null) {
+			return value;
+		}
+		
+		return escaped.toString();
+	}
+	
+	/**
+	 * Undo escape(). Unknown escape sequences are kept as they are.
+	 * @param value Escaped value.
+	 * @return Field value.
+	 */
+	public static String unescape(String value) {
+		
+		if (value.indexOf(ESCAPE) < 0) {
+			return value;
+		}
+		
+		StringBuilder unescaped = new StringBuilder(value.length());
+		
+		for (int i = 0; i < value.length(); i++) {
+			
+			char c = value.charAt(i);
+			
+			if (c != ESCAPE || i == value.length() - 1) {
+				unescaped.append(c);
+				continue;
+			}
+			
+			char next = value.charAt(++i);
+			
+			switch (next) {
+			case ESCAPE:
+			case ':':
+				unescaped.append(next);
+				break;
+			case 'n':
+				unescaped.append('\n');
+				break;
+			case 'r':
+				unescaped.append('\r');
+				break;
+			default:
+				unescaped.append(c).append(next);
+				break;
+			}
+		}
+		
+		return unescaped.toString();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Rewrite a version 1 line in the current format. Version 1 fields were
+	 * not escaped and the line was split with String.split, which is kept so
+	 * old files load exactly as they always did.
+	 * @param data Version 1 line.
+	 * @return Same fields in the current format.
+	 */
+	private static String upgradeLegacyLine(String data) {
+		
+		String[] tokens = data.split(SEPARATOR);
+		String[] fields = new String[tokens.length - 1];
+		
+		System.arraycopy(tokens, 1, fields, 0, fields.length);
+		
+		return join(tokens[0], fields);
+	}
+}
@@ -0,0 +1,500 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: CommandJournal
+ * 
+ * Description: 
+ * Append-only journal of the commands added to a CommandRecorder, so a
+ * session that was never saved can be rebuilt after the application or the
+ * host died. The journal is a text command file: every command is followed by
+ * its think time and a comment with the time it was recorded and the devices
+ * it was sent to. A saved marker is appended whenever the recorder contents
+ * were written to or loaded from a file. Commands loaded from a file are not
+ * journaled themselves; recovery starts from the file named by the last saved
+ * marker and replays the commands journaled after it.
+ *
+ * Appends only queue the command. A background thread writes the queue out in
+ * batches and syncs the file to disk at a fixed interval, so recording is not
+ * slowed down by disk latency. At most the last sync interval is lost on a
+ * power failure. A torn line at the end of the journal is ignored on recovery.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
+
+public class CommandJournal {
+	
+	/** System property overriding the path of the journal. */
+	public static final String PATH_PROPERTY = "mtd.journal.path";
+	
+	/** Default journal path, next to the calibration profile. */
+	public static final String DEFAULT_PATH = "recording.journal";
+	
+	/** 
+	 * Comment key for the time a command was recorded and the serial numbers
+	 * of the devices it was sent to.
+	 */
+	public static final String RECORDED_KEY = 
+			CommandRecorder.COMMENT_PREFIX + " RECORDED";
+	
+	/** 
+	 * Comment key marking that the commands above it were saved to, or 
+	 * loaded from, the file named on the line.
+	 */
+	public static final String SAVED_KEY = 
+			CommandRecorder.COMMENT_PREFIX + " SAVED";
+	
+	/** Milliseconds between writes of the queued commands. */
+	private static final long FLUSH_INTERVAL = 250;
+	
+	/** Milliseconds between syncs of the journal to disk. */
+	private static final long SYNC_INTERVAL = 2000;
+	
+	/** Queued commands that are written right away instead of on the timer. */
+	private static final int MAX_BATCH = 256;
+	
+	/** Separates the serial numbers of the target devices. */
+	private static final String TARGET_SEPARATOR = ",";
+	
+	/** Encoding of the journal. */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	
+	/** Recorder the journal belongs to. */
+	private CommandRecorder recorder;
+	
+	/** Path of the journal. */
+	private String filePath;
+	
+	/** Stream of the open journal, used to sync it. */
+	private FileOutputStream stream;
+	
+	/** Buffered writer over the stream, null while the journal is closed. */
+	private Writer writer;
+	
+	/** Commands added since the last write, in order. */
+	private ArrayList<Entry> pending;
+	
+	/** True if data was written since the last sync. */
+	private boolean unsynced = false;
+	
+	/** Time of the last sync. */
+	private long lastSync = 0;
+	
+	/** Writes the queue and syncs the journal in the background. */
+	private ScheduledThreadPoolExecutor timer;
+	
+	/**
+	 * Default constructor.
+	 * @param recorder Recorder the journal belongs to.
+	 * @param filePath Path of the journal.
+	 */
+	public CommandJournal(CommandRecorder recorder, String filePath) {
+		this.recorder = recorder;
+		this.filePath = filePath;
+		this.pending = new ArrayList<Entry>();
+	}
+	
+	/**
+	 * Create a journal at the path given by the mtd.journal.path system 
+	 * property, or the default path.
+	 * @param recorder Recorder the journal belongs to.
+	 * @return Journal, not yet opened.
+	 */
+	public static CommandJournal create(CommandRecorder recorder) {
+		return new CommandJournal(
+				recorder, System.getProperty(PATH_PROPERTY, DEFAULT_PATH));
+	}
+	
+	/**
+	 * Get the path of the journal.
+	 * @return Journal path.
+	 */
+	public String getPath() {
+		return filePath;
+	}
+	
+	/**
+	 * Check whether the journal holds commands that were added after the 
+	 * last save, meaning the previous session ended without saving them.
+	 * @return True if there is something to recover, false otherwise.
+	 */
+	public boolean hasUnsavedCommands() {
+		
+		String[] lines = readCompleteLines().split("\n");
+		boolean unsaved = false;
+		
+		for (int i = 0; i < lines.length; i++) {
+			
+			if (lines[i].startsWith(SAVED_KEY)) {
+				unsaved = false;
+			} else if (lines[i].length() > 0 && 
+					!lines[i].startsWith(CommandRecorder.COMMENT_PREFIX)) {
+				unsaved = true;
+			}
+		}
+		
+		return unsaved;
+	}
+	
+	/**
+	 * Rebuild the recorder from the journal: the file named by the last 
+	 * saved marker, followed by the commands journaled after the marker. Must
+	 * be called before the journal is attached to the recorder, otherwise the
+	 * recovered commands are journaled a second time.
+	 * @return True if every complete command was recovered, false otherwise.
+	 */
+	public boolean recover() {
+		
+		recorder.clearRecorder();
+		
+		String[] lines = readCompleteLines().split("\n");
+		int saved = -1;
+		
+		for (int i = 0; i < lines.length; i++) {
+			if (lines[i].startsWith(SAVED_KEY)) {
+				saved = i;
+			}
+		}
+		
+		StringBuilder unsaved = new StringBuilder();
+		int first = saved + 1;
+		
+		// Keep the format line, the unsaved commands are decoded with it.
+		if (lines.length > 0 && 
+				lines[0].startsWith(CommandCodecRegistry.FORMAT_KEY)) {
+			unsaved.append(lines[0]).append("\n");
+			first = Math.max(first, 1);
+		}
+		
+		for (int i = first; i < lines.length; i++) {
+			unsaved.append(lines[i]).append("\n");
+		}
+		
+		boolean complete = true;
+		String prefix = SAVED_KEY + TestDemultiplexerConstants.SERIAL_SEPARATOR;
+		
+		if (saved >= 0 && lines[saved].startsWith(prefix)) {
+			complete = recorder.loadCommandsFromFile(
+					lines[saved].substring(prefix.length()));
+		}
+		
+		return recorder.loadCommands(new BufferedReader(
+				new StringReader(unsaved.toString()))) && complete;
+	}
+	
+	/**
+	 * Open the journal for appending and start the background writer.
+	 * @param keep True to keep the commands already in the journal, after 
+	 * recovering them. False to start an empty journal.
+	 * @throws IOException If the journal cannot be opened.
+	 */
+	public synchronized void open(boolean keep) throws IOException {
+		
+		if (writer != null) {
+			return;
+		}
+		
+		String kept = keep ? readCompleteLines() : "";
+		
+		// Cut off a torn line so the next entry does not run into it.
+		RandomAccessFile file = new RandomAccessFile(filePath, "rw");
+		
+		try {
+			file.setLength(kept.getBytes(CHARSET).length);
+		} finally {
+			file.close();
+		}
+		
+		stream = new FileOutputStream(filePath, true);
+		writer = new BufferedWriter(new OutputStreamWriter(stream, CHARSET));
+		lastSync = System.currentTimeMillis();
+		
+		if (kept.length() == 0) {
+			writeFormatLine();
+			flush(true);
+		}
+		
+		timer = new ScheduledThreadPoolExecutor(
+				1, 
+				DeviceExecutionBackend.getInstance().
+					newThreadFactory("RecordingJournal"));
+		timer.scheduleWithFixedDelay(
+				new Runnable() {
+					public void run() {
+						flush(false);
+					}
+				}, 
+				FLUSH_INTERVAL, 
+				FLUSH_INTERVAL, 
+				TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Queue a command to be appended. Called by the recorder for every 
+	 * command added to it.
+	 * @param command Command that was added.
+	 * @param targets Serial numbers of the devices the command was sent to,
+	 * or null.
+	 */
+	public synchronized void append(
+			DeviceCommand command, 
+			List<String> targets) {
+		
+		if (writer == null || 
+				CommandCodecRegistry.getInstance().getCodec(command) == null) {
+			return;
+		}
+		
+		// The command is serialized when written, by then a loaded command
+		// also has its think time and skew set.
+		pending.add(new Entry(command, System.currentTimeMillis(), targets));
+		
+		if (pending.size() >= MAX_BATCH) {
+			flush(false);
+		}
+	}
+	
+	/**
+	 * Append a marker that the recorder contents are safe in a file. Commands
+	 * above the marker are not offered for recovery.
+	 * @param savedPath File the commands were saved to or loaded from.
+	 */
+	public synchronized void markSaved(String savedPath) {
+		
+		if (writer == null) {
+			return;
+		}
+		
+		flush(false);
+		
+		try {
+			writer.write(SAVED_KEY);
+			writer.write(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+			writer.write(savedPath);
+			writer.write("\n");
+			unsynced = true;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		flush(true);
+	}
+	
+	/**
+	 * Drop everything in the journal, the recorder was cleared.
+	 */
+	public synchronized void reset() {
+		
+		if (writer == null) {
+			return;
+		}
+		
+		pending.clear();
+		
+		try {
+			writer.flush();
+			stream.getChannel().truncate(0);
+			writeFormatLine();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write the queued commands to the journal.
+	 * @param sync True to also sync the journal to disk now. Otherwise it is
+	 * only synced if the sync interval has passed.
+	 */
+	public synchronized void flush(boolean sync) {
+		
+		if (writer == null) {
+			return;
+		}
+		
+		try {
+			for (int i = 0; i < pending.size(); i++) {
+				writeEntry(pending.get(i));
+			}
+			
+			pending.clear();
+			writer.flush();
+			
+			long now = System.currentTimeMillis();
+			
+			if (unsynced && (sync || now - lastSync >= SYNC_INTERVAL)) {
+				stream.getChannel().force(false);
+				unsynced = false;
+				lastSync = now;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Write out and sync everything queued, then close the journal. The 
+	 * journal file is kept so an unsaved session can still be recovered.
+	 */
+	public synchronized void close() {
+		
+		if (writer == null) {
+			return;
+		}
+		
+		timer.shutdownNow();
+		flush(true);
+		
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		
+		writer = null;
+		stream = null;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Write the format line every journal starts with.
+	 * @throws IOException If the write fails.
+	 */
+	private void writeFormatLine() throws IOException {
+		writer.write(CommandCodecRegistry.getFormatLine());
+		writer.write("\n");
+		unsynced = true;
+	}
+	
+	/**
+	 * Write one queued command with its recorded comment.
+	 * @param entry Entry to write.
+	 * @throws IOException If the write fails.
+	 */
+	private void writeEntry(Entry entry) throws IOException {
+		
+		recorder.writeCommand(writer, entry.command);
+		
+		if (entry.targets != null) {
+			
+			writer.write(RECORDED_KEY);
+			writer.write(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+			writer.write(Long.toString(entry.timestamp));
+			writer.write(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+			
+			for (int i = 0; i < entry.targets.size(); i++) {
+				
+				if (i > 0) {
+					writer.write(TARGET_SEPARATOR);
+				}
+				
+				writer.write(entry.targets.get(i));
+			}
+			
+			writer.write("\n");
+		}
+		
+		unsynced = true;
+	}
+	
+	/**
+	 * Read the journal up to the end of its last complete line.
+	 * @return Complete lines of the journal, empty if there is no journal.
+	 */
+	private String readCompleteLines() {
+		
+		File file = new File(filePath);
+		
+		if (!file.exists()) {
+			return "";
+		}
+		
+		byte[] data;
+		
+		try {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			
+			try {
+				data = new byte[(int)in.length()];
+				in.readFully(data);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "";
+		}
+		
+		int end = data.length;
+		
+		while (end > 0 && data[end - 1] != '\n') {
+			end--;
+		}
+		
+		return new String(data, 0, end, CHARSET);
+	}
+	
+	/**
+	 * A command waiting to be written.
+	 */
+	private static class Entry {
+		
+		/** Command that was added. */
+		private DeviceCommand command;
+		
+		/** Time the command was added. */
+		private long timestamp;
+		
+		/** Serial numbers of the devices it was sent to, or null. */
+		private List<String> targets;
+		
+		/**
+		 * Default constructor.
+		 * @param command Command that was added.
+		 * @param timestamp Time the command was added.
+		 * @param targets Serial numbers of the target devices, or null.
+		 */
+		private Entry(
+				DeviceCommand command, 
+				long timestamp, 
+				List<String> targets) {
+			this.command = command;
+			this.timestamp = timestamp;
+			this.targets = targets;
+		}
+	}
+}
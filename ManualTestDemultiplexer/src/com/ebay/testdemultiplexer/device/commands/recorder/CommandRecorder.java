@@ -31,23 +31,26 @@ import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.JOptionPane;
 
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
 import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
-import com.ebay.testdemultiplexer.device.commands.DragCommand;
-import com.ebay.testdemultiplexer.device.commands.InstallPackageCommand;
-import com.ebay.testdemultiplexer.device.commands.PressCommand;
-import com.ebay.testdemultiplexer.device.commands.RemovePackageCommand;
-import com.ebay.testdemultiplexer.device.commands.RestartDeviceCommand;
-import com.ebay.testdemultiplexer.device.commands.ShellCommand;
-import com.ebay.testdemultiplexer.device.commands.StartActivityCommand;
-import com.ebay.testdemultiplexer.device.commands.ToggleAirplaneModeCommand;
-import com.ebay.testdemultiplexer.device.commands.TouchCommand;
-import com.ebay.testdemultiplexer.device.commands.TypeCommand;
-import com.ebay.testdemultiplexer.device.commands.UnlockDeviceCommand;
+import com.ebay.testdemultiplexer.util.MessageDisplay;
+import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class CommandRecorder {
 	
@@ -95,12 +98,69 @@ public class CommandRecorder {
 	private static final String READ_ERROR_TITLE =
 			"Read Error";
 
+	// Error message for files written by a newer version.
+	private static final String FORMAT_ERROR_MSG = 
+			"The file was written by a newer version of the tool or is " +
+			"damaged and cannot be loaded.";
+	
+	// Error title for files written by a newer version.
+	private static final String FORMAT_ERROR_TITLE = 
+			"Unsupported File Format";
+	
+	/** Minimum number of lines per chunk when loading in parallel. */
+	private static final int MIN_CHUNK_LINES = 10000;
+	
+	/** 
+	 * Prefix of comment lines in the command file. Comment lines annotate the
+	 * command above them and are not commands themselves.
+	 */
+	public static final String COMMENT_PREFIX = "#";
+	
+	/** Comment key for the lockstep skew annotation of a command. */
+	public static final String SKEW_KEY = COMMENT_PREFIX + " SKEW";
+	
+	/** 
+	 * Comment key for the think time before a command, in milliseconds since
+	 * the previous command was recorded.
+	 */
+	public static final String DELAY_KEY = COMMENT_PREFIX + " DELAY";
+	
+	/** Separates a device serial number from its skew value. */
+	private static final String SKEW_VALUE_SEPARATOR = "=";
+
 	/** Holds all of the commands recorded. */
 	private ArrayList<DeviceCommand> commands;
 	
+	/** 
+	 * Skew in milliseconds by device serial number measured the last time a
+	 * command was released in lockstep. 
+	 */
+	private Map<DeviceCommand, Map<String, Float>> commandSkews;
+	
+	/** 
+	 * Think time before each command in milliseconds. Commands without an
+	 * entry were not timed and are played without a delay.
+	 */
+	private Map<DeviceCommand, Long> commandDelays;
+	
+	/** 
+	 * Time the previous command was recorded, 0 if none has been recorded 
+	 * since the recorder was started or cleared.
+	 */
+	private long lastRecordedTime = 0;
+	
 	/** Tracks the state of the recorder. */
 	private boolean isRecording = true;
 	
+	/** Journal every added command is appended to, null if not journaling. */
+	private volatile CommandJournal journal;
+	
+	/** 
+	 * True while commands are loaded from a file. They are safe in that file,
+	 * so only the saved marker is journaled, not every loaded command.
+	 */
+	private volatile boolean loading = false;
+	
 	/** Registered listeners. */
 	private ArrayList<CommandRecorderListener> listeners;
 	
@@ -111,6 +171,10 @@ public class CommandRecorder {
 		
 		commands = new ArrayList<DeviceCommand>();
 		listeners = new ArrayList<CommandRecorderListener>();
+		commandSkews = Collections.synchronizedMap(
+				new IdentityHashMap<DeviceCommand, Map<String, Float>>());
+		commandDelays = Collections.synchronizedMap(
+				new IdentityHashMap<DeviceCommand, Long>());
 	}
 	
 	/**
@@ -129,10 +193,33 @@ public class CommandRecorder {
 		listeners.remove(listener);
 	}
 	
+	/**
+	 * Set the journal every command added to the recorder is appended to, so
+	 * an unsaved session survives a crash.
+	 * @param journal Open journal, or null to stop journaling.
+	 */
+	public void setJournal(CommandJournal journal) {
+		this.journal = journal;
+	}
+	
+	/**
+	 * Get the journal commands are appended to.
+	 * @return The journal, or null if not journaling.
+	 */
+	public CommandJournal getJournal() {
+		return journal;
+	}
+	
 	/** 
 	 * Start the recorder. 
 	 */
 	public void startRecorder() {
+		
+		// Time spent with the recorder stopped is not think time.
+		if (!isRecording) {
+			lastRecordedTime = 0;
+		}
+		
 		isRecording = true;
 	}
 	
@@ -156,19 +243,60 @@ public class CommandRecorder {
 	 */
 	public void clearRecorder() {
 		commands.clear();
+		commandSkews.clear();
+		commandDelays.clear();
+		lastRecordedTime = 0;
+		
+		if (journal != null) {
+			journal.reset();
+		}
+		
 		notifyListenersOfClearedRecorder();
 	}
 	
 	/**
-	 * Add a command to the recorder.
+	 * Add a command to the recorder. While recording, the time since the 
+	 * previous command is stored as the think time of the command.
 	 * @param command Command to add to the recorder.
 	 * @param force Set to true to force adding command to recorder even when
-	 * not recording.
+	 * not recording. Forced commands are not timed.
 	 */
 	public void addCommand(DeviceCommand command, boolean force) {
+		addCommand(command, force, null);
+	}
+	
+	/**
+	 * Add a command to the recorder. While recording, the time since the 
+	 * previous command is stored as the think time of the command.
+	 * @param command Command to add to the recorder.
+	 * @param force Set to true to force adding command to recorder even when
+	 * not recording. Forced commands are not timed.
+	 * @param targets Serial numbers of the devices the command was sent to,
+	 * written to the journal. Null if the command was not sent to devices.
+	 */
+	public void addCommand(
+			DeviceCommand command, 
+			boolean force, 
+			List<String> targets) {
+		
+		if (isRecording && !force) {
+			
+			long now = System.currentTimeMillis();
+			
+			if (lastRecordedTime > 0) {
+				commandDelays.put(command, now - lastRecordedTime);
+			}
+			
+			lastRecordedTime = now;
+		}
 		
 		if (isRecording || force) {
 			commands.add(command);
+			
+			if (journal != null && !loading) {
+				journal.append(command, targets);
+			}
+			
 			notifyListenersOfCommandAdded(command);
 		}
 	}
@@ -186,6 +314,62 @@ public class CommandRecorder {
 		return commands.get(index);
 	}
 	
+	/**
+	 * Store the skew measured when the command was released in lockstep. It
+	 * is written to file with the command. Replaces any earlier measurement.
+	 * @param command Command that was released.
+	 * @param skews Skew in milliseconds by device serial number.
+	 */
+	public void setCommandSkew(DeviceCommand command, Map<String, Float> skews) {
+		commandSkews.put(command, new LinkedHashMap<String, Float>(skews));
+	}
+	
+	/**
+	 * Get the skew measured the last time the command was released in 
+	 * lockstep.
+	 * @param command Command to look up.
+	 * @return Skew in milliseconds by device serial number, or null if the 
+	 * command has not been released in lockstep.
+	 */
+	public Map<String, Float> getCommandSkew(DeviceCommand command) {
+		return commandSkews.get(command);
+	}
+	
+	/**
+	 * Set the think time before the command.
+	 * @param command Command to set the think time of.
+	 * @param delay Milliseconds to wait after the previous command.
+	 */
+	public void setCommandDelay(DeviceCommand command, long delay) {
+		commandDelays.put(command, Math.max(0, delay));
+	}
+	
+	/**
+	 * Get the think time recorded before the command.
+	 * @param command Command to look up.
+	 * @return Milliseconds to wait after the previous command, 0 if the 
+	 * command was not timed.
+	 */
+	public long getCommandDelay(DeviceCommand command) {
+		
+		Long delay = commandDelays.get(command);
+		
+		if (delay == null) {
+			return 0;
+		}
+		
+		return delay;
+	}
+	
+	/**
+	 * Check whether a think time was recorded before the command.
+	 * @param command Command to look up.
+	 * @return True if the command was timed, false otherwise.
+	 */
+	public boolean isCommandTimed(DeviceCommand command) {
+		return commandDelays.containsKey(command);
+	}
+	
 	/**
 	 * Get the number of commands in the recorder.
 	 * @return Number of commands in recorder.
@@ -195,12 +379,55 @@ public class CommandRecorder {
 	}
 	
 	/**
-	 * Load commands from file.
+	 * Get the recorded commands together with their think time and skew.
+	 * @return Snapshot of the steps, in playback order.
+	 */
+	public List<RecordedStep> getSteps() {
+		
+		ArrayList<RecordedStep> steps = 
+				new ArrayList<RecordedStep>(commands.size());
+		
+		for (int i = 0; i < commands.size(); i++) {
+			
+			DeviceCommand command = commands.get(i);
+			Long delay = commandDelays.get(command);
+			
+			steps.add(new RecordedStep(
+					command, 
+					delay != null ? delay : -1, 
+					commandSkews.get(command)));
+		}
+		
+		return steps;
+	}
+	
+	/**
+	 * Replace the contents of the recorder, for example with the steps of an
+	 * optimized recording. Listeners see the recorder cleared and every step
+	 * added again.
+	 * @param steps Steps to hold, in playback order.
+	 */
+	public void replaceSteps(List<RecordedStep> steps) {
+		
+		clearRecorder();
+		
+		for (int i = 0; i < steps.size(); i++) {
+			addStep(steps.get(i));
+		}
+	}
+	
+	/**
+	 * Load commands from file. Binary traces are recognized by their header,
+	 * anything else is read as a text command file.
 	 * @param filePath Path to command file to open.
 	 * @return True if successful, false otherwise.
 	 */
 	public boolean loadCommandsFromFile(String filePath) {
 		
+		if (BinaryTraceReader.isBinaryTrace(filePath)) {
+			return loadCommandsFromBinaryFile(filePath);
+		}
+		
 		FileReader file;
 		BufferedReader reader;
 		
@@ -210,8 +437,7 @@ public class CommandRecorder {
 			reader = new BufferedReader(file);
 		} catch (FileNotFoundException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				INPUT_ERROR_MSG, 
     				INPUT_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -220,87 +446,84 @@ public class CommandRecorder {
 			return false;
 		}
 		
-		// Begin parsing the commands out of the file.
-		DeviceCommand command;
-		
-		String dataToken = "";
+		loading = true;
 		
-		while (dataToken != null) {
-			
-			// Read the next line.
-			try {
-				dataToken = reader.readLine();
-			} catch (IOException e) {
-				
-				JOptionPane.showMessageDialog(
-	    				null, 
-	    				READ_ERROR_MSG, 
-	    				READ_ERROR_TITLE, 
-	    				JOptionPane.ERROR_MESSAGE);
-	    		
-				e.printStackTrace();
-				
+		try {
+			if (!loadCommands(reader)) {
 				return false;
 			}
+		} finally {
+			loading = false;
+		}
+		
+		if (journal != null) {
+			journal.markSaved(filePath);
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Load commands from a binary trace.
+	 * @param filePath Path to the trace to open.
+	 * @return True if successful, false otherwise.
+	 */
+	public boolean loadCommandsFromBinaryFile(String filePath) {
+		
+		BinaryTraceReader reader;
+		
+		try {
+			reader = new BinaryTraceReader(filePath);
+		} catch (IOException e) {
 			
-			// Because we are going in without reading the first line in the
-			// file we need to check the case when nothing is there.
-			if (dataToken == null) {
-				break;
-			}
+			MessageDisplay.showMessage(
+    				INPUT_ERROR_MSG, 
+    				INPUT_ERROR_TITLE, 
+    				JOptionPane.ERROR_MESSAGE);
 			
-			// Build the correct command based on the line data.
-			if (dataToken.startsWith(DragCommand.SERIALIZED_KEY)) {
-				command = new DragCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(InstallPackageCommand.SERIALIZED_KEY)) {
-				command = new InstallPackageCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(PressCommand.SERIALIZED_KEY)) {
-				command = new PressCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(RemovePackageCommand.SERIALIZED_KEY)) {
-				command = new RemovePackageCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(RestartDeviceCommand.SERIALIZED_KEY)) {
-				command = new RestartDeviceCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(ShellCommand.SERIALIZED_KEY)) {
-				command = new ShellCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(StartActivityCommand.SERIALIZED_KEY)) {
-				command = new StartActivityCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(ToggleAirplaneModeCommand.SERIALIZED_KEY)) {
-				command = new ToggleAirplaneModeCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(TouchCommand.SERIALIZED_KEY)) {
-				command = new TouchCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(TypeCommand.SERIALIZED_KEY)) {
-				command = new TypeCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else if (dataToken.startsWith(UnlockDeviceCommand.SERIALIZED_KEY)) {
-				command = new UnlockDeviceCommand();
-				((CommandDeserializer)command).deserializeCommand(dataToken);
-			} else {
-				System.out.println("Could not load line token: "+dataToken);
-				return false;
+			e.printStackTrace();
+			return false;
+		}
+		
+		loading = true;
+		
+		try {
+			for (int i = 0; i < reader.getStepCount(); i++) {
+				addStep(reader.getStep(i));
 			}
+		} catch (IOException e) {
+			
+			MessageDisplay.showMessage(
+    				READ_ERROR_MSG, 
+    				READ_ERROR_TITLE, 
+    				JOptionPane.ERROR_MESSAGE);
 			
-			// Add the command to the command list.
-			addCommand(command, true);
+			e.printStackTrace();
+			return false;
+		} finally {
+			loading = false;
+			reader.close();
+		}
+		
+		if (journal != null) {
+			journal.markSaved(filePath);
 		}
 		
 		return true;
 	}
 	
 	/**
-	 * Write the commands to file.
+	 * Write the commands to file. Paths ending in the binary trace extension
+	 * are written as a binary trace, anything else as a text command file.
 	 * @param filePath The path to the output file to write.
 	 */
 	public void writeCommandsToFile(String filePath) {
 		
+		if (filePath.endsWith(BinaryTraceFormat.FILE_EXTENSION)) {
+			writeCommandsToBinaryFile(filePath);
+			return;
+		}
+		
 		FileWriter file;
 		BufferedWriter writer;
 		
@@ -310,8 +533,7 @@ public class CommandRecorder {
 			writer = new BufferedWriter(file);
 		} catch (IOException e) {
 
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				OUTPUT_ERROR_MSG, 
     				OUTPUT_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -320,7 +542,23 @@ public class CommandRecorder {
 			return;
 		}
 		
+		// The format line tells the loader how the fields are encoded.
+		try {
+			writer.write(CommandCodecRegistry.getFormatLine());
+			writer.write("\n");
+		} catch (IOException e) {
+			
+			MessageDisplay.showMessage(
+    				WRITE_ERROR_MSG, 
+    				WRITE_ERROR_TITLE, 
+    				JOptionPane.ERROR_MESSAGE);
+    		
+			e.printStackTrace();
+			return;
+		}
+		
 		// Iterate over all of the commands and write them to file.
+		CommandCodecRegistry registry = CommandCodecRegistry.getInstance();
 		Iterator<DeviceCommand> iterator = commands.iterator();
 		DeviceCommand command;
 		
@@ -328,15 +566,12 @@ public class CommandRecorder {
 			
 			command = iterator.next();
 			
-			if (command instanceof CommandSerializer) {
+			if (registry.getCodec(command) != null) {
 				try {
-					writer.write(
-							((CommandSerializer)command).serializeCommand());
-					writer.write("\n");
+					writeCommand(writer, command);
 				} catch (IOException e) {
 					
-					JOptionPane.showMessageDialog(
-		    				null, 
+					MessageDisplay.showMessage(
 		    				WRITE_ERROR_MSG, 
 		    				WRITE_ERROR_TITLE, 
 		    				JOptionPane.ERROR_MESSAGE);
@@ -352,8 +587,7 @@ public class CommandRecorder {
 			writer.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				CLOSE_ERROR_MSG, 
     				CLOSE_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -367,8 +601,7 @@ public class CommandRecorder {
 			file.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
+			MessageDisplay.showMessage(
     				CLOSE_ERROR_MSG, 
     				CLOSE_ERROR_TITLE, 
     				JOptionPane.ERROR_MESSAGE);
@@ -376,6 +609,34 @@ public class CommandRecorder {
 			e.printStackTrace();
 			return;
 		}
+		
+		if (journal != null) {
+			journal.markSaved(filePath);
+		}
+	}
+	
+	/**
+	 * Write the commands to a binary trace.
+	 * @param filePath The path to the trace to write.
+	 */
+	public void writeCommandsToBinaryFile(String filePath) {
+		
+		try {
+			BinaryTraceWriter.write(this, filePath);
+		} catch (IOException e) {
+			
+			MessageDisplay.showMessage(
+    				WRITE_ERROR_MSG, 
+    				WRITE_ERROR_TITLE, 
+    				JOptionPane.ERROR_MESSAGE);
+			
+			e.printStackTrace();
+			return;
+		}
+		
+		if (journal != null) {
+			journal.markSaved(filePath);
+		}
 	}
 	
 	/**
@@ -393,10 +654,354 @@ public class CommandRecorder {
 		}
 	}
 	
+	/**
+	 * Write a command in the text command format, followed by its think time
+	 * and skew lines.
+	 * @param writer Writer to write to.
+	 * @param command Command to write, must have a registered codec.
+	 * @throws IOException If the write fails.
+	 */
+	void writeCommand(Writer writer, DeviceCommand command) 
+			throws IOException {
+		
+		writer.write(CommandCodecRegistry.getInstance().encode(command));
+		writer.write("\n");
+		
+		Long delay = commandDelays.get(command);
+		
+		if (delay != null) {
+			writer.write(DELAY_KEY);
+			writer.write(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+			writer.write(Long.toString(delay));
+			writer.write("\n");
+		}
+		
+		Map<String, Float> skews = commandSkews.get(command);
+		
+		if (skews != null) {
+			writer.write(serializeSkew(skews));
+			writer.write("\n");
+		}
+	}
+	
+	/**
+	 * Load commands in the text command format from a reader. Long files are
+	 * decoded in parallel chunks and added in order. Commands before a line
+	 * that cannot be loaded stay in the recorder.
+	 * @param reader Reader positioned at the first line.
+	 * @return True if successful, false otherwise.
+	 */
+	boolean loadCommands(BufferedReader reader) {
+		
+		ArrayList<String> lines = new ArrayList<String>();
+		
+		// Read every line up front, decoding is what takes the time.
+		try {
+			String line = reader.readLine();
+			
+			while (line != null) {
+				lines.add(line);
+				line = reader.readLine();
+			}
+		} catch (IOException e) {
+			
+			MessageDisplay.showMessage(
+    				READ_ERROR_MSG, 
+    				READ_ERROR_TITLE, 
+    				JOptionPane.ERROR_MESSAGE);
+    		
+			e.printStackTrace();
+			return false;
+		}
+		
+		// Files without a format line predate escaping.
+		int version = CommandCodecRegistry.LEGACY_FORMAT_VERSION;
+		int first = 0;
+		
+		if (lines.size() > 0 && 
+				lines.get(0).startsWith(CommandCodecRegistry.FORMAT_KEY)) {
+			
+			version = CommandCodecRegistry.parseFormatLine(lines.get(0));
+			first = 1;
+			
+			if (version < CommandCodecRegistry.LEGACY_FORMAT_VERSION || 
+					version > CommandCodecRegistry.FORMAT_VERSION) {
+				
+				MessageDisplay.showMessage(
+	    				FORMAT_ERROR_MSG, 
+	    				FORMAT_ERROR_TITLE, 
+	    				JOptionPane.ERROR_MESSAGE);
+				
+				return false;
+			}
+		}
+		
+		ArrayList<RecordedStep> steps = decodeSteps(lines, first, version);
+		
+		for (int i = 0; i < steps.size(); i++) {
+			
+			// A null step marks the line that could not be loaded.
+			if (steps.get(i) == null) {
+				return false;
+			}
+			
+			addStep(steps.get(i));
+		}
+		
+		return true;
+	}
+	
 	// -------------------------------------------------------------------------
 	// Private methods
 	// -------------------------------------------------------------------------
 	
+	/**
+	 * Build the skew comment line written below a command.
+	 * @param skews Skew in milliseconds by device serial number.
+	 * @return Serialized skew line.
+	 */
+	private String serializeSkew(Map<String, Float> skews) {
+		
+		StringBuilder serialized = new StringBuilder(SKEW_KEY);
+		
+		for (Map.Entry<String, Float> entry : skews.entrySet()) {
+			serialized.append(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+			serialized.append(entry.getKey());
+			serialized.append(SKEW_VALUE_SEPARATOR);
+			serialized.append(entry.getValue());
+		}
+		
+		return serialized.toString();
+	}
+	
+	/**
+	 * Parse a skew comment line. Malformed entries are skipped.
+	 * @param data Skew line read from file.
+	 * @return Skew in milliseconds by device serial number.
+	 */
+	private static Map<String, Float> deserializeSkew(String data) {
+		
+		Map<String, Float> skews = new LinkedHashMap<String, Float>();
+		String[] tokens = 
+				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		
+		for (int i = 1; i < tokens.length; i++) {
+			
+			int separator = tokens[i].lastIndexOf(SKEW_VALUE_SEPARATOR);
+			
+			if (separator <= 0) {
+				continue;
+			}
+			
+			try {
+				skews.put(
+						tokens[i].substring(0, separator), 
+						Float.valueOf(tokens[i].substring(separator + 1)));
+			} catch (NumberFormatException e) {
+				System.out.println("Could not load skew token: "+tokens[i]);
+			}
+		}
+		
+		return skews;
+	}
+	
+	/**
+	 * Parse a think time comment line.
+	 * @param data Delay line read from file.
+	 * @return Think time in milliseconds, or null if the line is malformed.
+	 */
+	private static Long deserializeDelay(String data) {
+		
+		String[] tokens = 
+				data.split(TestDemultiplexerConstants.SERIAL_SEPARATOR);
+		
+		if (tokens.length < 2) {
+			return null;
+		}
+		
+		try {
+			return Long.valueOf(tokens[1].trim());
+		} catch (NumberFormatException e) {
+			System.out.println("Could not load delay token: "+tokens[1]);
+			return null;
+		}
+	}
+	
+	/**
+	 * Add a loaded step to the recorder.
+	 * @param step Step to add.
+	 */
+	private void addStep(RecordedStep step) {
+		
+		DeviceCommand command = step.getCommand();
+		
+		addCommand(command, true);
+		
+		if (step.isTimed()) {
+			setCommandDelay(command, step.getDelay());
+		}
+		
+		if (step.getSkews() != null) {
+			setCommandSkew(command, step.getSkews());
+		}
+	}
+	
+	/**
+	 * Decode the commands of a text command file, in parallel chunks if the
+	 * file is long.
+	 * @param lines Lines of the file.
+	 * @param first Index of the first line after the format line.
+	 * @param version Format version of the file.
+	 * @return Decoded steps in file order. If a line could not be loaded the
+	 * last entry is null.
+	 */
+	private ArrayList<RecordedStep> decodeSteps(
+			final List<String> lines, 
+			int first, 
+			final int version) {
+		
+		int count = lines.size() - first;
+		int chunkCount = Math.min(
+				Runtime.getRuntime().availableProcessors(), 
+				count / MIN_CHUNK_LINES);
+		
+		if (chunkCount < 2) {
+			return decodeChunk(lines, first, lines.size(), version);
+		}
+		
+		ArrayList<Callable<ArrayList<RecordedStep>>> chunks = 
+				new ArrayList<Callable<ArrayList<RecordedStep>>>();
+		int start = first;
+		
+		for (int i = 1; i <= chunkCount; i++) {
+			
+			int end = first + (int)((long)count * i / chunkCount);
+			
+			// Chunks start at a command so the comments annotating it are 
+			// decoded with it.
+			while (end < lines.size() && 
+					lines.get(end).startsWith(COMMENT_PREFIX)) {
+				end++;
+			}
+			
+			if (end <= start) {
+				continue;
+			}
+			
+			final int from = start;
+			final int to = end;
+			
+			chunks.add(new Callable<ArrayList<RecordedStep>>() {
+				public ArrayList<RecordedStep> call() {
+					return decodeChunk(lines, from, to, version);
+				}
+			});
+			
+			start = end;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(
+				chunks.size(), 
+				DeviceExecutionBackend.getInstance().
+					newThreadFactory("TraceLoader"));
+		ArrayList<RecordedStep> steps = new ArrayList<RecordedStep>(count);
+		
+		try {
+			List<Future<ArrayList<RecordedStep>>> results = 
+					executor.invokeAll(chunks);
+			
+			for (int i = 0; i < results.size(); i++) {
+				
+				ArrayList<RecordedStep> chunk = results.get(i).get();
+				steps.addAll(chunk);
+				
+				if (chunk.size() > 0 && chunk.get(chunk.size() - 1) == null) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			steps.add(null);
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+			steps.add(null);
+		} finally {
+			executor.shutdown();
+		}
+		
+		return steps;
+	}
+	
+	/**
+	 * Decode a range of lines of a text command file. Comment lines before 
+	 * the first command of the range are ignored.
+	 * @param lines Lines of the file.
+	 * @param from Index of the first line to decode.
+	 * @param to Index after the last line to decode.
+	 * @param version Format version of the file.
+	 * @return Decoded steps in order. If a line could not be loaded decoding
+	 * stops and the last entry is null.
+	 */
+	private static ArrayList<RecordedStep> decodeChunk(
+			List<String> lines, 
+			int from, 
+			int to, 
+			int version) {
+		
+		CommandCodecRegistry registry = CommandCodecRegistry.getInstance();
+		ArrayList<RecordedStep> steps = new ArrayList<RecordedStep>(to - from);
+		RecordedStep lastStep = null;
+		
+		for (int i = from; i < to; i++) {
+			
+			String line = lines.get(i);
+			
+			// Comments annotate the previous command.
+			if (line.startsWith(COMMENT_PREFIX)) {
+				
+				if (lastStep == null) {
+					continue;
+				}
+				
+				if (line.startsWith(SKEW_KEY)) {
+					lastStep.setSkews(deserializeSkew(line));
+				} else if (line.startsWith(DELAY_KEY)) {
+					
+					Long delay = deserializeDelay(line);
+					
+					if (delay != null) {
+						lastStep.setDelay(Math.max(0, delay));
+					}
+				}
+				continue;
+			}
+			
+			DeviceCommand command = registry.decode(line, version);
+			
+			// Legacy files were always loaded past a known command whose
+			// fields did not parse, only an unknown command stopped them.
+			if (command == null && 
+					version == CommandCodecRegistry.LEGACY_FORMAT_VERSION && 
+					registry.getCodec(
+							CommandCodecRegistry.getKey(line)) != null) {
+				System.out.println("Skipping malformed line: "+line);
+				lastStep = null;
+				continue;
+			}
+			
+			if (command == null) {
+				System.out.println("Could not load line token: "+line);
+				steps.add(null);
+				return steps;
+			}
+			
+			lastStep = new RecordedStep(command, -1, null);
+			steps.add(lastStep);
+		}
+		
+		return steps;
+	}
+	
 	/**
 	 * Notify listeners of a command being added to the recorder.
 	 * @param command Command that was added to the recorder.
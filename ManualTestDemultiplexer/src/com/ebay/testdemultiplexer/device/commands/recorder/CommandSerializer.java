@@ -28,7 +28,8 @@ package com.ebay.testdemultiplexer.device.commands.recorder;
 public interface CommandSerializer {
 
 	/**
-	 * Serialize the command.
+	 * Serialize the command. Free text fields must be escaped with 
+	 * CommandCodecRegistry.escape() so they can hold the separator.
 	 * @return Serialized command data.
 	 */
 	public String serializeCommand();
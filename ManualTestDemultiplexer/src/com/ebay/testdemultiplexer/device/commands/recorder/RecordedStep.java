@@ -0,0 +1,102 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: RecordedStep
+ * 
+ * Description: 
+ * One decoded step of a saved recording: the command with the think time and
+ * skew stored next to it.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.util.Map;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class RecordedStep {
+	
+	/** Command of the step. */
+	private DeviceCommand command;
+	
+	/** Think time before the command, -1 if it was not timed. */
+	private long delay;
+	
+	/** Skew by device serial number, null if none was measured. */
+	private Map<String, Float> skews;
+	
+	/**
+	 * Default constructor.
+	 * @param command Command of the step.
+	 * @param delay Think time before the command, -1 if not timed.
+	 * @param skews Skew by device serial number, or null.
+	 */
+	RecordedStep(DeviceCommand command, long delay, Map<String, Float> skews) {
+		this.command = command;
+		this.delay = delay;
+		this.skews = skews;
+	}
+	
+	/**
+	 * Get the command of the step.
+	 * @return Deserialized command.
+	 */
+	public DeviceCommand getCommand() {
+		return command;
+	}
+	
+	/**
+	 * Check whether a think time was recorded for the step.
+	 * @return True if timed, false otherwise.
+	 */
+	public boolean isTimed() {
+		return delay >= 0;
+	}
+	
+	/**
+	 * Get the think time before the command.
+	 * @return Milliseconds after the previous command, -1 if not timed.
+	 */
+	public long getDelay() {
+		return delay;
+	}
+	
+	/**
+	 * Set the think time before the command.
+	 * @param delay Milliseconds after the previous command, -1 if not timed.
+	 */
+	void setDelay(long delay) {
+		this.delay = delay;
+	}
+	
+	/**
+	 * Get the skew measured the last time the command was released in 
+	 * lockstep.
+	 * @return Skew in milliseconds by device serial number, or null.
+	 */
+	public Map<String, Float> getSkews() {
+		return skews;
+	}
+	
+	/**
+	 * Set the skew measured for the command.
+	 * @param skews Skew in milliseconds by device serial number, or null.
+	 */
+	void setSkews(Map<String, Float> skews) {
+		this.skews = skews;
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: SerializedCommandCodec
+ * 
+ * Description: 
+ * Codec for commands that serialize themselves through CommandSerializer and
+ * CommandDeserializer. New commands are created through their no argument
+ * constructor.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+
+public class SerializedCommandCodec implements CommandCodec {
+	
+	/** Serialized key of the command type. */
+	private String key;
+	
+	/** Command class, serializing itself. */
+	private Class<? extends DeviceCommand> commandType;
+	
+	/**
+	 * Default constructor.
+	 * @param key Serialized key of the command type.
+	 * @param commandType Command class. Must have a public no argument 
+	 * constructor and implement CommandSerializer and CommandDeserializer.
+	 */
+	public SerializedCommandCodec(
+			String key, 
+			Class<? extends DeviceCommand> commandType) {
+		
+		if (!CommandSerializer.class.isAssignableFrom(commandType) ||
+				!CommandDeserializer.class.isAssignableFrom(commandType)) {
+			throw new IllegalArgumentException(commandType.getName() + 
+					" does not serialize itself.");
+		}
+		
+		this.key = key;
+		this.commandType = commandType;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandCodec#getKey()
+	 */
+	public String getKey() {
+		return key;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandCodec#getCommandType()
+	 */
+	public Class<? extends DeviceCommand> getCommandType() {
+		return commandType;
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandCodec#encode(com.ebay.testdemultiplexer.device.commands.DeviceCommand)
+	 */
+	public String encode(DeviceCommand command) {
+		return ((CommandSerializer)command).serializeCommand();
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandCodec#decode(java.lang.String)
+	 */
+	public DeviceCommand decode(String data) {
+		
+		DeviceCommand command;
+		
+		try {
+			command = commandType.newInstance();
+		} catch (InstantiationException e) {
+			e.printStackTrace();
+			return null;
+		} catch (IllegalAccessException e) {
+			e.printStackTrace();
+			return null;
+		}
+		
+		try {
+			if (!((CommandDeserializer)command).deserializeCommand(data)) {
+				return null;
+			}
+		} catch (RuntimeException e) {
+			// Bad numbers and enum names in hand edited files.
+			System.out.println("Could not deserialize: "+data);
+			return null;
+		}
+		
+		return command;
+	}
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TraceConverter
+ * 
+ * Description: 
+ * Command line tool converting recordings between the text (.trf) and binary
+ * (.trb) formats. The output format follows the extension of the output path.
+ *
+ * Usage:
+ * java com.ebay.testdemultiplexer.device.commands.recorder.TraceConverter
+ *   input.trf output.trb
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.io.IOException;
+
+public class TraceConverter {
+	
+	/**
+	 * Entry point.
+	 * @param args Input path followed by output path.
+	 */
+	public static void main(String[] args) {
+		
+		// Errors are printed rather than shown in dialogs.
+		System.setProperty("java.awt.headless", "true");
+		
+		if (args.length != 2) {
+			System.out.println(
+					"Usage: TraceConverter <input.trf|input.trb> " +
+					"<output.trf|output.trb>");
+			System.exit(2);
+		}
+		
+		if (!convert(args[0], args[1])) {
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Convert a recording to the format given by the output extension. 
+	 * Commands, think times and skews are carried over unchanged.
+	 * @param inputPath Recording to read, text or binary.
+	 * @param outputPath Recording to write.
+	 * @return True if successful, false otherwise.
+	 */
+	public static boolean convert(String inputPath, String outputPath) {
+		
+		CommandRecorder recorder = new CommandRecorder();
+		
+		if (!recorder.loadCommandsFromFile(inputPath)) {
+			return false;
+		}
+		
+		if (outputPath.endsWith(BinaryTraceFormat.FILE_EXTENSION)) {
+			try {
+				BinaryTraceWriter.write(recorder, outputPath);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		} else {
+			recorder.writeCommandsToFile(outputPath);
+		}
+		
+		System.out.println("Converted "+recorder.getRecorderLength()+
+				" commands to "+outputPath);
+		
+		return true;
+	}
+}
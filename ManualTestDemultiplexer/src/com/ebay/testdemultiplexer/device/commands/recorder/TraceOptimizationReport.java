@@ -0,0 +1,198 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TraceOptimizationReport
+ * 
+ * Description: 
+ * Outcome of a TraceOptimizer pass over a recording. Counts the steps before
+ * and after the pass and how often each rule applied. Every step removed from
+ * the recording saves one fan-out round trip to all devices on playback.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+public class TraceOptimizationReport {
+	
+	/** Number of steps before the pass. */
+	private int originalSteps;
+	
+	/** Number of steps after the pass. */
+	private int optimizedSteps;
+	
+	/** Number of TypeCommands merged into the preceding one. */
+	private int mergedTypes;
+	
+	/** Number of key presses folded into the repeat count of the previous. */
+	private int mergedPresses;
+	
+	/** Number of repeated activity launches dropped. */
+	private int droppedLaunches;
+	
+	/** 
+	 * Number of repeated activity launches kept, as they may push another 
+	 * instance of the activity.
+	 */
+	private int keptLaunches;
+	
+	/** Number of zero distance drags replayed as taps. */
+	private int convertedDrags;
+	
+	/**
+	 * Default constructor.
+	 * @param originalSteps Number of steps before the pass.
+	 */
+	TraceOptimizationReport(int originalSteps) {
+		this.originalSteps = originalSteps;
+		this.optimizedSteps = originalSteps;
+	}
+	
+	/**
+	 * Get the number of steps before the pass.
+	 * @return Step count.
+	 */
+	public int getOriginalSteps() {
+		return originalSteps;
+	}
+	
+	/**
+	 * Get the number of steps after the pass.
+	 * @return Step count.
+	 */
+	public int getOptimizedSteps() {
+		return optimizedSteps;
+	}
+	
+	/**
+	 * Get the number of fan-out round trips the pass saves on playback.
+	 * @return Steps removed from the recording.
+	 */
+	public int getSavedRoundTrips() {
+		return originalSteps - optimizedSteps;
+	}
+	
+	/**
+	 * Get the number of TypeCommands merged into the preceding one.
+	 * @return Merge count.
+	 */
+	public int getMergedTypes() {
+		return mergedTypes;
+	}
+	
+	/**
+	 * Get the number of key presses folded into a repeat count.
+	 * @return Merge count.
+	 */
+	public int getMergedPresses() {
+		return mergedPresses;
+	}
+	
+	/**
+	 * Get the number of repeated activity launches dropped.
+	 * @return Drop count.
+	 */
+	public int getDroppedLaunches() {
+		return droppedLaunches;
+	}
+	
+	/**
+	 * Get the number of repeated activity launches kept because their intent
+	 * flags do not make the second launch reuse the first activity.
+	 * @return Kept launch count.
+	 */
+	public int getKeptLaunches() {
+		return keptLaunches;
+	}
+	
+	/**
+	 * Get the number of zero distance drags replayed as taps. Converting a 
+	 * drag does not save a round trip, but the tap is released at once 
+	 * instead of holding the touch for the length of the drag.
+	 * @return Conversion count.
+	 */
+	public int getConvertedDrags() {
+		return convertedDrags;
+	}
+	
+	/**
+	 * Check whether the pass changed the recording.
+	 * @return True if any rule applied.
+	 */
+	public boolean hasChanges() {
+		return getSavedRoundTrips() > 0 || convertedDrags > 0;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Steps: " + originalSteps + " -> " + optimizedSteps + 
+				" (" + getSavedRoundTrips() + " round trips saved)\n" + 
+				"Merged typing: " + mergedTypes + "\n" + 
+				"Merged key presses: " + mergedPresses + "\n" + 
+				"Dropped repeated launches: " + droppedLaunches + "\n" + 
+				"Kept repeated launches: " + keptLaunches + "\n" + 
+				"Drags replayed as taps: " + convertedDrags;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Package private methods, used by TraceOptimizer
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Set the number of steps after the pass.
+	 * @param optimizedSteps Step count.
+	 */
+	void setOptimizedSteps(int optimizedSteps) {
+		this.optimizedSteps = optimizedSteps;
+	}
+	
+	/**
+	 * Count a TypeCommand merged into the preceding one.
+	 */
+	void typeMerged() {
+		mergedTypes++;
+	}
+	
+	/**
+	 * Count a key press folded into a repeat count.
+	 */
+	void pressMerged() {
+		mergedPresses++;
+	}
+	
+	/**
+	 * Count a dropped activity launch.
+	 */
+	void launchDropped() {
+		droppedLaunches++;
+	}
+	
+	/**
+	 * Count a repeated activity launch that was kept.
+	 */
+	void launchKept() {
+		keptLaunches++;
+	}
+	
+	/**
+	 * Count a drag replayed as a tap.
+	 */
+	void dragConverted() {
+		convertedDrags++;
+	}
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TraceOptimizer
+ * 
+ * Description: 
+ * Compacts a recording before it is replayed. Every step of a recording is
+ * fanned out to all devices and costs a full round trip, so redundant steps
+ * are merged or dropped where doing so sends the devices the same input:
+ *
+ * - Consecutive TypeCommands are merged into one, up to MAX_MERGED_TEXT_LENGTH
+ *   characters.
+ * - Consecutive DOWN_AND_UP presses of the same arrow or delete key are folded
+ *   into the repeat count of the first press.
+ * - A StartActivityCommand identical to the one right before it is dropped
+ *   if its intent flags include FLAG_ACTIVITY_SINGLE_TOP or 
+ *   FLAG_ACTIVITY_CLEAR_TOP. The activity it starts is then already on top 
+ *   and is reused. Without those flags the second launch may push another 
+ *   instance onto the back stack, so a later BACK would land elsewhere. Such
+ *   pairs are kept and only counted in the report.
+ * - A drag that starts and ends on the same point and is shorter than a long
+ *   press is replayed as a tap, which does not hold the touch down.
+ *
+ * Steps are only merged when the later one was recorded within MAX_MERGE_GAP 
+ * of the earlier one, so pauses the tester waited for the app are kept. 
+ * Untimed steps, from recordings made before think time was recorded, have no
+ * gap to check; they are replayed back to back at every speed, so they are 
+ * always considered close enough to merge. The merged step keeps the think 
+ * time of the first step and drops the skew, as it was measured for different
+ * input. The think time of a step merged away is added to the next step that 
+ * is kept, so the steps after a merge are still due when they were recorded.
+ * Steps are never reordered. Every command acts on the shared screen state of
+ * the device, so no two steps can be shown to be independent of each other.
+ */
+
+package com.ebay.testdemultiplexer.device.commands.recorder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.android.chimpchat.core.TouchPressType;
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.DragCommand;
+import com.ebay.testdemultiplexer.device.commands.PressCommand;
+import com.ebay.testdemultiplexer.device.commands.StartActivityCommand;
+import com.ebay.testdemultiplexer.device.commands.TouchCommand;
+import com.ebay.testdemultiplexer.device.commands.TypeCommand;
+
+public final class TraceOptimizer {
+	
+	/** 
+	 * Max think time in milliseconds before a step for it to be merged into
+	 * the previous one.
+	 */
+	public static final long MAX_MERGE_GAP = 1000;
+	
+	/** Android Intent.FLAG_ACTIVITY_SINGLE_TOP. */
+	private static final int FLAG_ACTIVITY_SINGLE_TOP = 0x20000000;
+	
+	/** Android Intent.FLAG_ACTIVITY_CLEAR_TOP. */
+	private static final int FLAG_ACTIVITY_CLEAR_TOP = 0x04000000;
+	
+	/** Max length of the text of a merged TypeCommand. */
+	public static final int MAX_MERGED_TEXT_LENGTH = 64;
+	
+	/** 
+	 * Drags shorter than this are replayed as taps. Matches the default long
+	 * press timeout of Android.
+	 */
+	public static final long MAX_TAP_DURATION = 500;
+	
+	/** 
+	 * Keys that may be pressed several times in one command. Repeating them 
+	 * only moves the focus or the cursor, so nothing on screen changes in 
+	 * between that a later press depends on.
+	 */
+	private static final String[] REPEATABLE_KEYS = {
+		"KEYCODE_DPAD_UP", 
+		"KEYCODE_DPAD_DOWN", 
+		"KEYCODE_DPAD_LEFT", 
+		"KEYCODE_DPAD_RIGHT", 
+		"KEYCODE_DEL"
+	};
+	
+	/**
+	 * Private constructor, static methods only.
+	 */
+	private TraceOptimizer() {
+	
+	}
+	
+	/**
+	 * Optimize the commands of a recorder in place. The recorder is left 
+	 * untouched if no rule applies.
+	 * @param recorder Recorder to optimize.
+	 * @return Report of the changes made.
+	 */
+	public static TraceOptimizationReport optimize(CommandRecorder recorder) {
+		
+		List<RecordedStep> steps = recorder.getSteps();
+		TraceOptimizationReport report = 
+				new TraceOptimizationReport(steps.size());
+		List<RecordedStep> optimized = optimize(steps, report);
+		
+		if (report.hasChanges()) {
+			recorder.replaceSteps(optimized);
+		}
+		
+		return report;
+	}
+	
+	/**
+	 * Optimize a list of steps. The steps passed in are not modified.
+	 * @param steps Steps in playback order.
+	 * @param report Report to count the changes in.
+	 * @return Optimized steps in playback order.
+	 */
+	public static List<RecordedStep> optimize(
+			List<RecordedStep> steps, TraceOptimizationReport report) {
+		
+		ArrayList<RecordedStep> optimized = 
+				new ArrayList<RecordedStep>(steps.size());
+		
+		// Think time of the steps merged away since the last kept step.
+		long carriedDelay = 0;
+		
+		for (int i = 0; i < steps.size(); i++) {
+			
+			RecordedStep step = convertDrag(steps.get(i), report);
+			RecordedStep previous = optimized.isEmpty() ? 
+					null : optimized.get(optimized.size() - 1);
+			
+			if (previous != null && isWithinMergeGap(step)) {
+				
+				RecordedStep merged = merge(previous, step, report);
+				
+				if (merged != null) {
+					optimized.set(optimized.size() - 1, merged);
+					carriedDelay += Math.max(0, step.getDelay());
+					continue;
+				}
+			}
+			
+			if (carriedDelay > 0) {
+				step = new RecordedStep(
+						step.getCommand(), 
+						Math.max(0, step.getDelay()) + carriedDelay, 
+						step.getSkews());
+				carriedDelay = 0;
+			}
+			
+			optimized.add(step);
+		}
+		
+		report.setOptimizedSteps(optimized.size());
+		
+		return optimized;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Check whether a step followed the previous one closely enough to be 
+	 * merged into it.
+	 * @param step Step to check.
+	 * @return True if the step may be merged.
+	 */
+	private static boolean isWithinMergeGap(RecordedStep step) {
+		
+		// Untimed steps are replayed without any pause before them, merging
+		// them does not change when anything reaches the device.
+		if (!step.isTimed()) {
+			return true;
+		}
+		
+		return step.getDelay() <= MAX_MERGE_GAP;
+	}
+	
+	/**
+	 * Merge a step into the one before it.
+	 * @param previous Step before.
+	 * @param step Step to merge.
+	 * @param report Report to count the merge in.
+	 * @return Step replacing the previous one, or null if the steps cannot
+	 * be merged.
+	 */
+	private static RecordedStep merge(
+			RecordedStep previous, 
+			RecordedStep step, 
+			TraceOptimizationReport report) {
+		
+		DeviceCommand before = previous.getCommand();
+		DeviceCommand command = step.getCommand();
+		
+		if (before instanceof TypeCommand && command instanceof TypeCommand) {
+			
+			String text = ((TypeCommand) before).getText() + 
+					((TypeCommand) command).getText();
+			
+			if (text.length() > MAX_MERGED_TEXT_LENGTH) {
+				return null;
+			}
+			
+			report.typeMerged();
+			return new RecordedStep(
+					new TypeCommand(text), previous.getDelay(), null);
+		}
+		
+		if (before instanceof PressCommand && command instanceof PressCommand) {
+			
+			PressCommand merged = 
+					mergePresses((PressCommand) before, (PressCommand) command);
+			
+			if (merged == null) {
+				return null;
+			}
+			
+			report.pressMerged();
+			return new RecordedStep(merged, previous.getDelay(), null);
+		}
+		
+		if (before instanceof StartActivityCommand && 
+				command instanceof StartActivityCommand) {
+			
+			CommandCodecRegistry registry = CommandCodecRegistry.getInstance();
+			String launched = registry.encode(before);
+			
+			if (launched == null || !launched.equals(registry.encode(command))) {
+				return null;
+			}
+			
+			// Only a launch that reuses the activity on top leaves the back
+			// stack as it was.
+			int flags = ((StartActivityCommand) command).getFlags();
+			
+			if ((flags & 
+					(FLAG_ACTIVITY_SINGLE_TOP | FLAG_ACTIVITY_CLEAR_TOP)) == 0) {
+				report.launchKept();
+				return null;
+			}
+			
+			report.launchDropped();
+			return previous;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Fold a key press into the repeat count of the press before it.
+	 * @param before Press before.
+	 * @param press Press to fold in.
+	 * @return New press with the combined repeat count, or null if the 
+	 * presses are not repeats of the same key.
+	 */
+	private static PressCommand mergePresses(
+			PressCommand before, PressCommand press) {
+		
+		String key = before.getButtonName();
+		
+		if (key == null || before.getButton() != null || 
+				press.getButton() != null || !key.equals(press.getButtonName())) {
+			return null;
+		}
+		
+		if (before.getTouchType() != TouchPressType.DOWN_AND_UP || 
+				press.getTouchType() != TouchPressType.DOWN_AND_UP) {
+			return null;
+		}
+		
+		boolean repeatable = false;
+		
+		for (int i = 0; i < REPEATABLE_KEYS.length; i++) {
+			repeatable |= REPEATABLE_KEYS[i].equals(key);
+		}
+		
+		if (!repeatable) {
+			return null;
+		}
+		
+		PressCommand merged = 
+				new PressCommand(key, TouchPressType.DOWN_AND_UP);
+		merged.setRepeatCount(
+				before.getRepeatCount() + press.getRepeatCount());
+		
+		return merged;
+	}
+	
+	/**
+	 * Replace a drag that does not move and is too short to be a long press
+	 * with a tap on the same point.
+	 * @param step Step to convert.
+	 * @param report Report to count the conversion in.
+	 * @return Converted step, or the step itself if it is not such a drag.
+	 */
+	private static RecordedStep convertDrag(
+			RecordedStep step, TraceOptimizationReport report) {
+		
+		if (!(step.getCommand() instanceof DragCommand)) {
+			return step;
+		}
+		
+		DragCommand drag = (DragCommand) step.getCommand();
+		
+		if (drag.getStartXScale() != drag.getEndXScale() || 
+				drag.getStartYScale() != drag.getEndYScale() || 
+				drag.getDuration() >= MAX_TAP_DURATION) {
+			return step;
+		}
+		
+		report.dragConverted();
+		
+		TouchCommand tap = new TouchCommand(
+				drag.getStartXScale(), 
+				drag.getStartYScale(), 
+				TouchPressType.DOWN_AND_UP, 
+				null);
+		
+		return new RecordedStep(tap, step.getDelay(), step.getSkews());
+	}
+}
@@ -33,6 +33,7 @@ import java.awt.event.ActionListener;
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 
@@ -50,6 +51,9 @@ public class CalibrateButtonPanel extends JPanel implements ActionListener {
 	/** Reset the calibration on the selected device screen. */
 	private JButton resetCalibrationButton;
 	
+	/** Toggles lockstep dispatch of commands to all devices. */
+	private JCheckBox lockstepCheckBox;
+	
 	/** Reference to the device table. */
 	private DeviceTable deviceTable;
 	
@@ -96,6 +100,10 @@ public class CalibrateButtonPanel extends JPanel implements ActionListener {
 			
 			manager.getDeviceAt(
 					manager.getSignalingDeviceIndex()).clearCalibrationData();
+			
+		} else if (e.getSource() == lockstepCheckBox) {
+			
+			manager.setLockstepDispatch(lockstepCheckBox.isSelected());
 		}			
 	}
 	
@@ -132,6 +140,14 @@ public class CalibrateButtonPanel extends JPanel implements ActionListener {
 		resetCalibrationButton.addActionListener(this);
 		buttonPanel1.add(resetCalibrationButton);
 		
+		lockstepCheckBox = new JCheckBox();
+		lockstepCheckBox.setText("Sync Taps");
+		lockstepCheckBox.setToolTipText(
+				"Release each command on all devices at the same instant");
+		lockstepCheckBox.setSelected(manager.isLockstepDispatch());
+		lockstepCheckBox.addActionListener(this);
+		buttonPanel1.add(lockstepCheckBox);
+		
 		this.add(buttonPanel1);
 		
 		deviceTable = new DeviceTable(manager);
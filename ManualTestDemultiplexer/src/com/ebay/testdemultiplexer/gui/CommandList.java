@@ -22,47 +22,91 @@
  * Description:
  * GUI class for presenting the command list. Sets up a JList that can be added
  * to a container for displaying the command history of user inputs.
+ * 
+ * Recorder events arrive on the fan-out threads. They are queued and applied
+ * to the CommandListModel in one batch on the event dispatch thread, so a 
+ * burst of commands costs a single list update.
  */
 
 package com.ebay.testdemultiplexer.gui;
 
+import java.awt.Component;
 import java.awt.Dimension;
-import java.util.Vector;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JComboBox;
 import javax.swing.JList;
 import javax.swing.JScrollPane;
 import javax.swing.ListSelectionModel;
+import javax.swing.SwingUtilities;
 
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
 import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
 import com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorderListener;
 
-public class CommandList extends JList implements CommandRecorderListener {
+public class CommandList extends JList<DeviceCommand> implements 
+	CommandRecorderListener, ActionListener {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** Filter entry showing every command. */
+	private static final String ALL_COMMANDS = "All Commands";
+	
+	/** 
+	 * Sizes every cell, so the list does not measure each row when the model
+	 * changes.
+	 */
+	private static final String PROTOTYPE_CELL = 
+			"000000 START_ACTIVITY_COMMAND";
+	
+	/** Queued in place of a command when the recorder is cleared. */
+	private static final Object CLEARED = new Object();
 	
 	/** Reference to the active TestDeviceManager. */
 	private TestDeviceManager manager;
 	
-	/** Holds the list data. */
-	private Vector<String> listData = new Vector<String>();
+	/** Model mirroring the recorder. */
+	private CommandListModel model;
+	
+	/** Recorder events not yet applied to the model, in order. */
+	private ConcurrentLinkedQueue<Object> pendingEvents = 
+			new ConcurrentLinkedQueue<Object>();
+	
+	/** True while a flush of the pending events is scheduled on the EDT. */
+	private AtomicBoolean flushScheduled = new AtomicBoolean(false);
 
 	/** Hold the list view in a scroll pane. */
 	private JScrollPane commandScrollList;
 	
-	/** 
-	 * Tracks the number of commands in the lists. Resets to 0 when list
-	 * is cleared.
-	 */
-	private int counter = 0;
+	/** Selects the command type shown. */
+	private JComboBox<String> filterComboBox;
 	
 	/**
 	 * Create a new instance of the CommandList using the active 
 	 * TestDeviceManager.
-	 * @param mananger Active TestDeviceManager.
-	 * @param manager 
+	 * @param manager Active TestDeviceManager.
 	 */
 	public CommandList(TestDeviceManager manager) {
 		
-		super(new CommandListModel(manager));
+		this(new CommandListModel(), manager);
+	}
+	
+	/**
+	 * Create a new instance of the CommandList showing the given model.
+	 * @param model Model mirroring the recorder.
+	 * @param manager Active TestDeviceManager.
+	 */
+	private CommandList(CommandListModel model, TestDeviceManager manager) {
+		
+		super(model);
+		this.model = model;
 		this.manager = manager;
 		this.manager.getCommandRecorder().addCommandRecorderListener(this);
 		initialize();
@@ -84,39 +128,128 @@ public class CommandList extends JList implements CommandRecorderListener {
 	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorderListener#addCommand(com.ebay.testdemultiplexer.device.commands.DeviceCommand)
 	 */
 	public void addCommand(DeviceCommand command) {
-		counter++;
-		listData.add(""+counter+" "+command.toString());
-		this.setListData(listData);
-		commandScrollList.revalidate();
-		commandScrollList.repaint();
-
-		this.ensureIndexIsVisible(listData.size()-1);
+		pendingEvents.add(command);
+		scheduleFlush();
 	}
 
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorderListener#commandRecorderCleared()
 	 */
 	public void commandRecorderCleared() {
-		counter = 0;
-		listData.clear();
-		this.setListData(listData);
-		commandScrollList.revalidate();
-		commandScrollList.repaint();
+		pendingEvents.add(CLEARED);
+		scheduleFlush();
 	}
 	
 	/* (non-Javadoc)
 	 * @see com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorderListener#commandExecuted(int)
 	 */
-	public void commandExecuted(int index) {
+	public void commandExecuted(final int index) {
+		
+		// Continuous playback reports progress from the device threads.
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					commandExecuted(index);
+				}
+			});
+			return;
+		}
+		
+		// The command may still be waiting in the queue.
+		flushPendingEvents();
 		
-		this.setSelectionInterval(index, index);
-		this.ensureIndexIsVisible(index);
+		int row = model.getRow(index);
+		
+		if (row < 0) {
+			this.clearSelection();
+			return;
+		}
+		
+		this.setSelectionInterval(row, row);
+		this.ensureIndexIsVisible(row);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by ActionListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see java.awt.event.ActionListener#actionPerformed(java.awt.event.ActionEvent)
+	 */
+	public void actionPerformed(ActionEvent e) {
+		
+		if (e.getSource() == filterComboBox) {
+			
+			String key = (String) filterComboBox.getSelectedItem();
+			
+			flushPendingEvents();
+			this.clearSelection();
+			model.setFilter(ALL_COMMANDS.equals(key) ? null : key);
+		}
 	}
 	
 	// -------------------------------------------------------------------------
 	// Private methods
 	// -------------------------------------------------------------------------
 	
+	/**
+	 * Schedule a flush of the pending events on the EDT, unless one is 
+	 * already scheduled.
+	 */
+	private void scheduleFlush() {
+		
+		if (!flushScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				flushPendingEvents();
+			}
+		});
+	}
+	
+	/**
+	 * Apply the pending recorder events to the model. Consecutive commands 
+	 * are appended as one batch. Must be called on the EDT.
+	 */
+	private void flushPendingEvents() {
+		
+		// Cleared before draining, so events queued while draining schedule 
+		// another flush rather than being left behind.
+		flushScheduled.set(false);
+		
+		ArrayList<DeviceCommand> added = new ArrayList<DeviceCommand>();
+		int sizeBefore = model.getSize();
+		Object event;
+		
+		while ((event = pendingEvents.poll()) != null) {
+			
+			if (event == CLEARED) {
+				appendCommands(added);
+				model.clear();
+				sizeBefore = 0;
+			} else {
+				added.add((DeviceCommand) event);
+			}
+		}
+		
+		appendCommands(added);
+		
+		if (model.getSize() > sizeBefore) {
+			this.ensureIndexIsVisible(model.getSize() - 1);
+		}
+	}
+	
+	/**
+	 * Append a batch of commands to the model and empty the batch.
+	 * @param added Commands to append.
+	 */
+	private void appendCommands(List<DeviceCommand> added) {
+		model.appendCommands(added);
+		added.clear();
+	}
+	
 	/**
 	 * Setup the GUI.
 	 */
@@ -125,6 +258,27 @@ public class CommandList extends JList implements CommandRecorderListener {
 		this.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 		this.setLayoutOrientation(JList.VERTICAL);
 		
+		// Sized from the prototype text as setPrototypeCellValue would, which
+		// only takes a command.
+		CommandCellRenderer renderer = new CommandCellRenderer();
+		Dimension cellSize = renderer.getListCellRendererComponent(
+				this, PROTOTYPE_CELL, -1, false, false).getPreferredSize();
+		this.setCellRenderer(renderer);
+		this.setFixedCellWidth(cellSize.width);
+		this.setFixedCellHeight(cellSize.height);
+		
+		filterComboBox = new JComboBox<String>();
+		filterComboBox.addItem(ALL_COMMANDS);
+		
+		List<String> keys = CommandCodecRegistry.getInstance().getKeys();
+		
+		for (int i = 0; i < keys.size(); i++) {
+			filterComboBox.addItem(keys.get(i));
+		}
+		
+		filterComboBox.setToolTipText("Show Only One Type of Command");
+		filterComboBox.addActionListener(this);
+		
 		Dimension scrollSize = new Dimension(
 				DeviceTable.TABLE_WIDTH+20, DeviceTable.TABLE_HEIGHT+20);
 		commandScrollList = new JScrollPane();
@@ -132,7 +286,33 @@ public class CommandList extends JList implements CommandRecorderListener {
 		commandScrollList.setMinimumSize(scrollSize);
 		commandScrollList.setPreferredSize(scrollSize);
 		commandScrollList.setMaximumSize(scrollSize);
+		commandScrollList.setColumnHeaderView(filterComboBox);
 		commandScrollList.getViewport().add(this);
 	}
-
+	
+	/**
+	 * Numbers each command by its index in the recorder and names its type.
+	 * The text is created on demand, so only the rows on screen cost anything.
+	 */
+	private class CommandCellRenderer extends DefaultListCellRenderer {
+		
+		private static final long serialVersionUID = 1L;
+		
+		/* (non-Javadoc)
+		 * @see javax.swing.DefaultListCellRenderer#getListCellRendererComponent(javax.swing.JList, java.lang.Object, int, boolean, boolean)
+		 */
+		public Component getListCellRendererComponent(JList<?> list, 
+				Object value, int index, boolean isSelected, 
+				boolean cellHasFocus) {
+			
+			Object text = value;
+			
+			if (value instanceof DeviceCommand && index >= 0) {
+				text = (model.getCommandIndex(index) + 1) + " " + value;
+			}
+			
+			return super.getListCellRendererComponent(
+					list, text, index, isSelected, cellHasFocus);
+		}
+	}
 }
@@ -20,61 +20,217 @@
  * Class: CommandListModel
  * 
  * Description:
- * ListModel implementation behind the CommandList GUI class.
+ * ListModel implementation behind the CommandList GUI class. Mirrors the 
+ * commands of the recorder so the list never reads the recorder while the
+ * fan-out threads append to it. Rows are appended incrementally and only the
+ * rows on screen are ever turned into text by the CommandList renderer, so 
+ * appends stay constant time on long recordings. Can be filtered down to one
+ * command type. Must only be used on the event dispatch thread.
  */
 
 package com.ebay.testdemultiplexer.gui;
 
-import javax.swing.ListModel;
-import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import javax.swing.AbstractListModel;
 
-public class CommandListModel implements ListModel {
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandCodecRegistry;
+
+public class CommandListModel extends AbstractListModel<DeviceCommand> {
+	
+	private static final long serialVersionUID = 1L;
+	
+	/** Initial capacity of the filtered row index. */
+	private static final int INITIAL_ROW_CAPACITY = 256;
 	
-	/** Reference to active TestDeviceManager. */
-	private TestDeviceManager manager;
+	/** Commands mirrored from the recorder, in recorder order. */
+	private ArrayList<DeviceCommand> commands;
+	
+	/** 
+	 * Recorder index of every row while filtered. Only the first rowCount
+	 * entries are used.
+	 */
+	private int[] rows;
+	
+	/** Number of rows while filtered. */
+	private int rowCount;
+	
+	/** Key of the command type shown, null to show every command. */
+	private String filterKey;
+	
+	/**
+	 * Create a new, empty CommandListModel.
+	 */
+	public CommandListModel() {
+		
+		commands = new ArrayList<DeviceCommand>();
+		rows = new int[INITIAL_ROW_CAPACITY];
+		rowCount = 0;
+		filterKey = null;
+	}
 	
 	/**
-	 * Create a new CommandListModel. Requires the active TestDeviceManager.
-	 * @param manager Active TestDeviceManager.
+	 * Append commands added to the recorder. Listeners are notified once for
+	 * the whole batch.
+	 * @param added Commands in recorder order.
 	 */
-	public CommandListModel(TestDeviceManager manager) {
+	public void appendCommands(List<DeviceCommand> added) {
+		
+		if (added.isEmpty()) {
+			return;
+		}
+		
+		int firstRow = getSize();
 		
-		this.manager = manager;
+		for (int i = 0; i < added.size(); i++) {
+			
+			DeviceCommand command = added.get(i);
+			commands.add(command);
+			
+			if (filterKey != null && matchesFilter(command)) {
+				appendRow(commands.size() - 1);
+			}
+		}
+		
+		if (getSize() > firstRow) {
+			fireIntervalAdded(this, firstRow, getSize() - 1);
+		}
+	}
+	
+	/**
+	 * Remove every command, as the recorder was cleared.
+	 */
+	public void clear() {
+		
+		int size = getSize();
+		
+		commands.clear();
+		rowCount = 0;
+		
+		if (size > 0) {
+			fireIntervalRemoved(this, 0, size - 1);
+		}
+	}
+	
+	/**
+	 * Show only one type of command.
+	 * @param key Serialized key of the command type to show, null to show
+	 * every command.
+	 */
+	public void setFilter(String key) {
+		
+		int size = getSize();
+		
+		filterKey = key;
+		rowCount = 0;
+		
+		if (filterKey != null) {
+			for (int i = 0; i < commands.size(); i++) {
+				if (matchesFilter(commands.get(i))) {
+					appendRow(i);
+				}
+			}
+		}
+		
+		if (size > 0) {
+			fireIntervalRemoved(this, 0, size - 1);
+		}
+		
+		if (getSize() > 0) {
+			fireIntervalAdded(this, 0, getSize() - 1);
+		}
+	}
+	
+	/**
+	 * Get the key of the command type shown.
+	 * @return Serialized key, or null if every command is shown.
+	 */
+	public String getFilter() {
+		return filterKey;
+	}
+	
+	/**
+	 * Get the recorder index of the command shown in a row.
+	 * @param row Row of the list.
+	 * @return Index of the command in the recorder.
+	 */
+	public int getCommandIndex(int row) {
+		return filterKey == null ? row : rows[row];
+	}
+	
+	/**
+	 * Get the row a command is shown in.
+	 * @param index Index of the command in the recorder.
+	 * @return Row of the list, or -1 if the command is not shown.
+	 */
+	public int getRow(int index) {
+		
+		if (index < 0 || index >= commands.size()) {
+			return -1;
+		}
+		
+		if (filterKey == null) {
+			return index;
+		}
+		
+		// Rows are appended in recorder order, so they are sorted.
+		int row = Arrays.binarySearch(rows, 0, rowCount, index);
+		
+		return row >= 0 ? row : -1;
 	}
 	
 	// -------------------------------------------------------------------------
 	// Methods required by ListModel
 	// -------------------------------------------------------------------------
 	
-	/* (non-Javadoc)
-	 * @see javax.swing.ListModel#addListDataListener(javax.swing.event.ListDataListener)
-	 */
-	public void addListDataListener(ListDataListener arg0) {
-		// TODO Auto-generated method stub
-	}
-
 	/* (non-Javadoc)
 	 * @see javax.swing.ListModel#getElementAt(int)
 	 */
-	public Object getElementAt(int arg0) {
-
-		return manager.getCommandRecorder().getCommand(arg0);
+	public DeviceCommand getElementAt(int row) {
+		return commands.get(getCommandIndex(row));
 	}
 
 	/* (non-Javadoc)
 	 * @see javax.swing.ListModel#getSize()
 	 */
 	public int getSize() {
-		return manager.getCommandRecorder().getRecorderLength();
+		return filterKey == null ? commands.size() : rowCount;
 	}
-
-	/* (non-Javadoc)
-	 * @see javax.swing.ListModel#removeListDataListener(javax.swing.event.ListDataListener)
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Check whether a command is of the type shown.
+	 * @param command Command to check.
+	 * @return True if shown.
 	 */
-	public void removeListDataListener(ListDataListener arg0) {
-		// TODO Auto-generated method stub
+	private boolean matchesFilter(DeviceCommand command) {
+		
+		String key = 
+				CommandCodecRegistry.getInstance().getCommandKey(command);
+		
+		if (key == null) {
+			key = command.toString();
+		}
+		
+		return filterKey.equals(key);
+	}
+	
+	/**
+	 * Add a row while filtered, growing the row index if needed.
+	 * @param index Recorder index of the command shown in the row.
+	 */
+	private void appendRow(int index) {
+		
+		if (rowCount == rows.length) {
+			rows = Arrays.copyOf(rows, rows.length * 2);
+		}
+		
+		rows[rowCount++] = index;
 	}
-
 }
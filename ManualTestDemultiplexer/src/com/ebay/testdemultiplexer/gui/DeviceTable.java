@@ -92,6 +92,9 @@ public class DeviceTable extends JTable implements MouseListener {
 		this.getColumnModel().getColumn(0).setPreferredWidth(150);
 		this.getColumnModel().getColumn(1).setPreferredWidth(20);
 		this.getColumnModel().getColumn(2).setPreferredWidth(30);
+		this.getColumnModel().getColumn(3).setPreferredWidth(60);
+		this.getColumnModel().getColumn(4).setPreferredWidth(50);
+		this.getColumnModel().getColumn(5).setPreferredWidth(70);
 		
 		// Setup the right click menu options
 		JPopupMenu popUpMenu = new JPopupMenu();
@@ -36,7 +36,7 @@ public class DeviceTableModel extends AbstractTableModel
 
 	/** Column headers. */
 	private static final String[] COLUMN_HEADERS = 
-		{"Device", "Target", "Group"};
+		{"Device", "Target", "Group", "Queue", "Skew", "Status"};
 	
 	/** Reference to TestDeviceManager we are basing table data on. */
 	private TestDeviceManager manager;
@@ -112,6 +112,43 @@ public class DeviceTableModel extends AbstractTableModel
 		case 2:
 			return device.getGrouping();
 			
+		case 3:
+			
+			// Queue depth along with how far behind live input the device is.
+			int depth = device.getCommandQueue().getQueueDepth();
+			
+			if (depth == 0) {
+				return "idle";
+			}
+			
+			return depth + " (" + device.getCommandQueue().getLag() + " ms)";
+			
+		case 4:
+			
+			// Lag behind the fastest device on the last lockstep release.
+			float skew = device.getLastSkew();
+			
+			if (skew < 0) {
+				return "-";
+			}
+			
+			return String.format("%.1f ms", skew);
+			
+		case 5:
+			
+			// Health of the device based on missed command deadlines.
+			if (device.isQuarantined()) {
+				return "quarantined";
+			}
+			
+			int missed = device.getCommandQueue().getMissedDeadlines();
+			
+			if (missed > 0) {
+				return missed + " missed";
+			}
+			
+			return "ok";
+			
 		default:
 			return null;
 		}
@@ -43,6 +43,7 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
 import javax.swing.Box;
@@ -54,12 +55,19 @@ import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import com.android.chimpchat.core.IChimpImage;
 import com.android.chimpchat.core.TouchPressType;
+import com.ebay.testdemultiplexer.connection.CommandScheduler;
+import com.ebay.testdemultiplexer.connection.DeviceCommandFuture;
+import com.ebay.testdemultiplexer.connection.DeviceCommandFutureListener;
+import com.ebay.testdemultiplexer.connection.DeviceCommandResult;
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
 import com.ebay.testdemultiplexer.connection.TestDevice;
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
 import com.ebay.testdemultiplexer.device.commands.PressCommand;
 import com.ebay.testdemultiplexer.device.commands.RestartDeviceCommand;
 import com.ebay.testdemultiplexer.device.commands.ShellCommand;
@@ -88,6 +96,15 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 	/** Bugreport error message title. */
 	private static final String OUTPUT_ERROR_TITLE = "Bugreport Error";
 	
+	/** Screen capture error message. */
+	private static final String CAPTURE_ERROR_MSG = 
+			"Error taking or saving the screen capture. Please make sure the " + 
+			"device is connected and that the location is valid and " + 
+			"writable.";
+	
+	/** Screen capture error message title. */
+	private static final String CAPTURE_ERROR_TITLE = "Screen Capture Error";
+	
 	/** Reference to the device manager. */
 	private TestDeviceManager manager;
 	
@@ -571,19 +588,9 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 		    		filePath = filePath + ".png";
 		    	}
 		    	
-		    	IChimpImage image = manager.getDeviceAt(
-		    			manager.getSignalingDeviceIndex()).
-		    			getIChimpDevice().takeSnapshot();
-				
-				BufferedImage imageBuffer = image.createBufferedImage();
-
-		    	File imgFile = new File(filePath);
-		    	try {
-					ImageIO.write(imageBuffer, "png", imgFile);
-				} catch (IOException e1) {
-					// TODO Auto-generated catch block
-					e1.printStackTrace();
-				}
+		    	saveScreenCapture(
+		    			manager.getDeviceAt(manager.getSignalingDeviceIndex()), 
+		    			filePath);
 		    }
 		    
 		    KeyboardInputManager.resume();
@@ -628,7 +635,24 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 		
 		if (shellCommandValue != null) {
 			ShellCommand shellCommand = new ShellCommand(shellCommandValue);
-			manager.executeCommand(shellCommand);
+			DeviceCommandFuture future = manager.executeCommand(shellCommand);
+			
+			// Print the shell output of each device once all have finished.
+			future.addListener(new DeviceCommandFutureListener() {
+				public void commandCompleted(DeviceCommandFuture future) {
+					
+					Iterator<DeviceCommandResult> iterator = 
+							future.getResults().iterator();
+					
+					while (iterator.hasNext()) {
+						DeviceCommandResult result = iterator.next();
+						System.out.println(result);
+						if (result.getOutput() != null) {
+							System.out.println(result.getOutput());
+						}
+					}
+				}
+			});
 		}
 	
 		KeyboardInputManager.resume();
@@ -685,17 +709,33 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 			return;
 		}
 		
+		// The report runs dozens of shell commands and waits behind the bulk
+		// limit, keep it off the event dispatch thread.
+		final TestDevice reportDevice = device;
+		final String reportPath = filePath;
+		
+		DeviceExecutionBackend.getInstance().newThread(new Runnable() {
+			public void run() {
+				writeBugReport(reportDevice, reportPath);
+			}
+		}, "BugReport-" + device.getSerialNumber()).start();
+	}
+	
+	/**
+	 * Write the bugreport of the device to the file. Runs on a worker 
+	 * thread, errors are shown to the user on the event dispatch thread.
+	 * @param device Device to report on.
+	 * @param filePath Path of the report file.
+	 */
+	private void writeBugReport(TestDevice device, String filePath) {
+		
 		File file = new File(filePath);
 		FileWriter writer = null;
 		try {
 			writer = new FileWriter(file);
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
-    				OUTPUT_ERROR_MSG, 
-    				OUTPUT_ERROR_TITLE, 
-    				JOptionPane.ERROR_MESSAGE);
+			showErrorLater(OUTPUT_ERROR_MSG, OUTPUT_ERROR_TITLE);
 			
 			e.printStackTrace();
 			
@@ -804,11 +844,7 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 			writer.write(header);
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
-    				OUTPUT_ERROR_MSG, 
-    				OUTPUT_ERROR_TITLE, 
-    				JOptionPane.ERROR_MESSAGE);
+			showErrorLater(OUTPUT_ERROR_MSG, OUTPUT_ERROR_TITLE);
 			
 			e.printStackTrace();
 			
@@ -822,7 +858,21 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 					endCap + " " + keys[i] + " (" + 
 							values[i] + ") " + endCap + "\n";
 			
-			String result = device.getIChimpDevice().shell(values[i] );
+			// Bug report sections are bulk work, wait behind the limit for it.
+			String result = null;
+			CommandScheduler scheduler = CommandScheduler.getInstance();
+			
+			try {
+				scheduler.acquire(CommandPriority.BULK);
+				
+				try {
+					result = device.getIChimpDevice().shell(values[i]);
+				} finally {
+					scheduler.release(CommandPriority.BULK);
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 			
 			if (result != null) {
 				output += result;
@@ -833,11 +883,7 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 				writer.write(output);
 			} catch (IOException e) {
 				
-				JOptionPane.showMessageDialog(
-	    				null, 
-	    				OUTPUT_ERROR_MSG, 
-	    				OUTPUT_ERROR_TITLE, 
-	    				JOptionPane.ERROR_MESSAGE);
+				showErrorLater(OUTPUT_ERROR_MSG, OUTPUT_ERROR_TITLE);
 				
 				e.printStackTrace();
 				
@@ -849,11 +895,7 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 			writer.close();
 		} catch (IOException e) {
 			
-			JOptionPane.showMessageDialog(
-    				null, 
-    				OUTPUT_ERROR_MSG, 
-    				OUTPUT_ERROR_TITLE, 
-    				JOptionPane.ERROR_MESSAGE);
+			showErrorLater(OUTPUT_ERROR_MSG, OUTPUT_ERROR_TITLE);
 			
 			e.printStackTrace();
 			
@@ -862,6 +904,62 @@ public class HardwareButtonPanel extends JPanel implements ActionListener {
 		
 	}
 	
+	/**
+	 * Take a screen capture of the device and save it as a PNG file. The 
+	 * capture waits for a scheduler permit, so it runs on a worker thread 
+	 * rather than the event dispatch thread.
+	 * @param device Device to capture.
+	 * @param filePath Path of the PNG file.
+	 */
+	private void saveScreenCapture(
+			final TestDevice device, final String filePath) {
+		
+		if (device == null) {
+			showErrorLater(CAPTURE_ERROR_MSG, CAPTURE_ERROR_TITLE);
+			return;
+		}
+		
+		DeviceExecutionBackend.getInstance().newThread(new Runnable() {
+			public void run() {
+				
+				IChimpImage image = device.getScreenCapture();
+				
+				if (image == null) {
+					showErrorLater(CAPTURE_ERROR_MSG, CAPTURE_ERROR_TITLE);
+					return;
+				}
+				
+				BufferedImage imageBuffer = image.createBufferedImage();
+				
+				try {
+					ImageIO.write(imageBuffer, "png", new File(filePath));
+				} catch (IOException e) {
+					e.printStackTrace();
+					showErrorLater(CAPTURE_ERROR_MSG, CAPTURE_ERROR_TITLE);
+				}
+			}
+		}, "ScreenCapture-" + device.getSerialNumber()).start();
+	}
+	
+	/**
+	 * Show an error dialog from any thread. The dialog is shown on the event
+	 * dispatch thread.
+	 * @param message Message to show.
+	 * @param title Title of the dialog.
+	 */
+	private void showErrorLater(final String message, final String title) {
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				JOptionPane.showMessageDialog(
+						null, 
+						message, 
+						title, 
+						JOptionPane.ERROR_MESSAGE);
+			}
+		});
+	}
+	
 	/**
 	 * Open the saved shell command data file and sidepocket the info.
 	 */
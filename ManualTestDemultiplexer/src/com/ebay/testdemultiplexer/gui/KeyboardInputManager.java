@@ -26,8 +26,17 @@
 
 package com.ebay.testdemultiplexer.gui;
 
+import java.awt.AWTEvent;
 import java.awt.KeyEventDispatcher;
+import java.awt.KeyboardFocusManager;
+import java.awt.Toolkit;
+import java.awt.event.AWTEventListener;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.KeyEvent;
+import java.awt.event.MouseEvent;
+
+import javax.swing.Timer;
 
 import com.android.chimpchat.core.TouchPressType;
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
@@ -36,9 +45,34 @@ import com.ebay.testdemultiplexer.device.commands.TypeCommand;
 
 public class KeyboardInputManager implements KeyEventDispatcher {
 
+	/** 
+	 * Milliseconds without a typed character before the buffered characters
+	 * are sent to the devices.
+	 */
+	private static final int TYPE_IDLE_FLUSH_DELAY = 300;
+	
+	/** Max number of characters buffered before they are sent. */
+	private static final int MAX_TYPED_LENGTH = 32;
+	
 	/** Reference to the TestDeviceManager being used. */
 	private TestDeviceManager manager;
 	
+	/** 
+	 * Characters typed but not yet sent. Bursts of typing are merged into a
+	 * single TypeCommand so each device gets one type() call per burst 
+	 * instead of one per character. Only touched on the event thread.
+	 */
+	private StringBuilder typedBuffer = new StringBuilder();
+	
+	/** Sends the buffered characters once typing goes idle. */
+	private Timer typedFlushTimer;
+	
+	/** 
+	 * Global listener sending the buffered characters before any mouse 
+	 * press. Removed again in dispose().
+	 */
+	private AWTEventListener mousePressListener;
+	
 	/** 
 	 * Track if we should be processing input. 
 	 * This is not ideal and should be corrected.
@@ -55,7 +89,42 @@ public class KeyboardInputManager implements KeyEventDispatcher {
 	 * @param manager Reference to TestDeviceManager being used.
 	 */
 	public KeyboardInputManager(TestDeviceManager manager) {
+		
 		this.manager = manager;
+		
+		typedFlushTimer = new Timer(TYPE_IDLE_FLUSH_DELAY, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				flushTypedInput();
+			}
+		});
+		typedFlushTimer.setRepeats(false);
+		
+		// Any mouse press (screen touch, hardware button, dialog) has to land
+		// after the text typed before it, so send the buffer first.
+		mousePressListener = new AWTEventListener() {
+			public void eventDispatched(AWTEvent event) {
+				if (event.getID() == MouseEvent.MOUSE_PRESSED) {
+					flushTypedInput();
+				}
+			}
+		};
+		Toolkit.getDefaultToolkit().addAWTEventListener(
+				mousePressListener, AWTEvent.MOUSE_EVENT_MASK);
+	}
+	
+	/**
+	 * Stop handling input. Sends any buffered characters, then removes the
+	 * global mouse listener and the key event dispatcher. Call this when the
+	 * owning window goes away.
+	 */
+	public void dispose() {
+		
+		flushTypedInput();
+		
+		Toolkit.getDefaultToolkit().removeAWTEventListener(mousePressListener);
+		KeyboardFocusManager.
+			getCurrentKeyboardFocusManager().
+			removeKeyEventDispatcher(this);
 	}
 	
 	/**
@@ -94,6 +163,12 @@ public class KeyboardInputManager implements KeyEventDispatcher {
 			
 			char c = e.getKeyChar();
 			
+			// Special keys are sent on their own, after any text typed 
+			// before them.
+			if (c == '\n' || c == ' ' || c == '\b') {
+				flushTypedInput();
+			}
+			
 			if (c == '\n') {
 				
 				PressCommand pressCommand = 
@@ -120,16 +195,25 @@ public class KeyboardInputManager implements KeyEventDispatcher {
 				
 			} else {
 				
-				// Default is to just send the keypress through.
-				TypeCommand typeCommand = new TypeCommand(""+c);
-				manager.executeCommand(typeCommand);
+				// Default is to buffer the keypress until the burst of typing
+				// ends.
+				typedBuffer.append(c);
 				
+				if (typedBuffer.length() >= MAX_TYPED_LENGTH) {
+					flushTypedInput();
+				} else {
+					typedFlushTimer.restart();
+				}
 			}
 			
         } else {
         	
             int keyCode = e.getKeyCode();
             
+            if (keyCode >= 37 && keyCode <= 40) {
+            	flushTypedInput();
+            }
+            
             if (keyCode == 37) {
             	
             	PressCommand pressCommand = 
@@ -167,5 +251,25 @@ public class KeyboardInputManager implements KeyEventDispatcher {
 		e.consume();
 		return true;
 	}
-
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Send the buffered characters to the devices as a single TypeCommand.
+	 * Does nothing if the buffer is empty.
+	 */
+	private void flushTypedInput() {
+		
+		typedFlushTimer.stop();
+		
+		if (typedBuffer.length() == 0) {
+			return;
+		}
+		
+		TypeCommand typeCommand = new TypeCommand(typedBuffer.toString());
+		typedBuffer.setLength(0);
+		manager.executeCommand(typeCommand);
+	}
 }
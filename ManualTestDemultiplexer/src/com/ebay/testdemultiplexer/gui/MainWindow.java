@@ -38,6 +38,7 @@ import javax.swing.JFrame;
 import javax.swing.JPanel;
 
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandJournal;
 import com.ebay.testdemultiplexer.util.TestDemultiplexerConstants;
 
 public class MainWindow extends JFrame {
@@ -54,6 +55,9 @@ public class MainWindow extends JFrame {
 	/** Render area to show the device screen. */
 	private ScreenDisplay display;
 	
+	/** Turns keyboard input into device commands. */
+	private KeyboardInputManager keyboardInputManager;
+	
 	/**
 	 * Create the main window. Requires a reference to the active 
 	 * TestDeviceManager.
@@ -67,6 +71,21 @@ public class MainWindow extends JFrame {
 		initialize();
 	}
 	
+	/**
+	 * Release the keyboard input handling along with the window.
+	 * @see java.awt.Window#dispose()
+	 */
+	@Override
+	public void dispose() {
+		
+		if (keyboardInputManager != null) {
+			keyboardInputManager.dispose();
+			keyboardInputManager = null;
+		}
+		
+		super.dispose();
+	}
+	
 	// -------------------------------------------------------------------------
 	// Private methods
 	// -------------------------------------------------------------------------
@@ -110,13 +129,20 @@ public class MainWindow extends JFrame {
 				// TODO Auto-generated method stub
 				super.run();
 				System.out.println("Shutdown process...");
+				
+				CommandJournal journal = 
+						manager.getCommandRecorder().getJournal();
+				
+				if (journal != null) {
+					journal.close();
+				}
+				
 				manager.disconnect();
 			}
 			
 		});
 	
-		KeyboardInputManager keyboardInputManager = 
-				new KeyboardInputManager(manager);
+		keyboardInputManager = new KeyboardInputManager(manager);
 		KeyboardFocusManager.
 			getCurrentKeyboardFocusManager().
 			addKeyEventDispatcher(keyboardInputManager);
@@ -35,6 +35,7 @@ import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.SwingUtilities;
 
 public class ProgressDialogWindow extends JDialog {
 	
@@ -47,6 +48,12 @@ public class ProgressDialogWindow extends JDialog {
 	/** Dialog progress bar. */
 	private static JProgressBar progress = null;
 	
+	/** 
+	 * Completed device count shown by deviceCompleted(). Reset when the 
+	 * progress is set back to the minimum.
+	 */
+	private volatile int shownCompleted = 0;
+	
 	/** Internal const to set the progress bar minimum value. */
 	private static final int PROGRESS_MINIMUM = 0;
 	
@@ -113,8 +120,45 @@ public class ProgressDialogWindow extends JDialog {
 	 */
 	public void setProgress(int value) {
 		progress.setValue(value);
+
+		if (value == PROGRESS_MINIMUM) {
+			shownCompleted = 0;
+			progress.setStringPainted(false);
+		}
 	}
 	
+	/**
+	 * Report that a device finished its part of a fanned out operation.
+	 * Devices complete in any order, so this may be called concurrently from
+	 * several worker threads. The dialog is updated on the event dispatch 
+	 * thread, where a report older than the one already shown is ignored.
+	 * @param serialNumber Serial number of the device that completed.
+	 * @param completed Number of devices that have completed so far.
+	 * @param total Total number of devices taking part in the operation.
+	 */
+	public void deviceCompleted(
+			final String serialNumber, final int completed, final int total) {
+
+		if (!SwingUtilities.isEventDispatchThread()) {
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					deviceCompleted(serialNumber, completed, total);
+				}
+			});
+			return;
+		}
+		
+		if (total <= 0 || completed < shownCompleted) {
+			return;
+		}
+		
+		shownCompleted = completed;
+		progress.setValue((int)((float)completed/(float)total*100.0f));
+		progress.setString(
+				completed + "/" + total + " devices (last: "+serialNumber+")");
+		progress.setStringPainted(true);
+	}
+
 	/**
 	 * Set the message of the progress dialog.
 	 * @param value Dialog message.
@@ -27,6 +27,7 @@
 package com.ebay.testdemultiplexer.gui;
 
 import java.awt.Dimension;
+import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -37,22 +38,86 @@ import javax.swing.BoxLayout;
 import javax.swing.Icon;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JToggleButton;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import com.ebay.testdemultiplexer.connection.TestDevicePlayback;
+import com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener;
+import com.ebay.testdemultiplexer.device.commands.recorder.BinaryTraceFormat;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizationReport;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizer;
+import com.ebay.testdemultiplexer.util.MessageDisplay;
 
 public class RecorderButtonPanel extends JPanel 
-	implements ItemListener, ListSelectionListener, ActionListener {
+	implements ItemListener, ListSelectionListener, ActionListener, 
+	TestDevicePlaybackListener {
 
+	// Title of the optimization report dialog.
+	private static final String OPTIMIZED_TITLE = "Command List Optimized";
+	
 	/** Reference to the active TestDeviceManager. */
 	private TestDeviceManager manager;
 	
+	/** Continuous playback speeds offered in the speed selector. */
+	private enum PlaybackSpeed {
+		
+		/** Each device as fast as it can, ignoring think time. */
+		DEVICE_PACE("Device Pace", TestDevicePlayback.AS_FAST_AS_POSSIBLE), 
+		
+		/** Recorded think time. */
+		RECORDED("Recorded", TestDevicePlayback.ORIGINAL_CADENCE), 
+		
+		/** Half the recorded think time. */
+		TWICE("2x", 2.0f), 
+		
+		/** A fifth of the recorded think time. */
+		FIVE_TIMES("5x", 5.0f), 
+		
+		/** A tenth of the recorded think time. */
+		TEN_TIMES("10x", 10.0f);
+		
+		/** Label shown in the selector. */
+		private final String label;
+		
+		/** Speed passed to TestDevicePlayback. */
+		private final float speed;
+		
+		/**
+		 * Create a playback speed.
+		 * @param label Label shown in the selector.
+		 * @param speed Speed passed to TestDevicePlayback.
+		 */
+		private PlaybackSpeed(String label, float speed) {
+			this.label = label;
+			this.speed = speed;
+		}
+		
+		/**
+		 * Get the speed passed to TestDevicePlayback.
+		 * @return Playback speed.
+		 */
+		public float getSpeed() {
+			return speed;
+		}
+		
+		/* (non-Javadoc)
+		 * @see java.lang.Enum#toString()
+		 */
+		@Override
+		public String toString() {
+			return label;
+		}
+	};
+	
 	/** Set the dimensions of every button in the panel. */
 	private Dimension buttonDimensions = new Dimension(60, 60);
 	
@@ -62,6 +127,12 @@ public class RecorderButtonPanel extends JPanel
 	/** Plays the next command. */
 	private JButton playButton;
 	
+	/** Plays the whole recording, each device at its own pace. */
+	private JToggleButton playAllButton;
+	
+	/** Speed of the continuous playback. */
+	private JComboBox<PlaybackSpeed> speedComboBox;
+	
 	/** Reset the play index to 0. */
 	private JButton stopButton;
 	
@@ -74,6 +145,9 @@ public class RecorderButtonPanel extends JPanel
 	/** Clear the command list. */
 	private JButton clearButton;
 	
+	/** Compact the command list with the TraceOptimizer. */
+	private JButton optimizeButton;
+	
 	/** The CommandList JList component with optional JScrollPane. */
 	private CommandList commandList;
 	
@@ -117,6 +191,7 @@ public class RecorderButtonPanel extends JPanel
 			
 		} else if (e.getSource() == stopButton) {
 			
+			manager.stopContinuousPlayback();
 			manager.rewindCommandPlayback();
 			
 		} else if (e.getSource() == saveButton) {
@@ -128,16 +203,24 @@ public class RecorderButtonPanel extends JPanel
 		    JFileChooser fc = new JFileChooser();
 		    FileNameExtensionFilter fileFilter = 
 		    		new FileNameExtensionFilter("Test Record File", "trf");
-
+		    FileNameExtensionFilter binaryFilter = 
+		    		new FileNameExtensionFilter("Binary Test Record File", "trb");
 
 		    fc.addChoosableFileFilter(fileFilter);
+		    fc.addChoosableFileFilter(binaryFilter);
 		    retVal = fc.showSaveDialog(this);
 
 		    if (retVal == JFileChooser.APPROVE_OPTION) {
 		    	String filePath = fc.getSelectedFile().getAbsolutePath();
 		    	
-		    	if (!filePath.endsWith(".trf")) {
-		    		filePath = filePath + ".trf";
+		    	if (!filePath.endsWith(".trf") && 
+		    			!filePath.endsWith(BinaryTraceFormat.FILE_EXTENSION)) {
+		    		
+		    		if (fc.getFileFilter() == binaryFilter) {
+		    			filePath = filePath + BinaryTraceFormat.FILE_EXTENSION;
+		    		} else {
+		    			filePath = filePath + ".trf";
+		    		}
 		    	}
 		    	
 		    	manager.getCommandRecorder().writeCommandsToFile(filePath);
@@ -155,7 +238,7 @@ public class RecorderButtonPanel extends JPanel
 
 		    JFileChooser fc = new JFileChooser();
 		    FileNameExtensionFilter fileFilter = 
-		    		new FileNameExtensionFilter("Test Record File", "trf");
+		    		new FileNameExtensionFilter("Test Record File", "trf", "trb");
 
 		    fc.addChoosableFileFilter(fileFilter);
 		    retVal = fc.showOpenDialog(this);
@@ -167,6 +250,21 @@ public class RecorderButtonPanel extends JPanel
 			
 		    KeyboardInputManager.resume();
 		    
+		} else if (e.getSource() == optimizeButton) {
+			
+			// Optimizing replaces the commands, which would pull them out
+			// from under a running playback.
+			manager.stopContinuousPlayback();
+			manager.rewindCommandPlayback();
+			
+			TraceOptimizationReport report = 
+					TraceOptimizer.optimize(manager.getCommandRecorder());
+			
+			MessageDisplay.showMessage(
+					report.toString(), 
+					OPTIMIZED_TITLE, 
+					JOptionPane.INFORMATION_MESSAGE);
+			
 		}  else if (e.getSource() == playButton) {
 			
 			// If selected, turn off the recorder (status and via manager)
@@ -174,9 +272,45 @@ public class RecorderButtonPanel extends JPanel
 			manager.getCommandRecorder().stopRecorder();
 			manager.playCommands();
 			
+		} else if (e.getSource() == playAllButton) {
+			
+			if (playAllButton.isSelected()) {
+				recordButton.setSelected(false);
+				manager.getCommandRecorder().stopRecorder();
+				manager.startContinuousPlayback(
+						TestDevicePlayback.DEFAULT_WINDOW, 
+						((PlaybackSpeed) speedComboBox.getSelectedItem()).
+								getSpeed(), 
+						this);
+			} else {
+				manager.stopContinuousPlayback();
+			}
 		}
 	}
 	
+	// -------------------------------------------------------------------------
+	// Required by TestDevicePlaybackListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackProgress(com.ebay.testdemultiplexer.connection.TestDevicePlayback, int)
+	 */
+	public void onPlaybackProgress(TestDevicePlayback playback, int slowestStep) {
+		// The command list follows the recorder, nothing else to show.
+	}
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener#onPlaybackFinished(com.ebay.testdemultiplexer.connection.TestDevicePlayback)
+	 */
+	public void onPlaybackFinished(TestDevicePlayback playback) {
+		
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run() {
+				playAllButton.setSelected(false);
+			}
+		});
+	}
+	
 	// -------------------------------------------------------------------------
 	// Required by ItemListener
 	// -------------------------------------------------------------------------
@@ -258,6 +392,28 @@ public class RecorderButtonPanel extends JPanel
 		playButton.addActionListener(this);
 		buttonPanelA.add(playButton);
 		
+		// Add the play all button
+		playAllButton = new JToggleButton();
+		Icon playAllIcon = new ImageIcon(getClass().getResource(
+				"/graphics/forward.png"));
+		playAllButton.setIcon(playAllIcon);
+		playAllButton.setSize(buttonDimensions);
+		playAllButton.setMinimumSize(buttonDimensions);
+		playAllButton.setPreferredSize(buttonDimensions);
+		playAllButton.setMaximumSize(buttonDimensions);
+		playAllButton.setToolTipText(
+				"Play All Commands, Each Device at Its Own Pace");
+		playAllButton.addActionListener(this);
+		buttonPanelA.add(playAllButton);
+		
+		// Add the continuous playback speed selection
+		speedComboBox = 
+				new JComboBox<PlaybackSpeed>(PlaybackSpeed.values());
+		speedComboBox.setToolTipText(
+				"Play All speed, from the think time recorded between commands");
+		speedComboBox.setMaximumSize(speedComboBox.getPreferredSize());
+		buttonPanelA.add(speedComboBox);
+		
 		// Add the stop button
 		stopButton = new JButton();
 		Icon stopIcon = new ImageIcon(getClass().getResource(
@@ -284,6 +440,18 @@ public class RecorderButtonPanel extends JPanel
 		clearButton.addActionListener(this);
 		buttonPanelA.add(clearButton);
 		
+		// Add the optimize button
+		optimizeButton = new JButton("Optimize");
+		optimizeButton.setMargin(new Insets(0, 0, 0, 0));
+		optimizeButton.setSize(buttonDimensions);
+		optimizeButton.setMinimumSize(buttonDimensions);
+		optimizeButton.setPreferredSize(buttonDimensions);
+		optimizeButton.setMaximumSize(buttonDimensions);
+		optimizeButton.setToolTipText(
+				"Merge and Drop Redundant Commands Before Playback");
+		optimizeButton.addActionListener(this);
+		buttonPanelA.add(optimizeButton);
+		
 		// Add the save button
 		saveButton = new JButton();
 		Icon saveIcon = new ImageIcon(getClass().getResource(
@@ -429,22 +429,23 @@ public class ScreenDisplay extends Thread implements
 				continue;
 			}
 			
+			// Look the device up once per frame so a device disconnecting
+			// mid frame cannot swap in its neighbour.
+			TestDevice device = manager.getDeviceAt(index);
+			
 			// In case we cannot connect with the device, bail out.
-			if (manager.getDeviceAt(index) == null) {
+			if (device == null) {
 				continue;
 			}
 			
-			IChimpImage snapshot = manager.getDeviceAt(index).getScreenCapture();
+			IChimpImage snapshot = device.getScreenCapture();
 				
 			if (snapshot != null) {
 				
-				Point topLeft = 
-						manager.getDeviceAt(index).getCalibratedTopLeftPoint();
+				Point topLeft = device.getCalibratedTopLeftPoint();
 			
-				int calibratedWidth = 
-						manager.getDeviceAt(index).getCalibratedWidth();
-				int calibratedHeight =
-						manager.getDeviceAt(index).getCalibratedHeight();
+				int calibratedWidth = device.getCalibratedWidth();
+				int calibratedHeight = device.getCalibratedHeight();
 		
 				snapshot = snapshot.getSubImage(
 						topLeft.x, topLeft.y, calibratedWidth, calibratedHeight);
@@ -0,0 +1,154 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestSuiteRecording
+ * 
+ * Description: 
+ * A saved .trf recording loaded for a test suite run. Holds the commands and
+ * the think time recorded before each of them.
+ */
+
+package com.ebay.testdemultiplexer.suite;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ebay.testdemultiplexer.device.commands.DeviceCommand;
+import com.ebay.testdemultiplexer.device.commands.recorder.CommandRecorder;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizationReport;
+import com.ebay.testdemultiplexer.device.commands.recorder.TraceOptimizer;
+
+public class TestSuiteRecording {
+	
+	/** Path the recording was loaded from. */
+	private String path;
+	
+	/** Recorded commands, in playback order. */
+	private List<DeviceCommand> commands;
+	
+	/** Think time in milliseconds before each command. */
+	private List<Long> delays;
+	
+	/** Outcome of the optimization pass, null if it was not optimized. */
+	private TraceOptimizationReport optimization;
+	
+	/**
+	 * Default constructor.
+	 * @param path Path the recording was loaded from.
+	 * @param commands Recorded commands, in playback order.
+	 * @param delays Think time in milliseconds before each command.
+	 */
+	public TestSuiteRecording(
+			String path, List<DeviceCommand> commands, List<Long> delays) {
+		
+		this.path = path;
+		this.commands = Collections.unmodifiableList(
+				new ArrayList<DeviceCommand>(commands));
+		this.delays = Collections.unmodifiableList(
+				new ArrayList<Long>(delays));
+	}
+	
+	/**
+	 * Load a recording from file.
+	 * @param path Path of the .trf file.
+	 * @return Loaded recording, or null if it could not be read.
+	 */
+	public static TestSuiteRecording load(String path) {
+		return load(path, false);
+	}
+	
+	/**
+	 * Load a recording from file.
+	 * @param path Path of the .trf file.
+	 * @param optimize True to compact the recording with the TraceOptimizer
+	 * before it is played.
+	 * @return Loaded recording, or null if it could not be read.
+	 */
+	public static TestSuiteRecording load(String path, boolean optimize) {
+		
+		// A private recorder, so loading does not disturb the one of the
+		// TestDeviceManager.
+		CommandRecorder recorder = new CommandRecorder();
+		recorder.stopRecorder();
+		
+		if (!recorder.loadCommandsFromFile(path)) {
+			return null;
+		}
+		
+		TraceOptimizationReport optimization = null;
+		
+		if (optimize) {
+			optimization = TraceOptimizer.optimize(recorder);
+		}
+		
+		ArrayList<DeviceCommand> commands = new ArrayList<DeviceCommand>();
+		ArrayList<Long> delays = new ArrayList<Long>();
+		
+		for (int i = 0; i < recorder.getRecorderLength(); i++) {
+			commands.add(recorder.getCommand(i));
+			delays.add(recorder.getCommandDelay(recorder.getCommand(i)));
+		}
+		
+		TestSuiteRecording recording = 
+				new TestSuiteRecording(path, commands, delays);
+		recording.optimization = optimization;
+		
+		return recording;
+	}
+	
+	/**
+	 * Get the path the recording was loaded from.
+	 * @return File path.
+	 */
+	public String getPath() {
+		return path;
+	}
+	
+	/**
+	 * Get the recorded commands.
+	 * @return Unmodifiable command list, in playback order.
+	 */
+	public List<DeviceCommand> getCommands() {
+		return commands;
+	}
+	
+	/**
+	 * Get the think time before each command.
+	 * @return Unmodifiable list of milliseconds, same order as the commands.
+	 */
+	public List<Long> getDelays() {
+		return delays;
+	}
+	
+	/**
+	 * Get the outcome of the optimization pass run when loading.
+	 * @return Optimization report, or null if the recording was not 
+	 * optimized.
+	 */
+	public TraceOptimizationReport getOptimization() {
+		return optimization;
+	}
+	
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return path;
+	}
+}
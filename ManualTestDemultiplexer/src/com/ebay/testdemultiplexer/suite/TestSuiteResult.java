@@ -0,0 +1,188 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestSuiteResult
+ * 
+ * Description: 
+ * Outcome of one recording of a test suite run on one lane. Recordings that 
+ * could not be run, because no lane had a suitable device left, have no 
+ * playback.
+ */
+
+package com.ebay.testdemultiplexer.suite;
+
+import java.util.List;
+
+import com.ebay.testdemultiplexer.connection.DeviceCommandResult;
+import com.ebay.testdemultiplexer.connection.TestDevicePlayback;
+
+public class TestSuiteResult {
+	
+	/** Recording that was played. */
+	private TestSuiteRecording recording;
+	
+	/** Device model the run had to cover, null if any device would do. */
+	private String requiredModel;
+	
+	/** Name of the lane that played the recording, null if not run. */
+	private String laneName;
+	
+	/** Finished playback, null if not run. */
+	private TestDevicePlayback playback;
+	
+	/** Milliseconds the lane spent playing the recording. */
+	private long elapsed;
+	
+	/** True if the playback was stopped for taking too long. */
+	private boolean timedOut;
+	
+	/**
+	 * Default constructor.
+	 * @param recording Recording that was played.
+	 * @param requiredModel Device model the run had to cover, or null.
+	 * @param laneName Name of the lane that played it, null if not run.
+	 * @param playback Finished playback, null if not run.
+	 * @param elapsed Milliseconds the lane spent playing the recording.
+	 * @param timedOut True if the playback was stopped for taking too long.
+	 */
+	public TestSuiteResult(
+			TestSuiteRecording recording, 
+			String requiredModel, 
+			String laneName,
+			TestDevicePlayback playback, 
+			long elapsed,
+			boolean timedOut) {
+		
+		this.recording = recording;
+		this.requiredModel = requiredModel;
+		this.laneName = laneName;
+		this.playback = playback;
+		this.elapsed = elapsed;
+		this.timedOut = timedOut;
+	}
+	
+	/**
+	 * Get the recording that was played.
+	 * @return Recording.
+	 */
+	public TestSuiteRecording getRecording() {
+		return recording;
+	}
+	
+	/**
+	 * Get the device model the run had to cover.
+	 * @return Model name, or null if any device would do.
+	 */
+	public String getRequiredModel() {
+		return requiredModel;
+	}
+	
+	/**
+	 * Get the name of the lane that played the recording.
+	 * @return Lane name, or null if the recording was not run.
+	 */
+	public String getLaneName() {
+		return laneName;
+	}
+	
+	/**
+	 * Get the finished playback with the per device results.
+	 * @return Playback, or null if the recording was not run.
+	 */
+	public TestDevicePlayback getPlayback() {
+		return playback;
+	}
+	
+	/**
+	 * Check if the recording was run at all.
+	 * @return True if a lane played it.
+	 */
+	public boolean wasRun() {
+		return playback != null;
+	}
+	
+	/**
+	 * Get how long the lane spent playing the recording.
+	 * @return Elapsed milliseconds.
+	 */
+	public long getElapsed() {
+		return elapsed;
+	}
+	
+	/**
+	 * Check if the playback was stopped for taking too long.
+	 * @return True if timed out.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	/**
+	 * Check if every device of the lane completed every step of the 
+	 * recording without a failure.
+	 * @return True if successful.
+	 */
+	public boolean isSuccessful() {
+		
+		if (playback == null || timedOut) {
+			return false;
+		}
+		
+		List<String> serialNumbers = playback.getSerialNumbers();
+		
+		if (serialNumbers.size() == 0) {
+			return false;
+		}
+		
+		for (int i = 0; i < serialNumbers.size(); i++) {
+			
+			String serialNumber = serialNumbers.get(i);
+			
+			if (playback.isDeviceDropped(serialNumber) ||
+					playback.getDeviceStep(serialNumber) != 
+						playback.getLength() ||
+					hasFailure(serialNumber)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Check if any step failed on a device.
+	 * @param serialNumber Serial number of the device.
+	 * @return True if a step failed.
+	 */
+	private boolean hasFailure(String serialNumber) {
+		
+		List<DeviceCommandResult> results = 
+				playback.getDeviceResults(serialNumber);
+		
+		for (int i = 0; i < results.size(); i++) {
+			if (!results.get(i).isSuccessful()) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,703 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: TestSuiteScheduler
+ * 
+ * Description: 
+ * Runs a suite of recordings across the device pool. The devices are split
+ * into lanes, either by their A-D grouping, one lane per device or one lane 
+ * per model. Each lane plays one recording at a time on its devices. 
+ *
+ * Recordings are spread over the lanes up front, and a lane that runs out of
+ * work steals pending recordings from the back of the busiest compatible lane.
+ * Suite time therefore shrinks as devices are added, instead of every device
+ * running every recording.
+ *
+ * Coverage decides how often a recording runs: once on any lane, or once for
+ * every device model in the pool, each run on devices of that model.
+ */
+
+package com.ebay.testdemultiplexer.suite;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
+import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.connection.TestDeviceManager;
+import com.ebay.testdemultiplexer.connection.TestDevicePlayback;
+import com.ebay.testdemultiplexer.connection.TestDevicePlaybackListener;
+
+public class TestSuiteScheduler {
+	
+	/** How the device pool is split into lanes. */
+	public enum LaneMode {
+		
+		/** 
+		 * One lane per A-D group. Devices without a group get a lane of 
+		 * their own.
+		 */
+		GROUPING,
+		
+		/** One lane per device. */
+		DEVICE,
+		
+		/** One lane per device model. */
+		MODEL
+	}
+	
+	/** How often every recording is run. */
+	public enum Coverage {
+		
+		/** Once, on whichever lane picks it up. */
+		ANY_DEVICE,
+		
+		/** Once for every device model in the pool, on devices of it. */
+		EACH_MODEL
+	}
+	
+	/** Model name used for devices that do not report one. */
+	private static final String UNKNOWN_MODEL = "unknown";
+	
+	/** Manager of the device pool. */
+	private TestDeviceManager manager;
+	
+	/** How the device pool is split into lanes. */
+	private LaneMode laneMode;
+	
+	/** How often every recording is run. */
+	private Coverage coverage;
+	
+	/** Playback speed, see TestDevicePlayback. */
+	private float speed = TestDevicePlayback.AS_FAST_AS_POSSIBLE;
+	
+	/** Max number of steps a device may run ahead within a lane. */
+	private int window = TestDevicePlayback.DEFAULT_WINDOW;
+	
+	/** Max number of seconds per recording, 0 for no limit. */
+	private long recordingTimeout = 0;
+	
+	/** Recordings of the suite, in the order given. */
+	private ArrayList<TestSuiteRecording> recordings;
+	
+	/** Lanes of the current run. */
+	private ArrayList<Lane> lanes;
+	
+	/** Results of the current run, in completion order. */
+	private List<TestSuiteResult> results;
+	
+	/** Guards the job queues of every lane and busyLanes. */
+	private final Object jobLock = new Object();
+	
+	/** 
+	 * Number of lanes playing a job. Idle lanes wait while it is above 0, 
+	 * as a lane that loses its devices gives its job back. Guarded by 
+	 * jobLock.
+	 */
+	private int busyLanes = 0;
+	
+	/**
+	 * Default constructor.
+	 * @param manager Manager of the device pool.
+	 * @param laneMode How the device pool is split into lanes.
+	 * @param coverage How often every recording is run.
+	 */
+	public TestSuiteScheduler(
+			TestDeviceManager manager, LaneMode laneMode, Coverage coverage) {
+		
+		this.manager = manager;
+		this.laneMode = laneMode;
+		this.coverage = coverage;
+		this.recordings = new ArrayList<TestSuiteRecording>();
+	}
+	
+	/**
+	 * Add a recording to the suite.
+	 * @param recording Recording to add.
+	 */
+	public void addRecording(TestSuiteRecording recording) {
+		recordings.add(recording);
+	}
+	
+	/**
+	 * Set the playback speed of every recording.
+	 * @param speed See TestDevicePlayback.
+	 */
+	public void setSpeed(float speed) {
+		this.speed = speed;
+	}
+	
+	/**
+	 * Set how far a device may run ahead of the slowest device of its lane.
+	 * @param window Max number of steps.
+	 */
+	public void setWindow(int window) {
+		this.window = window;
+	}
+	
+	/**
+	 * Set the max time a lane may spend on one recording.
+	 * @param recordingTimeout Seconds, 0 for no limit.
+	 */
+	public void setRecordingTimeout(long recordingTimeout) {
+		this.recordingTimeout = recordingTimeout;
+	}
+	
+	/**
+	 * Get the names of the lanes of the current or last run, with their
+	 * device serial numbers.
+	 * @return Serial numbers by lane name.
+	 */
+	public LinkedHashMap<String, List<String>> getLanes() {
+		
+		LinkedHashMap<String, List<String>> laneDevices = 
+				new LinkedHashMap<String, List<String>>();
+		
+		if (lanes == null) {
+			return laneDevices;
+		}
+		
+		for (int i = 0; i < lanes.size(); i++) {
+			
+			List<String> serialNumbers = new ArrayList<String>();
+			List<TestDevice> devices = lanes.get(i).devices;
+			
+			for (int j = 0; j < devices.size(); j++) {
+				serialNumbers.add(devices.get(j).getSerialNumber());
+			}
+			
+			laneDevices.put(lanes.get(i).name, serialNumbers);
+		}
+		
+		return laneDevices;
+	}
+	
+	/**
+	 * Run the suite on the devices currently receiving input. Blocks until
+	 * every recording has been played or could not be placed.
+	 * @return One result per run, including runs no lane could take.
+	 */
+	public List<TestSuiteResult> run() {
+		
+		lanes = buildLanes();
+		results = Collections.synchronizedList(
+				new ArrayList<TestSuiteResult>());
+		
+		distributeJobs();
+		
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+		
+		for (int i = 0; i < lanes.size(); i++) {
+			
+			final Lane lane = lanes.get(i);
+			
+			Thread worker = DeviceExecutionBackend.getInstance().newThread(
+					new Runnable() {
+						public void run() {
+							runLane(lane);
+						}
+					}, 
+					"SuiteLane-" + lane.name);
+			
+			workers.add(worker);
+			worker.start();
+		}
+		
+		for (int i = 0; i < workers.size(); i++) {
+			try {
+				workers.get(i).join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		
+		// Anything still queued lost every lane able to run it.
+		for (int i = 0; i < lanes.size(); i++) {
+			
+			Job job;
+			
+			while ((job = lanes.get(i).poll()) != null) {
+				results.add(new TestSuiteResult(
+						job.recording, job.model, null, null, 0, false));
+			}
+		}
+		
+		return new ArrayList<TestSuiteResult>(results);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Split the devices receiving input into lanes.
+	 * @return Lanes, each with at least one device.
+	 */
+	private ArrayList<Lane> buildLanes() {
+		
+		LinkedHashMap<String, Lane> byName = new LinkedHashMap<String, Lane>();
+		List<TestDevice> devices = manager.getDeviceSnapshot().getDevices();
+		
+		for (int i = 0; i < devices.size(); i++) {
+			
+			TestDevice device = devices.get(i);
+			
+			if (!device.getReceivingInput()) {
+				continue;
+			}
+			
+			String name;
+			
+			switch (laneMode) {
+			
+			case GROUPING:
+				
+				if (device.getGrouping().length() > 0) {
+					name = "Group " + device.getGrouping();
+				} else {
+					name = device.getSerialNumber();
+				}
+				break;
+				
+			case MODEL:
+				name = getModel(device);
+				break;
+				
+			default:
+				name = device.getSerialNumber();
+			}
+			
+			Lane lane = byName.get(name);
+			
+			if (lane == null) {
+				lane = new Lane(name);
+				byName.put(name, lane);
+			}
+			
+			lane.devices.add(device);
+		}
+		
+		return new ArrayList<Lane>(byName.values());
+	}
+	
+	/**
+	 * Create the jobs for the recordings and hand each to the least loaded
+	 * lane able to run it. Jobs no lane can run are reported straight away.
+	 */
+	private void distributeJobs() {
+		
+		LinkedHashSet<String> models = new LinkedHashSet<String>();
+		
+		for (int i = 0; i < lanes.size(); i++) {
+			
+			List<TestDevice> devices = lanes.get(i).devices;
+			
+			for (int j = 0; j < devices.size(); j++) {
+				models.add(getModel(devices.get(j)));
+			}
+		}
+		
+		for (int i = 0; i < recordings.size(); i++) {
+			
+			// Without any device there is no model to cover. The recording
+			// still gets a job so it is reported as not run.
+			if (coverage == Coverage.EACH_MODEL && models.size() > 0) {
+				
+				Iterator<String> iterator = models.iterator();
+				
+				while (iterator.hasNext()) {
+					assignJob(new Job(recordings.get(i), iterator.next()));
+				}
+				
+			} else {
+				assignJob(new Job(recordings.get(i), null));
+			}
+		}
+	}
+	
+	/**
+	 * Queue a job on the least loaded lane able to run it, or report it as 
+	 * not run if there is none. Must hold jobLock once the lanes run.
+	 * @param job Job to queue.
+	 */
+	private void assignJob(Job job) {
+		
+		Lane target = null;
+		
+		for (int i = 0; i < lanes.size(); i++) {
+			
+			Lane lane = lanes.get(i);
+			
+			if (lane.canRun(job) && 
+					(target == null || lane.size() < target.size())) {
+				target = lane;
+			}
+		}
+		
+		if (target == null) {
+			results.add(new TestSuiteResult(
+					job.recording, job.model, null, null, 0, false));
+		} else {
+			target.offer(job);
+		}
+	}
+	
+	/**
+	 * Work loop of a lane. Plays its own jobs, then steals from the others,
+	 * until there is nothing left it can run or it lost all its devices. A
+	 * lane that only lost the devices of one model keeps running the jobs 
+	 * of its other models.
+	 * @param lane Lane to run.
+	 */
+	private void runLane(Lane lane) {
+		
+		while (true) {
+			
+			Job job = null;
+			
+			synchronized (jobLock) {
+				
+				while (job == null) {
+					
+					job = lane.poll();
+					
+					if (job == null) {
+						job = steal(lane);
+					}
+					
+					if (job != null) {
+						busyLanes++;
+					} else if (busyLanes == 0) {
+						
+						// Nobody can give a job back any more.
+						jobLock.notifyAll();
+						return;
+					} else {
+						try {
+							jobLock.wait();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							return;
+						}
+					}
+				}
+			}
+			
+			boolean played = runJob(lane, job);
+			
+			synchronized (jobLock) {
+				
+				busyLanes--;
+				
+				if (!played && !lane.alive) {
+					// Give the job back for another lane to steal.
+					lane.offer(job);
+				} else if (!played) {
+					// The lane only lost the job's model. Hand the job to a
+					// lane that still has it, or report it as not run.
+					assignJob(job);
+				}
+				
+				jobLock.notifyAll();
+			}
+			
+			if (!lane.alive) {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Take a job this lane can run from the back of the lane with the most
+	 * pending jobs. Must hold jobLock.
+	 * @param thief Lane looking for work.
+	 * @return Stolen job, or null if there is none it can run.
+	 */
+	private Job steal(Lane thief) {
+		
+		ArrayList<Lane> victims = new ArrayList<Lane>(lanes);
+		victims.remove(thief);
+		
+		while (victims.size() > 0) {
+			
+			Lane busiest = victims.get(0);
+			
+			for (int i = 1; i < victims.size(); i++) {
+				if (victims.get(i).size() > busiest.size()) {
+					busiest = victims.get(i);
+				}
+			}
+			
+			Job job = busiest.stealFor(thief);
+			
+			if (job != null) {
+				return job;
+			}
+			
+			victims.remove(busiest);
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Play a job on the devices of the lane and record the result.
+	 * @param lane Lane playing the job.
+	 * @param job Job to play.
+	 * @return False if the lane has no usable device for the job, in which
+	 * case nothing was played. The lane is marked dead only if it has no 
+	 * usable device at all.
+	 */
+	private boolean runJob(Lane lane, Job job) {
+		
+		List<TestDevice> devices = lane.devicesFor(job);
+		
+		if (devices.size() == 0) {
+			
+			if (!lane.hasUsableDevice()) {
+				lane.alive = false;
+			}
+			
+			return false;
+		}
+		
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		TestDevicePlayback playback = new TestDevicePlayback(
+				job.recording.getCommands(),
+				job.recording.getDelays(),
+				devices,
+				window,
+				speed);
+		
+		playback.addPlaybackListener(new TestDevicePlaybackListener() {
+			
+			public void onPlaybackProgress(
+					TestDevicePlayback playback, int slowestStep) {
+				// Only the outcome matters.
+			}
+			
+			public void onPlaybackFinished(TestDevicePlayback playback) {
+				done.countDown();
+			}
+		});
+		
+		long started = System.currentTimeMillis();
+		boolean timedOut = false;
+		
+		playback.start();
+		
+		try {
+			if (recordingTimeout > 0) {
+				timedOut = !done.await(recordingTimeout, TimeUnit.SECONDS);
+			} else {
+				done.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			timedOut = true;
+		}
+		
+		if (timedOut) {
+			playback.stop();
+		}
+		
+		results.add(new TestSuiteResult(
+				job.recording, 
+				job.model, 
+				lane.name, 
+				playback, 
+				System.currentTimeMillis() - started,
+				timedOut));
+		
+		return true;
+	}
+	
+	/**
+	 * Get the model name of a device.
+	 * @param device Device to check.
+	 * @return Model name, never null.
+	 */
+	private static String getModel(TestDevice device) {
+		
+		String model = device.getModelName();
+		
+		if (model == null || model.length() == 0) {
+			return UNKNOWN_MODEL;
+		}
+		
+		return model;
+	}
+	
+	/**
+	 * One run of a recording, optionally restricted to a device model.
+	 */
+	private static class Job {
+		
+		/** Recording to play. */
+		private final TestSuiteRecording recording;
+		
+		/** Model the run must be played on, null for any device. */
+		private final String model;
+		
+		/**
+		 * Default constructor.
+		 * @param recording Recording to play.
+		 * @param model Model to play on, or null for any device.
+		 */
+		private Job(TestSuiteRecording recording, String model) {
+			this.recording = recording;
+			this.model = model;
+		}
+	}
+	
+	/**
+	 * A set of devices playing one recording at a time, with its own queue
+	 * of pending jobs. The owner takes jobs from the front, other lanes 
+	 * steal from the back.
+	 */
+	private static class Lane {
+		
+		/** Name of the lane. */
+		private final String name;
+		
+		/** Devices of the lane. */
+		private final ArrayList<TestDevice> devices = 
+				new ArrayList<TestDevice>();
+		
+		/** Pending jobs. Guarded by the job lock of the scheduler. */
+		private final ArrayDeque<Job> jobs = new ArrayDeque<Job>();
+		
+		/** False once the lane has lost all of its devices. */
+		private volatile boolean alive = true;
+		
+		/**
+		 * Default constructor.
+		 * @param name Name of the lane.
+		 */
+		private Lane(String name) {
+			this.name = name;
+		}
+		
+		/**
+		 * Get the devices of the lane able to play the job right now.
+		 * @param job Job to play.
+		 * @return Usable devices, empty if none.
+		 */
+		private List<TestDevice> devicesFor(Job job) {
+			
+			ArrayList<TestDevice> usable = new ArrayList<TestDevice>();
+			
+			for (int i = 0; i < devices.size(); i++) {
+				
+				TestDevice device = devices.get(i);
+				
+				if (device.isQuarantined() || !device.getReceivingInput()) {
+					continue;
+				}
+				
+				if (job.model == null || job.model.equals(getModel(device))) {
+					usable.add(device);
+				}
+			}
+			
+			return usable;
+		}
+		
+		/**
+		 * Check if the lane has any device able to play, whatever its model.
+		 * @return True if a device is neither quarantined nor disabled.
+		 */
+		private boolean hasUsableDevice() {
+			
+			for (int i = 0; i < devices.size(); i++) {
+				
+				TestDevice device = devices.get(i);
+				
+				if (!device.isQuarantined() && device.getReceivingInput()) {
+					return true;
+				}
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Check if the lane has a device able to play the job.
+		 * @param job Job to check.
+		 * @return True if the lane can run it.
+		 */
+		private boolean canRun(Job job) {
+			return alive && devicesFor(job).size() > 0;
+		}
+		
+		/**
+		 * Get the number of pending jobs.
+		 * @return Pending job count.
+		 */
+		private int size() {
+			return jobs.size();
+		}
+		
+		/**
+		 * Add a job to the back of the queue.
+		 * @param job Job to add.
+		 */
+		private void offer(Job job) {
+			jobs.addLast(job);
+		}
+		
+		/**
+		 * Take the job at the front of the queue.
+		 * @return Job, or null if none is pending.
+		 */
+		private Job poll() {
+			return jobs.pollFirst();
+		}
+		
+		/**
+		 * Take the job nearest the back of the queue that the thief can run.
+		 * @param thief Lane stealing the job.
+		 * @return Job, or null if none is suitable.
+		 */
+		private Job stealFor(Lane thief) {
+			
+			Iterator<Job> iterator = jobs.descendingIterator();
+			
+			while (iterator.hasNext()) {
+				
+				Job job = iterator.next();
+				
+				if (thief.canRun(job)) {
+					iterator.remove();
+					return job;
+				}
+			}
+			
+			return null;
+		}
+	}
+}
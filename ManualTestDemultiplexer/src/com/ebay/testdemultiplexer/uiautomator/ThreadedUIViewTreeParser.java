@@ -23,19 +23,36 @@
  * Threaded class that handles the instantiation of the UIViewSAXParser and
  * performs the parsing of the UIAutomation dump file independent of the current
  * execution thread.
+ * 
+ * The dump is written to the terminal and parsed as it streams in over a 
+ * single shell command, so neither the device nor the local disk is written
+ * to. Devices whose uiautomator cannot dump to the terminal fall back to 
+ * dumping to the sdcard and pulling the file. A failed stream is retried as
+ * a pulled file once; the device only stops streaming when it reports that
+ * it cannot write to the terminal, or after MAX_STREAM_FAILURES streams in a
+ * row sent no xml, so a single adb hiccup does not cost the faster path. 
+ * Whether uiautomator exists and how it dumps is probed once per device and 
+ * cached in its UIViewTreeManager.
  */
 
 package com.ebay.testdemultiplexer.uiautomator;
 
 import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PushbackInputStream;
+import java.util.concurrent.TimeUnit;
 
 import com.android.ddmlib.AdbCommandRejectedException;
 import com.android.ddmlib.SyncException;
 import com.android.ddmlib.TimeoutException;
+import com.ebay.testdemultiplexer.connection.CommandScheduler;
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
 import com.ebay.testdemultiplexer.connection.TestDevice;
+import com.ebay.testdemultiplexer.device.commands.CommandPriority;
 
-public class ThreadedUIViewTreeParser extends Thread implements 
-	UIViewSAXParserListener {
+public class ThreadedUIViewTreeParser implements 
+	Runnable, UIViewSAXParserListener {
 	
 	/** Path of the UIAutomation executable on the physical device. */
 	private static final String UIAUTOMATOR_PATH = "/system/bin/uiautomator";
@@ -46,6 +63,31 @@ public class ThreadedUIViewTreeParser extends Thread implements
 	/** Location on the physical device to dump the xml file. */
 	private static final String XML_DEVICE_PATH = "/sdcard/uidump.xml";
 	
+	/** Dump target that writes the xml to the shell output instead. */
+	private static final String XML_STREAM_PATH = "/dev/tty";
+	
+	/** Bytes buffered between the shell output and the parser. */
+	private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+	
+	/** Max milliseconds the dump may go without output. */
+	private static final long STREAM_TIMEOUT = 20000;
+	
+	/** Streamed dumps that may fail in a row before a device pulls files. */
+	private static final int MAX_STREAM_FAILURES = 3;
+	
+	/** How a device dumps its UI hierarchy. */
+	public enum DumpMode {
+		
+		/** Dump to the terminal and parse while streaming. */
+		STREAM, 
+		
+		/** Dump to the sdcard and pull the file. */
+		FILE, 
+		
+		/** uiautomator is not available on the device. */
+		UNSUPPORTED
+	};
+	
 	/** Shell response to identify that the dump operation was successful. */
 	private static final String UIAUTOMATOR_DUMP_RESULT = 
 			"UI hierchary dumped to: /sdcard/uidump.xml";
@@ -63,10 +105,10 @@ public class ThreadedUIViewTreeParser extends Thread implements
 	private ThreadedUIViewTreeParserListener listener;
 	
 	/** Root node from the UIViewSAXParser. */
-	private UIViewTreeNode rootNode;
+	private volatile UIViewTreeNode rootNode;
 	
 	/** Execution state flag for the thread loop. */
-	private boolean isRunning;
+	private volatile boolean isRunning;
 	
 	/**
 	 * Create a new threaded parser.
@@ -92,31 +134,220 @@ public class ThreadedUIViewTreeParser extends Thread implements
 	}
 	
 	// -------------------------------------------------------------------------
-	// Methods required by Thread
+	// Methods required by Runnable
 	// -------------------------------------------------------------------------
 
 	/* (non-Javadoc)
-	 * @see java.lang.Thread#run()
+	 * @see java.lang.Runnable#run()
 	 */
-	@Override
-	public synchronized void run() {
+	public void run() {
+		
+		// Dumps are limited across devices so they cannot starve 
+		// interactive input of adb bandwidth. Not synchronized: a parser 
+		// runs once per dump, and a virtual thread blocking here while 
+		// holding a monitor would pin its carrier.
+		CommandScheduler scheduler = CommandScheduler.getInstance();
 		
-		// The operations performed at the top of this thread are the same
-		// shell commands executed in ScreenshotAction.java of the uiautomator
-		// module. See run() implementation of ScreenshotAction.java for more
-		// information.
+		try {
+			scheduler.acquire(CommandPriority.UI_DUMP);
+		} catch (InterruptedException e) {
+			doCleanup();
+			return;
+		}
+		
+		try {
+			dumpAndParse();
+		} finally {
+			scheduler.release(CommandPriority.UI_DUMP);
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by UIViewSAXParserListener
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.ebay.testdemultiplexer.util.UIViewSAXParserListener#doneParsingXML(com.ebay.testdemultiplexer.util.UIViewTreeNode)
+	 */
+	@Override
+	public void doneParsingXML(UIViewTreeNode rootNode) {
+		this.rootNode = rootNode;
+		doCleanup();
+	}
+
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Dump the UI hierarchy on the device and parse it. The listener is 
+	 * notified on every path out of this method.
+	 */
+	private void dumpAndParse() {
 		
 		isRunning = true;
-		String result;
 		
-		// Confirm that uiautomator exists on the device. Requires API level
-		// 16 or newer.
-		result = device.getIChimpDevice().shell("ls "+UIAUTOMATOR_PATH);
-		if (!result.trim().equals(UIAUTOMATOR_PATH)) {
+		UIViewTreeManager manager = device.getUIViewTreeManager();
+		DumpMode mode = manager.getDumpMode();
+		
+		if (mode == null) {
+			mode = probeDumpMode();
+			manager.setDumpMode(mode);
+		}
+		
+		if (mode == DumpMode.UNSUPPORTED) {
 			doCleanup();
 			return;
 		}
 		
+		if (mode == DumpMode.STREAM && streamAndParse()) {
+			return;
+		}
+		
+		pullAndParse();
+	}
+	
+	/**
+	 * Confirm that uiautomator exists on the device. Requires API level 16 
+	 * or newer.
+	 * @return STREAM if it exists, UNSUPPORTED otherwise. Streaming falls back
+	 * to FILE once it is known to fail, see streamFailed().
+	 */
+	private DumpMode probeDumpMode() {
+		
+		String result = null;
+		
+		try {
+			result = device.getIChimpDevice().shell("ls "+UIAUTOMATOR_PATH);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		
+		if (result == null || !result.trim().equals(UIAUTOMATOR_PATH)) {
+			return DumpMode.UNSUPPORTED;
+		}
+		
+		return DumpMode.STREAM;
+	}
+	
+	/**
+	 * Dump the UI hierarchy to the terminal and parse it as it arrives. The 
+	 * shell command runs on its own thread and feeds the parser on this one
+	 * through a pipe.
+	 * @return True if xml arrived and was parsed, the listener has then been 
+	 * notified. False if the device sent no xml, the failure has then been 
+	 * counted.
+	 */
+	private boolean streamAndParse() {
+		
+		PipedInputStream pipe = new PipedInputStream(STREAM_BUFFER_SIZE);
+		final UIDumpReceiver receiver;
+		
+		try {
+			receiver = new UIDumpReceiver(new PipedOutputStream(pipe));
+		} catch (IOException e) {
+			e.printStackTrace();
+			streamFailed(null);
+			return false;
+		}
+		
+		DeviceExecutionBackend.getInstance().newThread(new Runnable() {
+			public void run() {
+				
+				try {
+					device.getIDevice().executeShellCommand(
+							UIAUTOMATOR_PATH + " " + DUMP_COMMAND + " " + 
+									XML_STREAM_PATH, 
+							receiver, 
+							STREAM_TIMEOUT, 
+							TimeUnit.MILLISECONDS);
+				} catch (Exception e) {
+					System.out.println(
+							"MTD Tool failed to stream the UIAutomation dump.");
+					e.printStackTrace();
+				} finally {
+					receiver.flush();
+				}
+			}
+		}, "UIDumpStream-" + device.getSerialNumber()).start();
+		
+		PushbackInputStream input = new PushbackInputStream(pipe);
+		
+		try {
+			
+			// Blocks until the first xml byte arrives or the command ended
+			// without any.
+			int first = input.read();
+			
+			if (first < 0) {
+				streamFailed(receiver);
+				return false;
+			}
+			
+			input.unread(first);
+			
+			UIViewSAXParser parser = new UIViewSAXParser(input, this);
+			parser.beginParsing();
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			
+			if (!receiver.hasReceivedXml()) {
+				streamFailed(receiver);
+				return false;
+			}
+			
+			doCleanup();
+			
+		} finally {
+			
+			// Stops the shell command if the parser gave up early.
+			try {
+				pipe.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		device.getUIViewTreeManager().streamSucceeded();
+		
+		return true;
+	}
+	
+	/**
+	 * Count a streamed dump that sent no xml and switch the device to pulling
+	 * files if streaming cannot work on it. 
+	 * @param receiver Receiver of the failed dump, null if it never ran.
+	 */
+	private void streamFailed(UIDumpReceiver receiver) {
+		
+		UIViewTreeManager manager = device.getUIViewTreeManager();
+		int failures = manager.streamFailed();
+		
+		// Older uiautomator builds cannot open the terminal and print an 
+		// error naming it, retrying would fail the same way.
+		boolean unwritable = receiver != null && 
+				receiver.getPreamble().contains(XML_STREAM_PATH);
+		
+		if (unwritable || failures >= MAX_STREAM_FAILURES) {
+			System.out.println("MTD Tool dumps the UI of " + 
+					device.getSerialNumber() + " to the sdcard from now on.");
+			manager.setDumpMode(DumpMode.FILE);
+		}
+	}
+	
+	/**
+	 * Dump the UI hierarchy to the sdcard, pull it and parse it. Used on 
+	 * devices that cannot dump to the terminal.
+	 */
+	private void pullAndParse() {
+		
+		// The operations performed here are the same shell commands executed
+		// in ScreenshotAction.java of the uiautomator module. See run() 
+		// implementation of ScreenshotAction.java for more information.
+		
+		String result = null;
+		
 		// Cleanup any existing UI XML Snapshot
 		result = device.getIChimpDevice().shell("rm "+XML_DEVICE_PATH);
 		
@@ -160,23 +391,6 @@ public class ThreadedUIViewTreeParser extends Thread implements
 		parser.beginParsing();
 	}
 	
-	// -------------------------------------------------------------------------
-	// Methods required by UIViewSAXParserListener
-	// -------------------------------------------------------------------------
-	
-	/* (non-Javadoc)
-	 * @see com.ebay.testdemultiplexer.util.UIViewSAXParserListener#doneParsingXML(com.ebay.testdemultiplexer.util.UIViewTreeNode)
-	 */
-	@Override
-	public void doneParsingXML(UIViewTreeNode rootNode) {
-		this.rootNode = rootNode;
-		doCleanup();
-	}
-
-	// -------------------------------------------------------------------------
-	// Private methods
-	// -------------------------------------------------------------------------
-	
 	/**
 	 * Do any cleanup required to stop execution of the thread and set all
 	 * fields their expected values for post operation analysis.
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: UIDumpReceiver
+ * 
+ * Description: 
+ * Receives the output of "uiautomator dump /dev/tty" and forwards the XML to a
+ * stream the UIViewSAXParser reads from while the dump is still arriving. 
+ * Anything before the XML and the status line uiautomator prints after the
+ * closing hierarchy element are dropped, so the parser sees a well formed
+ * document. The start of the dropped output is kept, so an error printed in
+ * place of the XML can be told apart. The stream is closed once the hierarchy
+ * is complete or the shell command ends.
+ */
+
+package com.ebay.testdemultiplexer.uiautomator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import com.android.ddmlib.IShellOutputReceiver;
+
+public class UIDumpReceiver implements IShellOutputReceiver {
+	
+	/** Closing element of the dump, nothing after it is forwarded. */
+	private static final byte[] END_ELEMENT = 
+			"</hierarchy>".getBytes(Charset.forName("UTF-8"));
+	
+	/** Number of characters of output before the XML that are kept. */
+	private static final int MAX_PREAMBLE_LENGTH = 256;
+	
+	/** Stream the XML is forwarded to. */
+	private OutputStream out;
+	
+	/** True once the first XML byte has been forwarded. */
+	private volatile boolean receivedXml;
+	
+	/** Start of the output before the XML. */
+	private StringBuffer preamble;
+	
+	/** Number of bytes of END_ELEMENT matched so far. */
+	private int endMatched;
+	
+	/** True once the output stream is closed. */
+	private volatile boolean closed;
+	
+	/**
+	 * Create a new receiver.
+	 * @param out Stream to forward the XML to. Closed by the receiver.
+	 */
+	public UIDumpReceiver(OutputStream out) {
+		this.out = out;
+		this.receivedXml = false;
+		this.preamble = new StringBuffer();
+		this.endMatched = 0;
+		this.closed = false;
+	}
+	
+	/**
+	 * Check if any XML was received. A device whose uiautomator cannot dump
+	 * to the terminal only prints an error.
+	 * @return True if XML was forwarded.
+	 */
+	public boolean hasReceivedXml() {
+		return receivedXml;
+	}
+	
+	/**
+	 * Get the output the shell printed before the XML, usually an error if
+	 * no XML followed.
+	 * @return Start of the output, up to MAX_PREAMBLE_LENGTH characters.
+	 */
+	public String getPreamble() {
+		return preamble.toString();
+	}
+	
+	// -------------------------------------------------------------------------
+	// Methods required by IShellOutputReceiver
+	// -------------------------------------------------------------------------
+	
+	/* (non-Javadoc)
+	 * @see com.android.ddmlib.IShellOutputReceiver#addOutput(byte[], int, int)
+	 */
+	public void addOutput(byte[] data, int offset, int length) {
+		
+		if (closed) {
+			return;
+		}
+		
+		int start = offset;
+		int end = offset + length;
+		
+		// Skip whatever the shell printed before the XML.
+		if (!receivedXml) {
+			
+			while (start < end && data[start] != '<') {
+				start++;
+			}
+			
+			keepPreamble(data, offset, start - offset);
+			
+			if (start == end) {
+				return;
+			}
+			
+			receivedXml = true;
+		}
+		
+		for (int i = start; i < end; i++) {
+			
+			if (data[i] == END_ELEMENT[endMatched]) {
+				endMatched++;
+			} else {
+				endMatched = data[i] == END_ELEMENT[0] ? 1 : 0;
+			}
+			
+			if (endMatched == END_ELEMENT.length) {
+				write(data, start, i + 1 - start);
+				close();
+				return;
+			}
+		}
+		
+		write(data, start, end - start);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.android.ddmlib.IShellOutputReceiver#flush()
+	 */
+	public void flush() {
+		close();
+	}
+
+	/**
+	 * Stop the shell command once the stream is closed, either because the
+	 * hierarchy is complete or because the parser gave up reading.
+	 * @see com.android.ddmlib.IShellOutputReceiver#isCancelled()
+	 */
+	public boolean isCancelled() {
+		return closed;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Keep the start of the output printed before the XML.
+	 * @param data Bytes printed.
+	 * @param offset Offset of the first byte.
+	 * @param length Number of bytes.
+	 */
+	private void keepPreamble(byte[] data, int offset, int length) {
+		
+		int room = MAX_PREAMBLE_LENGTH - preamble.length();
+		
+		if (room <= 0 || length == 0) {
+			return;
+		}
+		
+		preamble.append(new String(
+				data, offset, Math.min(room, length), 
+				Charset.forName("UTF-8")));
+	}
+	
+	/**
+	 * Forward bytes to the parser. Blocks while the parser is behind.
+	 * @param data Bytes to forward.
+	 * @param offset Offset of the first byte.
+	 * @param length Number of bytes.
+	 */
+	private void write(byte[] data, int offset, int length) {
+		
+		try {
+			out.write(data, offset, length);
+		} catch (IOException e) {
+			// The parser stopped reading, nothing left to forward to.
+			closed = true;
+		}
+	}
+	
+	/**
+	 * Close the stream so the parser sees the end of the document.
+	 */
+	private void close() {
+		
+		if (closed) {
+			return;
+		}
+		
+		closed = true;
+		
+		try {
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
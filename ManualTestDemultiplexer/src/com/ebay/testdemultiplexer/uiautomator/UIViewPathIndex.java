@@ -0,0 +1,399 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: UIViewPathIndex
+ * 
+ * Description: 
+ * Hash index from the path of every node of a UI hierarchy to the node. A
+ * path is the list of index values from the root node down to the node, so a
+ * node is found in constant time without walking the tree or parsing strings.
+ * The index is built over the path hashes a UIViewSnapshot computes while it
+ * is filled, and only stores node handles.
+ *
+ * Unique IDs are the path written out with the index values separated by dots,
+ * for example 0.1.12. Recordings made before this format hold the index values
+ * run together, for example 01120, which cannot tell 1 then 12 from 11 then 2.
+ * Those IDs are still resolved by matching them against the run together ID of
+ * every node in the hierarchy.
+ */
+
+package com.ebay.testdemultiplexer.uiautomator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class UIViewPathIndex {
+	
+	/** Separator between the index values of a unique ID. */
+	public static final char ID_SEPARATOR = '.';
+	
+	/** Hash of the empty path, see hashStep(). */
+	static final int HASH_SEED = 1;
+	
+	/** 
+	 * Open addressed hash table of node handles, keyed by their path. Free 
+	 * slots hold NO_NODE. The table is kept at most half full.
+	 */
+	private int[] table;
+	
+	/** Number of nodes in the table. */
+	private int size;
+	
+	/** Snapshot the handles refer to. */
+	private UIViewSnapshot snapshot;
+	
+	/** 
+	 * Unique IDs in the format used before paths were separated, mapped to 
+	 * their node. Only built once such an ID is looked up.
+	 */
+	private HashMap<String, UIViewTreeNode> legacyIDs;
+	
+	/**
+	 * Create the index of a finished snapshot.
+	 * @param snapshot Snapshot to index.
+	 */
+	UIViewPathIndex(UIViewSnapshot snapshot) {
+		
+		this.snapshot = snapshot;
+		this.size = 0;
+		this.legacyIDs = null;
+		
+		int capacity = 2;
+		
+		while (capacity < snapshot.size() * 2) {
+			capacity *= 2;
+		}
+		
+		table = new int[capacity];
+		Arrays.fill(table, UIViewSnapshot.NO_NODE);
+		
+		// When two nodes share a path the first one is kept, matching the 
+		// order children used to be searched in.
+		for (int node = 0; node < snapshot.size(); node++) {
+			
+			int mask = table.length - 1;
+			int slot = spread(snapshot.getPathHash(node)) & mask;
+			boolean duplicate = false;
+			
+			while (table[slot] != UIViewSnapshot.NO_NODE) {
+				if (UIViewSnapshot.haveSamePath(
+						snapshot, table[slot], snapshot, node)) {
+					duplicate = true;
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+			
+			if (!duplicate) {
+				table[slot] = node;
+				size++;
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of nodes indexed.
+	 * @return Node count.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the node at a path.
+	 * @param path Index values from the root node down to the node.
+	 * @return Node at the path, or null if not found.
+	 */
+	public UIViewTreeNode getNode(int[] path) {
+		return getNode(path, path.length);
+	}
+	
+	/**
+	 * Get the node at the start of a path.
+	 * @param path Index values from the root node down.
+	 * @param length Number of index values of the path to use.
+	 * @return Node at the path, or null if not found.
+	 */
+	public UIViewTreeNode getNode(int[] path, int length) {
+		
+		if (length < 1) {
+			return null;
+		}
+		
+		int hash = HASH_SEED;
+		
+		for (int i = 0; i < length; i++) {
+			hash = hashStep(hash, path[i]);
+		}
+		
+		int mask = table.length - 1;
+		int slot = spread(hash) & mask;
+		
+		while (table[slot] != UIViewSnapshot.NO_NODE) {
+			if (hasPath(table[slot], path, length)) {
+				return snapshot.getNode(table[slot]);
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Get the node of this hierarchy at the same path as a node of another
+	 * dump.
+	 * @param node Node to look up by path.
+	 * @return Node at the same path, or null if not found.
+	 */
+	public UIViewTreeNode getNode(UIViewTreeNode node) {
+		
+		int mask = table.length - 1;
+		int slot = spread(node.getSnapshot().getPathHash(
+				node.getHandle())) & mask;
+		
+		while (table[slot] != UIViewSnapshot.NO_NODE) {
+			if (UIViewSnapshot.haveSamePath(snapshot, table[slot], 
+					node.getSnapshot(), node.getHandle())) {
+				return snapshot.getNode(table[slot]);
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Get the node with a unique ID, in either ID format.
+	 * @param id Unique ID of the node.
+	 * @return Node with the ID, or null if not found.
+	 */
+	public UIViewTreeNode getNode(String id) {
+		
+		if (id.indexOf(ID_SEPARATOR) < 0) {
+			return getLegacyNode(id);
+		}
+		
+		int[] path = parseUniqueID(id);
+		
+		if (path == null) {
+			return null;
+		}
+		
+		return getNode(path);
+	}
+	
+	/**
+	 * Get the path a unique ID refers to. IDs in the old format are resolved
+	 * against this hierarchy first, as their index values can only be told 
+	 * apart by the nodes they were made from. If the node is not in this 
+	 * hierarchy every digit is taken as one index value.
+	 * @param id Unique ID to resolve.
+	 * @return Path of the ID, or null if the ID is not valid.
+	 */
+	public int[] resolveUniqueID(String id) {
+		
+		if (id.indexOf(ID_SEPARATOR) < 0) {
+			UIViewTreeNode node = getLegacyNode(id);
+			
+			if (node != null) {
+				return node.getPath();
+			}
+		}
+		
+		return parseUniqueID(id);
+	}
+	
+	/**
+	 * Write a path out as a unique ID.
+	 * @param path Index values from the root node down.
+	 * @return Unique ID, for example 0.1.12.
+	 */
+	public static String toUniqueID(int[] path) {
+		
+		StringBuilder id = new StringBuilder(path.length * 3);
+		
+		for (int i = 0; i < path.length; i++) {
+			if (i > 0) {
+				id.append(ID_SEPARATOR);
+			}
+			id.append(path[i]);
+		}
+		
+		return id.toString();
+	}
+	
+	/**
+	 * Read the path out of a unique ID. IDs without a separator are in the 
+	 * old format and every digit is taken as one index value.
+	 * @param id Unique ID to read.
+	 * @return Path of the ID, or null if the ID is not valid.
+	 */
+	public static int[] parseUniqueID(String id) {
+		
+		int length = id.length();
+		
+		if (length == 0) {
+			return null;
+		}
+		
+		if (id.indexOf(ID_SEPARATOR) < 0) {
+			
+			int[] path = new int[length];
+			
+			for (int i = 0; i < length; i++) {
+				int digit = Character.digit(id.charAt(i), 10);
+				if (digit < 0) {
+					return null;
+				}
+				path[i] = digit;
+			}
+			
+			return path;
+		}
+		
+		int count = 1;
+		
+		for (int i = 0; i < length; i++) {
+			if (id.charAt(i) == ID_SEPARATOR) {
+				count++;
+			}
+		}
+		
+		int[] path = new int[count];
+		int level = 0;
+		int value = 0;
+		boolean hasDigits = false;
+		
+		for (int i = 0; i <= length; i++) {
+			
+			if (i == length || id.charAt(i) == ID_SEPARATOR) {
+				if (!hasDigits) {
+					return null;
+				}
+				path[level++] = value;
+				value = 0;
+				hasDigits = false;
+				continue;
+			}
+			
+			int digit = Character.digit(id.charAt(i), 10);
+			
+			if (digit < 0) {
+				return null;
+			}
+			
+			value = value * 10 + digit;
+			hasDigits = true;
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * Add one index value to the hash of a path.
+	 * @param hash Hash of the path so far, HASH_SEED for the empty path.
+	 * @param index Index value to add.
+	 * @return Hash of the longer path.
+	 */
+	static int hashStep(int hash, int index) {
+		return 31 * hash + index;
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Get the node with a unique ID in the old format. The map of old IDs is
+	 * built on the first call.
+	 * @param id Unique ID with the index values run together.
+	 * @return Node with the ID, or null if not found.
+	 */
+	private synchronized UIViewTreeNode getLegacyNode(String id) {
+		
+		if (legacyIDs == null) {
+			buildLegacyIDs();
+		}
+		
+		return legacyIDs.get(id);
+	}
+	
+	/**
+	 * Map the old format ID of every node. Nodes come parents first, so the
+	 * ID of a node is the ID of its parent followed by its index value. The
+	 * first node with an ID is kept, matching the order nodes were looked up
+	 * in.
+	 */
+	private void buildLegacyIDs() {
+		
+		legacyIDs = new HashMap<String, UIViewTreeNode>(snapshot.size() * 2);
+		
+		StringBuilder id = new StringBuilder();
+		
+		// Length of the ID of the node last seen at every depth.
+		int[] idLength = new int[snapshot.size() + 1];
+		
+		for (int node = 0; node < snapshot.size(); node++) {
+			
+			int nodeDepth = snapshot.getDepth(node);
+			
+			id.setLength(nodeDepth > 0 ? idLength[nodeDepth - 1] : 0);
+			id.append(snapshot.getIndex(node));
+			idLength[nodeDepth] = id.length();
+			
+			String nodeID = id.toString();
+			
+			if (!legacyIDs.containsKey(nodeID)) {
+				legacyIDs.put(nodeID, snapshot.getNode(node));
+			}
+		}
+	}
+	
+	/**
+	 * Mix the high bits of a hash into the low bits used to pick a slot. 
+	 * Sibling paths only differ in the last index value.
+	 * @param hash Hash to mix.
+	 * @return Mixed hash.
+	 */
+	private static int spread(int hash) {
+		hash *= 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+	
+	/**
+	 * See if a node is at the start of a path.
+	 * @param node Handle of the node to check.
+	 * @param path Index values from the root node down.
+	 * @param length Number of index values of the path to use.
+	 * @return True if the path of the node matches, false otherwise.
+	 */
+	private boolean hasPath(int node, int[] path, int length) {
+		
+		if (snapshot.getDepth(node) != length - 1) {
+			return false;
+		}
+		
+		for (int i = length - 1; i >= 0; i--) {
+			if (snapshot.getIndex(node) != path[i]) {
+				return false;
+			}
+			node = snapshot.getParent(node);
+		}
+		
+		return true;
+	}
+}
@@ -20,15 +20,17 @@
  * Class: UIViewSAXParser
  * 
  * Description: 
- * SAX parser for the UIAutomation dump file generated. Creates the 
- * UIViewTreeNode hierarchy and passes back the root node when finished.
+ * SAX parser for the UIAutomation dump file generated. Fills a UIViewSnapshot
+ * with the UIViewTreeNode hierarchy and passes back the root node when 
+ * finished. Reads either a pulled dump file or a stream the dump is written to
+ * as it arrives.
  */
 
 package com.ebay.testdemultiplexer.uiautomator;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.Stack;
+import java.io.InputStream;
 
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
@@ -40,11 +42,11 @@ import org.xml.sax.helpers.DefaultHandler;
 
 public class UIViewSAXParser extends DefaultHandler {
 	
-	/** Root node of UI hierarchy. */
-	private UIViewTreeNode rootNode;
+	/** Snapshot the UI hierarchy is parsed into. */
+	private UIViewSnapshot snapshot;
 	
-	/** Parent stack to track nodes for parenting with. */
-	private Stack<UIViewTreeNode> parentStack;
+	/** Bounds of the node being parsed, left, top, right and bottom. */
+	private int[] bounds = new int[4];
 	
 	/** Listener to call with the new root node. */
 	private UIViewSAXParserListener listener;
@@ -52,6 +54,9 @@ public class UIViewSAXParser extends DefaultHandler {
 	/** Local path to UIAutomation xml file to path. */
 	private String localFilePath;
 	
+	/** Stream to read the xml from, null if parsing a file. */
+	private InputStream inputStream;
+	
 	/**
 	 * Create a new UIAutomation xml parser.
 	 * @param localFilePath Path to xml file to parse.
@@ -63,14 +68,24 @@ public class UIViewSAXParser extends DefaultHandler {
 		this.listener = listener;	
 	}
 	
+	/**
+	 * Create a new UIAutomation xml parser reading from a stream.
+	 * @param inputStream Stream to read the xml from.
+	 * @param listener Listener to call with the new root node.
+	 */
+	public UIViewSAXParser(
+			InputStream inputStream, UIViewSAXParserListener listener) {
+		this.inputStream = inputStream;
+		this.listener = listener;
+	}
+	
 	/**
 	 * Start the parsing operation. Caller should wait for the 
 	 * UIViewSAXParserListener call to be made with the root node.
 	 */
 	public void beginParsing() {
 		
-		rootNode = null;
-		parentStack = new Stack<UIViewTreeNode>();
+		snapshot = new UIViewSnapshot();
 		
 		SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
 		SAXParser saxParser;
@@ -85,9 +100,12 @@ public class UIViewSAXParser extends DefaultHandler {
 			notifyListener();
 			return;
 		}
-		File file = new File(localFilePath);
 		try {
-			saxParser.parse(file, this);
+			if (inputStream != null) {
+				saxParser.parse(inputStream, this);
+			} else {
+				saxParser.parse(new File(localFilePath), this);
+			}
 		} catch (SAXException e) {
 			e.printStackTrace();
 			notifyListener();
@@ -127,8 +145,8 @@ public class UIViewSAXParser extends DefaultHandler {
 	public void endElement(String uri, String localName, String qName)
 			throws SAXException {
 		
-		if (!parentStack.isEmpty()) {
-			parentStack.pop();
+		if (qName.equals(UIViewTreeNode.NODE_ELEMENT)) {
+			snapshot.closeNode();
 		}
 	}
 	
@@ -148,118 +166,58 @@ public class UIViewSAXParser extends DefaultHandler {
 			return;
 		}
 		
-		boolean naf = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_NOT_ACCESSABILITY_FRIENDLY));
+		int flags = 
+				getFlag(attributes, 
+						UIViewTreeNode.U_NOT_ACCESSABILITY_FRIENDLY, 
+						UIViewSnapshot.FLAG_NAF) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_CHECKABLE, 
+						UIViewSnapshot.FLAG_CHECKABLE) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_CHECKED, 
+						UIViewSnapshot.FLAG_CHECKED) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_CLICKABLE, 
+						UIViewSnapshot.FLAG_CLICKABLE) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_ENABLED, 
+						UIViewSnapshot.FLAG_ENABLED) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_FOCUSABLE, 
+						UIViewSnapshot.FLAG_FOCUSABLE) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_FOCUSED, 
+						UIViewSnapshot.FLAG_FOCUSED) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_SCROLLABLE, 
+						UIViewSnapshot.FLAG_SCROLLABLE) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_LONG_CLICKABLE, 
+						UIViewSnapshot.FLAG_LONG_CLICKABLE) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_PASSWORD, 
+						UIViewSnapshot.FLAG_PASSWORD) | 
+				getFlag(attributes, 
+						UIViewTreeNode.U_SELECTED, 
+						UIViewSnapshot.FLAG_SELECTED);
 		
-		int index = Integer.valueOf(
+		int index = Integer.parseInt(
 				attributes.getValue(
 						UIViewTreeNode.U_INDEX));
 		
-		String uniqueID = createUniqueID(index);
-		
-		String text = attributes.getValue(UIViewTreeNode.U_TEXT);
-		
-		String classReference = attributes.getValue(
-				UIViewTreeNode.U_CLASS_REFERENCE);
-		
-		String packageName = attributes.getValue(UIViewTreeNode.U_PACKAGE);
-		
-		String contentDescription = attributes.getValue(
-				UIViewTreeNode.U_CONTENT_DESC);
-		
-		boolean isCheckable = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_CHECKABLE));
+		parseBounds(attributes.getValue(UIViewTreeNode.U_BOUNDS));
 		
-		boolean isChecked = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_CHECKED));
-		
-		boolean isClickable = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_CLICKABLE));
-		
-		boolean isEnabled = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_ENABLED));
-		
-		boolean isFocusable = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_FOCUSABLE));
-		
-		boolean isFocused = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_FOCUSED));
-		
-		boolean isScrollable = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_SCROLLABLE));
-		
-		boolean isLongClickable = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_LONG_CLICKABLE));
-		
-		boolean isPasswordField = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_PASSWORD));
-		
-		boolean isSelected = Boolean.valueOf(
-				attributes.getValue(
-						UIViewTreeNode.U_SELECTED));
-		
-		String rawBounds = attributes.getValue(UIViewTreeNode.U_BOUNDS);
-		int topLeftX = 0;
-		int topLeftY = 0;
-		int bottomRightX = 0;
-		int bottomRightY = 0;
-		
-		if (rawBounds != null) {
-			rawBounds = rawBounds.substring(1);
-			rawBounds = rawBounds.substring(0, rawBounds.length()-1);
-			String[] boundsData = rawBounds.split("]\\[");
-			String[] topLeft = boundsData[0].split(",");
-			String[] bottomRight = boundsData[1].split(",");
-			
-			topLeftX = Integer.valueOf(topLeft[0]);
-			topLeftY = Integer.valueOf(topLeft[1]);
-			bottomRightX = Integer.valueOf(bottomRight[0]);
-			bottomRightY = Integer.valueOf(bottomRight[1]);
-		}
-		
-		UIViewTreeNode newNode = new UIViewTreeNode(
-				naf, 
+		snapshot.openNode(
 				index, 
-				uniqueID, 
-				text, 
-				classReference, 
-				packageName, 
-				contentDescription, 
-				isCheckable, 
-				isChecked, 
-				isClickable, 
-				isEnabled, 
-				isFocusable, 
-				isFocused, 
-				isScrollable, 
-				isLongClickable, 
-				isPasswordField, 
-				isSelected, 
-				topLeftX,
-				topLeftY,
-				bottomRightX,
-				bottomRightY);
-		
-		if (!parentStack.isEmpty()) {
-			newNode.setParent(parentStack.peek());
-			parentStack.peek().addChild(newNode);
-		}
-		
-		if (rootNode == null) {
-			rootNode = newNode;
-		}
-		
-		parentStack.push(newNode);
+				flags, 
+				attributes.getValue(UIViewTreeNode.U_TEXT), 
+				attributes.getValue(UIViewTreeNode.U_CLASS_REFERENCE), 
+				attributes.getValue(UIViewTreeNode.U_PACKAGE), 
+				attributes.getValue(UIViewTreeNode.U_CONTENT_DESC), 
+				bounds[0], 
+				bounds[1], 
+				bounds[2], 
+				bounds[3]);
 	}
 	
 	// -------------------------------------------------------------------------
@@ -267,45 +225,65 @@ public class UIViewSAXParser extends DefaultHandler {
 	// -------------------------------------------------------------------------
 	
 	/**
-	 * Create a unique ID for a node that does not yet have a parent but will
-	 * be parented to the node on the top of the stack.
-	 * @param index Index value of the new node.
-	 * @return Unique id starting with the index of the oldest parent node and
-	 * including the index value of the new node.
+	 * Get a flag bit from a boolean attribute.
+	 * @param attributes Attributes of the node.
+	 * @param name Name of the attribute.
+	 * @param flag UIViewSnapshot FLAG_ bit for the attribute.
+	 * @return The flag bit if the attribute is true, 0 otherwise.
 	 */
-	private String createUniqueID(int index) {
-		
-		String id = "";
-		
-		if (!parentStack.isEmpty()) {
-			id = createUniqueID(parentStack.peek());
-		}
-		id = id + index;
-		return id;
+	private int getFlag(Attributes attributes, String name, int flag) {
+		return Boolean.parseBoolean(attributes.getValue(name)) ? flag : 0;
 	}
 	
 	/**
-	 * Create a unique ID inclusive of the specified node and that includes
-	 * all of the parents derived from that node.
-	 * @param node Node to start with.
-	 * @return Unique id starting with the index of the oldest parent node.
+	 * Read the bounds of a node, in the form [left,top][right,bottom], into
+	 * the bounds array. Scans the digits in place rather than splitting the
+	 * string, this runs for every node of every dump.
+	 * @param rawBounds Bounds attribute. All bounds are 0 if it is null.
 	 */
-	private String createUniqueID(UIViewTreeNode node) {
+	private void parseBounds(String rawBounds) {
 		
-		String id = "";
+		bounds[0] = 0;
+		bounds[1] = 0;
+		bounds[2] = 0;
+		bounds[3] = 0;
 		
-		if (node.getParent() != null) {
-			id = createUniqueID(node.getParent());
+		if (rawBounds == null) {
+			return;
+		}
+		
+		int value = 0;
+		int count = 0;
+		boolean negative = false;
+		boolean hasDigits = false;
+		
+		for (int i = 0; i < rawBounds.length() && count < bounds.length; i++) {
+			
+			char c = rawBounds.charAt(i);
+			
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				hasDigits = true;
+			} else if (c == '-' && !hasDigits) {
+				negative = true;
+			} else if (hasDigits) {
+				bounds[count++] = negative ? -value : value;
+				value = 0;
+				negative = false;
+				hasDigits = false;
+			}
+		}
+		
+		if (hasDigits && count < bounds.length) {
+			bounds[count] = negative ? -value : value;
 		}
-
-		id = id + node.getIndex();
-		return id;
 	}
 	
 	/**
 	 * Notify the listener that parsing is done. Hand back the root node.
 	 */
 	private void notifyListener() {
-		listener.doneParsingXML(rootNode);
+		snapshot.finish();
+		listener.doneParsingXML(snapshot.getRootNode());
 	}
 }
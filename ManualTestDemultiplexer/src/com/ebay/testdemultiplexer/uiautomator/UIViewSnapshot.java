@@ -0,0 +1,767 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: UIViewSnapshot
+ * 
+ * Description: 
+ * Compact snapshot of one UI hierarchy dump. Instead of an object graph the
+ * nodes are numbered in document order (parents before children, siblings in
+ * order) and every attribute is kept in a parallel primitive array indexed by
+ * that number, the node handle. Flags are packed into one bit set per node,
+ * children are found through an offset table, and the class, package, text and
+ * content description strings are pooled so repeated values are only kept
+ * once. UIViewTreeNode instances are thin views over a handle, created the
+ * first time a node is asked for.
+ *
+ * The UIViewSAXParser fills the snapshot node by node and calls finish() once
+ * the document ends. A finished snapshot is never changed again and can be
+ * read from any thread.
+ *
+ * Every node also gets 64 bit Merkle hashes of its subtree, folded together as
+ * the nodes close: the hash of a subtree covers the node itself and the 
+ * subtree hashes of its children in order. Two subtrees with equal hashes are
+ * taken to be equal, so hierarchies from different dumps or devices compare
+ * in constant time, and a diff only descends where hashes differ. There are 
+ * three kinds, from loosest to strictest:
+ *
+ *   structure - index values and class references, the shape of the views.
+ *   content   - every attribute except the bounds, which vary per device.
+ *   layout    - every attribute including the bounds.
+ */
+
+package com.ebay.testdemultiplexer.uiautomator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class UIViewSnapshot {
+	
+	/** Flag bit : not accessibility friendly. */
+	public static final int FLAG_NAF = 1;
+	
+	/** Flag bit : checkable. */
+	public static final int FLAG_CHECKABLE = 1 << 1;
+	
+	/** Flag bit : checked. */
+	public static final int FLAG_CHECKED = 1 << 2;
+	
+	/** Flag bit : clickable. */
+	public static final int FLAG_CLICKABLE = 1 << 3;
+	
+	/** Flag bit : enabled. */
+	public static final int FLAG_ENABLED = 1 << 4;
+	
+	/** Flag bit : focusable. */
+	public static final int FLAG_FOCUSABLE = 1 << 5;
+	
+	/** Flag bit : focused. */
+	public static final int FLAG_FOCUSED = 1 << 6;
+	
+	/** Flag bit : scrollable. */
+	public static final int FLAG_SCROLLABLE = 1 << 7;
+	
+	/** Flag bit : long clickable. */
+	public static final int FLAG_LONG_CLICKABLE = 1 << 8;
+	
+	/** Flag bit : password field. */
+	public static final int FLAG_PASSWORD = 1 << 9;
+	
+	/** Flag bit : selected. */
+	public static final int FLAG_SELECTED = 1 << 10;
+	
+	/** Handle of nodes that have no parent. */
+	public static final int NO_NODE = -1;
+	
+	/** Initial number of nodes room is made for. */
+	private static final int INITIAL_CAPACITY = 256;
+	
+	/** Hashed into a subtree after its last child, so nesting is kept. */
+	private static final long SUBTREE_END = 0x2545F4914F6CDD1DL;
+	
+	/** Hash of a missing string attribute. */
+	private static final long NULL_STRING_HASH = 0x6A09E667F3BCC909L;
+	
+	/** Number of nodes. */
+	private int size;
+	
+	/** Index value of every node. */
+	private int[] index;
+	
+	/** Handle of the parent of every node, NO_NODE for the root. */
+	private int[] parent;
+	
+	/** Depth of every node, 0 for the root. */
+	private int[] depth;
+	
+	/** Handle of the last node in the subtree of every node. */
+	private int[] subtreeEnd;
+	
+	/** Left edge of every node. */
+	private int[] left;
+	
+	/** Top edge of every node. */
+	private int[] top;
+	
+	/** Right edge of every node. */
+	private int[] right;
+	
+	/** Bottom edge of every node. */
+	private int[] bottom;
+	
+	/** FLAG_ bits of every node. */
+	private short[] flags;
+	
+	/** Pooled text of every node. */
+	private String[] text;
+	
+	/** Pooled class reference of every node. */
+	private String[] classReference;
+	
+	/** Pooled package name of every node. */
+	private String[] packageName;
+	
+	/** Pooled content description of every node. */
+	private String[] contentDescription;
+	
+	/** 
+	 * Offset of the first child of every node in children. The children of
+	 * node i run up to the offset of node i + 1.
+	 */
+	private int[] childStart;
+	
+	/** Handles of the children of every node, node by node. */
+	private int[] children;
+	
+	/** Hash of the path of every node, see UIViewPathIndex. */
+	private int[] pathHash;
+	
+	/** Content hash of every node on its own, bounds and children left out. */
+	private long[] nodeHash;
+	
+	/** 
+	 * Structure hash of the subtree of every node. Holds the hash folded so
+	 * far while the node is open.
+	 */
+	private long[] structureHash;
+	
+	/** Content hash of the subtree of every node, folded like structureHash. */
+	private long[] contentHash;
+	
+	/** Layout hash of the subtree of every node, folded like structureHash. */
+	private long[] layoutHash;
+	
+	/** Views handed out so far, by handle. */
+	private UIViewTreeNode[] views;
+	
+	/** Index of the nodes by path. */
+	private UIViewPathIndex pathIndex;
+	
+	/** String pool used while the snapshot is filled, dropped after. */
+	private HashMap<String, String> stringPool;
+	
+	/** Handle of the node new nodes are added to, NO_NODE at the top. */
+	private int openNode;
+	
+	/** Depth of nested nodes being dropped, see openNode(). */
+	private int droppedDepth;
+	
+	/** True once finish() has been called. */
+	private boolean finished;
+	
+	/**
+	 * Create an empty snapshot, ready to be filled.
+	 */
+	public UIViewSnapshot() {
+		
+		size = 0;
+		index = new int[INITIAL_CAPACITY];
+		parent = new int[INITIAL_CAPACITY];
+		depth = new int[INITIAL_CAPACITY];
+		subtreeEnd = new int[INITIAL_CAPACITY];
+		left = new int[INITIAL_CAPACITY];
+		top = new int[INITIAL_CAPACITY];
+		right = new int[INITIAL_CAPACITY];
+		bottom = new int[INITIAL_CAPACITY];
+		flags = new short[INITIAL_CAPACITY];
+		text = new String[INITIAL_CAPACITY];
+		classReference = new String[INITIAL_CAPACITY];
+		packageName = new String[INITIAL_CAPACITY];
+		contentDescription = new String[INITIAL_CAPACITY];
+		nodeHash = new long[INITIAL_CAPACITY];
+		structureHash = new long[INITIAL_CAPACITY];
+		contentHash = new long[INITIAL_CAPACITY];
+		layoutHash = new long[INITIAL_CAPACITY];
+		stringPool = new HashMap<String, String>();
+		openNode = NO_NODE;
+		droppedDepth = 0;
+		finished = false;
+	}
+	
+	/**
+	 * Add a node as the last child of the open node and open it. Nodes next
+	 * to the first root node are dropped together with their subtree, they 
+	 * can't be reached from the root node.
+	 * @param nodeIndex Index value.
+	 * @param nodeFlags FLAG_ bits.
+	 * @param nodeText Text value.
+	 * @param nodeClassReference Class reference.
+	 * @param nodePackageName Package name for activity.
+	 * @param nodeContentDescription Content description.
+	 * @param nodeLeft Left edge.
+	 * @param nodeTop Top edge.
+	 * @param nodeRight Right edge.
+	 * @param nodeBottom Bottom edge.
+	 */
+	void openNode(
+			int nodeIndex, 
+			int nodeFlags, 
+			String nodeText, 
+			String nodeClassReference, 
+			String nodePackageName, 
+			String nodeContentDescription, 
+			int nodeLeft, 
+			int nodeTop, 
+			int nodeRight, 
+			int nodeBottom) {
+		
+		if (droppedDepth > 0 || (openNode == NO_NODE && size > 0)) {
+			droppedDepth++;
+			return;
+		}
+		
+		if (size == index.length) {
+			grow(size * 2);
+		}
+		
+		int node = size++;
+		
+		index[node] = nodeIndex;
+		parent[node] = openNode;
+		depth[node] = openNode == NO_NODE ? 0 : depth[openNode] + 1;
+		subtreeEnd[node] = node;
+		left[node] = nodeLeft;
+		top[node] = nodeTop;
+		right[node] = nodeRight;
+		bottom[node] = nodeBottom;
+		flags[node] = (short) nodeFlags;
+		text[node] = pool(nodeText);
+		classReference[node] = pool(nodeClassReference);
+		packageName[node] = pool(nodePackageName);
+		contentDescription[node] = pool(nodeContentDescription);
+		
+		// The subtree hashes start from the node itself, the children are
+		// folded in as they close.
+		long classHash = hash(nodeClassReference);
+		long hash = combine(nodeIndex, nodeFlags);
+		hash = combine(hash, hash(nodeText));
+		hash = combine(hash, classHash);
+		hash = combine(hash, hash(nodePackageName));
+		hash = combine(hash, hash(nodeContentDescription));
+		nodeHash[node] = hash;
+		
+		structureHash[node] = combine(nodeIndex, classHash);
+		contentHash[node] = hash;
+		layoutHash[node] = combine(combine(combine(combine(
+				hash, nodeLeft), nodeTop), nodeRight), nodeBottom);
+		
+		openNode = node;
+	}
+	
+	/**
+	 * Close the open node. Nodes added after this are its siblings.
+	 */
+	void closeNode() {
+		
+		if (droppedDepth > 0) {
+			droppedDepth--;
+			return;
+		}
+		
+		if (openNode == NO_NODE) {
+			return;
+		}
+		
+		int node = openNode;
+		
+		subtreeEnd[node] = size - 1;
+		structureHash[node] = combine(structureHash[node], SUBTREE_END);
+		contentHash[node] = combine(contentHash[node], SUBTREE_END);
+		layoutHash[node] = combine(layoutHash[node], SUBTREE_END);
+		
+		openNode = parent[node];
+		
+		if (openNode != NO_NODE) {
+			structureHash[openNode] = 
+					combine(structureHash[openNode], structureHash[node]);
+			contentHash[openNode] = 
+					combine(contentHash[openNode], contentHash[node]);
+			layoutHash[openNode] = 
+					combine(layoutHash[openNode], layoutHash[node]);
+		}
+	}
+	
+	/**
+	 * Close any node still open and build the lookup tables. Nothing can be 
+	 * added afterwards. Calling this again does nothing.
+	 */
+	void finish() {
+		
+		if (finished) {
+			return;
+		}
+		
+		finished = true;
+		
+		while (openNode != NO_NODE) {
+			closeNode();
+		}
+		
+		grow(size);
+		stringPool = null;
+		
+		// Count the children of every node, then fill them in order.
+		childStart = new int[size + 1];
+		children = new int[Math.max(0, size - 1)];
+		
+		for (int node = 1; node < size; node++) {
+			childStart[parent[node] + 1]++;
+		}
+		
+		for (int node = 0; node < size; node++) {
+			childStart[node + 1] += childStart[node];
+		}
+		
+		int[] childFill = new int[size];
+		pathHash = new int[size];
+		
+		for (int node = 0; node < size; node++) {
+			
+			if (parent[node] == NO_NODE) {
+				pathHash[node] = UIViewPathIndex.hashStep(
+						UIViewPathIndex.HASH_SEED, index[node]);
+				continue;
+			}
+			
+			children[childStart[parent[node]] + childFill[parent[node]]++] = 
+					node;
+			pathHash[node] = UIViewPathIndex.hashStep(
+					pathHash[parent[node]], index[node]);
+		}
+		
+		views = new UIViewTreeNode[size];
+		pathIndex = new UIViewPathIndex(this);
+	}
+	
+	/**
+	 * Get the number of nodes.
+	 * @return Node count.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the root node.
+	 * @return Root node, or null if the snapshot is empty.
+	 */
+	public UIViewTreeNode getRootNode() {
+		return size > 0 ? getNode(0) : null;
+	}
+	
+	/**
+	 * Get the view of a node. The same view is returned for a handle every 
+	 * time, so views of one snapshot can be compared by reference.
+	 * @param node Handle of the node.
+	 * @return View of the node.
+	 */
+	public UIViewTreeNode getNode(int node) {
+		
+		UIViewTreeNode view = views[node];
+		
+		if (view == null) {
+			synchronized (views) {
+				view = views[node];
+				if (view == null) {
+					view = new UIViewTreeNode(this, node);
+					views[node] = view;
+				}
+			}
+		}
+		
+		return view;
+	}
+	
+	/**
+	 * Get the index of the nodes by path.
+	 * @return Path index.
+	 */
+	public UIViewPathIndex getPathIndex() {
+		return pathIndex;
+	}
+	
+	/**
+	 * Get the index value of a node.
+	 * @param node Handle of the node.
+	 * @return Index value.
+	 */
+	public int getIndex(int node) {
+		return index[node];
+	}
+	
+	/**
+	 * Get the parent of a node.
+	 * @param node Handle of the node.
+	 * @return Handle of the parent, NO_NODE for the root node.
+	 */
+	public int getParent(int node) {
+		return parent[node];
+	}
+	
+	/**
+	 * Get the depth of a node.
+	 * @param node Handle of the node.
+	 * @return Depth, 0 for the root node.
+	 */
+	public int getDepth(int node) {
+		return depth[node];
+	}
+	
+	/**
+	 * Get the last node in the subtree of a node. The subtree of a node is
+	 * every handle from the node up to this one.
+	 * @param node Handle of the node.
+	 * @return Handle of the last node of the subtree.
+	 */
+	public int getSubtreeEnd(int node) {
+		return subtreeEnd[node];
+	}
+	
+	/**
+	 * See if a node is in the subtree of another one.
+	 * @param node Handle of the node.
+	 * @param ancestor Handle of the possible ancestor.
+	 * @return True if node is ancestor or one of its descendants.
+	 */
+	public boolean isInSubtree(int node, int ancestor) {
+		return node >= ancestor && node <= subtreeEnd[ancestor];
+	}
+	
+	/**
+	 * Get the number of children of a node.
+	 * @param node Handle of the node.
+	 * @return Number of children.
+	 */
+	public int getNumberOfChildren(int node) {
+		return childStart[node + 1] - childStart[node];
+	}
+	
+	/**
+	 * Get a child of a node.
+	 * @param node Handle of the node.
+	 * @param position Position of the child amongst its siblings.
+	 * @return Handle of the child.
+	 */
+	public int getChild(int node, int position) {
+		
+		if (position < 0 || position >= getNumberOfChildren(node)) {
+			throw new IndexOutOfBoundsException(
+					"Child " + position + " of node " + node);
+		}
+		
+		return children[childStart[node] + position];
+	}
+	
+	/**
+	 * Get the index value of a node or one of its parents.
+	 * @param node Handle of the node.
+	 * @param atDepth Depth of the node whose index value is wanted, from 0 for
+	 * the root node up to the depth of the node.
+	 * @return Index value at that depth of the path.
+	 */
+	public int getIndexAtDepth(int node, int atDepth) {
+		
+		for (int i = depth[node]; i > atDepth; i--) {
+			node = parent[node];
+		}
+		
+		return index[node];
+	}
+	
+	/**
+	 * See if two nodes, of the same or of different snapshots, are at the 
+	 * same path.
+	 * @param snapshotA Snapshot of the first node.
+	 * @param nodeA Handle of the first node.
+	 * @param snapshotB Snapshot of the second node.
+	 * @param nodeB Handle of the second node.
+	 * @return True if the index values from the root node down match.
+	 */
+	public static boolean haveSamePath(
+			UIViewSnapshot snapshotA, 
+			int nodeA, 
+			UIViewSnapshot snapshotB, 
+			int nodeB) {
+		
+		if (snapshotA.depth[nodeA] != snapshotB.depth[nodeB]) {
+			return false;
+		}
+		
+		while (nodeA != NO_NODE) {
+			
+			if (snapshotA == snapshotB && nodeA == nodeB) {
+				return true;
+			} else if (snapshotA.index[nodeA] != snapshotB.index[nodeB]) {
+				return false;
+			}
+			
+			nodeA = snapshotA.parent[nodeA];
+			nodeB = snapshotB.parent[nodeB];
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Get the left edge of a node.
+	 * @param node Handle of the node.
+	 * @return Left edge.
+	 */
+	public int getLeft(int node) {
+		return left[node];
+	}
+	
+	/**
+	 * Get the top edge of a node.
+	 * @param node Handle of the node.
+	 * @return Top edge.
+	 */
+	public int getTop(int node) {
+		return top[node];
+	}
+	
+	/**
+	 * Get the right edge of a node.
+	 * @param node Handle of the node.
+	 * @return Right edge.
+	 */
+	public int getRight(int node) {
+		return right[node];
+	}
+	
+	/**
+	 * Get the bottom edge of a node.
+	 * @param node Handle of the node.
+	 * @return Bottom edge.
+	 */
+	public int getBottom(int node) {
+		return bottom[node];
+	}
+	
+	/**
+	 * Get the flags of a node.
+	 * @param node Handle of the node.
+	 * @return FLAG_ bits.
+	 */
+	public int getFlags(int node) {
+		return flags[node];
+	}
+	
+	/**
+	 * See if a node has a flag set.
+	 * @param node Handle of the node.
+	 * @param flag FLAG_ bit to check.
+	 * @return True if the flag is set, false otherwise.
+	 */
+	public boolean hasFlag(int node, int flag) {
+		return (flags[node] & flag) != 0;
+	}
+	
+	/**
+	 * Get the text of a node.
+	 * @param node Handle of the node.
+	 * @return Text value.
+	 */
+	public String getText(int node) {
+		return text[node];
+	}
+	
+	/**
+	 * Get the class reference of a node.
+	 * @param node Handle of the node.
+	 * @return Class reference.
+	 */
+	public String getClassReference(int node) {
+		return classReference[node];
+	}
+	
+	/**
+	 * Get the package name of a node.
+	 * @param node Handle of the node.
+	 * @return Package name.
+	 */
+	public String getPackageName(int node) {
+		return packageName[node];
+	}
+	
+	/**
+	 * Get the content description of a node.
+	 * @param node Handle of the node.
+	 * @return Content description.
+	 */
+	public String getContentDescription(int node) {
+		return contentDescription[node];
+	}
+	
+	/**
+	 * Get the content hash of a node on its own. Covers everything but the
+	 * bounds and the children, the same attributes 
+	 * UIViewTreeManager.areNodesTheSameMinusPosition() looks at.
+	 * @param node Handle of the node.
+	 * @return Node hash.
+	 */
+	public long getNodeHash(int node) {
+		return nodeHash[node];
+	}
+	
+	/**
+	 * Get the structure hash of the subtree of a node.
+	 * @param node Handle of the node.
+	 * @return Hash of the index values and class references of the subtree.
+	 */
+	public long getStructureHash(int node) {
+		return structureHash[node];
+	}
+	
+	/**
+	 * Get the content hash of the subtree of a node.
+	 * @param node Handle of the node.
+	 * @return Hash of every attribute of the subtree except the bounds.
+	 */
+	public long getContentHash(int node) {
+		return contentHash[node];
+	}
+	
+	/**
+	 * Get the layout hash of the subtree of a node.
+	 * @param node Handle of the node.
+	 * @return Hash of every attribute of the subtree.
+	 */
+	public long getLayoutHash(int node) {
+		return layoutHash[node];
+	}
+	
+	/**
+	 * Get the hash of the path of a node.
+	 * @param node Handle of the node.
+	 * @return Path hash.
+	 */
+	int getPathHash(int node) {
+		return pathHash[node];
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Get the pooled instance of a string.
+	 * @param value String to pool. Can be null.
+	 * @return Equal string from the pool.
+	 */
+	private String pool(String value) {
+		
+		if (value == null) {
+			return null;
+		}
+		
+		String pooled = stringPool.get(value);
+		
+		if (pooled == null) {
+			stringPool.put(value, value);
+			pooled = value;
+		}
+		
+		return pooled;
+	}
+	
+	/**
+	 * Hash a string attribute over all of its characters, String.hashCode()
+	 * is too weak to stand in for equality.
+	 * @param value String to hash. Can be null.
+	 * @return 64 bit hash.
+	 */
+	private static long hash(String value) {
+		
+		if (value == null) {
+			return NULL_STRING_HASH;
+		}
+		
+		// FNV-1a
+		long hash = 0xCBF29CE484222325L;
+		
+		for (int i = 0; i < value.length(); i++) {
+			hash = (hash ^ value.charAt(i)) * 0x100000001B3L;
+		}
+		
+		return mix(hash);
+	}
+	
+	/**
+	 * Fold a value into a hash. The order values are folded in matters.
+	 * @param hash Hash so far.
+	 * @param value Value to fold in.
+	 * @return New hash.
+	 */
+	private static long combine(long hash, long value) {
+		return mix(hash * 0x9E3779B97F4A7C15L + value);
+	}
+	
+	/**
+	 * Spread the bits of a hash, the SplitMix64 finalizer.
+	 * @param hash Hash to mix.
+	 * @return Mixed hash.
+	 */
+	private static long mix(long hash) {
+		hash = (hash ^ (hash >>> 30)) * 0xBF58476D1CE4E5B9L;
+		hash = (hash ^ (hash >>> 27)) * 0x94D049BB133111EBL;
+		return hash ^ (hash >>> 31);
+	}
+	
+	/**
+	 * Resize every node array.
+	 * @param capacity New number of nodes room is made for.
+	 */
+	private void grow(int capacity) {
+		index = Arrays.copyOf(index, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		depth = Arrays.copyOf(depth, capacity);
+		subtreeEnd = Arrays.copyOf(subtreeEnd, capacity);
+		left = Arrays.copyOf(left, capacity);
+		top = Arrays.copyOf(top, capacity);
+		right = Arrays.copyOf(right, capacity);
+		bottom = Arrays.copyOf(bottom, capacity);
+		flags = Arrays.copyOf(flags, capacity);
+		text = Arrays.copyOf(text, capacity);
+		classReference = Arrays.copyOf(classReference, capacity);
+		packageName = Arrays.copyOf(packageName, capacity);
+		contentDescription = Arrays.copyOf(contentDescription, capacity);
+		nodeHash = Arrays.copyOf(nodeHash, capacity);
+		structureHash = Arrays.copyOf(structureHash, capacity);
+		contentHash = Arrays.copyOf(contentHash, capacity);
+		layoutHash = Arrays.copyOf(layoutHash, capacity);
+	}
+}
@@ -0,0 +1,325 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: UIViewSpatialIndex
+ * 
+ * Description: 
+ * Uniform grid over the bounds of every node of a UI hierarchy, built once per
+ * dump so clicks can be resolved to views without walking the tree. The node
+ * handles of a UIViewSnapshot are already in drawing order (depth first, 
+ * parents before children, siblings in order), and the bounds, depth and 
+ * subtree range are read straight from its arrays. Each grid cell lists the 
+ * nodes overlapping it in drawing order, so a pick only looks at the nodes of
+ * one cell and allocates nothing.
+ */
+
+package com.ebay.testdemultiplexer.uiautomator;
+
+public class UIViewSpatialIndex {
+	
+	/** Class of list views, whose non clickable rows can be picked. */
+	private static final String LIST_VIEW_CLASS = "android.widget.ListView";
+	
+	/** Max number of grid cells along each axis. */
+	private static final int MAX_GRID_SIZE = 64;
+	
+	/** Snapshot of the hierarchy, node handles are the drawing order. */
+	private UIViewSnapshot snapshot;
+	
+	/** Number of nodes indexed. */
+	private int size;
+	
+	/** Left edge of the grid. */
+	private int gridX;
+	
+	/** Top edge of the grid. */
+	private int gridY;
+	
+	/** Right edge of the grid, inclusive. */
+	private int gridRight;
+	
+	/** Bottom edge of the grid, inclusive. */
+	private int gridBottom;
+	
+	/** Number of cells along each axis. */
+	private int gridSize;
+	
+	/** Width of a cell. */
+	private int cellWidth;
+	
+	/** Height of a cell. */
+	private int cellHeight;
+	
+	/** 
+	 * Offset of the first entry of every cell in cellNodes. The entries of 
+	 * cell i run up to the offset of cell i + 1.
+	 */
+	private int[] cellStart;
+	
+	/** Drawing order of the nodes overlapping each cell, cell by cell. */
+	private int[] cellNodes;
+	
+	/**
+	 * Build the index of a hierarchy.
+	 * @param snapshot Snapshot of the hierarchy.
+	 */
+	public UIViewSpatialIndex(UIViewSnapshot snapshot) {
+		this.snapshot = snapshot;
+		this.size = snapshot.size();
+		buildGrid();
+	}
+	
+	/**
+	 * Get the number of nodes indexed.
+	 * @return Node count.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Get the shallowest clickable view at a location. Only clickable views 
+	 * without a clickable view under the location further down their subtree
+	 * are considered. If that view is a ListView, the deepest view of the 
+	 * list under the location is returned instead, clickable or not, so the
+	 * row clicked can be selected on other devices.
+	 * @param x X axis screen location.
+	 * @param y Y axis screen location.
+	 * @return View at the location, or null if there is none.
+	 */
+	public UIViewTreeNode getViewAtLocation(int x, int y) {
+		
+		if (gridSize == 0 || x < gridX || x > gridRight || 
+				y < gridY || y > gridBottom) {
+			return null;
+		}
+		
+		int cell = (y - gridY) / cellHeight * gridSize + (x - gridX) / cellWidth;
+		int from = cellStart[cell];
+		int to = cellStart[cell + 1];
+		
+		int picked = pickView(from, to, x, y, 0, size - 1, true, false);
+		
+		if (picked < 0) {
+			return null;
+		}
+		
+		if (LIST_VIEW_CLASS.equals(snapshot.getClassReference(picked))) {
+			
+			int row = pickView(
+					from, to, x, y, picked, snapshot.getSubtreeEnd(picked), 
+					false, true);
+			
+			if (row >= 0) {
+				picked = row;
+			}
+		}
+		
+		return snapshot.getNode(picked);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Pick among the views of a cell that contain the location and have no
+	 * view containing it further down their subtree.
+	 * @param from First entry of the cell in cellNodes.
+	 * @param to Entry after the last one of the cell.
+	 * @param x X axis screen location.
+	 * @param y Y axis screen location.
+	 * @param first Drawing order of the first node to consider.
+	 * @param last Drawing order of the last node to consider.
+	 * @param clickableOnly True to only consider clickable views.
+	 * @param deepest True to pick the deepest view, false for the shallowest.
+	 * Ties go to the view drawn first.
+	 * @return Drawing order of the view picked, -1 if there is none.
+	 */
+	private int pickView(
+			int from, 
+			int to, 
+			int x, 
+			int y, 
+			int first, 
+			int last, 
+			boolean clickableOnly, 
+			boolean deepest) {
+		
+		int picked = -1;
+		int candidate = -1;
+		
+		for (int i = from; i < to; i++) {
+			
+			int node = cellNodes[i];
+			
+			if (node < first) {
+				continue;
+			} else if (node > last) {
+				break;
+			}
+			
+			if ((clickableOnly && 
+					!snapshot.hasFlag(node, UIViewSnapshot.FLAG_CLICKABLE)) || 
+					!contains(node, x, y)) {
+				continue;
+			}
+			
+			// Nodes come in drawing order, so if the next match is outside the
+			// subtree of the candidate, nothing in that subtree matches.
+			if (candidate >= 0 && node > snapshot.getSubtreeEnd(candidate)) {
+				picked = choose(picked, candidate, deepest);
+			}
+			
+			candidate = node;
+		}
+		
+		if (candidate >= 0) {
+			picked = choose(picked, candidate, deepest);
+		}
+		
+		return picked;
+	}
+	
+	/**
+	 * Choose between the view picked so far and another one.
+	 * @param picked View picked so far, -1 if none.
+	 * @param candidate View to compare with.
+	 * @param deepest True to prefer the deeper view, false the shallower.
+	 * @return The view to keep. Ties keep the view picked so far.
+	 */
+	private int choose(int picked, int candidate, boolean deepest) {
+		
+		if (picked < 0) {
+			return candidate;
+		}
+		
+		int candidateDepth = snapshot.getDepth(candidate);
+		int pickedDepth = snapshot.getDepth(picked);
+		
+		if (deepest) {
+			return candidateDepth > pickedDepth ? candidate : picked;
+		}
+		
+		return candidateDepth < pickedDepth ? candidate : picked;
+	}
+	
+	/**
+	 * Check whether a node contains a location.
+	 * @param node Drawing order of the node.
+	 * @param x X axis screen location.
+	 * @param y Y axis screen location.
+	 * @return True if the location is within its bounds, edges included.
+	 */
+	private boolean contains(int node, int x, int y) {
+		return x >= snapshot.getLeft(node) && x <= snapshot.getRight(node) && 
+				y >= snapshot.getTop(node) && y <= snapshot.getBottom(node);
+	}
+	
+	/**
+	 * Size the grid to the bounds of all nodes and list the nodes of every
+	 * cell. Nodes without an area are left out, they contain no location.
+	 */
+	private void buildGrid() {
+		
+		gridX = Integer.MAX_VALUE;
+		gridY = Integer.MAX_VALUE;
+		gridRight = Integer.MIN_VALUE;
+		gridBottom = Integer.MIN_VALUE;
+		
+		for (int i = 0; i < size; i++) {
+			if (hasArea(i)) {
+				gridX = Math.min(gridX, snapshot.getLeft(i));
+				gridY = Math.min(gridY, snapshot.getTop(i));
+				gridRight = Math.max(gridRight, snapshot.getRight(i));
+				gridBottom = Math.max(gridBottom, snapshot.getBottom(i));
+			}
+		}
+		
+		if (gridX > gridRight) {
+			
+			// Nothing can be picked.
+			gridSize = 0;
+			return;
+		}
+		
+		// About one node per cell.
+		gridSize = Math.max(1, Math.min(
+				MAX_GRID_SIZE, (int) Math.ceil(Math.sqrt(size))));
+		cellWidth = (gridRight - gridX) / gridSize + 1;
+		cellHeight = (gridBottom - gridY) / gridSize + 1;
+		
+		// Count the entries of every cell, then fill them in drawing order.
+		cellStart = new int[gridSize * gridSize + 1];
+		
+		for (int i = 0; i < size; i++) {
+			if (hasArea(i)) {
+				forEachCell(i, null);
+			}
+		}
+		
+		for (int cell = 0; cell < gridSize * gridSize; cell++) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+		
+		cellNodes = new int[cellStart[gridSize * gridSize]];
+		int[] cellFill = new int[gridSize * gridSize];
+		
+		for (int i = 0; i < size; i++) {
+			if (hasArea(i)) {
+				forEachCell(i, cellFill);
+			}
+		}
+	}
+	
+	/**
+	 * Visit the cells a node overlaps. Counts the node in every cell, or adds
+	 * it to every cell once the counts are turned into offsets.
+	 * @param node Drawing order of the node.
+	 * @param cellFill Entries added to every cell so far, null to count.
+	 */
+	private void forEachCell(int node, int[] cellFill) {
+		
+		int firstColumn = (snapshot.getLeft(node) - gridX) / cellWidth;
+		int lastColumn = (snapshot.getRight(node) - gridX) / cellWidth;
+		int firstRow = (snapshot.getTop(node) - gridY) / cellHeight;
+		int lastRow = (snapshot.getBottom(node) - gridY) / cellHeight;
+		
+		for (int row = firstRow; row <= lastRow; row++) {
+			for (int column = firstColumn; column <= lastColumn; column++) {
+				
+				int cell = row * gridSize + column;
+				
+				if (cellFill == null) {
+					cellStart[cell + 1]++;
+				} else {
+					cellNodes[cellStart[cell] + cellFill[cell]++] = node;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Check whether a node can contain any location.
+	 * @param node Drawing order of the node.
+	 * @return True if its bounds are not inverted.
+	 */
+	private boolean hasArea(int node) {
+		return snapshot.getRight(node) >= snapshot.getLeft(node) && 
+				snapshot.getBottom(node) >= snapshot.getTop(node);
+	}
+}
@@ -30,7 +30,9 @@ package com.ebay.testdemultiplexer.uiautomator;
 
 import java.awt.Point;
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.ebay.testdemultiplexer.connection.DeviceExecutionBackend;
 import com.ebay.testdemultiplexer.connection.TestDevice;
 
 public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
@@ -57,6 +59,19 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	 */
 	private boolean isRootNodeReady;
 	
+	/** 
+	 * Incremented every time the device UI may have changed. The tree is 
+	 * fresh when it was dumped at the current generation. Any number of 
+	 * invalidations between two reads cost a single dump.
+	 */
+	private long staleGeneration;
+	
+	/** Generation the current root node was dumped at. */
+	private long freshGeneration;
+	
+	/** Generation the dump in progress was started at. */
+	private long dumpGeneration;
+	
 	/** 
 	 * Reference to the TestDevice all UIAutomation calls should be executed
 	 * against.
@@ -68,8 +83,23 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	 */
 	private boolean supportsUIAutomation;
 	
-	/** List of nodes used for picking analysis See getViewAtLocation(). */
-	ArrayList<UIViewTreeNode> pickedNodes = new ArrayList<UIViewTreeNode>();
+	/** How the device dumps its UI hierarchy, null until it is probed. */
+	private volatile ThreadedUIViewTreeParser.DumpMode dumpMode = null;
+	
+	/** Streamed dumps that failed in a row since the last one that worked. */
+	private AtomicInteger streamFailures = new AtomicInteger(0);
+	
+	/** 
+	 * Spatial index of the current root node, used for picking. See 
+	 * getViewAtLocation(). Rebuilt with every dump.
+	 */
+	private UIViewSpatialIndex spatialIndex;
+	
+	/** 
+	 * Path index of the current root node, used to find nodes by unique ID.
+	 * Replaced with every dump.
+	 */
+	private UIViewPathIndex pathIndex;
 	
 	/**
 	 * Create a new UIViewTreeManager.
@@ -77,12 +107,45 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	public UIViewTreeManager(TestDevice device) {
 		this.device = device;
 		rootNode = null;
-		isRootNodeReady = false;
+		isRootNodeReady = true;
+		staleGeneration = 1;
+		freshGeneration = 0;
 		occlusionNodeList = new ArrayList<UIViewTreeNode>();
 //		supportsUIAutomation = deviceSupportsUIAutomation(); DISABLED UIAUTOMATION UNIVERSALLY. UNTIL ISSUES ARE RESOLVED THIS IS THE BEST FIX.
 		supportsUIAutomation = false;
 	}
 	
+	/**
+	 * Get how the device dumps its UI hierarchy.
+	 * @return Cached dump mode, null if the device has not been probed yet.
+	 */
+	ThreadedUIViewTreeParser.DumpMode getDumpMode() {
+		return dumpMode;
+	}
+	
+	/**
+	 * Cache how the device dumps its UI hierarchy, so it is only probed once.
+	 * @param dumpMode Dump mode of the device.
+	 */
+	void setDumpMode(ThreadedUIViewTreeParser.DumpMode dumpMode) {
+		this.dumpMode = dumpMode;
+	}
+	
+	/**
+	 * Count a streamed dump that sent no xml.
+	 * @return Number of streamed dumps that failed in a row.
+	 */
+	int streamFailed() {
+		return streamFailures.incrementAndGet();
+	}
+	
+	/**
+	 * Record a streamed dump that worked, so earlier failures are forgotten.
+	 */
+	void streamSucceeded() {
+		streamFailures.set(0);
+	}
+	
 	/**
 	 * Get the click location in UiAutomation coordinates.
 	 * @param scaleX Horizontal percentage of original click.
@@ -103,11 +166,22 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				(int)(rootNode.getHeight()*scaleY));
 	}
 	
+	/**
+	 * Mark the UI hierarchy as out of date. No dump is made until the tree is
+	 * actually read, so commands that never need the tree pay nothing for it.
+	 * Call this after any input that may have changed the device UI.
+	 */
+	public synchronized void invalidateUIHierarchy() {
+		staleGeneration++;
+	}
+	
 	/**
 	 * Dump the UI hierarchy using UIAutomation. Parse the XML into a data
 	 * structure for future reference. Do this on a separate thread as not to
 	 * block operations. Call waitForNewRootNode() to block until done. Any
-	 * calls to getRootNode() will automatically block until done.
+	 * calls to getRootNode() will automatically block until done. If a dump
+	 * is already running no new one is started; the tree stays stale and is
+	 * dumped again when next read.
 	 * 
 	 * If UIAutomation is not supported it just returns.
 	 */
@@ -117,12 +191,10 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			return;
 		}
 		
-		isRootNodeReady = false;
-		rootNode = null;
-		
-		ThreadedUIViewTreeParser parser = 
-				new ThreadedUIViewTreeParser(device, this);
-		parser.start();
+		synchronized (this) {
+			staleGeneration++;
+			startDump();
+		}
 	}
 	
 	/**
@@ -136,12 +208,15 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			return;
 		}
 		
-		while (!this.isRootNodeReady()) {
-			try {
-				Thread.sleep(1000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		synchronized (this) {
+			while (!isRootNodeReady) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					Thread.currentThread().interrupt();
+					return;
+				}
 			}
 		}
 	}
@@ -156,6 +231,14 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		return isRootNodeReady;
 	}
 	
+	/**
+	 * Check if the tree reflects the latest device UI. 
+	 * @return True if no input has been sent since the last completed dump.
+	 */
+	public synchronized boolean isUIHierarchyFresh() {
+		return isRootNodeReady && freshGeneration == staleGeneration;
+	}
+	
 	/**
 	 * Print the full UI Hierarchy to stdout. Nothing is printed if UIAutomation
 	 * is not supported.
@@ -177,8 +260,24 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			return null;
 		}
 		
-		waitForNewRootNode();
-		return rootNode;
+		// Dump on demand until the tree has caught up with all of the input
+		// sent so far.
+		synchronized (this) {
+			while (freshGeneration != staleGeneration) {
+				
+				startDump();
+				
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			
+			return rootNode;
+		}
 	}
 	
 	/**
@@ -204,11 +303,8 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		}
 
 		if (isViewOccluded(node, getRootNode())) {
-			waitForNewRootNode();
 			unOccludeView(node);
-			waitForNewRootNode();
-			dumpUIHierarchy();
-			waitForNewRootNode();
+			invalidateUIHierarchy();
 		}
 		
 		node = getNodeAtID(id);
@@ -239,45 +335,20 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			return null;
 		}
 		
-		pickedNodes.clear();
-		UIViewTreeNode topNode = null;
-		getClickableViewsAtLocation(getRootNode(), xPos, yPos);
+		UIViewSpatialIndex index;
 		
-		if (pickedNodes.size() > 0) {
-			topNode = pickedNodes.get(0);
+		// The index is replaced together with the root node it was built 
+		// from.
+		synchronized (this) {
+			getRootNode();
+			index = spatialIndex;
 		}
 		
-		// Find the shallowest node by unique ID length.
-		for (int i = 1; i < pickedNodes.size(); i++) {
-			if (pickedNodes.get(i).getUniqueID().length() < 
-					topNode.getUniqueID().length()) {
-				topNode = pickedNodes.get(i);
-			}
-		}
-		
-		// If the topNode class reference is android.widget.ListView, then
-		// return the actual child node clicked, even though it isn't clickable.
-		// We do this so we can correctly select the location in the list view.
-		if (topNode != null &&
-				topNode.getClassReference().equals("android.widget.ListView")) {
-			
-			pickedNodes.clear();
-			getAllViewsAtLocation(topNode, xPos, yPos);
-			
-			if (pickedNodes.size() > 0) {
-				topNode = pickedNodes.get(0);
-			}
-			
-			// Find the deepest node by unique ID length.
-			for (int i = 1; i < pickedNodes.size(); i++) {
-				if (pickedNodes.get(i).getUniqueID().length() > 
-						topNode.getUniqueID().length()) {
-					topNode = pickedNodes.get(i);
-				}
-			}
+		if (index == null) {
+			return null;
 		}
 		
-		return topNode;
+		return index.getViewAtLocation(xPos, yPos);
 	}
 	
 	/**
@@ -328,35 +399,23 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	}
 	
 	/**
-	 * Determine if two trees reference the same tree. Compares both node's 
-	 * addresses and all of their children to determine if the trees are the 
-	 * same by address.
-	 * @param treeOne First tree to compare.
-	 * @param treeTwo Second tree to compare.
-	 * @return True if they are the same, false otherwise or if UIAutomation
-	 * is not supported.
+	 * Determine if two trees are the same. Compares the layout hashes of both
+	 * trees, which cover every property of every node in them, so the cost
+	 * does not depend on the size of the trees.
+	 * @param treeOne First tree to compare. Can be null.
+	 * @param treeTwo Second tree to compare. Can be null.
+	 * @return True if they are the same, false otherwise.
 	 */
 	public boolean areSameHierarchy(
 			UIViewTreeNode treeOne, 
 			UIViewTreeNode treeTwo) {
 	
-		if (!treeOne.equals(treeTwo)) {
-			return false;
-		} else if (treeOne.getNumberOfChildren() != 
-				treeTwo.getNumberOfChildren()) {
-			return false;
+		if (treeOne == null || treeTwo == null) {
+			return treeOne == treeTwo;
 		}
 		
-		for (int i = 0; i < treeOne.getNumberOfChildren(); i++) {
-			
-			if (!areSameHierarchy(
-					treeOne.getChildAtIndex(i), 
-					treeTwo.getChildAtIndex(i))) {
-				return false;
-			}
-		}
-		
-		return true;
+		return treeOne.hasSamePath(treeTwo) && 
+				treeOne.getLayoutHash() == treeTwo.getLayoutHash();
 	}
 	
 	/**
@@ -376,43 +435,41 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			return false;
 		}
 		
-		if (!nodeA.getUniqueID().equals(nodeB.getUniqueID())) {
-			return false;
-		} else if (nodeA.getIndex() != nodeB.getIndex()) {
-			return false;
-		} else if (nodeA.getIsCheckable() != nodeB.getIsCheckable()) {
-			return false;
-		} else if (nodeA.getIsChecked() != nodeB.getIsChecked()) {
-			return false;
-		} else if (nodeA.getIsClickable() != nodeB.getIsClickable()) {
-			return false;
-		} else if (nodeA.getIsEnabled() != nodeB.getIsEnabled()) {
-			return false;
-		} else if (nodeA.getIsFocusable() != nodeB.getIsFocusable()) {
-			return false;
-		} else if (nodeA.getIsFocused() != nodeB.getIsFocused()) {
-			return false;
-		} else if (nodeA.getIsLongClickable() != nodeB.getIsLongClickable()) {
-			return false;
-		} else if (nodeA.getIsPasswordField() != nodeB.getIsPasswordField()) {
-			return false;
-		} else if (nodeA.getIsScrollable() != nodeB.getIsScrollable()) {
-			return false;
-		} else if (nodeA.getIsSelected() != nodeB.getIsSelected()) {
-			return false;
-		} else if (nodeA.getNAF() != nodeB.getNAF()) {
-			return false;
-		} else if (!nodeA.getText().equals(nodeB.getText())) {
-			return false;
-		} else if (!nodeA.getClassReference().equals(nodeB.getClassReference())) {
-			return false;
-		} else if (!nodeA.getPackageName().equals(nodeB.getPackageName())) {
-			return false;
-		} else if (!nodeA.getContentDescription().equals(nodeB.getContentDescription())) {
-			return false;
+		return nodeA.hasSamePath(nodeB) && 
+				nodeA.getNodeHash() == nodeB.getNodeHash();
+	}
+	
+	/**
+	 * Find what changed between two dumps of a hierarchy, or between the 
+	 * hierarchies of two devices. Only subtrees whose hashes differ are 
+	 * descended into, so the cost grows with the size of the change rather
+	 * than the size of the trees.
+	 * @param before Root of the earlier or reference tree. Can be null.
+	 * @param after Root of the later or compared tree. Can be null.
+	 * @param ignorePosition True to ignore bounds, for comparing devices with
+	 * different screens. False to also catch views that only moved.
+	 * @return Roots of the smallest subtrees of the after tree that differ,
+	 * empty if nothing changed.
+	 */
+	public ArrayList<UIViewTreeNode> getChangedViews(
+			UIViewTreeNode before, 
+			UIViewTreeNode after, 
+			boolean ignorePosition) {
+		
+		ArrayList<UIViewTreeNode> changedViews = 
+				new ArrayList<UIViewTreeNode>();
+		
+		if (after == null) {
+			return changedViews;
 		}
 		
-		return true;
+		if (before == null || !before.hasSamePath(after)) {
+			changedViews.add(after);
+			return changedViews;
+		}
+		
+		collectChangedViews(before, after, ignorePosition, changedViews);
+		return changedViews;
 	}
 
  	// -------------------------------------------------------------------------
@@ -423,17 +480,97 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	 * @see com.ebay.testdemultiplexer.util.ThreadedUIViewTreeParserListener#doneParsingTreeView(com.ebay.testdemultiplexer.util.UIViewTreeNode, java.lang.String)
 	 */
 	@Override
-	public void doneParsingTreeView(
+	public synchronized void doneParsingTreeView(
 			UIViewTreeNode rootNode,
 			String deviceSerialNo) {
 		isRootNodeReady = true;
+		freshGeneration = dumpGeneration;
 		this.rootNode = rootNode;
+		
+		if (rootNode == null) {
+			this.spatialIndex = null;
+			this.pathIndex = null;
+		} else {
+			UIViewSnapshot snapshot = rootNode.getSnapshot();
+			this.spatialIndex = new UIViewSpatialIndex(snapshot);
+			this.pathIndex = snapshot.getPathIndex();
+		}
+		notifyAll();
 	}
 	
 	// -------------------------------------------------------------------------
 	// Private methods
 	// -------------------------------------------------------------------------
 	
+	/**
+	 * Add the smallest subtrees of after that differ from before. Both nodes
+	 * must be at the same path.
+	 * @param before Node of the earlier or reference tree.
+	 * @param after Node of the later or compared tree.
+	 * @param ignorePosition True to ignore bounds.
+	 * @param changedViews List to add the roots of changed subtrees to.
+	 */
+	private void collectChangedViews(
+			UIViewTreeNode before, 
+			UIViewTreeNode after, 
+			boolean ignorePosition, 
+			ArrayList<UIViewTreeNode> changedViews) {
+		
+		if (ignorePosition) {
+			if (before.getContentHash() == after.getContentHash()) {
+				return;
+			}
+		} else if (before.getLayoutHash() == after.getLayoutHash()) {
+			return;
+		}
+		
+		// If the node itself changed, or its children can't be paired up, 
+		// the whole subtree is reported.
+		boolean nodeChanged = before.getNodeHash() != after.getNodeHash() || 
+				(!ignorePosition && (before.getLeft() != after.getLeft() || 
+						before.getTop() != after.getTop() || 
+						before.getRight() != after.getRight() || 
+						before.getBottom() != after.getBottom()));
+		
+		if (nodeChanged || 
+				before.getNumberOfChildren() != after.getNumberOfChildren()) {
+			changedViews.add(after);
+			return;
+		}
+		
+		for (int i = 0; i < after.getNumberOfChildren(); i++) {
+			
+			UIViewTreeNode beforeChild = before.getChildAtIndex(i);
+			UIViewTreeNode afterChild = after.getChildAtIndex(i);
+			
+			if (beforeChild.getIndex() != afterChild.getIndex()) {
+				changedViews.add(afterChild);
+			} else {
+				collectChangedViews(
+						beforeChild, afterChild, ignorePosition, changedViews);
+			}
+		}
+	}
+	
+	/**
+	 * Start a dump for the current generation unless one is already running.
+	 * Caller must hold the lock on this instance.
+	 */
+	private void startDump() {
+		
+		if (!isRootNodeReady) {
+			return;
+		}
+		
+		isRootNodeReady = false;
+		dumpGeneration = staleGeneration;
+		
+		ThreadedUIViewTreeParser parser = 
+				new ThreadedUIViewTreeParser(device, this);
+		DeviceExecutionBackend.getInstance().newThread(
+				parser, "UIDump-" + device.getSerialNumber()).start();
+	}
+	
 	/**
 	 * Test if the device supports UIAutomation. UIAutomation is available only
 	 * on API level 16+.
@@ -503,34 +640,40 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	private void doOcclusionCheck(
 			UIViewTreeNode targetNode, UIViewTreeNode possibleOcclusionNode) {
 		
-		// Check for the possible occlusion node's existence in the direct
-		// parent or child path. If it is not, then consider it for occlusion
-		// testing.
-		if (!isChildDecendentOfParent(targetNode, possibleOcclusionNode) &&
-				!isChildDecendentOfParent(possibleOcclusionNode, targetNode)) {
-			
-			Point targetNodeTopLeft = targetNode.getTopLeftBounds();
-			Point targetNodeBottomRight = targetNode.getBottomRightBounds();
+		UIViewSnapshot snapshot = possibleOcclusionNode.getSnapshot();
+		int target = targetNode.getHandle();
+		boolean sameSnapshot = targetNode.getSnapshot() == snapshot;
+		
+		int targetLeft = targetNode.getLeft();
+		int targetTop = targetNode.getTop();
+		int targetRight = targetNode.getRight();
+		int targetBottom = targetNode.getBottom();
+		
+		// Handles are in document order, so the subtree of the possible
+		// occlusion node is a single range.
+		int first = possibleOcclusionNode.getHandle();
+		int last = snapshot.getSubtreeEnd(first);
+		
+		for (int node = first; node <= last; node++) {
 			
-			Point occlusionTestTopLeft = 
-					possibleOcclusionNode.getTopLeftBounds();
-			Point occlusionTestBottomRight = 
-					possibleOcclusionNode.getBottomRightBounds();
+			// Check for the possible occlusion node's existence in the direct
+			// parent or child path. If it is not, then consider it for 
+			// occlusion testing.
+			if (sameSnapshot && (snapshot.isInSubtree(target, node) || 
+					snapshot.isInSubtree(node, target))) {
+				continue;
+			}
 			
 			// If all of these are true, then we are intersecting.
 			// See this cool demo to understand what this is doing:
 			// http://silentmatt.com/rectangle-intersection/
-			if (targetNodeTopLeft.x < occlusionTestBottomRight.x &&
-					targetNodeBottomRight.x > occlusionTestTopLeft.x &&
-					targetNodeTopLeft.y < occlusionTestBottomRight.y &&
-					targetNodeBottomRight.y > occlusionTestTopLeft.y) {
-				occlusionNodeList.add(possibleOcclusionNode);
+			if (targetLeft < snapshot.getRight(node) && 
+					targetRight > snapshot.getLeft(node) && 
+					targetTop < snapshot.getBottom(node) && 
+					targetBottom > snapshot.getTop(node)) {
+				occlusionNodeList.add(snapshot.getNode(node));
 			}
 		}
-		
-		for (int i = 0; i < possibleOcclusionNode.getNumberOfChildren(); i++) {
-			doOcclusionCheck(targetNode, possibleOcclusionNode.getChildAtIndex(i));
-		}
 	}
 	
 	/**
@@ -552,20 +695,17 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		
 		for (int x = 0; x < occlusionNodeList.size(); x++) {
 			
-			int[] nodeToScrollIndexArray = 
-					convertIdToIndexArray(nodeToScroll.getUniqueID());
-			int[] stationaryNodeIndexArray = 
-					convertIdToIndexArray(
-							occlusionNodeList.get(x).getUniqueID());
+			UIViewTreeNode stationaryNode = occlusionNodeList.get(x);
 			
 			int sizeLimit = Math.min(
-					nodeToScrollIndexArray.length, 
-					stationaryNodeIndexArray.length);
+					nodeToScroll.getDepth(), 
+					stationaryNode.getDepth()) + 1;
 			
 			int firstUnmatchedIndex = -1;
 			
 			for (int i = 0; i < sizeLimit; i++) {
-				if (nodeToScrollIndexArray[i] != stationaryNodeIndexArray[i]) {
+				if (nodeToScroll.getIndexAtDepth(i) != 
+						stationaryNode.getIndexAtDepth(i)) {
 					firstUnmatchedIndex = i;
 					break;
 				}
@@ -576,26 +716,25 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				continue;
 			}
 			
-			// Descend the hierarchy to the firstUnmatchedIndex, and then start
-			// checking for scrollable nodes. Start at index 1 because we are
-			// starting with the root node.
-			UIViewTreeNode possibleScrollNode = getRootNode();
+			// Walk up the parents of the node to the firstUnmatchedIndex, and
+			// keep the shallowest scrollable one. The root node is never a
+			// candidate.
+			UIViewTreeNode scrollCandidate = null;
+			UIViewTreeNode possibleScrollNode = nodeToScroll.getParent();
+			int minDepth = Math.max(1, firstUnmatchedIndex);
 			
-			for (int i = 1; i < nodeToScrollIndexArray.length; i++) {
-				possibleScrollNode = possibleScrollNode.getChildWithIndex(
-						nodeToScrollIndexArray[i]);
+			while (possibleScrollNode != null && 
+					possibleScrollNode.getDepth() >= minDepth) {
 				
-				if (possibleScrollNode == null) {
-					break;
+				if (possibleScrollNode.getIsScrollable()) {
+					scrollCandidate = possibleScrollNode;
 				}
 				
-				if (i >= firstUnmatchedIndex) {
-					if (possibleScrollNode.getIsScrollable() && 
-							nodeToScroll != possibleScrollNode) {
-						scrollNodeCandidateList.add(possibleScrollNode);
-						break;
-					}
-				}
+				possibleScrollNode = possibleScrollNode.getParent();
+			}
+			
+			if (scrollCandidate != null) {
+				scrollNodeCandidateList.add(scrollCandidate);
 			}
 		}
 		
@@ -608,8 +747,8 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		UIViewTreeNode scrollNode = scrollNodeCandidateList.get(0);
 		
 		for (int i = 1; i < scrollNodeCandidateList.size(); i++) {
-			if (scrollNode.getUniqueID().length() > 
-				scrollNodeCandidateList.get(i).getUniqueID().length()) {
+			if (scrollNode.getDepth() > 
+				scrollNodeCandidateList.get(i).getDepth()) {
 				scrollNode = scrollNodeCandidateList.get(i);
 			}
 		}
@@ -698,23 +837,15 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			device.getIChimpDevice().drag(scrollViewCenter.x, scrollViewCenter.y, scrollViewCenter.x+dragDistance, scrollViewCenter.y, 20, DRAG_DURATION);
 		}
 		
-		dumpUIHierarchy();
-		waitForNewRootNode();
+		invalidateUIHierarchy();
 		
-		int[] indexArray = convertIdToIndexArray(node.getUniqueID());
-		UIViewTreeNode tmpNode = getRootNode();
+		UIViewPathIndex index = getCurrentPathIndex();
 		
-		// Start at one, because, we are already at the root node.
-		for (int i = 1; i < indexArray.length; i++) {
-			
-			if (tmpNode == null) {
-				return null;
-			}
-			
-			tmpNode = tmpNode.getChildWithIndex(indexArray[i]);
+		if (index == null) {
+			return null;
 		}
 		
-		return tmpNode;
+		return index.getNode(node);
 	}
 	
 	/**
@@ -748,39 +879,39 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		// 2) Child of shared scrolling view (everything in that scroll view
 		// will move with this node).
 		// 3) Same node as targetNode (by reference address)
+		// The scroll parent only depends on the occlusion list, so it is 
+		// looked up once for the whole subtree.
 		UIViewTreeNode targetScrollParent = 
 				getScrollableNodeBelowCommonParent(targetNode);
 		
-		if (!isChildDecendentOfParent(targetNode, possibleOcclusionNode) &&
-				!isChildDecendentOfParent(possibleOcclusionNode, targetScrollParent) &&
-				possibleOcclusionNode != targetNode) {
-
-			Point occlusionTestTopLeft = 
-					possibleOcclusionNode.getTopLeftBounds();
-			Point occlusionTestBottomRight = 
-					possibleOcclusionNode.getBottomRightBounds();
+		UIViewSnapshot snapshot = possibleOcclusionNode.getSnapshot();
+		int first = possibleOcclusionNode.getHandle();
+		int last = snapshot.getSubtreeEnd(first);
+		
+		for (int node = first; node <= last; node++) {
+			
+			UIViewTreeNode possibleOcclusion = snapshot.getNode(node);
+			
+			if (isChildDecendentOfParent(targetNode, possibleOcclusion) || 
+					isChildDecendentOfParent(possibleOcclusion, targetScrollParent)) {
+				continue;
+			}
+			
+			int start;
+			int end;
 			
 			if (verticalOrientation) {
-				for (int x = occlusionTestTopLeft.y; x < occlusionTestBottomRight.y; x++) {
-					if (x < openLocationArray.length && x >= 0) {
-						openLocationArray[x] = false;
-					}
-				}
+				start = snapshot.getTop(node);
+				end = snapshot.getBottom(node);
 			} else {
-				for (int x = occlusionTestTopLeft.x; x < occlusionTestBottomRight.x; x++) {
-					if (x < openLocationArray.length && x >= 0) {
-						openLocationArray[x] = false;
-					}
-				}
+				start = snapshot.getLeft(node);
+				end = snapshot.getRight(node);
+			}
+			
+			for (int x = Math.max(start, 0); 
+					x < end && x < openLocationArray.length; x++) {
+				openLocationArray[x] = false;
 			}
-		}
-		
-		for (int i = 0; i < possibleOcclusionNode.getNumberOfChildren(); i++) {
-			fillOpenLocationArray(
-					targetNode, 
-					possibleOcclusionNode.getChildAtIndex(i), 
-					verticalOrientation, 
-					openLocationArray);
 		}
 	}
 	
@@ -791,105 +922,24 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	 * @return True if child is a descendant of the parent, false otherwise.
 	 */
 	private boolean isChildDecendentOfParent(UIViewTreeNode child, UIViewTreeNode parent) {
-		
-		if (child == parent) {
-			return true;
-		}
-		
-		while (child.getParent() != null) {
-			if (child.getParent() == parent) {
-				return true;
-			}
-			child = child.getParent();
-		}
-		
-		return false;
+		return child.isDescendantOf(parent);
 	}
 	
 	/**
-	 * Recursive operation to find the child nodes that contains the
-	 * specified click location. Any node that contains the click location and
-	 * doesn't have any children that contain the click location are included.
-	 * Only nodes that are clickable will be returned.
-	 * @param node Node to start search from.
-	 * @param x X axis position.
-	 * @param y Y axis position.
-	 * @return Recursive state flag.
+	 * Get the path index of the current root node, dumping the hierarchy
+	 * first if it is stale.
+	 * @return Path index, or null if there is no hierarchy.
 	 */
-	private boolean getClickableViewsAtLocation(UIViewTreeNode node, int x, int y){
+	private UIViewPathIndex getCurrentPathIndex() {
 		
-		boolean childMatch = false;
-		
-		for (int i = 0; i < node.getNumberOfChildren(); i++) {
-			childMatch |= getClickableViewsAtLocation(node.getChildAtIndex(i), x, y);
-		}
-		
-		if (childMatch) {
-			return true;
-		}
-		
-		Point topLeft = node.getTopLeftBounds();
-		Point bottomRight = node.getBottomRightBounds();
-		
-		if (x >= topLeft.x && x <= bottomRight.x && 
-				y >= topLeft.y && y <= bottomRight.y &&
-				node.getIsClickable()) {
-			pickedNodes.add(node);			
-			return true;
-		} else {
-			return false;
+		// The index is replaced together with the root node it was built 
+		// from.
+		synchronized (this) {
+			getRootNode();
+			return pathIndex;
 		}
 	}
 	
-	/**
-	 * Get all of the nodes that contain the click location.
-	 * @param node Node to start search from.
-	 * @param x X axis position
-	 * @param y Y axis position
-	 * @return Recursive state flag.
-	 */
-	private boolean getAllViewsAtLocation(UIViewTreeNode node, int x, int y){
-		
-		boolean childMatch = false;
-		
-		for (int i = 0; i < node.getNumberOfChildren(); i++) {
-			childMatch |= getAllViewsAtLocation(node.getChildAtIndex(i), x, y);
-		}
-		
-		if (childMatch) {
-			return true;
-		}
-		
-		Point topLeft = node.getTopLeftBounds();
-		Point bottomRight = node.getBottomRightBounds();
-		
-		if (x >= topLeft.x && x <= bottomRight.x && 
-				y >= topLeft.y && y <= bottomRight.y) {
-			pickedNodes.add(node);			
-			return true;
-		} else {
-			return false;
-		}
-	}
-	
-	/**
-	 * Convert the ID string into the index array that can be followed to 
-	 * quickly get to a specific node.
-	 * @param id ID string to convert.
-	 * @return Index array.
-	 */
-	private int[] convertIdToIndexArray(String id) {
-		
-		int[] indexArray = new int[id.length()];
-		
-		for (int i = 0; i < indexArray.length; i++) {
-			indexArray[i] = Integer.valueOf(id.substring(0, 1));
-			id = id.substring(1);
-		}
-		
-		return indexArray;
-	}
-	
 	/**
 	 * Print out the UI hierarchy for quick examination in the console.
 	 * @param node Node to begin traversing from.
@@ -921,6 +971,44 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	 * @return UIViewTreeNode with that ID, or null if not found.
 	 */
 	private UIViewTreeNode getNodeAtID(String id) {
+		
+		UIViewPathIndex index = getCurrentPathIndex();
+		
+		if (index == null) {
+			return null;
+		}
+		
+		int[] path = index.resolveUniqueID(id);
+		
+		if (path == null) {
+			return null;
+		}
+		
+		return getNodeAtPath(path, path.length);
+	}
+	
+	/**
+	 * Get the node at the start of a path. Be sure to request the root node
+	 * again after calling this function as this function may perform 
+	 * scrolling operations in attempt to locate the view requested.
+	 * @param indexArray Index values from the root node down.
+	 * @param length Number of index values of the path to use.
+	 * @return UIViewTreeNode at that path, or null if not found.
+	 */
+	private UIViewTreeNode getNodeAtPath(int[] indexArray, int length) {
+		
+		UIViewPathIndex index = getCurrentPathIndex();
+		
+		if (index == null) {
+			return null;
+		}
+		
+		// Most of the time the node is on screen and found straight away.
+		UIViewTreeNode node = index.getNode(indexArray, length);
+		
+		if (node != null) {
+			return node;
+		}
 
 		// The index array contains expected index values. This does not mean
 		// we can reference the child by this index. We actually need to compare
@@ -932,12 +1020,10 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 		// view. If the index is greater than the last child's index, we know
 		// that the view needs to be scrolled down or to the left to bring it
 		// into view.
-		int[] indexArray = convertIdToIndexArray(id);
-		
-		UIViewTreeNode node = getRootNode();
+		node = getRootNode();
 		
 		// Start at one, because, we are already at the root node.
-		for (int i = 1; i < indexArray.length; i++) {
+		for (int i = 1; i < length; i++) {
 			
 			if (node == null) {
 				return null;
@@ -959,7 +1045,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				if (scrollParent.getClassReference().trim().equals("android.widget.HorizontalScrollView")) {
 					if (node.getClickableCenter().x > getRootNode().getWidth()/2) {
 						// Scroll to the left
-						node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.LEFT);
+						node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.LEFT);
 						if (node == null) {
 							return null;
 						} else {
@@ -967,7 +1053,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 						}
 					} else {
 						// Scroll to the right
-						node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.RIGHT);
+						node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.RIGHT);
 						if (node == null) {
 							return null;
 						} else {
@@ -977,7 +1063,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				} else {
 					if (node.getClickableCenter().y > getRootNode().getWidth()/2) {
 						// Scroll up
-						node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.UP);
+						node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.UP);
 						if (node == null) {
 							return null;
 						} else {
@@ -985,7 +1071,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 						}
 					} else {
 						// Scroll down
-						node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.DOWN);
+						node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.DOWN);
 						if (node == null) {
 							return null;
 						} else {
@@ -1005,14 +1091,14 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				
 				// Scroll according to the class implementation.
 				if (scrollParent.getClassReference().trim().equals("android.widget.HorizontalScrollView")) {
-					node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.RIGHT);
+					node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.RIGHT);
 					if (node == null) {
 						return null;
 					} else {
 						continue;
 					}
 				} else {
-					node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.DOWN);
+					node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.DOWN);
 					if (node == null) {
 						return null;
 					} else {
@@ -1030,14 +1116,14 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				
 				// Scroll according to the class implementation.
 				if (scrollParent.getClassReference().trim().equals("android.widget.HorizontalScrollView")) {
-					node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.LEFT);
+					node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.LEFT);
 					if (node == null) {
 						return null;
 					} else {
 						continue;
 					}
 				} else {
-					node = dragToIndex(node, node.getUniqueID()+indexArray[i], DRAG_DIRECTION.UP);
+					node = dragToIndex(node, indexArray, i + 1, DRAG_DIRECTION.UP);
 					if (node == null) {
 						return null;
 					} else {
@@ -1067,19 +1153,21 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 	}
 	
 	/**
-	 * Drag the nearest scrollable UI element in order to uncover the view with
-	 * the specified unique ID. Choose a drag direction to scroll in. If the
+	 * Drag the nearest scrollable UI element in order to uncover the view at
+	 * the specified path. Choose a drag direction to scroll in. If the
 	 * view isn't found the loop will exit once the new hierarchy matches the
 	 * previous side pocketed one.
 	 * @param nodeWithExpectedChild The view node with the child we are trying
-	 * to find by unique ID.
-	 * @param uniqueIDToFind Unique ID of child to find.
+	 * to find by path.
+	 * @param pathToFind Path of the child to find.
+	 * @param length Number of index values of the path to use.
 	 * @param dragDirection Direction to drag in when looking.
-	 * @return UIViewTreeNode matching the unique ID, or null if not found.
+	 * @return UIViewTreeNode matching the path, or null if not found.
 	 */
 	private UIViewTreeNode dragToIndex(
 			UIViewTreeNode nodeWithExpectedChild, 
-			String uniqueIDToFind, 
+			int[] pathToFind, 
+			int length, 
 			DRAG_DIRECTION dragDirection) {
 
 		UIViewTreeNode sidepocketedRootNode = getRootNode();
@@ -1129,8 +1217,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 			// check if the drag effected any change. If it did, search for the
 			// ID. Continue to loop until drag events effect no change in the
 			// hierarchy.
-			dumpUIHierarchy();
-			waitForNewRootNode();
+			invalidateUIHierarchy();
 			
 			// If there was no change to the hierarchy, then there was nothing left
 			// to try and find. Return null.
@@ -1140,7 +1227,7 @@ public class UIViewTreeManager implements ThreadedUIViewTreeParserListener {
 				sidepocketedRootNode = getRootNode();
 			}
 			
-			UIViewTreeNode tmpNode = getNodeAtID(uniqueIDToFind);
+			UIViewTreeNode tmpNode = getNodeAtPath(pathToFind, length);
 			
 			if (tmpNode != null) {
 				if (!isViewOccluded(tmpNode, getRootNode())) {
@@ -21,13 +21,14 @@
  * 
  * Description: 
  * Data representation of a UIViewTreeNode. UIViewTreeNode are the data 
- * encapsulation of an individual node in the UIAutomation dump file.
+ * encapsulation of an individual node in the UIAutomation dump file. The data
+ * itself lives in the UIViewSnapshot of the dump, a node only holds its 
+ * handle into that snapshot.
  */
 
 package com.ebay.testdemultiplexer.uiautomator;
 
 import java.awt.Point;
-import java.util.ArrayList;
 
 public class UIViewTreeNode {
 	
@@ -85,178 +86,21 @@ public class UIViewTreeNode {
 	/** XML attribute flag : bounds */
 	public static final String U_BOUNDS = "bounds";
 
-	/** Flag for Not Accessibility Friendly (NAF). */
-	private boolean NAF;
+	/** Snapshot holding the data of the node. */
+	private final UIViewSnapshot snapshot;
 	
-	/** Child index value. */
-	private int index;
-	
-	/** 
-	 * The unique ID is the combination of all of the indexes from root node to
-	 * this node. For example, 00120 is a valid ID.
-	 */
-	private String uniqueID;
-	
-	/**
-	 * Text data stored in node.
-	 */
-	private String text;
-	
-	/**
-	 * Class implmentation for the node.
-	 */
-	private String classReference;
-	
-	/**
-	 * Package name for the application under test.
-	 */
-	private String packageName;
-	
-	/**
-	 * Accessibility content description field.
-	 */
-	private String contentDescription;
-	
-	/**
-	 * Flag for checkable.
-	 */
-	private boolean isCheckable;
-	
-	/**
-	 * Flag for if checked.
-	 */
-	private boolean isChecked;
-	
-	/**
-	 * Flag for is clickable.
-	 */
-	private boolean isClickable;
-	
-	/**
-	 * Flag for is enabled.
-	 */
-	private boolean isEnabled;
-	
-	/**
-	 * Flag for is focusable.
-	 */
-	private boolean isFocusable;
-	
-	/**
-	 * Flag for is focused.
-	 */
-	private boolean isFocused;
-	
-	/**
-	 * Flag for is scrollable.
-	 */
-	private boolean isScrollable;
-	
-	/**
-	 * Flag for is long clickable.
-	 */
-	private boolean isLongClickable;
-	
-	/**
-	 * Flag for is password field.
-	 */
-	private boolean isPasswordField;
-	
-	/**
-	 * Flag for is selected.
-	 */
-	private boolean isSelected;
-	
-	/**
-	 * Top left bounds coordinate.
-	 */
-	private Point topLeftBounds;
-	
-	/**
-	 * Bottom right bounds coordinate.
-	 */
-	private Point bottomRightBounds;
-	
-	/**
-	 * Reference to parent node.
-	 */
-	private UIViewTreeNode parent;
-	
-	/**
-	 * Reference to all children nodes.
-	 */
-	private ArrayList<UIViewTreeNode> children;
+	/** Handle of the node in the snapshot. */
+	private final int handle;
 
 	/**
-	 * Creates a new UIViewTreeNode. Data should be generated from UIAutomation
-	 * calls.
-	 * @param NAF Not Automation Friendly Flag
-	 * @param index Index value
-	 * @param uniqueID Unique ID generated from index values back to root node
-	 * @param text Text value
-	 * @param classReference Class reference
-	 * @param packageName Package name for activity
-	 * @param contentDescription Content description for node
-	 * @param isCheckable Is checkable flag
-	 * @param isChecked Is checked flag
-	 * @param isClickable Is clickable flag
-	 * @param isEnabled Is enabled flag
-	 * @param isFocusable Is focusable flag
-	 * @param isFocused Is focused flag
-	 * @param isScrollable Is scrollable flag
-	 * @param isLongClickable Is long clickable flag
-	 * @param isPasswordField Is password field flag
-	 * @param isSelected Is selected flag
-	 * @param topLeftX Top left bounds X coordinate
-	 * @param topLeftY Top left bounds Y cooridnate
-	 * @param bottomRightX Bottom right bounds X coordiante
-	 * @param bottomRightY Bottom right bounds Y coordinate
-	 */
-	public UIViewTreeNode(
-			boolean NAF, 
-			int index, 
-			String uniqueID, 
-			String text, 
-			String classReference, 
-			String packageName, 
-			String contentDescription, 
-			boolean isCheckable, 
-			boolean isChecked, 
-			boolean isClickable,
-			boolean isEnabled,
-			boolean isFocusable,
-			boolean isFocused,
-			boolean isScrollable,
-			boolean isLongClickable,
-			boolean isPasswordField,
-			boolean isSelected,
-			int topLeftX,
-			int topLeftY,
-			int bottomRightX,
-			int bottomRightY) {
-		
-		this.NAF = NAF;
-		this.index = index;
-		this.uniqueID = uniqueID;
-		this.text = text;
-		this.classReference = classReference;
-		this.packageName = packageName;
-		this.contentDescription = contentDescription;
-		this.isCheckable = isCheckable;
-		this.isChecked = isChecked;
-		this.isClickable = isClickable;
-		this.isEnabled = isEnabled;
-		this.isFocusable = isFocusable;
-		this.isFocused = isFocused;
-		this.isScrollable = isScrollable;
-		this.isLongClickable = isLongClickable;
-		this.isPasswordField = isPasswordField;
-		this.isSelected = isSelected;
-		this.topLeftBounds = new Point(topLeftX, topLeftY);
-		this.bottomRightBounds = new Point(bottomRightX, bottomRightY);
-		
-		parent = null;
-		children = new ArrayList<UIViewTreeNode>();
+	 * Creates a view of a node of a snapshot. Use UIViewSnapshot.getNode() 
+	 * so there is a single view per node.
+	 * @param snapshot Snapshot holding the node data
+	 * @param handle Handle of the node in the snapshot
+	 */
+	UIViewTreeNode(UIViewSnapshot snapshot, int handle) {
+		this.snapshot = snapshot;
+		this.handle = handle;
 	}
 	
 	/* (non-Javadoc)
@@ -272,86 +116,81 @@ public class UIViewTreeNode {
 		
 		UIViewTreeNode node = (UIViewTreeNode) obj;
 		
-		if (!node.getUniqueID().equals(uniqueID)) {
-			return false;
-		} else if (node.getIndex() != index) {
-			return false;
-		} else if (node.isCheckable != isCheckable) {
-			return false;
-		} else if (node.isChecked != isChecked) {
-			return false;
-		} else if (node.isClickable != isClickable) {
-			return false;
-		} else if (node.isEnabled != isEnabled) {
-			return false;
-		} else if (node.isFocusable != isFocusable) {
-			return false;
-		} else if (node.isFocused != isFocused) {
-			return false;
-		} else if (node.isLongClickable != isLongClickable) {
+		if (node == this) {
+			return true;
+		} else if (!hasSamePath(node)) {
 			return false;
-		} else if (node.isPasswordField != isPasswordField) {
+		} else if (node.getFlags() != getFlags()) {
 			return false;
-		} else if (node.isScrollable != isScrollable) {
+		} else if (!isSameString(node.getText(), getText())) {
 			return false;
-		} else if (node.isSelected != isSelected) {
+		} else if (!isSameString(
+				node.getClassReference(), getClassReference())) {
 			return false;
-		} else if (node.NAF != NAF) {
+		} else if (!isSameString(node.getPackageName(), getPackageName())) {
 			return false;
-		} else if (!node.text.equals(text)) {
+		} else if (!isSameString(
+				node.getContentDescription(), getContentDescription())) {
 			return false;
-		} else if (!node.classReference.equals(classReference)) {
-			return false;
-		} else if (!node.packageName.equals(packageName)) {
-			return false;
-		} else if (!node.contentDescription.equals(contentDescription)) {
-			return false;
-		} else if (!node.topLeftBounds.equals(topLeftBounds)) {
-			return false;
-		} else if (!node.bottomRightBounds.equals(bottomRightBounds)) {
+		} else if (node.getLeft() != getLeft() || 
+				node.getTop() != getTop() || 
+				node.getRight() != getRight() || 
+				node.getBottom() != getBottom()) {
 			return false;
 		}
 		
 		return true;
 	}
 	
-	/**
-	 * Set the parent node.
-	 * @param parent Parent node.
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
 	 */
-	public void setParent(UIViewTreeNode parent) {
-		this.parent = parent;
+	@Override
+	public int hashCode() {
+		long hash = getNodeHash();
+		return (int) (hash ^ (hash >>> 32));
 	}
 	
 	/**
-	 * Get the parent node.
-	 * @return Parent node.
+	 * Get the snapshot holding the data of this node.
+	 * @return Snapshot of the dump this node is from.
 	 */
-	public UIViewTreeNode getParent() {
-		return parent;
+	public UIViewSnapshot getSnapshot() {
+		return snapshot;
 	}
 	
 	/**
-	 * Add a child.
-	 * @param child Child to add.
+	 * Get the handle of this node in its snapshot.
+	 * @return Node handle.
 	 */
-	public void addChild(UIViewTreeNode child) {
-		this.children.add(child);
+	public int getHandle() {
+		return handle;
 	}
 	
 	/**
-	 * Remove a specific child.
-	 * @param child Child to remove from list of children.
+	 * Get the parent node.
+	 * @return Parent node.
 	 */
-	public void removeChild(UIViewTreeNode child) {
-		this.children.remove(child);
+	public UIViewTreeNode getParent() {
+		
+		int parent = snapshot.getParent(handle);
+		
+		if (parent == UIViewSnapshot.NO_NODE) {
+			return null;
+		}
+		
+		return snapshot.getNode(parent);
 	}
 	
 	/**
-	 * Remove all children.
+	 * See if this node is a descendant of another node, or the node itself.
+	 * @param node Possible ancestor. Can be null.
+	 * @return True if this node is in the subtree of the node, false 
+	 * otherwise or if the nodes are from different dumps.
 	 */
-	public void removeChildren() {
-		this.children.clear();
+	public boolean isDescendantOf(UIViewTreeNode node) {
+		return node != null && node.snapshot == snapshot && 
+				snapshot.isInSubtree(handle, node.handle);
 	}
 	
 	/**
@@ -359,7 +198,7 @@ public class UIViewTreeNode {
 	 * @return Number of children.
 	 */
 	public int getNumberOfChildren() {
-		return children.size();
+		return snapshot.getNumberOfChildren(handle);
 	}
 	
 	/**
@@ -368,7 +207,7 @@ public class UIViewTreeNode {
 	 * @return Child at specified index.
 	 */
 	public UIViewTreeNode getChildAtIndex(int index) {
-		return children.get(index);
+		return snapshot.getNode(snapshot.getChild(handle, index));
 	}
 	
 	/**
@@ -378,9 +217,10 @@ public class UIViewTreeNode {
 	 * found.
 	 */
 	public UIViewTreeNode getChildWithIndex(int index) {
-		for (int i = children.size()-1; i >= 0; i--) {
-			if (children.get(i).getIndex() == index) {
-				return children.get(i);
+		for (int i = getNumberOfChildren()-1; i >= 0; i--) {
+			int child = snapshot.getChild(handle, i);
+			if (snapshot.getIndex(child) == index) {
+				return snapshot.getNode(child);
 			}
 		}
 		return null;
@@ -391,7 +231,7 @@ public class UIViewTreeNode {
 	 * @return True if Not Accessibility Friendly, false otherwise.
 	 */
 	public boolean getNAF() {
-		return NAF;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_NAF);
 	}
 	
 	/**
@@ -400,17 +240,99 @@ public class UIViewTreeNode {
 	 * @return Node index.
 	 */
 	public int getIndex() {
-		return index;
+		return snapshot.getIndex(handle);
 	}
 
 	/**
 	 * Get the unique ID for this node. The unique ID is an accumulation of
-	 * the index values from the root node to this node. For example, 00120
+	 * the index values from the root node to this node. For example, 0.1.12
 	 * would be a valid ID and is unique in the hierarchy.
 	 * @return Unique ID.
 	 */
 	public String getUniqueID() {
-		return uniqueID;
+		return UIViewPathIndex.toUniqueID(getPath());
+	}
+	
+	/**
+	 * Get the index values from the root node down to this node.
+	 * @return Path of the node.
+	 */
+	public int[] getPath() {
+		
+		int[] path = new int[getDepth() + 1];
+		int node = handle;
+		
+		for (int i = path.length - 1; i >= 0; i--) {
+			path[i] = snapshot.getIndex(node);
+			node = snapshot.getParent(node);
+		}
+		
+		return path;
+	}
+	
+	/**
+	 * Get the depth of this node in the hierarchy.
+	 * @return Depth, 0 for the root node.
+	 */
+	public int getDepth() {
+		return snapshot.getDepth(handle);
+	}
+	
+	/**
+	 * Get the index value of this node or one of its parents.
+	 * @param depth Depth of the node, from 0 for the root node up to 
+	 * getDepth() for this node.
+	 * @return Index value at that depth of the path.
+	 */
+	public int getIndexAtDepth(int depth) {
+		return snapshot.getIndexAtDepth(handle, depth);
+	}
+	
+	/**
+	 * See if another node is at the same path, such as the same view in 
+	 * another dump.
+	 * @param node Node to compare with.
+	 * @return True if both nodes have the same path, false otherwise.
+	 */
+	public boolean hasSamePath(UIViewTreeNode node) {
+		return UIViewSnapshot.haveSamePath(
+				snapshot, handle, node.snapshot, node.handle);
+	}
+	
+	/**
+	 * Get the content hash of this node on its own, without its bounds or
+	 * children.
+	 * @return Node hash, see UIViewSnapshot.
+	 */
+	public long getNodeHash() {
+		return snapshot.getNodeHash(handle);
+	}
+	
+	/**
+	 * Get the structure hash of the subtree of this node. Equal across dumps
+	 * and devices as long as the same views are laid out in the same order.
+	 * @return Structure hash, see UIViewSnapshot.
+	 */
+	public long getStructureHash() {
+		return snapshot.getStructureHash(handle);
+	}
+	
+	/**
+	 * Get the content hash of the subtree of this node. Equal across devices
+	 * showing the same screen, whatever their screen size.
+	 * @return Content hash, see UIViewSnapshot.
+	 */
+	public long getContentHash() {
+		return snapshot.getContentHash(handle);
+	}
+	
+	/**
+	 * Get the layout hash of the subtree of this node. Changes whenever 
+	 * anything in the subtree changes, including a scroll.
+	 * @return Layout hash, see UIViewSnapshot.
+	 */
+	public long getLayoutHash() {
+		return snapshot.getLayoutHash(handle);
 	}
 	
 	/**
@@ -418,7 +340,7 @@ public class UIViewTreeNode {
 	 * @return Text for this node.
 	 */
 	public String getText() {
-		return text;
+		return snapshot.getText(handle);
 	}
 	
 	/**
@@ -426,7 +348,7 @@ public class UIViewTreeNode {
 	 * @return Class reference for this node.
 	 */
 	public String getClassReference() {
-		return classReference;
+		return snapshot.getClassReference(handle);
 	}
 	
 	/**
@@ -434,7 +356,7 @@ public class UIViewTreeNode {
 	 * @return Package name of running activity.
 	 */
 	public String getPackageName() {
-		return packageName;
+		return snapshot.getPackageName(handle);
 	}
 	
 	/**
@@ -442,7 +364,15 @@ public class UIViewTreeNode {
 	 * @return Content description for node.
 	 */
 	public String getContentDescription() {
-		return contentDescription;
+		return snapshot.getContentDescription(handle);
+	}
+	
+	/**
+	 * Get all of the flags of this node at once.
+	 * @return UIViewSnapshot FLAG_ bits.
+	 */
+	public int getFlags() {
+		return snapshot.getFlags(handle);
 	}
 	
 	/**
@@ -450,7 +380,7 @@ public class UIViewTreeNode {
 	 * @return True if checkable, false otherwise.
 	 */
 	public boolean getIsCheckable() {
-		return isCheckable;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_CHECKABLE);
 	}
 	
 	/**
@@ -458,7 +388,7 @@ public class UIViewTreeNode {
 	 * @return True if checked, false otherwise.
 	 */
 	public boolean getIsChecked() {
-		return isChecked;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_CHECKED);
 	}
 	
 	/**
@@ -466,7 +396,7 @@ public class UIViewTreeNode {
 	 * @return True if clickable, false otherwise.
 	 */
 	public boolean getIsClickable() {
-		return isClickable;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_CLICKABLE);
 	}
 	
 	/**
@@ -474,7 +404,7 @@ public class UIViewTreeNode {
 	 * @return True if enabled, false otherwise.
 	 */
 	public boolean getIsEnabled() {
-		return isEnabled;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_ENABLED);
 	}
 	
 	/**
@@ -482,7 +412,7 @@ public class UIViewTreeNode {
 	 * @return True if focusable, false otherwise.
 	 */
 	public boolean getIsFocusable() {
-		return isFocusable;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_FOCUSABLE);
 	}
 	
 	/**
@@ -490,7 +420,7 @@ public class UIViewTreeNode {
 	 * @return True if focused, false otherwise.
 	 */
 	public boolean getIsFocused() {
-		return isFocused;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_FOCUSED);
 	}
 	
 	/**
@@ -498,7 +428,7 @@ public class UIViewTreeNode {
 	 * @return True if scrollable, false otherwise.
 	 */
 	public boolean getIsScrollable() {
-		return isScrollable;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_SCROLLABLE);
 	}
 	
 	/**
@@ -506,7 +436,7 @@ public class UIViewTreeNode {
 	 * @return True if long clickable, false otherwise.
 	 */
 	public boolean getIsLongClickable() {
-		return isLongClickable;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_LONG_CLICKABLE);
 	}
 	
 	/**
@@ -514,7 +444,7 @@ public class UIViewTreeNode {
 	 * @return True if password field, false otherwise.
 	 */
 	public boolean getIsPasswordField() {
-		return isPasswordField;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_PASSWORD);
 	}
 	
 	/**
@@ -522,23 +452,55 @@ public class UIViewTreeNode {
 	 * @return True if selected, false otherwise.
 	 */
 	public boolean getIsSelected() {
-		return isSelected;
+		return snapshot.hasFlag(handle, UIViewSnapshot.FLAG_SELECTED);
+	}
+	
+	/**
+	 * Get the left edge of the node.
+	 * @return Left bounds X coordinate.
+	 */
+	public int getLeft() {
+		return snapshot.getLeft(handle);
+	}
+	
+	/**
+	 * Get the top edge of the node.
+	 * @return Top bounds Y coordinate.
+	 */
+	public int getTop() {
+		return snapshot.getTop(handle);
+	}
+	
+	/**
+	 * Get the right edge of the node.
+	 * @return Right bounds X coordinate.
+	 */
+	public int getRight() {
+		return snapshot.getRight(handle);
+	}
+	
+	/**
+	 * Get the bottom edge of the node.
+	 * @return Bottom bounds Y coordinate.
+	 */
+	public int getBottom() {
+		return snapshot.getBottom(handle);
 	}
 	
 	/**
 	 * Get the top left bounds coordinate.
-	 * @return Top left bounds coordinate.
+	 * @return New point at the top left bounds coordinate.
 	 */
 	public Point getTopLeftBounds() {
-		return topLeftBounds;
+		return new Point(getLeft(), getTop());
 	}
 
 	/**
 	 * Get the bottom right bounds coordinate.
-	 * @return Bottom right bounds coordinate.
+	 * @return New point at the bottom right bounds coordinate.
 	 */
 	public Point getBottomRightBounds() {
-		return bottomRightBounds;
+		return new Point(getRight(), getBottom());
 	}
 	
 	/**
@@ -546,7 +508,7 @@ public class UIViewTreeNode {
 	 * @return Width of the node.
 	 */
 	public int getWidth() {
-		return (bottomRightBounds.x - topLeftBounds.x);
+		return (getRight() - getLeft());
 	}
 	
 	/**
@@ -554,7 +516,7 @@ public class UIViewTreeNode {
 	 * @return height of the node.
 	 */
 	public int getHeight() {
-		return (bottomRightBounds.y - topLeftBounds.y);
+		return (getBottom() - getTop());
 	}
 	
 	/**
@@ -563,8 +525,8 @@ public class UIViewTreeNode {
 	 */
 	public Point getCenter() {
 		return new Point(
-				topLeftBounds.x + getWidth()/2, 
-				topLeftBounds.y + getHeight()/2);
+				getLeft() + getWidth()/2, 
+				getTop() + getHeight()/2);
 	}
 	
 	/**
@@ -573,28 +535,29 @@ public class UIViewTreeNode {
 	 */
 	public Point getClickableCenter() {
 		
-		UIViewTreeNode root = this;
-		
-		while (root.getParent() != null) {
-			root = root.getParent();
-		}
-		
-		int maxWidth = root.getWidth();
-		int maxHeight = root.getHeight();
-		
-		Point newTopLeftPoint = new Point(topLeftBounds);
-		Point newBottomRightPoint = new Point(bottomRightBounds);
-		
-		newTopLeftPoint.x = Math.max(Math.min(newTopLeftPoint.x, maxWidth), 0);
-		newTopLeftPoint.y = Math.max(Math.min(newTopLeftPoint.y, maxHeight), 0);
+		// The root node is always the first node of the snapshot.
+		int maxWidth = snapshot.getRight(0) - snapshot.getLeft(0);
+		int maxHeight = snapshot.getBottom(0) - snapshot.getTop(0);
 		
-		newBottomRightPoint.x = Math.max(Math.min(newBottomRightPoint.x, maxWidth), 0);
-		newBottomRightPoint.y = Math.max(Math.min(newBottomRightPoint.y, maxHeight), 0);
+		int left = Math.max(Math.min(getLeft(), maxWidth), 0);
+		int top = Math.max(Math.min(getTop(), maxHeight), 0);
+		int right = Math.max(Math.min(getRight(), maxWidth), 0);
+		int bottom = Math.max(Math.min(getBottom(), maxHeight), 0);
 		
-		Point newCenterPoint = new Point(
-				(newBottomRightPoint.x - newTopLeftPoint.x)/2 + newTopLeftPoint.x, 
-				(newBottomRightPoint.y - newTopLeftPoint.y)/2 + newTopLeftPoint.y);
-		
-		return newCenterPoint;
+		return new Point((right - left)/2 + left, (bottom - top)/2 + top);
+	}
+	
+	// -------------------------------------------------------------------------
+	// Private methods
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Compare two strings that can be null.
+	 * @param a First string.
+	 * @param b Second string.
+	 * @return True if both are null or equal.
+	 */
+	private static boolean isSameString(String a, String b) {
+		return a == b || (a != null && a.equals(b));
 	}
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2012-2013 eBay Software Foundation - All Rights Reserved
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+ * ============================================================================
+ * 
+ * Class: MessageDisplay
+ * 
+ * Description: 
+ * Shows error and warning messages to the user. Uses a JOptionPane dialog when
+ * a display is available and prints to the console when running headless, so
+ * code shared by the GUI and the headless runner can report problems either 
+ * way.
+ */
+
+package com.ebay.testdemultiplexer.util;
+
+import java.awt.GraphicsEnvironment;
+
+import javax.swing.JOptionPane;
+
+public class MessageDisplay {
+	
+	/**
+	 * Private constructor, static methods only.
+	 */
+	private MessageDisplay() {
+	}
+	
+	/**
+	 * Show a message to the user.
+	 * @param message Message to show.
+	 * @param title Title of the message.
+	 * @param messageType JOptionPane message type, for example 
+	 * JOptionPane.ERROR_MESSAGE.
+	 */
+	public static void showMessage(
+			String message, String title, int messageType) {
+		
+		if (GraphicsEnvironment.isHeadless()) {
+			System.out.println(title + ": " + message);
+			return;
+		}
+		
+		JOptionPane.showMessageDialog(null, message, title, messageType);
+	}
+}